@@ -0,0 +1,191 @@
+package backend;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Measures the backup, sync, restore, logging and login hot paths against a generated file tree.
+ * Reports throughput in files/s and MB/s so runs before and after a change can be compared.
+ *
+ * Arguments are key=value pairs, all optional:
+ *   shape=tiny|huge|deep  files=N  size=BYTES  depth=N  iterations=N  warmup=N  dir=PATH
+ */
+public class Benchmark {
+
+    private static final String USER = "benchmark";
+
+    /**
+     * A step of a benchmark that can fail with an IOException
+     */
+    private interface Action {
+        void run() throws IOException;
+    }
+
+    private final int iterations;
+    private final int warmup;
+
+    /**
+     * Custom constructor
+     * @param iterations - measured runs of every benchmark
+     * @param warmup - unmeasured runs before the measured ones, to let the JIT compiler warm up
+     */
+    private Benchmark(int iterations, int warmup) {
+        this.iterations = iterations;
+        this.warmup = warmup;
+    }
+
+    /**
+     * Runs all the benchmarks
+     * @param args - key=value arguments, see the class comment
+     * @throws IOException - If a file cannot be read / written
+     */
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            String[] pair = arg.split("=", 2);
+            options.put(pair[0], pair.length > 1 ? pair[1] : "");
+        }
+
+        FileTreeGenerator.Shape shape = FileTreeGenerator.Shape.valueOf(options.getOrDefault("shape", "tiny").toUpperCase());
+        int files = Integer.parseInt(options.getOrDefault("files", shape == FileTreeGenerator.Shape.HUGE ? "3"
+                : shape == FileTreeGenerator.Shape.DEEP ? "2000" : "10000"));
+        long size = Long.parseLong(options.getOrDefault("size", shape == FileTreeGenerator.Shape.HUGE ? String.valueOf(256L * 1024 * 1024)
+                : shape == FileTreeGenerator.Shape.DEEP ? "16384" : "4096"));
+        int depth = Integer.parseInt(options.getOrDefault("depth", "40"));
+        Path root = Paths.get(options.getOrDefault("dir", System.getProperty("java.io.tmpdir") + File.separator + "backup-benchmark"));
+
+        // everything the application writes goes under the user's home, so point it at the benchmark directory.
+        // has to happen before the Logger and Authentication classes are loaded.
+        FileUtils.deleteDirectory(root.toFile());
+        System.setProperty("user.home", root.resolve("home").toString());
+
+        Path devicePath = root.resolve("device");
+        long bytes = new FileTreeGenerator(1).generate(devicePath, shape, files, size, depth);
+        System.out.println("Generated " + shape + " tree: " + files + " files, " + (bytes / (1024 * 1024)) + " MB");
+
+        Benchmark benchmark = new Benchmark(Integer.parseInt(options.getOrDefault("iterations", "3")),
+                Integer.parseInt(options.getOrDefault("warmup", "1")));
+        benchmark.runFileBenchmarks(devicePath, files, bytes);
+        benchmark.runLogBenchmark(100000);
+        benchmark.runLoginBenchmark(20);
+
+        FileUtils.deleteDirectory(root.toFile());
+    }
+
+    /**
+     * Benchmarks backing up, restoring and syncing the generated tree
+     * @param devicePath - generated tree
+     * @param files - amount of files in the tree
+     * @param bytes - total size of the tree
+     * @throws IOException - If a file cannot be read / written
+     */
+    private void runFileBenchmarks(Path devicePath, long files, long bytes) throws IOException {
+        Device device = new Device(devicePath.toString(), "benchmark");
+        BackupManager backupManager = new BackupManager(USER);
+        Path home = Paths.get(System.getProperty("user.home"), "Desktop");
+
+        measure("backup", "files", files, bytes,
+                () -> FileUtils.deleteDirectory(home.resolve("backups").toFile()),
+                () -> backupManager.createBackup(device));
+
+        measure("incremental", "files", files, bytes,
+                () -> { },
+                () -> backupManager.createBackup(device, true));
+
+        measure("restore", "files", files, bytes,
+                () -> FileUtils.deleteDirectory(devicePath.resolve("restore").toFile()),
+                () -> backupManager.restore(device.getPath()));
+        FileUtils.deleteDirectory(devicePath.resolve("restore").toFile());
+
+        measure("sync (cold)", "files", files, bytes,
+                () -> {
+                    FileUtils.deleteDirectory(home.resolve("syncs").toFile());
+                    FileUtils.deleteDirectory(home.resolve("manifests").toFile());
+                },
+                () -> backupManager.synchronise(device));
+
+        measure("sync (warm)", "files", files, bytes,
+                () -> { },
+                () -> backupManager.synchronise(device));
+    }
+
+    /**
+     * Benchmarks writing lines to the log
+     * @param lines - lines written per run
+     * @throws IOException - If the log cannot be written
+     */
+    private void runLogBenchmark(int lines) throws IOException {
+        measure("log", "lines", lines, 0,
+                () -> { },
+                () -> {
+                    for (int i = 0; i < lines; i++) {
+                        Logger.addToLog(USER, "Backed up file benchmark line " + i);
+                    }
+                    // the time only counts once every line is on disk
+                    Logger.flush();
+                });
+    }
+
+    /**
+     * Benchmarks logging in
+     * @param logins - log ins per run
+     * @throws IOException - If the vault cannot be read / written
+     */
+    private void runLoginBenchmark(int logins) throws IOException {
+        Authentication auth = new Authentication();
+        String password = "@aa1234567@@";
+        auth.register(USER, password);
+        measure("login", "logins", logins, 0,
+                () -> { },
+                () -> {
+                    for (int i = 0; i < logins; i++) {
+                        if (auth.logIn(USER, password) != 1) {
+                            throw new IOException("Benchmark log in failed");
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Runs a benchmark and prints its throughput
+     * @param name - name of the benchmark
+     * @param unit - what the items are, e.g. files
+     * @param items - files, or other items, processed per run
+     * @param bytes - bytes processed per run, 0 if bytes don't apply
+     * @param setup - run before every run, not measured
+     * @param action - the work being measured
+     * @throws IOException - If the benchmark fails
+     */
+    private void measure(String name, String unit, long items, long bytes, Action setup, Action action) throws IOException {
+        for (int i = 0; i < warmup; i++) {
+            setup.run();
+            action.run();
+        }
+
+        long total = 0;
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < iterations; i++) {
+            setup.run();
+            long start = System.nanoTime();
+            action.run();
+            long elapsed = System.nanoTime() - start;
+            total += elapsed;
+            best = Math.min(best, elapsed);
+        }
+
+        double seconds = total / (double) iterations / 1e9;
+        String throughput = String.format("%12.1f %s/s", items / seconds, unit);
+        if (bytes > 0) {
+            throughput += String.format("%10.1f MB/s", bytes / seconds / (1024 * 1024));
+        }
+        System.out.println(String.format("%-14s%s   mean %.1f ms, best %.1f ms over %d runs",
+                name, throughput, seconds * 1000, best / 1e6, iterations));
+    }
+}
@@ -0,0 +1,85 @@
+package backend;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Generates directory trees of files for the benchmarks to back up, sync and restore
+ */
+public class FileTreeGenerator {
+
+    /**
+     * Shapes of file tree that stress different parts of the backup code
+     */
+    public enum Shape {
+        // lots of small files, per-file overhead dominates
+        TINY,
+        // a few very large files, raw copy throughput dominates
+        HUGE,
+        // files spread over deeply nested directories, directory handling dominates
+        DEEP
+    }
+
+    private final Random random;
+
+    /**
+     * Custom constructor
+     * @param seed - seed for the file contents, the same seed always generates the same tree
+     */
+    public FileTreeGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Generates a tree of files
+     * @param root - directory to generate the tree in
+     * @param shape - shape of the tree
+     * @param files - amount of files
+     * @param fileSize - size of every file in bytes
+     * @param depth - how deep the directories are nested, only used by the DEEP shape
+     * @return total amount of bytes generated
+     * @throws IOException - If a file cannot be written
+     */
+    public long generate(Path root, Shape shape, int files, long fileSize, int depth) throws IOException {
+        Files.createDirectories(root);
+        long total = 0;
+        for (int i = 0; i < files; i++) {
+            Path dir = root;
+            if (shape == Shape.DEEP) {
+                // spread the files over every level of the nesting
+                for (int level = 0; level <= i % depth; level++) {
+                    dir = dir.resolve("level" + level);
+                }
+            } else if (shape == Shape.TINY) {
+                // keep directories to a realistic size
+                dir = dir.resolve("dir" + (i / 1000));
+            }
+            Files.createDirectories(dir);
+            writeFile(dir.resolve("file" + i + ".bin"), fileSize);
+            total += fileSize;
+        }
+        return total;
+    }
+
+    /**
+     * Writes a file of random bytes
+     * @param file - file to write
+     * @param size - size of the file in bytes
+     * @throws IOException - If the file cannot be written
+     */
+    private void writeFile(Path file, long size) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(size, 1024 * 1024)];
+        try (OutputStream out = Files.newOutputStream(file)) {
+            long written = 0;
+            while (written < size) {
+                random.nextBytes(buffer);
+                int length = (int) Math.min(buffer.length, size - written);
+                out.write(buffer, 0, length);
+                written += length;
+            }
+        }
+    }
+}
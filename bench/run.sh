@@ -0,0 +1,12 @@
+#!/bin/sh
+# Compiles the backend and the benchmarks against the jars in lib and runs the benchmarks.
+# Any arguments are passed on, for example: ./bench/run.sh shape=huge iterations=5
+cd "$(dirname "$0")/.." || exit 1
+
+CLASSPATH="lib/commons-io-2.6.jar"
+OUT="out/bench"
+
+rm -rf "$OUT"
+mkdir -p "$OUT"
+javac -d "$OUT" -cp "$CLASSPATH" src/backend/*.java bench/backend/*.java || exit 1
+java -cp "$OUT:$CLASSPATH" backend.Benchmark "$@"
@@ -2,11 +2,7 @@ package backend;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
-import java.util.Base64;
-import java.util.List;
 
 
 /**
@@ -14,13 +10,30 @@ import java.util.List;
  */
 public class Authentication implements Auth {
 
-    private final static String SPLITTER = "@@@";
     // path separator used to keep os cross-compatibility
     private final static String vaultPath = System.getProperty("user.home") + File.separator + "Desktop" +  File.separator + "vault.txt";
 
+    // rules for usernames and passwords
+    private final CredentialPolicy policy;
+
+    // log ins take as long as the password hash, which is slow on purpose
+    private static final Metrics.Histogram logInTime = Metrics.histogram("auth.login");
+    private static final Metrics.Counter logIns = Metrics.counter("auth.logins");
+    private static final Metrics.Counter failedLogIns = Metrics.counter("auth.login.failures");
+    private static final Metrics.Counter registrations = Metrics.counter("auth.registrations");
+    private static final Metrics.Counter authErrors = Metrics.counter("auth.errors");
+
     // default constructor
     public Authentication() {
+        this(new CredentialPolicy());
+    }
 
+    /**
+     * Custom constructor
+     * @param policy - rules usernames and passwords have to follow when registering
+     */
+    public Authentication(CredentialPolicy policy) {
+        this.policy = policy;
     }
 
     /**
@@ -30,9 +43,29 @@ public class Authentication implements Auth {
      * @return -1 for an error, 0 for username / password mismatch, 1 for success, 2 for user doesn't exits
      */
     public int logIn(String username, String password){
+        long start = System.nanoTime();
+        try {
+            int result = checkLogIn(username, password);
+            if (result == 1) {
+                logIns.increment();
+            } else if (result == -1) {
+                authErrors.increment();
+            } else {
+                failedLogIns.increment();
+            }
+            return result;
+        } finally {
+            logInTime.recordSince(start);
+        }
+    }
 
-        password = encryptPassword(password);
-
+    /**
+     * Checks a user's username and password, see logIn
+     * @param username - user's inputted username
+     * @param password - user's inputted password
+     * @return -1 for an error, 0 for username / password mismatch, 1 for success, 2 for user doesn't exits
+     */
+    private int checkLogIn(String username, String password) {
         try {
             //check user exists
             String[] userAuthenticationInfo = userExists(username);
@@ -43,7 +76,12 @@ public class Authentication implements Auth {
             }
 
             // check if password matches, use index 1 as that represents password
-            if (password.equals(userAuthenticationInfo[1])) {
+            if (PasswordHasher.verify(password, userAuthenticationInfo[1])) {
+                // the password is known to be right here, so old Base64 passwords and hashes with
+                // a lower cost than the current one can be replaced with a new hash
+                if (PasswordHasher.needsRehash(userAuthenticationInfo[1])) {
+                    CredentialStore.open(Paths.get(vaultPath)).put(username, PasswordHasher.hash(password));
+                }
                 // username and password match
                 return 1;
             }
@@ -70,12 +108,12 @@ public class Authentication implements Auth {
             // check if vault exists, create it if it doesn't
             createPasswordVault();
 
-            if (!validateUsername(username)) {
+            if (!policy.validateUsername(username)) {
                 System.out.println("Username must be only letters and numbers");
                 return 2;
             }
 
-            if (!validatePassword(password)) {
+            if (!policy.validatePassword(password)) {
                 System.out.println("Password requires a letter, a number and a special-character. Minimum password length is 8.");
                 return 3;
             }
@@ -86,18 +124,17 @@ public class Authentication implements Auth {
                 return 0;
             }
 
-            // create user-pass string and encrypt the password
-            // apparently "\n" isn't universal for all os' so user System.getProperty("line.separator") instead.
-            String userPassAuth = username + SPLITTER + encryptPassword(password) + System.getProperty("line.separator");
-            // save user authentication details to file
-            Files.write(Paths.get(vaultPath), userPassAuth.getBytes(), StandardOpenOption.APPEND);
+            // hash the password and save user authentication details to the vault
+            CredentialStore.open(Paths.get(vaultPath)).put(username, PasswordHasher.hash(password));
         } catch (IOException ex) {
             System.out.println("Failed to create user due to fault access error");
             ex.printStackTrace();
+            authErrors.increment();
             return -1;
         }
 
         // user registered successfully
+        registrations.increment();
         return 1;
     }
 
@@ -113,75 +150,16 @@ public class Authentication implements Auth {
 
     /**
      * Checks if the user is already registered
+     * The vault is only read the first time, after that users are looked up in the credential store's hash map
      * @param username - username to be checked for existence
      * @return Array of Strings containing 0 - the username, 1 - the password
      * @throws IOException - If a file cannot be read / written
      */
     private String[] userExists(String username) throws IOException {
-        List<String> lines = Files.readAllLines(Paths.get(vaultPath));
-        // Loop over existing users and search for the currently given username
-        for(String userpassPair : lines){
-            String[] userPassInfo = userpassPair.split(SPLITTER);
-            // get the first index of the split, as the first index represents the username
-            if (userPassInfo[0].equals(username))
-                return userPassInfo;
-        }
-        return null;
-    }
-
-    /**
-     * Applies Base64 encryption to the password
-     * @param password - password to be encrypted
-     * @return Base64 encrypted string
-     */
-    private String encryptPassword(String password) {
-        String base64password = Base64.getEncoder().encodeToString(password.getBytes());
-        return base64password;
-    }
-
-    /**
-     * Checks if username is valid, usernames must contain only numbers and letters
-     * @param username - username to be validated
-     * @return boolean if username is valid
-     */
-    private boolean validateUsername(String username) {
-        // use regular expresion to ensure username is only letters and numbers
-        // regex source: https://stackoverflow.com/questions/33467536
-        return username.matches("^[a-zA-Z0-9]+$");
-    }
-
-    /**
-     * Checks if password is long enough
-     * @param password - password to be validated
-     * @return If password is strong enough
-     */
-    private boolean validatePassword(String password) {
-        boolean numbCheck = false;
-        boolean letterCheck = false;
-        boolean specialCharacterCheck = false;
-        boolean lengthCheck = password.length() > 7;
-
-        for(char c: password.toCharArray()) {
-            // Convert char to string and store in variable as its used many times
-            String current = c + "";
-
-            // special char check
-            if (!(current).matches("[\\w\\s]*")) {
-                specialCharacterCheck = true;
-            }
-
-            // number check
-            if (current.matches("\\d+")) {
-                numbCheck = true;
-            }
-
-            // letter check
-            if (current.matches("^[a-zA-Z]*$")) {
-                letterCheck = true;
-            }
+        String password = CredentialStore.open(Paths.get(vaultPath)).get(username);
+        if (password == null) {
+            return null;
         }
-
-        // all 4 booleans have to be true or this will == false
-        return specialCharacterCheck && numbCheck && letterCheck && lengthCheck;
+        return new String[] {username, password};
     }
 }
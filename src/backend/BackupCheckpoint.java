@@ -0,0 +1,102 @@
+package backend;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records which files a running backup has finished, so a backup that is cancelled or crashes can be resumed
+ * without copying those files again. Every so often the files in the snapshot's manifest so far are saved to a
+ * checkpoint file next to where the manifest will be, in the same format as a manifest.
+ * The checkpoint is deleted once the snapshot's manifest has been saved.
+ */
+public class BackupCheckpoint {
+
+    public static final String EXTENSION = ".checkpoint";
+    // least amount of time between two checkpoints, saving one is quick but it finishes a pack segment
+    public static final long DEFAULT_INTERVAL_MILLIS = 30 * 1000;
+
+    private final Path file;
+    private final SnapshotManifest manifest;
+    private final PackWriter packs;
+    private final long intervalMillis;
+    // time the next checkpoint can be saved
+    private final AtomicLong nextSave;
+
+    /**
+     * Custom constructor
+     * @param file - where to save the checkpoint
+     * @param manifest - manifest of the snapshot being created, files are added to it as they are backed up
+     * @param packs - pack segments of the snapshot being created
+     * @param intervalMillis - least amount of time between two checkpoints, 0 or less to never save one on the way
+     */
+    public BackupCheckpoint(Path file, SnapshotManifest manifest, PackWriter packs, long intervalMillis) {
+        this.file = file;
+        this.manifest = manifest;
+        this.packs = packs;
+        this.intervalMillis = intervalMillis;
+        this.nextSave = new AtomicLong(System.currentTimeMillis() + intervalMillis);
+    }
+
+    /**
+     * Called once a file has been backed up, saves a checkpoint if it is time to.
+     * Only one of the worker threads saves it, the others carry on copying.
+     * A checkpoint that can't be saved doesn't stop the backup, it can only be resumed from an earlier checkpoint.
+     */
+    public void fileDone() {
+        if (intervalMillis <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long next = nextSave.get();
+        if (now < next || !nextSave.compareAndSet(next, now + intervalMillis)) {
+            return;
+        }
+
+        try {
+            save();
+        } catch (IOException ex) {
+            // a cancelled backup's interrupted channels fail here too, the final checkpoint is saved afterwards
+            if (!Thread.currentThread().isInterrupted()) {
+                System.out.println("Failed to save backup checkpoint " + file);
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Saves every file backed up so far.
+     * The manifest is copied before the pack segment is finished, so every file in the copy is in a finished segment.
+     * @throws IOException - If the checkpoint or pack segment cannot be written
+     */
+    public synchronized void save() throws IOException {
+        SnapshotManifest done = new SnapshotManifest();
+        for (SnapshotManifest.Entry entry : manifest.getEntries()) {
+            done.add(entry);
+        }
+        packs.checkpoint();
+        done.save(file);
+    }
+
+    /**
+     * Deletes the checkpoint, once the snapshot is complete it isn't needed
+     * @throws IOException - If the checkpoint cannot be deleted
+     */
+    public void delete() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * Loads a checkpoint saved by an interrupted backup
+     * @param file - checkpoint file
+     * @return SnapshotManifest of the files that were backed up, null if there is no checkpoint
+     * @throws IOException - If the checkpoint cannot be read
+     */
+    public static SnapshotManifest load(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        return SnapshotManifest.load(file);
+    }
+}
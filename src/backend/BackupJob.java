@@ -0,0 +1,150 @@
+package backend;
+
+import java.util.Date;
+import java.util.concurrent.Future;
+
+/**
+ * A backup of one device queued on or run by the BackupScheduler
+ */
+public class BackupJob {
+
+    /**
+     * Where the job is in its life
+     */
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        SUCCEEDED,
+        FAILED,
+        CANCELLED
+    }
+
+    private final long id;
+    private final String devicePath;
+    private final boolean incremental;
+    // carries on with the device's interrupted snapshot, if it has one
+    private final boolean resume;
+    private final Date submitted;
+    // the fields below are changed by the job's thread and read by the UI
+    private volatile Status status = Status.QUEUED;
+    private volatile Date started;
+    private volatile Date finished;
+    private volatile String error;
+    private volatile Future<?> future;
+    // latest progress of the backup, null until the backup has planned its work
+    private volatile Progress progress;
+
+    /**
+     * Custom constructor
+     * @param id - number of the job, unique within a scheduler
+     * @param devicePath - path of the device to back up
+     * @param incremental - true to only copy files changed since the latest snapshot
+     */
+    public BackupJob(long id, String devicePath, boolean incremental) {
+        this(id, devicePath, incremental, false);
+    }
+
+    /**
+     * Custom constructor
+     * @param id - number of the job, unique within a scheduler
+     * @param devicePath - path of the device to back up
+     * @param incremental - true to only copy files changed since the latest snapshot
+     * @param resume - true to carry on with the device's latest interrupted snapshot, if there is one
+     */
+    public BackupJob(long id, String devicePath, boolean incremental, boolean resume) {
+        this.id = id;
+        this.devicePath = devicePath;
+        this.incremental = incremental;
+        this.resume = resume;
+        this.submitted = new Date();
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getDevicePath() {
+        return devicePath;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    public boolean isResume() {
+        return resume;
+    }
+
+    public Date getSubmitted() {
+        return submitted;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public Date getStarted() {
+        return started;
+    }
+
+    public Date getFinished() {
+        return finished;
+    }
+
+    /**
+     * Returns why the job failed
+     * @return error message, null unless the job failed
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Returns how the backup is getting on
+     * @return latest Progress, null if the backup hasn't started yet
+     */
+    public Progress getProgress() {
+        return progress;
+    }
+
+    /**
+     * Checks if the job has stopped, whether it succeeded or not
+     * @return true once the job won't run any more
+     */
+    public boolean isDone() {
+        return status == Status.SUCCEEDED || status == Status.FAILED || status == Status.CANCELLED;
+    }
+
+    void setFuture(Future<?> future) {
+        this.future = future;
+    }
+
+    Future<?> getFuture() {
+        return future;
+    }
+
+    void setProgress(Progress progress) {
+        this.progress = progress;
+    }
+
+    void start() {
+        started = new Date();
+        status = Status.RUNNING;
+    }
+
+    void finish(Status status, String error) {
+        this.error = error;
+        this.finished = new Date();
+        this.status = status;
+    }
+
+    @Override
+    public String toString() {
+        String type = resume ? "Resumed" : incremental ? "Incremental" : "Full";
+        String text = "#" + id + " " + type + " backup of " + devicePath + " - " + status;
+        if (status == Status.RUNNING && progress != null) {
+            text += ", " + progress;
+        }
+        return text + (error == null ? "" : ": " + error);
+    }
+}
@@ -1,15 +1,27 @@
 package backend;
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.filefilter.TrueFileFilter;
-
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.text.Format;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Internal implementation of how to backup / sync / restore files
@@ -17,14 +29,98 @@ import java.util.*;
  */
 public class BackupManager {
 
+    // name of the directory holding the chunk store, sits next to the dated snapshots
+    private static final String CHUNK_DIR = "chunks";
+    // name of the directory holding pack segments of small files, sits next to the snapshots
+    private static final String PACK_DIR = "packs";
+    // files smaller than this are packed into segments by default
+    public static final long DEFAULT_PACK_THRESHOLD = 64 * 1024;
+    // name of the directories holding deltas of large files and the signatures of their previous versions
+    private static final String DELTA_DIR = "deltas";
+    private static final String SIGNATURE_DIR = "signatures";
+    // files at least this large are stored as a delta when they change, by default
+    public static final long DEFAULT_DELTA_THRESHOLD = 16 * 1024 * 1024;
+    // restore reports are written next to the restored directory
+    private static final String REPORT_EXTENSION = ".report.txt";
+    // sits next to the restored directory while a restore runs, one left behind means the restore was interrupted
+    private static final String RESTORING_EXTENSION = ".restoring";
+    // lists every snapshot of the user, sits next to the snapshots
+    private static final String CATALOG_FILE = "catalog.txt";
+
+    // what backups, syncs and restores did and how long each part took, see Metrics
+    private static final Metrics.Counter filesBackedUp = Metrics.counter("backup.files");
+    private static final Metrics.Counter filesUnchanged = Metrics.counter("backup.files.unchanged");
+    private static final Metrics.Counter bytesBackedUp = Metrics.counter("backup.bytes");
+    private static final Metrics.Counter backupErrors = Metrics.counter("backup.errors");
+    private static final Metrics.Histogram planTime = Metrics.histogram("backup.phase.plan");
+    private static final Metrics.Histogram walkTime = Metrics.histogram("backup.phase.copy");
+    private static final Metrics.Histogram manifestTime = Metrics.histogram("backup.phase.manifest");
+    private static final Metrics.Histogram fileTime = Metrics.histogram("backup.file");
+    private static final Metrics.Histogram directoryTime = Metrics.histogram("backup.file.createDirectories");
+    private static final Metrics.Histogram hashTime = Metrics.histogram("backup.file.hash");
+    private static final Metrics.Histogram packTime = Metrics.histogram("backup.file.pack");
+    private static final Metrics.Histogram copyTime = Metrics.histogram("backup.file.copy");
+    private static final Metrics.Histogram compressTime = Metrics.histogram("backup.file.compress");
+    private static final Metrics.Histogram deltaTime = Metrics.histogram("backup.file.delta");
+    private static final Metrics.Histogram chunkTime = Metrics.histogram("backup.file.chunks");
+    private static final Metrics.Histogram journalTime = Metrics.histogram("backup.file.journal");
+    private static final Metrics.Counter filesSynced = Metrics.counter("sync.files");
+    private static final Metrics.Counter bytesSynced = Metrics.counter("sync.bytes");
+    private static final Metrics.Counter filesMoved = Metrics.counter("sync.files.moved");
+    private static final Metrics.Counter filesPatched = Metrics.counter("sync.files.delta");
+    private static final Metrics.Histogram syncCheckTime = Metrics.histogram("sync.phase.check");
+    private static final Metrics.Histogram syncApplyTime = Metrics.histogram("sync.phase.apply");
+    private static final Metrics.Histogram syncFileTime = Metrics.histogram("sync.file");
+    private static final Metrics.Counter filesRestored = Metrics.counter("restore.files");
+    private static final Metrics.Counter filesSkipped = Metrics.counter("restore.files.skipped");
+    private static final Metrics.Counter bytesRestored = Metrics.counter("restore.bytes");
+    private static final Metrics.Counter restoreErrors = Metrics.counter("restore.errors");
+    private static final Metrics.Histogram restoreFileTime = Metrics.histogram("restore.file");
+
     private String user;
+    // copies files on a pool of worker threads
+    private CopyEngine copyEngine;
+    // restores files on a pool of worker threads, the same pool as backups unless set
+    private CopyEngine restoreEngine;
+    // store files as de-duplicated chunks instead of full copies
+    private boolean deduplicate = false;
+    // compare file contents as well as size and modified time when looking for unchanged files
+    private boolean verifyHashes = false;
+    // decides which files are compressed, null to store every file as it is
+    private CompressionPolicy compression = null;
+    // files smaller than this are packed into segments instead of copied as their own file, 0 to turn packing off
+    private long packThreshold = DEFAULT_PACK_THRESHOLD;
+    // changed files at least this large only have their changed blocks written, 0 to always copy the whole file
+    private long deltaThreshold = DEFAULT_DELTA_THRESHOLD;
+    private DeltaEngine deltaEngine = new DeltaEngine();
+    private ChunkStore chunkStore;
+    // every snapshot of the user, opened the first time it is needed
+    private SnapshotCatalog catalog;
+    // held while syncing, only one sync of the user's devices runs at a time
+    private final Object syncLock = new Object();
+    // copies single files, splitting large ones into ranges copied in parallel
+    private FileCopier fileCopier = new FileCopier();
+    // least amount of time between two checkpoints of a running backup or sync, 0 to only save one when stopped
+    private long checkpointInterval = BackupCheckpoint.DEFAULT_INTERVAL_MILLIS;
 
     /**
      * Custom constructor
      * @param user - username of user backing data up
      */
     public BackupManager(String user){
+        this(user, new CopyEngine(CopyEngine.IOType.SSD));
+    }
+
+    /**
+     * Custom constructor
+     * @param user - username of user backing data up
+     * @param copyEngine - engine used to copy files in parallel
+     */
+    public BackupManager(String user, CopyEngine copyEngine){
         this.user = user;
+        this.copyEngine = copyEngine;
+        this.restoreEngine = copyEngine;
+        this.chunkStore = new ChunkStore(Paths.get(getChunkLocation()));
     }
 
     /**
@@ -35,6 +131,38 @@ public class BackupManager {
         return System.getProperty("user.home") + File.separator + "Desktop" +  File.separator + "backups" + File.separator + user;
     }
 
+    /**
+     * Returns location of the sync manifests, kept outside of the sync folder so they're never restored to a device
+     * @return String representing path to the sync manifests
+     */
+    private String getManifestLocation() {
+        return System.getProperty("user.home") + File.separator + "Desktop" +  File.separator + "manifests" + File.separator + user;
+    }
+
+    /**
+     * Returns location of the chunk store shared by all of the user's de-duplicated snapshots
+     * @return String representing path to chunk store
+     */
+    private String getChunkLocation() {
+        return getBackupLocation() + File.separator + CHUNK_DIR;
+    }
+
+    /**
+     * Returns location of the pack segments shared by all of the user's snapshots
+     * @return String representing path to pack segments
+     */
+    private String getPackLocation() {
+        return getBackupLocation() + File.separator + PACK_DIR;
+    }
+
+    /**
+     * Returns location of the deltas of large files, sits next to the snapshots
+     * @return String representing path to deltas
+     */
+    private String getDeltaLocation() {
+        return getBackupLocation() + File.separator + DELTA_DIR;
+    }
+
     /**
      * Returns sync location
      * @return String representing path to sync location
@@ -43,23 +171,329 @@ public class BackupManager {
         return System.getProperty("user.home") + File.separator + "Desktop" +  File.separator + "syncs" + File.separator + user;
     }
 
+    /**
+     * Returns where the signatures of a device's large synced files are kept, next to the device's sync manifest
+     * @param device - device being synced
+     * @return Path to the device's signatures
+     */
+    private Path getSignatureLocation(Device device) {
+        return Paths.get(getManifestLocation(), device.getId() + "." + SIGNATURE_DIR);
+    }
+
+    /**
+     * Returns the sync folder of a device, files keep their paths relative to the device inside it
+     * @param device - device being synced
+     * @return Path to the device's sync folder
+     */
+    private Path getDeviceSyncLocation(Device device) {
+        return Paths.get(getSyncLocation(), device.getId());
+    }
+
+    /**
+     * Returns where the manifest of a snapshot is stored. It sits next to the snapshot directory
+     * rather than inside it, so it can never clash with a backed up file of the same name.
+     * @param snapshotName - name of the snapshot, its ID in the catalog
+     * @return Path to the snapshot's manifest
+     */
+    private Path getManifestFile(String snapshotName) {
+        return Paths.get(getBackupLocation(), snapshotName + SnapshotManifest.EXTENSION);
+    }
+
+    /**
+     * Works out where the checkpoint of a snapshot being created is saved
+     * @param snapshotName - name of the snapshot, its ID in the catalog
+     * @return Path to the snapshot's checkpoint, next to where its manifest will be
+     */
+    private Path getCheckpointFile(String snapshotName) {
+        return Paths.get(getBackupLocation(), snapshotName + BackupCheckpoint.EXTENSION);
+    }
+
     /**
      * Creates a full backup of the device's files to backup location.
      * @param device The device which is being backed up
      * @throws IOException - If a file cannot be read / written
      */
     public void createBackup(Device device) throws IOException {
+        createBackup(device, false);
+    }
+
+    /**
+     * Creates a backup of the device's files to backup location.
+     * An incremental backup only copies files that are new or changed since the latest snapshot,
+     * unchanged files are recorded in the new snapshot's manifest as references to the earlier copy.
+     * @param device The device which is being backed up
+     * @param incremental - true to only copy files changed since the latest snapshot
+     * @throws IOException - If a file cannot be read / written
+     */
+    public void createBackup(Device device, boolean incremental) throws IOException {
+        createBackup(device, incremental, copyEngine, null);
+    }
+
+    /**
+     * Creates a backup of the device's files to backup location, copying on the given engine.
+     * Used to back several devices up at once, each on an engine sized for that device.
+     * With a listener the device is scanned first, reading only the size of each file, so progress can be
+     * reported against the total amount of files and bytes.
+     * @param device The device which is being backed up
+     * @param incremental - true to only copy files changed since the latest snapshot
+     * @param engine - engine copying the device's files
+     * @param listener - told how the backup is getting on, null if nobody is listening
+     * @throws IOException - If a file cannot be read / written, or the backup was cancelled
+     */
+    public void createBackup(Device device, boolean incremental, CopyEngine engine, ProgressListener listener) throws IOException {
+        createBackup(device, incremental, false, engine, listener);
+    }
 
-        Logger.addToLog(user, new Date() + " Started new full backup");
+    /**
+     * Resumes the device's latest backup if it was cancelled or crashed, files it had already backed up are
+     * reused from its checkpoint rather than copied again. Files it hadn't got to are only copied if they changed
+     * since the latest complete snapshot, the same as an incremental backup.
+     * If there is nothing to resume a new incremental backup is created.
+     * @param device The device which is being backed up
+     * @throws IOException - If a file cannot be read / written
+     */
+    public void resumeBackup(Device device) throws IOException {
+        createBackup(device, true, true, copyEngine, null);
+    }
+
+    /**
+     * Creates a backup of the device's files to backup location, copying on the given engine.
+     * While the backup runs a checkpoint of the files already backed up is saved every so often, and once more if
+     * the backup is cancelled or fails. Resuming carries on with the device's latest interrupted snapshot, keeping
+     * its ID, and reuses the files in its checkpoint that haven't changed since.
+     * @param device The device which is being backed up
+     * @param incremental - true to only copy files changed since the latest snapshot
+     * @param resume - true to carry on with the device's latest interrupted snapshot, if there is one
+     * @param engine - engine copying the device's files
+     * @param listener - told how the backup is getting on, null if nobody is listening
+     * @throws IOException - If a file cannot be read / written, or the backup was cancelled
+     */
+    public void createBackup(Device device, boolean incremental, boolean resume, CopyEngine engine,
+                             ProgressListener listener) throws IOException {
 
         // check to see if backup directory is created and ready to use
         backupCheck();
-        // Finds all files in a specified directory recursively, requires java 8
-        // source: https://stackoverflow.com/questions/2056221/recursively-list-files-in-java
-        Files.walk(Paths.get(device.getPath()))
-             .forEach(currentFile -> backFileUp(currentFile, device.getPath()));
 
-        Logger.addToLog(user, new Date() + " Full backup completed");
+        // the device's latest snapshot's manifest says what every file looked like when it was last backed up
+        SnapshotManifest previous = incremental ? loadLatestManifest(device.getId()) : null;
+        SnapshotManifest manifest = new SnapshotManifest();
+
+        SnapshotCatalog.Record interrupted = resume ? findInterrupted(device.getId()) : null;
+        String snapshotName;
+        if (interrupted != null) {
+            snapshotName = interrupted.getId();
+            getCatalog().resume(snapshotName);
+            // files in the checkpoint are treated like files of the previous snapshot, unchanged ones aren't copied again
+            SnapshotManifest done = BackupCheckpoint.load(getCheckpointFile(snapshotName));
+            SnapshotManifest combined = new SnapshotManifest();
+            if (previous != null) {
+                for (SnapshotManifest.Entry entry : previous.getEntries()) {
+                    combined.add(entry);
+                }
+            }
+            for (SnapshotManifest.Entry entry : done.getEntries()) {
+                combined.add(entry);
+            }
+            previous = combined;
+            Logger.addToLog(user, new Date() + " Resumed backup " + snapshotName + ", " + done.getEntries().size() + " files already backed up");
+        } else {
+            Logger.addToLog(user, new Date() + (incremental ? " Started new incremental backup" : " Started new full backup"));
+            // every backup is a new snapshot, its ID is the time it started to the second
+            // worked out once so a backup running past midnight doesn't get split across two snapshots
+            snapshotName = getCatalog().begin(device.getId()).getId();
+        }
+
+        SnapshotManifest reuse = previous;
+        ProgressTracker tracker = new ProgressTracker("Backup", listener);
+        // every file of the backup is recorded in the user's journal under the run
+        Journal journal = Journal.forUser(user);
+        int run = journal.startRun(Journal.Operation.BACKUP, snapshotName);
+        BackupCheckpoint checkpoint = null;
+        try {
+            long phase = System.nanoTime();
+            planTotals(Paths.get(device.getPath()), tracker);
+            planTime.recordSince(phase);
+            phase = System.nanoTime();
+            // small files are appended to the snapshot's pack segments, which are finished once the walk completes
+            try (PackWriter packs = new PackWriter(Paths.get(getPackLocation()), snapshotName)) {
+                checkpoint = new BackupCheckpoint(getCheckpointFile(snapshotName), manifest, packs, checkpointInterval);
+                BackupCheckpoint running = checkpoint;
+                try {
+                    // Finds all files in a specified directory recursively and copies them on the engine's worker threads
+                    engine.walk(Paths.get(device.getPath()), currentFile -> {
+                        backFileUp(currentFile, device.getPath(), snapshotName, reuse, manifest, packs, tracker, journal, run);
+                        running.fileDone();
+                    });
+                } catch (IOException | RuntimeException ex) {
+                    // the engine has waited for its workers, so the checkpoint holds every file that was finished
+                    // saved while the pack writer is still open, so the files it points at are in a finished segment
+                    saveCheckpoint(checkpoint);
+                    throw ex;
+                }
+            }
+            walkTime.recordSince(phase);
+            phase = System.nanoTime();
+            manifest.save(getManifestFile(snapshotName));
+            checkpoint.delete();
+            manifestTime.recordSince(phase);
+        } catch (IOException | RuntimeException ex) {
+            // keep the failed snapshot in the catalog so it is never mistaken for a complete one
+            // a cancelled backup's thread is interrupted, which would stop the catalog from being written
+            boolean wasInterrupted = Thread.interrupted();
+            try {
+                getCatalog().fail(snapshotName);
+            } finally {
+                if (wasInterrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            throw ex;
+        } finally {
+            tracker.finish();
+            flushJournal(journal);
+        }
+
+        long bytes = 0;
+        Collection<SnapshotManifest.Entry> entries = manifest.getEntries();
+        for (SnapshotManifest.Entry entry : entries) {
+            bytes += entry.getSize();
+        }
+        getCatalog().complete(snapshotName, entries.size(), bytes);
+
+        Logger.addToLog(user, new Date() + (incremental ? " Incremental backup completed" : " Full backup completed"));
+    }
+
+    /**
+     * Finds the device's latest snapshot if it was interrupted and can be resumed
+     * @param deviceId - ID of the device
+     * @return Record of the interrupted snapshot, null if the latest snapshot completed or has no checkpoint
+     * @throws IOException - If the catalog cannot be read
+     */
+    private SnapshotCatalog.Record findInterrupted(String deviceId) throws IOException {
+        List<SnapshotCatalog.Record> records = getCatalog().find(deviceId, 0, Long.MAX_VALUE);
+        if (records.isEmpty()) {
+            return null;
+        }
+        // only the latest snapshot, once a later one has completed an older checkpoint is out of date
+        SnapshotCatalog.Record latest = records.get(records.size() - 1);
+        if (latest.getStatus() == SnapshotCatalog.Status.COMPLETE || !Files.exists(getCheckpointFile(latest.getId()))) {
+            return null;
+        }
+        return latest;
+    }
+
+    /**
+     * Saves the checkpoint of a backup that has stopped, a checkpoint that can't be saved only loses progress.
+     * A cancelled backup's thread is interrupted, which would stop the checkpoint from being written.
+     * @param checkpoint - checkpoint of the stopped backup
+     */
+    private void saveCheckpoint(BackupCheckpoint checkpoint) {
+        boolean interrupted = Thread.interrupted();
+        try {
+            checkpoint.save();
+        } catch (IOException ex) {
+            System.out.println("Failed to save backup checkpoint");
+            ex.printStackTrace();
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Writes the records of a run that has stopped to the journal, a journal that can't be written doesn't fail the run.
+     * A cancelled run's thread is interrupted, which would stop the journal from being written.
+     * @param journal - journal of the user
+     */
+    private static void flushJournal(Journal journal) {
+        boolean interrupted = Thread.interrupted();
+        try {
+            journal.flush();
+        } catch (IOException ex) {
+            System.out.println("Failed to write to journal");
+            ex.printStackTrace();
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Loads the manifest of a device's latest complete snapshot
+     * @param deviceId - ID of the device
+     * @return SnapshotManifest of the latest snapshot, null if there is no snapshot or it was taken without a manifest
+     * @throws IOException - If a file cannot be read / written
+     */
+    private SnapshotManifest loadLatestManifest(String deviceId) throws IOException {
+        SnapshotCatalog.Record latest = getCatalog().latest(deviceId);
+        if (latest == null) {
+            return null;
+        }
+
+        Path manifestFile = getManifestFile(latest.getId());
+        if (!Files.exists(manifestFile)) {
+            System.out.println("Latest snapshot has no manifest, backing up every file");
+            return null;
+        }
+        return SnapshotManifest.load(manifestFile);
+    }
+
+    /**
+     * Opens the user's snapshot catalog. The first time, snapshots taken before the catalog existed are added to it.
+     * @return SnapshotCatalog of the user
+     * @throws IOException - If the catalog cannot be read / written
+     */
+    private synchronized SnapshotCatalog getCatalog() throws IOException {
+        if (catalog == null) {
+            Path catalogFile = Paths.get(getBackupLocation(), CATALOG_FILE);
+            boolean created = !Files.exists(catalogFile);
+            catalog = SnapshotCatalog.open(catalogFile);
+            if (created) {
+                importSnapshots(catalog);
+            }
+        }
+        return catalog;
+    }
+
+    /**
+     * Adds the dated snapshot directories taken before the catalog existed, one snapshot per day, to the catalog.
+     * Which device they came from wasn't recorded, so they are only found when searching every device.
+     * @param catalog - catalog to add the snapshots to
+     * @throws IOException - If a snapshot cannot be read
+     */
+    private void importSnapshots(SnapshotCatalog catalog) throws IOException {
+        // lists all files for a given path
+        // filters out anything that isn't a directory
+        // based on: https://stackoverflow.com/questions/5125242/java-list-only-subdirectories-from-a-directory-not-files/5125258
+        File file = new File(getBackupLocation());
+        String[] directories = file.list((current, name) -> new File(current, name).isDirectory());
+        if (directories == null) {
+            return;
+        }
+
+        SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd");
+        formatter.setLenient(false);
+        for (String currentDir : directories) {
+            try {
+                // only names that are exactly a date, the chunk store and newer snapshots aren't
+                Date snapshotDate = formatter.parse(currentDir);
+                if (!formatter.format(snapshotDate).equals(currentDir)) {
+                    continue;
+                }
+
+                long bytes = 0;
+                Collection<SnapshotManifest.Entry> entries = loadSnapshotIndex(currentDir).getEntries();
+                for (SnapshotManifest.Entry entry : entries) {
+                    bytes += entry.getSize();
+                }
+                catalog.add(new SnapshotCatalog.Record(currentDir, "", snapshotDate.getTime(), entries.size(), bytes,
+                        SnapshotCatalog.Status.COMPLETE));
+            } catch (ParseException ex) {
+                System.out.println("Directory " + currentDir + " not part of backup tool");
+            }
+        }
     }
 
     /**
@@ -68,31 +502,174 @@ public class BackupManager {
      * @throws IOException - If a file cannot be read / written
      */
     public void restore(String pathToDevice) throws IOException {
-        restore(pathToDevice, findLatestSnapshot());
+        restore(pathToDevice, (ProgressListener) null);
+    }
+
+    /**
+     * Restores latest backup to specified device, reporting progress as it goes
+     * @param pathToDevice - what device to restore to
+     * @param listener - told how the restore is getting on, null if nobody is listening
+     * @throws IOException - If a file cannot be read / written
+     */
+    public void restore(String pathToDevice, ProgressListener listener) throws IOException {
+        SnapshotCatalog.Record latest = getCatalog().latest(null);
+        if (latest == null) {
+            throw new NoSuchFileException(getBackupLocation(), null, "No backups exist");
+        }
+        restore(pathToDevice, latest.getId(), Collections.singletonList(""), listener);
     }
 
     /**
-     * Restores selected backup to spefied device
+     * Restores the latest backup taken on a day to spefied device
      * @param pathToDevice - what device to restore to
-     * @param snapshotDate - what backup to restore
+     * @param snapshotDate - day of the backup to restore
      * @throws IOException - If a file cannot be read / written
      */
     public void restore(String pathToDevice, Date snapshotDate) throws IOException {
+        Calendar day = Calendar.getInstance();
+        day.setTime(snapshotDate);
+        day.set(Calendar.HOUR_OF_DAY, 0);
+        day.set(Calendar.MINUTE, 0);
+        day.set(Calendar.SECOND, 0);
+        day.set(Calendar.MILLISECOND, 0);
+        long start = day.getTimeInMillis();
+        day.add(Calendar.DAY_OF_MONTH, 1);
+
+        // the catalog is sorted by time, so the day's snapshots are found without a search
+        String snapshotId = null;
+        for (SnapshotCatalog.Record record : getCatalog().find(null, start, day.getTimeInMillis() - 1)) {
+            if (record.getStatus() == SnapshotCatalog.Status.COMPLETE) {
+                snapshotId = record.getId();
+            }
+        }
+        if (snapshotId == null) {
+            throw new NoSuchFileException(getBackupLocation(), null, "No backup exists for " + snapshotDate);
+        }
+        restore(pathToDevice, snapshotId, Collections.singletonList(""));
+    }
+
+    /**
+     * Restores some or all of the files in a backup to the specified device, for example a single lost file.
+     * The snapshot's manifest is used to find the files, so the snapshot isn't walked and only the
+     * selected files are read. The files are planned first, then restored in parallel, and keep their
+     * paths inside the restore directory. The result of every file is written to a report next to the restored files.
+     * @param pathToDevice - what device to restore to
+     * @param snapshotId - what backup to restore from
+     * @param selection - paths of files or directories, or globs such as "photos/**.jpg"; "" selects every file
+     * @throws IOException - If a file cannot be read / written
+     */
+    public void restore(String pathToDevice, String snapshotId, List<String> selection) throws IOException {
+        restore(pathToDevice, snapshotId, selection, null);
+    }
+
+    /**
+     * Restores some or all of the files in a backup to the specified device, reporting progress as it goes.
+     * The totals come from the manifest, so nothing has to be scanned before the restore starts.
+     * @param pathToDevice - what device to restore to
+     * @param snapshotId - what backup to restore from
+     * @param selection - paths of files or directories, or globs such as "photos/**.jpg"; "" selects every file
+     * @param listener - told how the restore is getting on, null if nobody is listening
+     * @throws IOException - If a file cannot be read / written
+     */
+    public void restore(String pathToDevice, String snapshotId, List<String> selection, ProgressListener listener) throws IOException {
         Logger.addToLog(user, new Date() + " Started restore");
 
-        Format formatter = new SimpleDateFormat("yyyy-MM-dd");
-        String latestSnapshotDir = getBackupLocation() + File.separator + formatter.format(snapshotDate);
-        String restoreDir = pathToDevice + File.separator + "restore" + File.separator + formatter.format(snapshotDate);
-        // get all the files in latest snapshot
-        // Finds all files in a specified directory recursively, requires java 8
-        // source: https://stackoverflow.com/questions/2056221/recursively-list-files-in-java
-        Files.walk(Paths.get(latestSnapshotDir))
-                .forEach(currentFile -> restoreToDevice(currentFile, Paths.get(restoreDir + File.separator + currentFile.getFileName())));
+        Path restoreDir = Paths.get(pathToDevice, "restore", snapshotId);
+        SnapshotManifest manifest = loadSnapshotIndex(snapshotId);
+
+        // the manifest says where every file's contents are, which may be an earlier snapshot or the chunk store
+        // a map, so files selected more than once are only restored once
+        // pack segments are opened once and shared by every file restored from them
+        Map<String, PackReader> packs = new HashMap<String, PackReader>();
+        Map<String, RestoreItem> plan = new TreeMap<String, RestoreItem>();
+        for (String pattern : selection) {
+            for (SnapshotManifest.Entry entry : manifest.select(pattern)) {
+                plan.put(entry.getPath(), new RestoreItem(entry.getPath(), restoreDir.resolve(entry.getPath()), entry.getSize(),
+                        entry.getModified(), restoreFile -> restoreEntry(entry, restoreFile, packs)));
+            }
+        }
+
+        Path reportFile = restoreDir.resolveSibling(snapshotId + REPORT_EXTENSION);
+        RestoreReport report;
+        try {
+            report = runRestore(new ArrayList<RestoreItem>(plan.values()), new ProgressTracker("Restore", listener), snapshotId,
+                    restoreDir.resolveSibling(snapshotId + RESTORING_EXTENSION));
+        } finally {
+            closePacks(packs);
+        }
+        report.save(reportFile);
+        Logger.addToLog(user, new Date() + " Completed restore, " + report.getSummary() + ", report saved to " + reportFile);
+    }
+
+    /**
+     * Lists every snapshot of the user
+     * @return List of snapshots, latest first
+     * @throws IOException - If the catalog cannot be read
+     */
+    public List<SnapshotCatalog.Record> listSnapshots() throws IOException {
+        return getCatalog().list();
+    }
 
-        // for every file in the latest backup
-        // check if restored folder exists
-        // restore file to device in "restored" folder
-        Logger.addToLog(user, new Date() + " Completed restore");
+    /**
+     * Lists every file in a backup without walking the snapshot
+     * @param snapshotId - what backup to list
+     * @return files in the snapshot sorted by path
+     * @throws IOException - If the snapshot's manifest cannot be read
+     */
+    public Collection<SnapshotManifest.Entry> listSnapshot(String snapshotId) throws IOException {
+        return loadSnapshotIndex(snapshotId).getEntries();
+    }
+
+    /**
+     * Streams a single file of a backup, for example to show or save it without restoring to a device.
+     * Only the file's own contents are read.
+     * @param snapshotId - what backup to read from
+     * @param path - path of the file relative to the device, separated by "/"
+     * @param out - where to write the file's contents, not closed
+     * @throws IOException - If the file isn't in the snapshot or cannot be read
+     */
+    public void restoreFile(String snapshotId, String path, OutputStream out) throws IOException {
+        SnapshotManifest.Entry entry = loadSnapshotIndex(snapshotId).get(path);
+        if (entry == null) {
+            throw new NoSuchFileException(path);
+        }
+        Map<String, PackReader> packs = new HashMap<String, PackReader>();
+        try {
+            writeEntry(entry, out, packs);
+        } finally {
+            closePacks(packs);
+        }
+    }
+
+    /**
+     * Loads the manifest of a snapshot, used as an index of the snapshot's files.
+     * Snapshots from before manifests existed are plain copies of the device, they are walked once to
+     * build their manifest and later listings / restores use it.
+     * @param snapshotName - name of the snapshot's directory
+     * @return SnapshotManifest of the snapshot
+     * @throws IOException - If the snapshot cannot be read
+     */
+    private SnapshotManifest loadSnapshotIndex(String snapshotName) throws IOException {
+        Path manifestFile = getManifestFile(snapshotName);
+        if (Files.exists(manifestFile)) {
+            return SnapshotManifest.load(manifestFile);
+        }
+
+        Path snapshotDir = Paths.get(getBackupLocation(), snapshotName);
+        if (!Files.isDirectory(snapshotDir)) {
+            throw new NoSuchFileException(snapshotDir.toString(), null, "No backup exists for " + snapshotName);
+        }
+
+        SnapshotManifest manifest = new SnapshotManifest();
+        try (Stream<Path> files = Files.walk(snapshotDir)) {
+            for (Path currentFile : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                String path = relativePath(currentFile, snapshotDir.toString());
+                manifest.add(new SnapshotManifest.Entry(path, Files.size(currentFile), Files.getLastModifiedTime(currentFile).toMillis(),
+                        "", SnapshotManifest.STORAGE_FILE, snapshotName + "/" + path));
+            }
+        }
+        manifest.save(manifestFile);
+        return manifest;
     }
 
     /**
@@ -101,145 +678,821 @@ public class BackupManager {
      * @throws IOException - If a file cannot be read / written
      */
     public void syncRestore(Device device) throws IOException {
+        syncRestore(device, null);
+    }
+
+    /**
+     * Restores a synced backup to specified device, reporting progress as it goes
+     * @param device - what device to sync-restore to
+     * @param listener - told how the restore is getting on, null if nobody is listening
+     * @throws IOException - If a file cannot be read / written
+     */
+    public void syncRestore(Device device, ProgressListener listener) throws IOException {
         Format formatter = new SimpleDateFormat("yyyy-MM-dd");
-        String restoreDir = device.getPath() + File.separator + "sync" + File.separator + formatter.format(new Date());
-        Files.walk(Paths.get(getSyncLocation()))
-                .forEach(currentFile -> restoreToDevice(currentFile, Paths.get(restoreDir + File.separator + currentFile.getFileName())));
+        String restoreName = formatter.format(new Date());
+        Path restoreDir = Paths.get(device.getPath(), "sync", restoreName);
+
+        Path reportFile = restoreDir.resolveSibling(restoreName + REPORT_EXTENSION);
+        Path syncRoot = getDeviceSyncLocation(device);
+        List<RestoreItem> plan;
+        if (Files.isDirectory(syncRoot)) {
+            plan = planCopies(syncRoot, restoreDir, Integer.MAX_VALUE);
+        } else {
+            // synced before files kept their paths, every file sits directly in the sync folder
+            plan = planCopies(Paths.get(getSyncLocation()), restoreDir, 1);
+        }
+        RestoreReport report = runRestore(plan, new ProgressTracker("Sync restore", listener), "sync " + device.getPath(),
+                restoreDir.resolveSibling(restoreName + RESTORING_EXTENSION));
+        report.save(reportFile);
 
         // log success
-        Logger.addToLog(user, new Date() + " Completed sync-based restore");
+        Logger.addToLog(user, new Date() + " Completed sync-based restore, " + report.getSummary() + ", report saved to " + reportFile);
     }
 
     /**
-     * Utility funtion used during restore to move files from restore folder to device
-     * @param fromSnapshot - path to backup to restore
-     * @param restoreFile - what file to restore to, aka destination file
+     * Plans a restore of every file in a directory, keeping the files' paths relative to the directory
+     * @param from - directory holding the files to restore
+     * @param restoreDir - directory to restore the files to
+     * @param depth - how many levels of folders to look into
+     * @return files to restore
+     * @throws IOException - If the directory cannot be read
+     */
+    private List<RestoreItem> planCopies(Path from, Path restoreDir, int depth) throws IOException {
+        List<RestoreItem> plan = new ArrayList<RestoreItem>();
+        // Finds all files in a specified directory recursively, requires java 8
+        // source: https://stackoverflow.com/questions/2056221/recursively-list-files-in-java
+        try (Stream<Path> files = Files.walk(from, depth)) {
+            files.filter(Files::isRegularFile).forEach(currentFile -> {
+                String path = relativePath(currentFile, from.toString());
+                plan.add(new RestoreItem(path, restoreDir.resolve(path), currentFile.toFile().length(), currentFile.toFile().lastModified(),
+                        restoreFile -> fileCopier.copy(currentFile, restoreFile)));
+            });
+        }
+        return plan;
+    }
+
+    /**
+     * Runs a planned restore. Every directory is created in a first pass, then the files are restored
+     * in parallel on the restore engine. Failed files don't stop the restore, they are recorded in the report.
+     * @param plan - files to restore
+     * @param tracker - reports progress against the plan
+     * @param label - what is being restored, recorded in the journal as the start of the restore
+     * @param marker - file kept while the restore runs, if it already exists the interrupted restore is resumed
+     * @return result of every file
+     * @throws IOException - If a directory cannot be created or the restore is interrupted
      */
-    private void restoreToDevice(Path fromSnapshot, Path restoreFile) {
+    private RestoreReport runRestore(List<RestoreItem> plan, ProgressTracker tracker, String label, Path marker) throws IOException {
+        // the plan already knows every file's size
+        long bytes = 0;
+        for (RestoreItem item : plan) {
+            bytes += item.size;
+        }
+        tracker.setTotals(plan.size(), bytes);
 
-        // copy file to device path
+        // create each directory once, rather than checking the parent of every file
+        Set<Path> directories = new HashSet<Path>();
+        for (RestoreItem item : plan) {
+            directories.add(item.restoreFile.getParent());
+        }
+        for (Path directory : directories) {
+            Files.createDirectories(directory);
+        }
+
+        // only a restore resuming an interrupted one keeps files that look finished, any other
+        // restore overwrites every file even if it has the same size and modified time
+        boolean resume = Files.exists(marker);
+        if (!resume) {
+            Files.createDirectories(marker.getParent());
+            Files.createFile(marker);
+        }
+
+        RestoreReport report = new RestoreReport();
+        Journal journal = Journal.forUser(user);
+        int run = journal.startRun(Journal.Operation.RESTORE, label);
         try {
-            // try creating directory for backup location
-            // IMPORTANT: this will not throw and exception if the directory already exists
-            Files.createDirectories(restoreFile.getParent());
-
-            if (!fromSnapshot.toFile().isDirectory()) {
-                // Allow overwriting of a file as the snapshots are time
-                // dependant, meaning one day can have one snapshot
-                Files.copy(fromSnapshot, restoreFile, StandardCopyOption.REPLACE_EXISTING);
-                // log copying of file
-                Logger.addToLog(user, "Retored file " + fromSnapshot + " successfully to " + restoreFile);
-            } else {
-                System.out.println("Skipping directory. ");
+            restoreEngine.run(plan, item -> {
+                long start = System.currentTimeMillis();
+                long startNanos = System.nanoTime();
+                try {
+                    // a restore that was cancelled part way is resumed by running it again, files it finished
+                    // got their modified time last so a half written file never looks finished
+                    if (resume && isRestored(item)) {
+                        filesSkipped.increment();
+                        report.skipped(item.path, item.size);
+                        journal.record(run, Journal.Operation.RESTORE, item.path, item.size, System.nanoTime() - startNanos, Journal.Status.SKIPPED);
+                        tracker.fileDone(item.size);
+                        return;
+                    }
+                    item.source.restoreTo(item.restoreFile);
+                    report.success(item.path, Files.size(item.restoreFile), System.currentTimeMillis() - start);
+                    filesRestored.increment();
+                    bytesRestored.add(item.size);
+                    journal.record(run, Journal.Operation.RESTORE, item.path, item.size, System.nanoTime() - startNanos, Journal.Status.OK);
+                } catch (IOException ex) {
+                    report.failure(item.path, System.currentTimeMillis() - start, ex);
+                    restoreErrors.increment();
+                    journal.record(run, Journal.Operation.RESTORE, item.path, item.size, System.nanoTime() - startNanos, Journal.Status.FAILED);
+                } finally {
+                    restoreFileTime.recordSince(startNanos);
+                }
+                tracker.fileDone(item.size);
+            });
+        } finally {
+            tracker.finish();
+            flushJournal(journal);
+        }
+        // finished, files that failed are in the report and a new restore tries every file again
+        Files.delete(marker);
+        return report;
+    }
+
+    /**
+     * Checks if a file was already restored by an earlier restore
+     * @param item - file to restore
+     * @return true if the restored file exists with the expected size and modified time
+     */
+    private static boolean isRestored(RestoreItem item) {
+        File restored = item.restoreFile.toFile();
+        return restored.isFile() && restored.length() == item.size && restored.lastModified() == item.modified;
+    }
+
+    /**
+     * Restores a single file listed in a snapshot's manifest, its directory has to exist
+     * @param entry - manifest entry of the file to restore
+     * @param restoreFile - what file to restore to, aka destination file
+     * @param packs - pack segments opened by this restore, by segment name
+     * @throws IOException - If the file cannot be restored
+     */
+    private void restoreEntry(SnapshotManifest.Entry entry, Path restoreFile, Map<String, PackReader> packs) throws IOException {
+        if (entry.getStorage().equals(SnapshotManifest.STORAGE_FILE) && !entry.isCompressed()) {
+            // plain copy, the location is relative to the backup location
+            fileCopier.copy(Paths.get(getBackupLocation(), entry.getLocation()), restoreFile);
+        } else if (entry.getStorage().equals(SnapshotManifest.STORAGE_PACK) && !entry.isCompressed()) {
+            // written straight from the mapped segment to the file
+            ByteBuffer data = openPack(packs, entry.getLocation()).read(entry.getLocation());
+            try (FileChannel out = FileChannel.open(restoreFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (data.hasRemaining()) {
+                    out.write(data);
+                }
+            }
+        } else {
+            try (OutputStream out = Files.newOutputStream(restoreFile)) {
+                writeEntry(entry, out, packs);
             }
-        } catch (IOException ex) {
-            System.out.println("Failed to restore: " + fromSnapshot);
-            Logger.addToLog(user, "Failed to restore: " + fromSnapshot);
-            ex.printStackTrace();
         }
+        // keep the original modified time, it was saved in the manifest
+        Files.setLastModifiedTime(restoreFile, FileTime.fromMillis(entry.getModified()));
+    }
 
+    /**
+     * Writes the contents of a file listed in a snapshot's manifest to a stream
+     * @param entry - manifest entry of the file
+     * @param out - where to write the file's contents, not closed
+     * @param packs - pack segments opened by this restore, by segment name
+     * @throws IOException - If the file cannot be read
+     */
+    private void writeEntry(SnapshotManifest.Entry entry, OutputStream out, Map<String, PackReader> packs) throws IOException {
+        switch (entry.getStorage()) {
+            case SnapshotManifest.STORAGE_FILE:
+                Path stored = Paths.get(getBackupLocation(), entry.getLocation());
+                if (entry.isCompressed()) {
+                    try (InputStream in = Codecs.get(entry.getCodec()).decompress(Files.newInputStream(stored))) {
+                        copy(in, out);
+                    }
+                } else {
+                    Files.copy(stored, out);
+                }
+                break;
+            case SnapshotManifest.STORAGE_CHUNKS:
+                // de-duplicated, the file is rebuilt from its chunks
+                chunkStore.restore(entry.getChunks(), out);
+                break;
+            case SnapshotManifest.STORAGE_PACK:
+                // small file, a slice of a mapped pack segment
+                ByteBuffer data = openPack(packs, entry.getLocation()).read(entry.getLocation());
+                if (entry.isCompressed()) {
+                    byte[] compressed = new byte[data.remaining()];
+                    data.get(compressed);
+                    try (InputStream in = Codecs.get(entry.getCodec()).decompress(new ByteArrayInputStream(compressed))) {
+                        copy(in, out);
+                    }
+                } else {
+                    Channels.newChannel(out).write(data);
+                }
+                break;
+            case SnapshotManifest.STORAGE_DELTA:
+                // large file that changed, rebuilt from the plain copy it was compared against
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                        Files.newInputStream(Paths.get(getDeltaLocation(), entry.getLocation()))));
+                     FileChannel base = FileChannel.open(Paths.get(getBackupLocation(), in.readUTF()))) {
+                    DeltaEngine.patch(base, in, Channels.newChannel(out));
+                }
+                break;
+            default:
+                throw new IOException("Unknown storage type " + entry.getStorage());
+        }
     }
 
     /**
-     * Finds latest snapshot backed up for a specific user.
-     * @return Date of latest backup
+     * Returns the reader of the pack segment a location points into, opening the segment the first time
+     * @param packs - pack segments already opened, by segment name
+     * @param location - location of a packed file
+     * @return PackReader of the segment
+     * @throws IOException - If the segment cannot be read
      */
-    private Date findLatestSnapshot() {
-        // list all files in backup location, exclude anything that isn't a backup directory
-        File file = new File(getBackupLocation());
-        // lists all files for a given path
-        // filters out anything that isn't a directory
-        // based on: https://stackoverflow.com/questions/5125242/java-list-only-subdirectories-from-a-directory-not-files/5125258
-        String[] directories = file.list((current, name) -> new File(current, name).isDirectory());
+    private PackReader openPack(Map<String, PackReader> packs, String location) throws IOException {
+        String segment = PackReader.segmentOf(location);
+        // restore threads share the map
+        synchronized (packs) {
+            PackReader reader = packs.get(segment);
+            if (reader == null) {
+                reader = new PackReader(Paths.get(getPackLocation(), segment));
+                packs.put(segment, reader);
+            }
+            return reader;
+        }
+    }
 
-        List<Date> snapshotDates = new ArrayList<Date>();
-        for (String currentDir : directories) {
+    /**
+     * Closes the pack segments opened by a restore
+     * @param packs - pack segments opened, by segment name
+     */
+    private void closePacks(Map<String, PackReader> packs) {
+        for (PackReader reader : packs.values()) {
             try {
-                Date snapshotDate = new SimpleDateFormat("yyyy-MM-dd").parse(currentDir);
-                snapshotDates.add(snapshotDate);
-            } catch (ParseException ex) {
-                System.out.println("Directory " + currentDir + " not part of backup tool");
+                reader.close();
+            } catch (IOException ex) {
                 ex.printStackTrace();
             }
         }
+    }
 
-        // sort the dates using descending order, latest snapshot will be first.
-        Collections.sort(snapshotDates, Collections.reverseOrder());
+    /**
+     * Syncs dirty files (files previously not synced) to sync folder.
+     * A manifest of what was synced is kept per device, so the sync folder is never listed and
+     * only files whose size or modified time changed since the last sync are hashed and copied.
+     * Each device has its own folder in the sync folder, files keep their paths relative to the device.
+     * @param device - Device object representing device to sync from
+     * @throws IOException - If a file cannot be read / written
+     */
+    public void synchronise(Device device) throws IOException {
+        synchronise(device, (ProgressListener) null);
+    }
 
-        // make sure an IndexOutOfBounds exception isn't thrown
-        if (snapshotDates.size() < 1) {
-            System.out.println("No backups exist");
-            return null;
-        }
+    /**
+     * Syncs dirty files to the sync folder, reporting progress as it goes.
+     * With a listener the device is scanned first, reading only the size of each file, to find the totals.
+     * @param device - Device object representing device to sync from
+     * @param listener - told how the sync is getting on, null if nobody is listening
+     * @throws IOException - If a file cannot be read / written
+     */
+    public void synchronise(Device device, ProgressListener listener) throws IOException {
+        // a continuous sync and the sync button can't update the same manifest at once
+        synchronized (syncLock) {
+            Logger.addToLog(user, new Date() + " Started file sync");
+
+            Path manifestFile = Paths.get(getManifestLocation(), device.getId());
+            SyncManifest manifest = SyncManifest.load(manifestFile);
+            Path syncRoot = createSyncLocation(device);
+            // files found on the device during this sync, anything else in the manifest has been removed
+            Set<String> found = new HashSet<String>();
+            // new and changed files, copied once the removed files are known so moves can be spotted
+            Map<Path, SyncManifest.Entry> pending = new LinkedHashMap<Path, SyncManifest.Entry>();
+            ProgressTracker tracker = new ProgressTracker("Sync", listener);
+            try {
+                planTotals(Paths.get(device.getPath()), tracker);
+
+                long phase = System.nanoTime();
+                // single pass over all files on the device, subfolders need to be synced too
+                try (Stream<Path> files = Files.walk(Paths.get(device.getPath()))) {
+                    Iterator<Path> deviceFiles = files.filter(Files::isRegularFile).iterator();
+                    while (deviceFiles.hasNext()) {
+                        CopyEngine.checkInterrupted();
+                        Path currentFile = deviceFiles.next();
+                        String relativePath = relativePath(currentFile, device.getPath());
+                        found.add(relativePath);
+                        checkFile(currentFile, relativePath, syncRoot, manifest, pending, tracker);
+                    }
+                }
 
-        // returns first date
-        return snapshotDates.get(0);
+                // files in the manifest that are no longer on the device
+                Set<String> removed = new HashSet<String>();
+                for (SyncManifest.Entry entry : manifest.getEntries()) {
+                    if (!found.contains(entry.getPath())) {
+                        removed.add(entry.getPath());
+                    }
+                }
+                syncCheckTime.recordSince(phase);
+                phase = System.nanoTime();
+                applySync(syncRoot, getSignatureLocation(device), manifest, manifestFile, pending, removed, tracker,
+                        device.getPath());
+                syncApplyTime.recordSince(phase);
+            } catch (IOException | RuntimeException ex) {
+                saveSyncProgress(manifest, manifestFile);
+                throw ex;
+            } finally {
+                tracker.finish();
+            }
+            manifest.save(manifestFile);
+            removeFlatCopies(manifest);
+
+            Logger.addToLog(user, new Date() + " Completed file sync");
+        }
     }
 
     /**
-     * Syncs dirty files (files previously not synced) to sync folder.
+     * Syncs only the paths that are known to have changed, used by continuous sync so the device isn't rescanned.
+     * A changed directory has every file below it synced, a path that no longer exists has its synced copy removed.
      * @param device - Device object representing device to sync from
+     * @param changed - files and directories on the device that were created, modified or deleted
      * @throws IOException - If a file cannot be read / written
      */
-    public void synchronise(Device device) throws IOException {
-        Logger.addToLog(user, new Date() + " Started file sync");
+    public void synchronise(Device device, Collection<Path> changed) throws IOException {
+        synchronized (syncLock) {
+            Logger.addToLog(user, new Date() + " Started sync of " + changed.size() + " changed paths");
 
-        // location of the sync folder used for backed up files via synchronisation
-        String syncLocation = getSyncLocation();
-        // create sync dir if it doesn't exist
-        File syncDir = new File(syncLocation);
-        if (!syncDir.exists()) {
-            syncDir.mkdirs();
+            Path manifestFile = Paths.get(getManifestLocation(), device.getId());
+            SyncManifest manifest = SyncManifest.load(manifestFile);
+            Path syncRoot = createSyncLocation(device);
+            Map<Path, SyncManifest.Entry> pending = new LinkedHashMap<Path, SyncManifest.Entry>();
+            Set<String> removed = new HashSet<String>();
+            // changes are small, nobody follows their progress
+            ProgressTracker tracker = new ProgressTracker("Sync", null);
+
+            try {
+                for (Path path : changed) {
+                    CopyEngine.checkInterrupted();
+                    String relativePath = relativePath(path, device.getPath());
+                    if (Files.isRegularFile(path)) {
+                        checkFile(path, relativePath, syncRoot, manifest, pending, tracker);
+                    } else if (Files.isDirectory(path)) {
+                        // a directory created or moved onto the device, its files weren't seen one by one
+                        try (Stream<Path> files = Files.walk(path)) {
+                            Iterator<Path> directoryFiles = files.filter(Files::isRegularFile).iterator();
+                            while (directoryFiles.hasNext()) {
+                                Path currentFile = directoryFiles.next();
+                                checkFile(currentFile, relativePath(currentFile, device.getPath()), syncRoot, manifest, pending, tracker);
+                            }
+                        }
+                    } else {
+                        // deleted, it may have been a file or a whole directory
+                        if (manifest.get(relativePath) != null) {
+                            removed.add(relativePath);
+                        }
+                        for (SyncManifest.Entry entry : manifest.getUnder(relativePath)) {
+                            removed.add(entry.getPath());
+                        }
+                    }
+                }
+                applySync(syncRoot, getSignatureLocation(device), manifest, manifestFile, pending, removed, tracker,
+                        device.getPath());
+            } catch (IOException | RuntimeException ex) {
+                saveSyncProgress(manifest, manifestFile);
+                throw ex;
+            }
+            manifest.save(manifestFile);
+
+            Logger.addToLog(user, new Date() + " Completed sync of changed paths");
         }
+    }
 
-        // list all files on device,
-        // 1st filter is for extensions, no extensions are filtered
-        // 2nd filter is for whether to list recursively, subfolders need to be backedup so yes to recursive
-        Collection<File> currentFiles = FileUtils.listFiles(new File(device.getPath()), TrueFileFilter.TRUE, TrueFileFilter.TRUE);
+    /**
+     * Checks if a file changed since it was last synced. Changed files are left for applySync to copy.
+     * @param currentFile - file on the device
+     * @param relativePath - path of the file relative to the device
+     * @param syncRoot - sync folder of the device
+     * @param manifest - manifest of the device's sync
+     * @param pending - new and changed files are added to this, with the entry they will get
+     * @param tracker - counts the file if it doesn't have to be copied
+     * @throws IOException - If a file cannot be read / written
+     */
+    private void checkFile(Path currentFile, String relativePath, Path syncRoot, SyncManifest manifest,
+                           Map<Path, SyncManifest.Entry> pending, ProgressTracker tracker) throws IOException {
+        File f = currentFile.toFile();
+        boolean syncedCopyExists = Files.exists(syncRoot.resolve(relativePath));
+        long size = f.length();
+        long modified = f.lastModified();
+
+        // same size and modified time as last sync, the file hasn't changed so it isn't read at all
+        SyncManifest.Entry synced = manifest.get(relativePath);
+        if (synced != null && synced.getSize() == size && synced.getModified() == modified && syncedCopyExists) {
+            tracker.fileDone(size);
+            return;
+        }
+
+        // the file was touched, only copy it if the contents actually changed
+        // source: https://stackoverflow.com/questions/304268/getting-a-files-md5-checksum-in-java
+        String hash = HashUtility.sha256(currentFile);
+        SyncManifest.Entry entry = new SyncManifest.Entry(relativePath, size, modified, hash);
+        if (synced != null && synced.getHash().equals(hash) && syncedCopyExists) {
+            manifest.put(entry);
+            tracker.fileDone(size);
+        } else {
+            pending.put(currentFile, entry);
+        }
+    }
 
+    /**
+     * Brings the sync folder up to date. A new file with the same contents as a removed file was moved or renamed
+     * on the device, so the removed file's synced copy is moved to the new path instead of copying the file again.
+     * A changed large file only has its changed blocks written, every other new or changed file is copied,
+     * and the synced copies of removed files are deleted.
+     * The manifest is saved every so often, so a sync that is cancelled or crashes doesn't copy
+     * the files it had finished again next time.
+     * @param syncRoot - sync folder of the device
+     * @param signatures - folder holding the signatures of the device's large synced files
+     * @param manifest - manifest of the device's sync, updated to match the device
+     * @param manifestFile - where the manifest is saved
+     * @param pending - new and changed files with the entry they will get
+     * @param removed - paths of files no longer on the device
+     * @param tracker - counts every new or changed file once it is synced
+     * @param label - what is being synced, recorded in the journal as the start of the sync
+     * @throws IOException - If a file cannot be read / written, or the sync was cancelled
+     */
+    private void applySync(Path syncRoot, Path signatures, SyncManifest manifest, Path manifestFile,
+                           Map<Path, SyncManifest.Entry> pending, Set<String> removed, ProgressTracker tracker,
+                           String label) throws IOException {
+        Journal journal = Journal.forUser(user);
+        int run = journal.startRun(Journal.Operation.SYNC, label);
+        try {
+            syncChanges(syncRoot, signatures, manifest, manifestFile, pending, removed, tracker, journal, run);
+        } finally {
+            flushJournal(journal);
+        }
+    }
 
-        // list all the files in the sync
-        Collection<File> synchedFiles = FileUtils.listFiles(new File(syncLocation), TrueFileFilter.TRUE, TrueFileFilter.TRUE);
+    /**
+     * Does the work of applySync, recording every synced file in the journal
+     * @param syncRoot - sync folder of the device
+     * @param signatures - folder holding the signatures of the device's large synced files
+     * @param manifest - manifest of the device's sync, updated to match the device
+     * @param manifestFile - where the manifest is saved
+     * @param pending - new and changed files with the entry they will get
+     * @param removed - paths of files no longer on the device
+     * @param tracker - counts every new or changed file once it is synced
+     * @param journal - journal of the user
+     * @param run - number of the sync in the journal
+     * @throws IOException - If a file cannot be read / written, or the sync was cancelled
+     */
+    private void syncChanges(Path syncRoot, Path signatures, SyncManifest manifest, Path manifestFile,
+                             Map<Path, SyncManifest.Entry> pending, Set<String> removed, ProgressTracker tracker,
+                             Journal journal, int run) throws IOException {
+        // removed files are deleted first, a new file may need their path, e.g. a file replaced by a directory
+        // of the same name. Only files that a new file could have been moved from are kept until the end.
+        Set<String> pendingHashes = new HashSet<String>();
+        Set<String> pendingPaths = new HashSet<String>();
+        Set<String> pendingDirectories = new HashSet<String>();
+        for (SyncManifest.Entry entry : pending.values()) {
+            pendingHashes.add(entry.getHash());
+            pendingPaths.add(entry.getPath());
+            for (Path parent = Paths.get(entry.getPath()).getParent(); parent != null; parent = parent.getParent()) {
+                pendingDirectories.add(parent.toString().replace(File.separatorChar, '/'));
+            }
+        }
+        Iterator<String> removedPaths = removed.iterator();
+        while (removedPaths.hasNext()) {
+            String path = removedPaths.next();
+            if (!pendingHashes.contains(manifest.get(path).getHash()) || clashes(path, pendingPaths, pendingDirectories)) {
+                removeSynced(syncRoot, signatures, manifest, path);
+                removedPaths.remove();
+            }
+        }
 
-        // loop over current files and see if they match synchedFiles
-        for (File f : currentFiles) {
-            System.out.println("file: " + f);
+        long nextCheckpoint = System.currentTimeMillis() + checkpointInterval;
+        for (Map.Entry<Path, SyncManifest.Entry> change : pending.entrySet()) {
+            CopyEngine.checkInterrupted();
+            if (checkpointInterval > 0 && System.currentTimeMillis() >= nextCheckpoint) {
+                manifest.save(manifestFile);
+                nextCheckpoint = System.currentTimeMillis() + checkpointInterval;
+            }
+            long start = System.nanoTime();
+            SyncManifest.Entry entry = change.getValue();
+            Path syncFile = syncRoot.resolve(entry.getPath());
+            Files.createDirectories(syncFile.getParent());
 
-            File syncFile = new File(syncLocation + File.separator + f.getName());
+            // only files gone from the device can be moved from, their copies aren't needed at the old path
+            SyncManifest.Entry movedFrom = null;
+            Journal.Status status;
+            for (SyncManifest.Entry candidate : manifest.findByHash(entry.getHash())) {
+                if (removed.contains(candidate.getPath()) && Files.exists(syncRoot.resolve(candidate.getPath()))) {
+                    movedFrom = candidate;
+                    break;
+                }
+            }
 
-            // check if the sync file's size matches the size of current file from the device
-            // necessary to ensure that an updated version of the file isn't removed
-            // can get unlucky, this should check something more accurate like described below:
-            // https://stackoverflow.com/questions/304268/getting-a-files-md5-checksum-in-java
-            boolean fileSizesMatch = f.getTotalSpace() == syncFile.getTotalSpace();
-            if (synchedFiles.contains(f) && fileSizesMatch) {
-                // any files that are synced can be removed from current files as they don't need to be re-synced
-                currentFiles.remove(f);
+            if (movedFrom != null) {
+                Files.move(syncRoot.resolve(movedFrom.getPath()), syncFile, StandardCopyOption.REPLACE_EXISTING);
+                Files.setLastModifiedTime(syncFile, FileTime.fromMillis(entry.getModified()));
+                removed.remove(movedFrom.getPath());
+                manifest.remove(movedFrom.getPath());
+                deleteEmptyParents(syncRoot, syncRoot.resolve(movedFrom.getPath()));
+                filesMoved.increment();
+                status = Journal.Status.MOVED;
+            } else if (syncDelta(change.getKey(), syncFile, signatures, manifest.get(entry.getPath()), entry)) {
+                filesPatched.increment();
+                status = Journal.Status.DELTA;
             } else {
-                // otherwise if the sync doesn't contain the file it should remove it from disk
-                boolean deleted = false;
-                // if the file isn't a directory remove it
-                // otherwise if the directory is empty, delete it
-                if (!syncFile.isDirectory()) {
-                    deleted = syncFile.delete();
-                } else if (syncFile.listFiles().length == 0) {
-                    deleted = syncFile.delete();
+                fileCopier.copy(change.getKey(), syncFile);
+                status = Journal.Status.OK;
+            }
+            journal.record(run, Journal.Operation.SYNC, entry.getPath(), entry.getSize(), System.nanoTime() - start, status);
+            SyncManifest.Entry replaced = manifest.get(entry.getPath());
+            manifest.put(entry);
+            tracker.fileDone(entry.getSize());
+            filesSynced.increment();
+            bytesSynced.add(entry.getSize());
+            syncFileTime.recordSince(start);
+            if (replaced != null) {
+                dropSignature(signatures, manifest, replaced.getHash());
+            }
+        }
+
+        // whatever wasn't moved has been deleted from the device
+        for (String path : removed) {
+            removeSynced(syncRoot, signatures, manifest, path);
+        }
+    }
+
+    /**
+     * Deletes the files synced under the old flat layout, where every file sat directly in the sync folder,
+     * once a full sync has copied them into the device's folder. Only files with the same name and contents as
+     * one of the device's synced files are deleted. The flat layout didn't record which device a file came from,
+     * so any other flat files stay until the device they came from is synced.
+     * @param manifest - manifest of a device that has just been fully synced
+     * @throws IOException - If the sync folder cannot be read
+     */
+    private void removeFlatCopies(SyncManifest manifest) throws IOException {
+        List<Path> flatFiles;
+        try (Stream<Path> files = Files.list(Paths.get(getSyncLocation()))) {
+            flatFiles = files.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        if (flatFiles.isEmpty()) {
+            return;
+        }
+
+        // synced files by name, the flat layout only kept the name
+        Map<String, List<SyncManifest.Entry>> byName = new HashMap<String, List<SyncManifest.Entry>>();
+        for (SyncManifest.Entry entry : manifest.getEntries()) {
+            String name = entry.getPath().substring(entry.getPath().lastIndexOf('/') + 1);
+            byName.computeIfAbsent(name, key -> new ArrayList<SyncManifest.Entry>()).add(entry);
+        }
+        for (Path flatFile : flatFiles) {
+            List<SyncManifest.Entry> candidates = byName.get(flatFile.getFileName().toString());
+            if (candidates == null) {
+                continue;
+            }
+            long size = Files.size(flatFile);
+            String hash = null;
+            for (SyncManifest.Entry candidate : candidates) {
+                if (candidate.getSize() != size) {
+                    continue;
+                }
+                if (hash == null) {
+                    hash = HashUtility.sha256(flatFile);
+                }
+                if (candidate.getHash().equals(hash)) {
+                    Files.delete(flatFile);
+                    break;
                 }
+            }
+        }
+    }
+
+    /**
+     * Checks if a removed path is in the way of a new file, it is a directory of the new file
+     * or the new file is a directory it was in
+     * @param path - path of the removed file
+     * @param pendingPaths - paths of the new and changed files
+     * @param pendingDirectories - every directory the new and changed files are in
+     * @return true if the removed file's synced copy has to go before the new files are written
+     */
+    private static boolean clashes(String path, Set<String> pendingPaths, Set<String> pendingDirectories) {
+        if (pendingDirectories.contains(path)) {
+            return true;
+        }
+        for (Path parent = Paths.get(path).getParent(); parent != null; parent = parent.getParent()) {
+            if (pendingPaths.contains(parent.toString().replace(File.separatorChar, '/'))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Deletes the synced copy of a file removed from the device, with any folders it leaves empty
+     * @param syncRoot - sync folder of the device
+     * @param signatures - folder holding the signatures of the device's large synced files
+     * @param manifest - manifest of the device's sync, the file is removed from it
+     * @param path - path of the removed file
+     * @throws IOException - If the synced copy cannot be deleted
+     */
+    private static void removeSynced(Path syncRoot, Path signatures, SyncManifest manifest, String path) throws IOException {
+        Path syncFile = syncRoot.resolve(path);
+        Files.deleteIfExists(syncFile);
+        SyncManifest.Entry entry = manifest.remove(path);
+        dropSignature(signatures, manifest, entry.getHash());
+        deleteEmptyParents(syncRoot, syncFile);
+    }
+
+    /**
+     * Saves the manifest of a sync that was cancelled or failed, so the files it had synced are skipped next time.
+     * A cancelled sync's thread is interrupted, which would stop the manifest from being written.
+     * @param manifest - manifest of the device's sync
+     * @param manifestFile - where the manifest is saved
+     */
+    private static void saveSyncProgress(SyncManifest manifest, Path manifestFile) {
+        boolean interrupted = Thread.interrupted();
+        try {
+            manifest.save(manifestFile);
+        } catch (IOException ex) {
+            System.out.println("Failed to save sync progress");
+            ex.printStackTrace();
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Updates the synced copy of a changed large file by writing only the blocks that changed
+     * @param currentFile - file on the device
+     * @param syncFile - synced copy of the previous version
+     * @param signatures - folder holding the signatures of the device's large synced files
+     * @param previous - manifest entry of the previous version, null if the file wasn't synced before
+     * @param entry - manifest entry of the new version
+     * @return true if the synced copy was updated, false if the file has to be copied whole
+     * @throws IOException - If a file cannot be read / written
+     */
+    private boolean syncDelta(Path currentFile, Path syncFile, Path signatures, SyncManifest.Entry previous,
+                              SyncManifest.Entry entry) throws IOException {
+        if (deltaThreshold <= 0 || entry.getSize() < deltaThreshold || previous == null || !Files.exists(syncFile)) {
+            return false;
+        }
+        // the synced copy always gets the modified time of the device's file, if it differs the copy
+        // was changed by something else, or a patch didn't finish, and can't be trusted as the previous version
+        if (Files.size(syncFile) != previous.getSize()
+                || Files.getLastModifiedTime(syncFile).toMillis() != previous.getModified()) {
+            return false;
+        }
+
+        // signatures are named after the contents they describe, so a moved file keeps its signature
+        DeltaEngine.Signature signature = DeltaEngine.Signature.load(signatures.resolve(previous.getHash() + ".sig"));
+        if (signature == null) {
+            signature = deltaEngine.signature(syncFile);
+        }
+
+        Files.createDirectories(signatures);
+        Path deltaFile = signatures.resolve(entry.getHash() + ".delta");
+        Path temp = syncFile.resolveSibling(syncFile.getFileName() + ".part");
+        try {
+            DeltaEngine.Result result;
+            try (OutputStream out = Files.newOutputStream(deltaFile)) {
+                // mostly rewritten, copying is cheaper than patching so the diff stops at half the file
+                result = deltaEngine.diff(signature, currentFile, out, entry.getSize() / 2);
+            }
+            if (result == null) {
+                return false;
+            }
 
-                // this is a ternary operator, allows to condense an if-else statement
-                // source: https://stackoverflow.com/a/16876728
-                // most likely wont reach due to exception, but still nice to have
-                System.out.println(deleted ? "Deleted successfully" : "Failed to delete");
+            try (InputStream in = Files.newInputStream(deltaFile)) {
+                if (result.isInPlace()) {
+                    // nothing moved, only the changed blocks are written to the synced copy
+                    DeltaEngine.patchInPlace(syncFile, in);
+                } else {
+                    try (FileChannel base = FileChannel.open(syncFile, StandardOpenOption.READ);
+                         FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                 StandardOpenOption.TRUNCATE_EXISTING)) {
+                        DeltaEngine.patch(base, in, out);
+                    }
+                    Files.move(temp, syncFile, StandardCopyOption.REPLACE_EXISTING);
+                }
             }
+            Files.setLastModifiedTime(syncFile, FileTime.fromMillis(entry.getModified()));
+            // the new version's signature was built by the diff, so it doesn't have to be read again next time
+            result.getSignature().save(signatures.resolve(entry.getHash() + ".sig"));
+            return true;
+        } finally {
+            Files.deleteIfExists(deltaFile);
+            Files.deleteIfExists(temp);
         }
+    }
 
-        // anything that remains needs to be synced
-        for (File f : currentFiles) {
-            // copy current file to the sync location, keep the file name the same
-            FileUtils.copyFile(f, new File(syncLocation + File.separator + f.getName()));
+    /**
+     * Deletes the signature of contents no longer synced from the device
+     * @param signatures - folder holding the signatures of the device's large synced files
+     * @param manifest - manifest of the device's sync
+     * @param hash - hash of the contents
+     * @throws IOException - If the signature cannot be deleted
+     */
+    private static void dropSignature(Path signatures, SyncManifest manifest, String hash) throws IOException {
+        if (manifest.findByHash(hash).isEmpty()) {
+            Files.deleteIfExists(signatures.resolve(hash + ".sig"));
+        }
+    }
+
+    /**
+     * Deletes the folders a removed file leaves empty, stopping at the sync folder
+     * @param syncRoot - sync folder of the device
+     * @param removedFile - file that was moved or deleted
+     * @throws IOException - If a folder cannot be read / deleted
+     */
+    private static void deleteEmptyParents(Path syncRoot, Path removedFile) throws IOException {
+        Path directory = removedFile.getParent();
+        while (directory != null && !directory.equals(syncRoot) && directory.startsWith(syncRoot)) {
+            try (Stream<Path> children = Files.list(directory)) {
+                if (children.findAny().isPresent()) {
+                    return;
+                }
+            } catch (NoSuchFileException ex) {
+                // already gone, check its parent
+                directory = directory.getParent();
+                continue;
+            }
+            Files.delete(directory);
+            directory = directory.getParent();
         }
+    }
+
+    /**
+     * Creates the sync folder of a device if it doesn't exist
+     * @param device - device being synced
+     * @return Path to the device's sync folder
+     * @throws IOException - If the folder cannot be created
+     */
+    private Path createSyncLocation(Device device) throws IOException {
+        // location of the sync folder used for backed up files via synchronisation
+        Path syncRoot = getDeviceSyncLocation(device);
+        Files.createDirectories(syncRoot);
+        return syncRoot;
+    }
+
+    /**
+     * Turns on de-duplicated backups, files are stored once as chunks and
+     * snapshots become a manifest of the chunks making up each file
+     * @param deduplicate - true to store new backups as chunks
+     */
+    public void setDeduplicate(boolean deduplicate) {
+        this.deduplicate = deduplicate;
+    }
+
+    /**
+     * Turns on compression of backed up files, files already compressed or that look random are still stored as they are
+     * @param compression - decides which files are compressed and how, null to turn compression off
+     */
+    public void setCompression(CompressionPolicy compression) {
+        this.compression = compression;
+    }
 
-        Logger.addToLog(user, new Date() + " Completed file sync");
+    /**
+     * Sets the size below which files are packed into segments rather than copied as their own file
+     * @param packThreshold - size in bytes, 0 to copy every file as its own file
+     */
+    public void setPackThreshold(long packThreshold) {
+        this.packThreshold = packThreshold;
+    }
+
+    /**
+     * Sets the size from which changed files only have their changed blocks stored or synced
+     * @param deltaThreshold - size in bytes, 0 to always copy the whole file
+     */
+    public void setDeltaThreshold(long deltaThreshold) {
+        this.deltaThreshold = deltaThreshold;
+    }
+
+    /**
+     * Sets the engine used to compare versions of large files, mostly to change its block size
+     * @param deltaEngine - engine used for deltas
+     */
+    public void setDeltaEngine(DeltaEngine deltaEngine) {
+        this.deltaEngine = deltaEngine;
+    }
+
+    /**
+     * Turns on hashing of file contents when looking for unchanged files during an incremental backup.
+     * Slower, as every file has to be read, but catches changes that kept the same size and modified time.
+     * @param verifyHashes - true to compare hashes as well as size and modified time
+     */
+    public void setVerifyHashes(boolean verifyHashes) {
+        this.verifyHashes = verifyHashes;
+    }
+
+    /**
+     * Sets how often a running backup or sync saves a checkpoint of the files it has finished
+     * @param checkpointInterval - least amount of time between two checkpoints in milliseconds,
+     *                           0 to only save a checkpoint when a backup or sync is cancelled or fails
+     */
+    public void setCheckpointInterval(long checkpointInterval) {
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * Sets the pool used to restore files, restores write to the device so may suit a different pool than backups
+     * @param restoreEngine - engine used to restore files in parallel
+     */
+    public void setRestoreEngine(CopyEngine restoreEngine) {
+        this.restoreEngine = restoreEngine;
     }
 
     /**
@@ -255,38 +1508,291 @@ public class BackupManager {
 
     /**
      * Copies a file from one location to another, used as a lambda function
-     * Has to handle exception as the function is used as part of a java stream.
+     * Has to handle exception as the function is run by the copy engine's worker threads.
      * @param toMove - File to be backed up
      * @param devicePath - path of device to backup
+     * @param snapshotName - name of the snapshot the file is backed up to
+     * @param previous - manifest of the snapshot to compare against, null to back up every file
+     * @param manifest - manifest of the snapshot being created
+     * @param packs - pack segments of the snapshot being created, small files are appended to them
+     * @param tracker - counts the file once it is handled
+     * @param journal - journal of the user, the file is recorded in it once copied or if it fails
+     * @param run - number of the backup in the journal
      */
-    private void backFileUp(Path toMove, String devicePath) {
+    private void backFileUp(Path toMove, String devicePath, String snapshotName, SnapshotManifest previous,
+                            SnapshotManifest manifest, PackWriter packs, ProgressTracker tracker, Journal journal, int run) {
 
-        // if its a directory, do nothing
-        if (!toMove.toFile().isDirectory()) {
-            // date for today in the format of 2019-04-01
-            Format formatter = new SimpleDateFormat("yyyy-MM-dd");
-            String date = formatter.format(new Date());
+        String relativePath = relativePath(toMove, devicePath);
+        long size = 0;
+        long fileStart = System.nanoTime();
+        boolean delta = false;
+        try {
+            // read the size and time before the contents, if the file changes while being read
+            // the next backup will see a newer time and back it up again
+            size = Files.size(toMove);
+            long modified = Files.getLastModifiedTime(toMove).toMillis();
+            String hash = "";
+            if (verifyHashes) {
+                long start = System.nanoTime();
+                hash = HashUtility.sha256(toMove);
+                hashTime.recordSince(start);
+            }
 
-            // build the path of the file's backup location
-            String newLocation = getBackupLocation() + File.separator + date + File.separator + toMove.toString().replace(devicePath, "");
+            // unchanged since the previous snapshot, reference the earlier copy instead of copying it again
+            SnapshotManifest.Entry last = previous == null ? null : previous.get(relativePath);
+            if (last != null && last.getSize() == size && last.getModified() == modified
+                    && (!verifyHashes || hash.equals(last.getHash()))) {
+                manifest.add(last);
+                filesUnchanged.increment();
+                return;
+            }
 
-            try {
-                // try creating directory from source destination
-                // IMPORTANT: this will not throw and exception if the directory already exists
-                Files.createDirectories(Paths.get(newLocation).getParent());
+            SnapshotManifest.Entry entry;
+            long start = System.nanoTime();
+            if (deduplicate) {
+                // files are split into chunks and only chunks that aren't already stored are written
+                List<String> chunks = chunkStore.store(toMove);
+                entry = new SnapshotManifest.Entry(relativePath, size, modified, hash,
+                        SnapshotManifest.STORAGE_CHUNKS, String.join(",", chunks));
+                chunkTime.recordSince(start);
+            } else if (size < packThreshold) {
+                // small files are appended to a pack segment instead of becoming a file each
+                CompressionCodec codec = compression == null ? null : compression.choose(toMove, size);
+                byte[] data = Files.readAllBytes(toMove);
+                if (codec != null) {
+                    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                    try (OutputStream out = codec.compress(compressed)) {
+                        out.write(data);
+                    }
+                    data = compressed.toByteArray();
+                }
+                entry = new SnapshotManifest.Entry(relativePath, size, modified, hash, SnapshotManifest.STORAGE_PACK,
+                        packs.append(relativePath, data), codec == null ? "" : codec.getName());
+                packTime.recordSince(start);
+            } else {
+                // a delta is written to the delta location, it is decided on before anything is done for a copy
+                String deltaLocation = last == null ? null : backDeltaUp(toMove, snapshotName, relativePath, last);
+                if (deltaLocation != null) {
+                    delta = true;
+                    entry = new SnapshotManifest.Entry(relativePath, size, modified, hash,
+                            SnapshotManifest.STORAGE_DELTA, deltaLocation);
+                    deltaTime.recordSince(start);
+                } else {
+                    // build the path of the file's backup location
+                    Path newLocation = Paths.get(getBackupLocation(), snapshotName, relativePath);
 
-                // Allow overwriting of a file as the snapshots are time
-                // dependant, meaning one day can have one snapshot
-                Files.copy(toMove, Paths.get(newLocation), StandardCopyOption.REPLACE_EXISTING);
+                    // try creating directory from source destination
+                    // IMPORTANT: this will not throw and exception if the directory already exists
+                    start = System.nanoTime();
+                    Files.createDirectories(newLocation.getParent());
+                    directoryTime.recordSince(start);
 
-                // log copying of file
-                Logger.addToLog(user, new Date() + " Backed up file " + newLocation);
-            } catch (IOException ex) {
-                System.out.println("Failed to back file up: " + newLocation);
+                    // compression runs on the copy engine's worker threads, so many files are compressed at once
+                    CompressionCodec codec = compression == null ? null : compression.choose(toMove, size);
+                    start = System.nanoTime();
+                    if (codec == null) {
+                        // Allow overwriting of a file, a failed snapshot may have left a copy behind
+                        fileCopier.copy(toMove, newLocation);
+                        entry = new SnapshotManifest.Entry(relativePath, size, modified, hash,
+                                SnapshotManifest.STORAGE_FILE, snapshotName + "/" + relativePath);
+                        copyTime.recordSince(start);
+                    } else {
+                        compressFile(toMove, newLocation, codec);
+                        entry = new SnapshotManifest.Entry(relativePath, size, modified, hash,
+                                SnapshotManifest.STORAGE_FILE, snapshotName + "/" + relativePath, codec.getName());
+                        compressTime.recordSince(start);
+                    }
+                }
+            }
+            manifest.add(entry);
+            filesBackedUp.increment();
+            bytesBackedUp.add(size);
+
+            // record copying of file
+            start = System.nanoTime();
+            journal.record(run, Journal.Operation.BACKUP, relativePath, size, start - fileStart,
+                    delta ? Journal.Status.DELTA : Journal.Status.OK);
+            journalTime.recordSince(start);
+        } catch (IOException ex) {
+            // a cancelled backup stops part way through the file, it is backed up again when the backup is resumed
+            if (!Thread.currentThread().isInterrupted()) {
+                backupErrors.increment();
+                journal.record(run, Journal.Operation.BACKUP, relativePath, size, System.nanoTime() - fileStart, Journal.Status.FAILED);
+                System.out.println("Failed to back file up: " + relativePath);
                 ex.printStackTrace();
             }
+        } finally {
+            fileTime.recordSince(fileStart);
+            tracker.fileDone(size);
+        }
+    }
+
+    /**
+     * Stores a changed large file as a delta against the plain copy of its previous version. Deltas are always made
+     * against a plain copy, never another delta, so restoring a file never has to rebuild more than one version.
+     * @param toMove - File to be backed up
+     * @param snapshotName - name of the snapshot the file is backed up to
+     * @param relativePath - path of the file relative to the device
+     * @param last - the file's entry in the previous snapshot
+     * @return location of the stored delta, or null if the file should be copied whole
+     * @throws IOException - If a file cannot be read / written
+     */
+    private String backDeltaUp(Path toMove, String snapshotName, String relativePath,
+                               SnapshotManifest.Entry last) throws IOException {
+        if (deltaThreshold <= 0 || Files.size(toMove) < deltaThreshold) {
+            return null;
+        }
+
+        // find the plain copy the previous version was stored as, or compared against
+        String base;
+        if (last.getStorage().equals(SnapshotManifest.STORAGE_FILE) && !last.isCompressed()) {
+            base = last.getLocation();
+        } else if (last.getStorage().equals(SnapshotManifest.STORAGE_DELTA)) {
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(Paths.get(getDeltaLocation(), last.getLocation())))) {
+                base = in.readUTF();
+            }
         } else {
-            System.out.println("Skipped backing-up directory");
+            return null;
+        }
+        Path baseFile = Paths.get(getBackupLocation(), base);
+        if (!Files.exists(baseFile)) {
+            return null;
+        }
+
+        // a plain copy never changes, so its signature is worked out once and kept
+        Path signatureFile = Paths.get(getBackupLocation(), SIGNATURE_DIR, base + ".sig");
+        DeltaEngine.Signature signature = DeltaEngine.Signature.load(signatureFile);
+        if (signature == null) {
+            signature = deltaEngine.signature(baseFile);
+            signature.save(signatureFile);
+        }
+
+        String location = snapshotName + "/" + relativePath;
+        Path deltaFile = Paths.get(getDeltaLocation(), location);
+        Files.createDirectories(deltaFile.getParent());
+        Path temp = deltaFile.resolveSibling(deltaFile.getFileName() + ".part");
+        try {
+            DeltaEngine.Result result;
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeUTF(base);
+                // mostly rewritten, a new plain copy is smaller and becomes the base for later deltas,
+                // so the diff stops once half the file didn't match rather than writing the rest of it
+                result = deltaEngine.diff(signature, toMove, out, Files.size(toMove) / 2);
+            }
+            if (result == null) {
+                return null;
+            }
+            Files.move(temp, deltaFile, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return location;
+    }
+
+    /**
+     * Writes a compressed copy of a file, to a temporary file first so a failed backup never leaves half a file
+     * @param source - file to compress
+     * @param destination - where to write the compressed file
+     * @param codec - codec to compress with
+     * @throws IOException - If a file cannot be read / written
+     */
+    private void compressFile(Path source, Path destination, CompressionCodec codec) throws IOException {
+        Path temp = destination.resolveSibling(destination.getFileName() + ".part");
+        try {
+            try (InputStream in = Files.newInputStream(source);
+                 OutputStream out = codec.compress(Files.newOutputStream(temp))) {
+                copy(in, out);
+            }
+            Files.move(temp, destination, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Copies one stream to another, InputStream.transferTo was only added in java 9
+     * @param in - stream to read
+     * @param out - stream to write, not closed
+     * @throws IOException - If a stream cannot be read / written
+     */
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            // compressing a large file can take a while, stop part way through if the backup is cancelled
+            CopyEngine.checkInterrupted();
+            out.write(buffer, 0, read);
+        }
+    }
+
+    /**
+     * Works out the path of a file relative to the root of its device, always separated by "/"
+     * so that manifests can be read on any operating system
+     * @param file - file on the device
+     * @param devicePath - path of the device
+     * @return String representing the relative path
+     */
+    private String relativePath(Path file, String devicePath) {
+        return Paths.get(devicePath).relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Finds how many files, and how many bytes, are below a directory. Only reads each file's size,
+     * so it is far quicker than the work it is planning for. Skipped when nobody follows the progress.
+     * @param root - directory to scan
+     * @param tracker - given the totals
+     * @throws IOException - If the directory cannot be read
+     */
+    private static void planTotals(Path root, ProgressTracker tracker) throws IOException {
+        if (!tracker.isEnabled()) {
+            return;
+        }
+        long[] totals = new long[2];
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (!attrs.isDirectory()) {
+                    totals[0]++;
+                    totals[1] += attrs.size();
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException ex) {
+                // the backup itself reports files it can't read
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        tracker.setTotals(totals[0], totals[1]);
+    }
+
+    /**
+     * Restores a single file to where it is restored to
+     */
+    private interface RestoreSource {
+        void restoreTo(Path restoreFile) throws IOException;
+    }
+
+    /**
+     * A file planned to be restored
+     */
+    private static class RestoreItem {
+        // path relative to the restore directory, used in the report
+        private final String path;
+        private final Path restoreFile;
+        // size of the file, used to report progress
+        private final long size;
+        // modified time the restored file gets, a file that already has it was restored by an earlier restore
+        private final long modified;
+        private final RestoreSource source;
+
+        RestoreItem(String path, Path restoreFile, long size, long modified, RestoreSource source) {
+            this.path = path;
+            this.restoreFile = restoreFile;
+            this.size = size;
+            this.modified = modified;
+            this.source = source;
         }
     }
 }
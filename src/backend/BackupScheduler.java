@@ -0,0 +1,281 @@
+package backend;
+
+import java.io.Closeable;
+import java.io.InterruptedIOException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Runs backups of several devices at the same time.
+ * Every device is copied on its own engine, so a slow device can be limited to fewer threads without slowing
+ * the others down. All the engines share one limit for the backup disk, which every device writes to.
+ * A device only has one job at a time, backing a device up twice at once would copy every file twice.
+ */
+public class BackupScheduler implements Closeable {
+
+    // devices backed up at the same time by default, any others wait for one to finish
+    public static final int DEFAULT_MAX_DEVICES = 4;
+
+    private final BackupManager backupManager;
+    private final ExecutorService jobPool;
+    // shared by every device's engine, files being written to the backup disk at once
+    private final Semaphore destinationLimit;
+    private final int deviceThreads;
+    // device path -> worker threads, for devices that need a different limit
+    private final Map<String, Integer> deviceLimits = new HashMap<String, Integer>();
+    // every job in the order it was submitted, by id
+    private final Map<Long, BackupJob> jobs = new LinkedHashMap<Long, BackupJob>();
+    // device path -> the device's queued or running job
+    private final Map<String, BackupJob> active = new HashMap<String, BackupJob>();
+    private final List<Consumer<BackupJob>> listeners = new CopyOnWriteArrayList<Consumer<BackupJob>>();
+    private long nextId = 1;
+
+    /**
+     * Custom constructor, sized for solid state drives
+     * @param backupManager - backup manager of the user, does the backing up
+     */
+    public BackupScheduler(BackupManager backupManager) {
+        this(backupManager, DEFAULT_MAX_DEVICES, CopyEngine.threadsFor(CopyEngine.IOType.SSD),
+                CopyEngine.threadsFor(CopyEngine.IOType.SSD));
+    }
+
+    /**
+     * Custom constructor
+     * @param backupManager - backup manager of the user, does the backing up
+     * @param maxDevices - devices backed up at the same time
+     * @param deviceThreads - worker threads copying each device's files, unless set for the device
+     * @param destinationThreads - files written to the backup disk at the same time, across all devices
+     */
+    public BackupScheduler(BackupManager backupManager, int maxDevices, int deviceThreads, int destinationThreads) {
+        if (maxDevices < 1 || deviceThreads < 1 || destinationThreads < 1) {
+            throw new IllegalArgumentException("Scheduler requires at least one device, device thread and destination thread");
+        }
+        this.backupManager = backupManager;
+        this.deviceThreads = deviceThreads;
+        // fair, so no device waits for a permit forever while others keep taking them
+        this.destinationLimit = new Semaphore(destinationThreads, true);
+
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(maxDevices, maxDevices, 30L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), runnable -> {
+            Thread thread = new Thread(runnable, "backup-job-" + count.incrementAndGet());
+            // don't keep the application open just for idle job threads
+            thread.setDaemon(true);
+            return thread;
+        });
+        pool.allowCoreThreadTimeOut(true);
+        this.jobPool = pool;
+    }
+
+    /**
+     * Queues a backup of a device, it starts once fewer than the maximum amount of devices are being backed up
+     * @param device - device to back up
+     * @param incremental - true to only copy files changed since the latest snapshot
+     * @return the new job, or the device's job if it is already queued or running
+     */
+    public BackupJob submit(Device device, boolean incremental) {
+        return submit(device, incremental, false);
+    }
+
+    /**
+     * Queues a backup of a device, which may resume the device's interrupted snapshot
+     * @param device - device to back up
+     * @param incremental - true to only copy files changed since the latest snapshot
+     * @param resume - true to carry on with the device's latest interrupted snapshot, if there is one
+     * @return the new job, or the device's job if it is already queued or running
+     */
+    public synchronized BackupJob submit(Device device, boolean incremental, boolean resume) {
+        BackupJob existing = active.get(device.getPath());
+        // a job that has just finished may not have been removed yet
+        if (existing != null && !existing.isDone()) {
+            return existing;
+        }
+
+        BackupJob job = new BackupJob(nextId++, device.getPath(), incremental, resume);
+        jobs.put(job.getId(), job);
+        active.put(device.getPath(), job);
+        // listeners hear about the job being queued before it can start
+        notifyListeners(job);
+        job.setFuture(jobPool.submit(() -> run(job, device)));
+        return job;
+    }
+
+    /**
+     * Cancels a job. A queued job never starts, a running job stops copying and its snapshot is marked as failed.
+     * The running job saves a checkpoint first, so the backup can be resumed later.
+     * @param jobId - id of the job
+     * @return true if the job was cancelled, false if it had already finished or doesn't exist
+     */
+    public boolean cancel(long jobId) {
+        BackupJob job;
+        synchronized (this) {
+            job = jobs.get(jobId);
+        }
+        if (job == null) {
+            return false;
+        }
+
+        synchronized (job) {
+            if (job.getStatus() == BackupJob.Status.QUEUED) {
+                job.getFuture().cancel(false);
+                job.finish(BackupJob.Status.CANCELLED, null);
+                finished(job);
+                return true;
+            }
+            if (job.getStatus() == BackupJob.Status.RUNNING) {
+                // the backup notices the interrupt before copying its next file
+                job.getFuture().cancel(true);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns a job
+     * @param jobId - id of the job
+     * @return BackupJob, or null if no job has the id
+     */
+    public synchronized BackupJob getJob(long jobId) {
+        return jobs.get(jobId);
+    }
+
+    /**
+     * Lists every job, including finished ones until they are cleared
+     * @return List of jobs in the order they were submitted
+     */
+    public synchronized List<BackupJob> listJobs() {
+        return new ArrayList<BackupJob>(jobs.values());
+    }
+
+    /**
+     * Forgets about jobs that have finished
+     */
+    public synchronized void clearFinished() {
+        jobs.values().removeIf(BackupJob::isDone);
+    }
+
+    /**
+     * Limits how many worker threads copy a device's files, slow devices such as spinning disks
+     * read faster with fewer threads. Applies to jobs started after the limit is set.
+     * @param devicePath - path of the device
+     * @param threads - worker threads for the device
+     */
+    public synchronized void setDeviceLimit(String devicePath, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("A device requires at least one thread");
+        }
+        deviceLimits.put(devicePath, threads);
+    }
+
+    /**
+     * Adds a listener that is told whenever a job is queued, starts, makes progress or finishes.
+     * Listeners are called on the job's thread, a UI has to move the update onto its own thread.
+     * @param listener - called with the job that changed
+     */
+    public void addListener(Consumer<BackupJob> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener added with addListener
+     * @param listener - listener to remove
+     */
+    public void removeListener(Consumer<BackupJob> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Cancels every job and stops the job threads
+     */
+    @Override
+    public void close() {
+        for (BackupJob job : listJobs()) {
+            cancel(job.getId());
+        }
+        jobPool.shutdownNow();
+    }
+
+    /**
+     * Runs a job on a job thread
+     * @param job - job to run
+     * @param device - device to back up
+     */
+    private void run(BackupJob job, Device device) {
+        synchronized (job) {
+            // cancelled while it was queued
+            if (job.getStatus() != BackupJob.Status.QUEUED) {
+                return;
+            }
+            job.start();
+        }
+        notifyListeners(job);
+
+        int threads;
+        synchronized (this) {
+            threads = deviceLimits.getOrDefault(device.getPath(), deviceThreads);
+        }
+        CopyEngine engine = new CopyEngine(threads, threads * 4, destinationLimit);
+
+        try {
+            // progress updates are already throttled, so every one is passed on to the listeners
+            backupManager.createBackup(device, job.isIncremental(), job.isResume(), engine, progress -> {
+                job.setProgress(progress);
+                notifyListeners(job);
+            });
+            job.finish(BackupJob.Status.SUCCEEDED, null);
+        } catch (InterruptedIOException ex) {
+            job.finish(BackupJob.Status.CANCELLED, null);
+        } catch (IOException | RuntimeException ex) {
+            // a cancelled copy can also fail with an interrupted channel, rather than noticing the interrupt itself
+            if (Thread.currentThread().isInterrupted()) {
+                job.finish(BackupJob.Status.CANCELLED, null);
+            } else {
+                System.out.println("Backup of " + device.getPath() + " failed");
+                ex.printStackTrace();
+                job.finish(BackupJob.Status.FAILED, ex.getMessage());
+            }
+        } finally {
+            // the pool thread is reused for the next job
+            Thread.interrupted();
+        }
+        finished(job);
+    }
+
+    /**
+     * Lets the job's device be backed up again and tells the listeners
+     * @param job - job that has finished
+     */
+    private void finished(BackupJob job) {
+        synchronized (this) {
+            active.remove(job.getDevicePath(), job);
+        }
+        notifyListeners(job);
+    }
+
+    /**
+     * Tells every listener about a job's new status, a failing listener doesn't stop the others
+     * @param job - job that changed
+     */
+    private void notifyListeners(BackupJob job) {
+        for (Consumer<BackupJob> listener : listeners) {
+            try {
+                listener.accept(job);
+            } catch (RuntimeException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+}
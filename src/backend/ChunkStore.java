@@ -0,0 +1,165 @@
+package backend;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Content addressed store of file chunks. Files are split into chunks where the content decides the
+ * chunk boundaries, every chunk is named by its SHA-256 hash and is only ever stored once.
+ * Inserting a few bytes into a file only changes the chunks around the insert, the rest are shared.
+ */
+public class ChunkStore {
+
+    // default chunk sizes, chunks average around 1MB
+    public static final int DEFAULT_MIN_CHUNK = 256 * 1024;
+    public static final int DEFAULT_AVG_CHUNK = 1024 * 1024;
+    public static final int DEFAULT_MAX_CHUNK = 4 * 1024 * 1024;
+
+    // Gear table used by the rolling hash, the seed is fixed so chunk boundaries are the same on every run
+    // source: https://www.usenix.org/conference/atc16/technical-sessions/presentation/xia
+    private static final long[] GEAR = new long[256];
+    static {
+        Random random = new Random(0x6a09e667f3bcc908L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final Path root;
+    private final int minChunk;
+    private final int maxChunk;
+    private final long mask;
+
+    /**
+     * Custom constructor, uses the default chunk sizes
+     * @param root - directory the chunks are stored in
+     */
+    public ChunkStore(Path root) {
+        this(root, DEFAULT_MIN_CHUNK, DEFAULT_AVG_CHUNK, DEFAULT_MAX_CHUNK);
+    }
+
+    /**
+     * Custom constructor
+     * @param root - directory the chunks are stored in
+     * @param minChunk - smallest chunk size in bytes, except for the end of a file
+     * @param avgChunk - average chunk size in bytes, has to be a power of two
+     * @param maxChunk - largest chunk size in bytes
+     */
+    public ChunkStore(Path root, int minChunk, int avgChunk, int maxChunk) {
+        if (Integer.bitCount(avgChunk) != 1 || minChunk > avgChunk || avgChunk > maxChunk) {
+            throw new IllegalArgumentException("Chunk sizes must be min <= avg <= max and avg must be a power of two");
+        }
+        this.root = root;
+        this.minChunk = minChunk;
+        this.maxChunk = maxChunk;
+        // a boundary is found when the masked bits of the hash are all zero, which happens once every avgChunk bytes
+        // the top bits are used as they depend on more of the recent bytes than the bottom bits
+        int bits = Integer.numberOfTrailingZeros(avgChunk);
+        this.mask = bits == 0 ? 0 : -1L << (64 - bits);
+    }
+
+    /**
+     * Splits a file into chunks and stores every chunk that isn't already in the store
+     * @param file - file to be stored
+     * @return List of chunk hashes, in order, that make up the file
+     * @throws IOException - If a file cannot be read / written
+     */
+    public List<String> store(Path file) throws IOException {
+        List<String> hashes = new ArrayList<String>();
+        // small files don't need a full sized chunk buffer, the buffer grows if the file does
+        byte[] chunk = new byte[(int) Math.max(1, Math.min(maxChunk, Files.size(file)))];
+        byte[] buffer = new byte[64 * 1024];
+        int length = 0;
+        long hash = 0;
+
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                CopyEngine.checkInterrupted();
+                for (int i = 0; i < read; i++) {
+                    if (length == chunk.length) {
+                        chunk = Arrays.copyOf(chunk, Math.min(maxChunk, chunk.length * 2));
+                    }
+                    chunk[length++] = buffer[i];
+                    hash = (hash << 1) + GEAR[buffer[i] & 0xff];
+
+                    // cut the chunk once the content says so, or once it gets too large
+                    if ((length >= minChunk && (hash & mask) == 0) || length == maxChunk) {
+                        hashes.add(put(chunk, length));
+                        length = 0;
+                        hash = 0;
+                    }
+                }
+            }
+        }
+
+        // whatever is left is the last chunk, an empty file has no chunks
+        if (length > 0) {
+            hashes.add(put(chunk, length));
+        }
+        return hashes;
+    }
+
+    /**
+     * Writes the chunks back out, in order, to rebuild the original file
+     * @param hashes - chunk hashes that make up the file
+     * @param out - where the file's contents are written to
+     * @throws IOException - If a chunk is missing or cannot be read
+     */
+    public void restore(List<String> hashes, OutputStream out) throws IOException {
+        for (String hash : hashes) {
+            Files.copy(chunkPath(hash), out);
+        }
+    }
+
+    /**
+     * Stores a single chunk, unless a chunk with the same hash has already been stored
+     * @param data - buffer holding the contents of the chunk
+     * @param length - amount of bytes in the buffer that belong to the chunk
+     * @return hash of the chunk
+     * @throws IOException - If the chunk cannot be written
+     */
+    private String put(byte[] data, int length) throws IOException {
+        String hash = HashUtility.sha256(data, length);
+        Path chunkFile = chunkPath(hash);
+
+        // the chunk is already stored, this is where the space is saved
+        if (Files.exists(chunkFile)) {
+            return hash;
+        }
+
+        // write to a temporary file first and then move it, so a half written chunk is never seen
+        // by another thread or left behind by a crash
+        Files.createDirectories(chunkFile.getParent());
+        Path temp = Files.createTempFile(chunkFile.getParent(), hash, ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                out.write(data, 0, length);
+            }
+            Files.move(temp, chunkFile, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException ex) {
+            // another thread stored the same chunk first
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return hash;
+    }
+
+    /**
+     * Returns where a chunk is stored, chunks are spread over sub directories to keep directories small
+     * @param hash - hash of the chunk
+     * @return Path to the chunk
+     */
+    private Path chunkPath(String hash) {
+        return root.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+    }
+}
@@ -0,0 +1,44 @@
+package backend;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Codecs that backed up files can be decompressed with, looked up by the name saved in the manifest
+ */
+public class Codecs {
+
+    private static final Map<String, CompressionCodec> codecs = new ConcurrentHashMap<String, CompressionCodec>();
+
+    static {
+        register(new DeflateCodec());
+    }
+
+    // only static functions
+    private Codecs() {
+
+    }
+
+    /**
+     * Makes a codec available for restores, replacing any codec with the same name
+     * @param codec - codec to register
+     */
+    public static void register(CompressionCodec codec) {
+        codecs.put(codec.getName(), codec);
+    }
+
+    /**
+     * Finds a codec by name
+     * @param name - name saved in the manifest
+     * @return CompressionCodec with the name
+     * @throws IOException - If no codec with the name is registered, the file can't be restored
+     */
+    public static CompressionCodec get(String name) throws IOException {
+        CompressionCodec codec = codecs.get(name);
+        if (codec == null) {
+            throw new IOException("Unknown compression codec " + name);
+        }
+        return codec;
+    }
+}
@@ -0,0 +1,35 @@
+package backend;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A way of compressing backed up files. The codec's name is saved in the snapshot's manifest, so the
+ * file can be decompressed on restore by looking the codec up in Codecs. New codecs are added by
+ * implementing this interface and registering them with Codecs.register.
+ */
+public interface CompressionCodec {
+
+    /**
+     * Returns the name saved in manifests, it can't change once backups have been made with the codec
+     * @return String naming the codec
+     */
+    String getName();
+
+    /**
+     * Wraps a stream so everything written to it is compressed, closing the returned stream closes out
+     * @param out - stream the compressed bytes are written to
+     * @return stream to write the original bytes to
+     * @throws IOException - If the stream cannot be written
+     */
+    OutputStream compress(OutputStream out) throws IOException;
+
+    /**
+     * Wraps a stream of compressed bytes so reading from it returns the original bytes, closing the returned stream closes in
+     * @param in - stream of compressed bytes
+     * @return stream to read the original bytes from
+     * @throws IOException - If the stream cannot be read
+     */
+    InputStream decompress(InputStream in) throws IOException;
+}
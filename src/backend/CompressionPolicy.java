@@ -0,0 +1,147 @@
+package backend;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Decides which codec, if any, a backed up file is compressed with.
+ * Files whose extension has a codec set use it. Files that are already compressed, such as photos, videos
+ * and archives, are stored as they are. Any other file has a sample of its start checked, random looking
+ * (high entropy) data won't get smaller so it is stored as it is too.
+ */
+public class CompressionPolicy {
+
+    // already compressed formats, compressing them again only costs time
+    private static final String[] COMPRESSED_EXTENSIONS = {
+            "jpg", "jpeg", "png", "gif", "webp", "heic",
+            "mp3", "aac", "ogg", "flac", "m4a",
+            "mp4", "m4v", "mkv", "mov", "avi", "webm",
+            "zip", "gz", "tgz", "bz2", "xz", "7z", "rar", "zst",
+            "jar", "apk", "docx", "xlsx", "pptx", "odt", "pdf"
+    };
+
+    private CompressionCodec defaultCodec;
+    // extension -> codec, a null codec means the file is stored as it is
+    private final Map<String, CompressionCodec> byExtension = new HashMap<String, CompressionCodec>();
+    // files smaller than this aren't worth compressing
+    private long minSize = 512;
+    // amount of bytes from the start of a file used to estimate its entropy
+    private int sampleSize = 64 * 1024;
+    // bits per byte, 8 is completely random data
+    private double maxEntropy = 7.5;
+
+    // default constructor, deflate at its default level
+    public CompressionPolicy() {
+        this(new DeflateCodec());
+    }
+
+    /**
+     * Custom constructor
+     * @param defaultCodec - codec used for files that look compressible
+     */
+    public CompressionPolicy(CompressionCodec defaultCodec) {
+        this.defaultCodec = defaultCodec;
+        for (String extension : COMPRESSED_EXTENSIONS) {
+            byExtension.put(extension, null);
+        }
+    }
+
+    /**
+     * Picks the codec for a file
+     * @param file - file being backed up
+     * @param size - size of the file
+     * @return CompressionCodec to compress the file with, null to store it as it is
+     * @throws IOException - If the file cannot be read
+     */
+    public CompressionCodec choose(Path file, long size) throws IOException {
+        if (size < minSize) {
+            return null;
+        }
+
+        String extension = extension(file);
+        if (byExtension.containsKey(extension)) {
+            return byExtension.get(extension);
+        }
+        return entropy(file) <= maxEntropy ? defaultCodec : null;
+    }
+
+    /**
+     * Sets the codec used for files with an extension
+     * @param extension - file extension without the dot, case is ignored
+     * @param codec - codec to use, null to store the files as they are
+     */
+    public void setCodec(String extension, CompressionCodec codec) {
+        byExtension.put(extension.toLowerCase(Locale.ROOT), codec);
+    }
+
+    /**
+     * Sets the codec used for files that look compressible
+     * @param defaultCodec - codec to use
+     */
+    public void setDefaultCodec(CompressionCodec defaultCodec) {
+        this.defaultCodec = defaultCodec;
+    }
+
+    /**
+     * Sets the size files have to be before they are compressed
+     * @param minSize - size in bytes
+     */
+    public void setMinSize(long minSize) {
+        this.minSize = minSize;
+    }
+
+    /**
+     * Sets the highest entropy a file can have and still be compressed
+     * @param maxEntropy - bits per byte, between 0 and 8
+     */
+    public void setMaxEntropy(double maxEntropy) {
+        this.maxEntropy = maxEntropy;
+    }
+
+    /**
+     * Estimates how random a file's contents are from a sample of its start
+     * source: https://en.wikipedia.org/wiki/Entropy_(information_theory)
+     * @param file - file to sample
+     * @return Shannon entropy of the sample in bits per byte
+     * @throws IOException - If the file cannot be read
+     */
+    private double entropy(Path file) throws IOException {
+        ByteBuffer sample = ByteBuffer.allocate(sampleSize);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (sample.hasRemaining() && channel.read(sample) > 0) {
+                // keep reading until the sample is full or the file ends
+            }
+        }
+
+        int[] counts = new int[256];
+        for (int i = 0; i < sample.position(); i++) {
+            counts[sample.get(i) & 0xFF]++;
+        }
+
+        double entropy = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                double p = (double) count / sample.position();
+                entropy -= p * Math.log(p) / Math.log(2);
+            }
+        }
+        return entropy;
+    }
+
+    /**
+     * Returns a file's extension in lower case
+     * @param file - file to check
+     * @return extension without the dot, empty if the file has none
+     */
+    private static String extension(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,233 @@
+package backend;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Walks a directory tree once and hands every file to a bounded pool of worker threads.
+ * Used by BackupManager so that many small files can be copied at the same time.
+ * Work that has already been planned, such as a restore, can be run on the same pool with run.
+ * Engines of several devices can share a limit, so together they never run more tasks than the destination disk can take.
+ * Interrupting the thread that called walk or run stops handing out work, which is how a backup is cancelled.
+ */
+public class CopyEngine {
+
+    /**
+     * Type of storage the engine is copying from / to, used to decide how many workers to run
+     */
+    public enum IOType {
+        // spinning disks suffer from too many seeks, so keep the worker count low
+        HDD,
+        // solid state drives can handle many requests in parallel
+        SSD,
+        // network drives spend most of their time waiting, so more workers help
+        NETWORK
+    }
+
+    // files waiting for a worker and workers busy, a full queue means the workers can't keep up with the walk
+    private static final Metrics.Gauge queueDepth = Metrics.gauge("copy.queue");
+    private static final Metrics.Gauge activeWorkers = Metrics.gauge("copy.active");
+
+    private final int threads;
+    private final int queueCapacity;
+    // shared with other engines, every task holds a permit while it runs, null for no shared limit
+    private final Semaphore limit;
+
+    /**
+     * Creates an engine sized for the type of storage being used
+     * @param ioType - type of storage the files are copied to / from
+     */
+    public CopyEngine(IOType ioType) {
+        this(threadsFor(ioType), threadsFor(ioType) * 4);
+    }
+
+    /**
+     * Custom constructor
+     * @param threads - amount of worker threads copying files
+     * @param queueCapacity - maximum amount of files waiting for a worker
+     */
+    public CopyEngine(int threads, int queueCapacity) {
+        this(threads, queueCapacity, null);
+    }
+
+    /**
+     * Custom constructor
+     * @param threads - amount of worker threads copying files
+     * @param queueCapacity - maximum amount of files waiting for a worker
+     * @param limit - permits shared with other engines writing to the same disk, null for no shared limit
+     */
+    public CopyEngine(int threads, int queueCapacity, Semaphore limit) {
+        if (threads < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Copy engine requires at least one thread and a queue capacity of one");
+        }
+        this.threads = threads;
+        this.queueCapacity = queueCapacity;
+        this.limit = limit;
+    }
+
+    /**
+     * Works out how many worker threads suit a type of storage based on the amount of cores available
+     * @param ioType - type of storage the files are copied to / from
+     * @return amount of worker threads to use
+     */
+    public static int threadsFor(IOType ioType) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        switch (ioType) {
+            case HDD:
+                return Math.min(2, cores);
+            case NETWORK:
+                return cores * 4;
+            case SSD:
+            default:
+                return cores * 2;
+        }
+    }
+
+    /**
+     * Walks the directory tree once and runs the task for every file found (directories are skipped).
+     * The work queue is bounded, when it is full the walking thread runs the task itself.
+     * This is the backpressure that stops the walker from listing millions of files into memory.
+     * Tasks are expected to handle their own failures, the same way backFileUp does.
+     * @param root - directory to walk
+     * @param task - what to do with every file
+     * @throws IOException - If the directory tree cannot be read or the walk is interrupted
+     */
+    public void walk(Path root, Consumer<Path> task) throws IOException {
+        ThreadPoolExecutor executor = newExecutor();
+
+        // Files.walk is lazy, so files are only listed as fast as the workers can take them
+        try (Stream<Path> files = Files.walk(root)) {
+            Iterator<Path> found = files.filter(currentFile -> !Files.isDirectory(currentFile)).iterator();
+            while (found.hasNext()) {
+                checkInterrupted();
+                Path currentFile = found.next();
+                executor.execute(limited(() -> task.accept(currentFile)));
+                recordQueue(executor);
+            }
+        } finally {
+            executor.shutdown();
+            awaitTermination(executor);
+        }
+    }
+
+    /**
+     * Runs the task for every item on the worker threads and waits for all of them to complete.
+     * Uses the same bounded queue as walk, so a large plan isn't turned into millions of queued tasks at once.
+     * Tasks are expected to handle their own failures.
+     * @param items - work to be done, for example the files of a restore
+     * @param task - what to do with every item
+     * @param <T> - type of work item
+     * @throws IOException - If waiting for the workers is interrupted
+     */
+    public <T> void run(Collection<T> items, Consumer<T> task) throws IOException {
+        ThreadPoolExecutor executor = newExecutor();
+        try {
+            for (T item : items) {
+                checkInterrupted();
+                executor.execute(limited(() -> task.accept(item)));
+                recordQueue(executor);
+            }
+        } finally {
+            executor.shutdown();
+            awaitTermination(executor);
+        }
+    }
+
+    /**
+     * Wraps a task so it holds a permit of the shared limit while it runs
+     * @param task - task to run
+     * @return task that waits for a permit first, or the task itself if there is no shared limit
+     */
+    private Runnable limited(Runnable task) {
+        if (limit == null) {
+            return task;
+        }
+        return () -> {
+            try {
+                limit.acquire();
+            } catch (InterruptedException ex) {
+                // the pool is being shut down, the task is dropped like the ones still queued
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                task.run();
+            } finally {
+                limit.release();
+            }
+        };
+    }
+
+    /**
+     * Updates the queue metrics after a task has been handed out
+     * @param executor - executor the task was handed to
+     */
+    private static void recordQueue(ThreadPoolExecutor executor) {
+        queueDepth.set(executor.getQueue().size());
+        activeWorkers.set(executor.getActiveCount());
+    }
+
+    /**
+     * Stops work once the calling thread has been interrupted. Called between files and inside the loops copying
+     * a large file, so a cancelled backup, restore or sync stops within one buffer rather than one file.
+     * @throws InterruptedIOException - If the calling thread has been interrupted
+     */
+    static void checkInterrupted() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Copy cancelled");
+        }
+    }
+
+    /**
+     * Creates the pool of workers, the queue is bounded and the submitting thread runs tasks once it is full
+     * @return executor for a single walk / run
+     */
+    private ThreadPoolExecutor newExecutor() {
+        // CallerRunsPolicy makes the thread submitting work run it when the queue is full
+        // source: https://docs.oracle.com/javase/8/docs/api/java/util/concurrent/ThreadPoolExecutor.html
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Waits for all the submitted tasks to complete
+     * @param executor - executor that has been shut down
+     * @throws InterruptedIOException - If the waiting thread is interrupted
+     */
+    private void awaitTermination(ThreadPoolExecutor executor) throws InterruptedIOException {
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                // keep waiting, large files can take a long time to copy
+            }
+        } catch (InterruptedException ex) {
+            // stop the workers and keep the interrupted flag for the caller
+            executor.shutdownNow();
+            // the workers notice the interrupt within a buffer, wait for them so nothing is still
+            // writing once the caller records how far the copy got
+            boolean stopped = false;
+            while (!stopped) {
+                try {
+                    stopped = executor.awaitTermination(1, TimeUnit.SECONDS);
+                } catch (InterruptedException again) {
+                    // already stopping
+                }
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Copy interrupted");
+        }
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+}
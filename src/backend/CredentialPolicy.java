@@ -0,0 +1,138 @@
+package backend;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Rules that usernames and passwords have to follow.
+ * Checks are done in a single pass over the characters without regular expressions.
+ * The default policy is the application's original rules: usernames are only letters and numbers,
+ * passwords are at least 8 characters with a letter, a number and a special-character.
+ */
+public class CredentialPolicy {
+
+    private int minPasswordLength = 8;
+    private int maxUsernameLength = Integer.MAX_VALUE;
+    private boolean requireLetter = true;
+    private boolean requireDigit = true;
+    private boolean requireSpecial = true;
+    // stored in lower case, compared ignoring case
+    private final Set<String> deniedPasswords = new HashSet<String>();
+    private final Set<String> deniedUsernames = new HashSet<String>();
+
+    // default constructor, the application's original rules
+    public CredentialPolicy() {
+
+    }
+
+    /**
+     * Checks if username is valid, usernames must contain only numbers and letters
+     * @param username - username to be validated
+     * @return boolean if username is valid
+     */
+    public boolean validateUsername(String username) {
+        int length = username.length();
+        if (length == 0 || length > maxUsernameLength) {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++) {
+            char c = username.charAt(i);
+            if (!isLetter(c) && !isDigit(c)) {
+                return false;
+            }
+        }
+
+        return deniedUsernames.isEmpty() || !deniedUsernames.contains(username.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Checks if password is strong enough
+     * @param password - password to be validated
+     * @return If password is strong enough
+     */
+    public boolean validatePassword(String password) {
+        if (password.length() < minPasswordLength) {
+            return false;
+        }
+
+        boolean letterCheck = !requireLetter;
+        boolean numbCheck = !requireDigit;
+        boolean specialCharacterCheck = !requireSpecial;
+
+        for (int i = 0; i < password.length(); i++) {
+            char c = password.charAt(i);
+            if (isLetter(c)) {
+                letterCheck = true;
+            } else if (isDigit(c)) {
+                numbCheck = true;
+            } else if (c != '_' && !isWhitespace(c)) {
+                // anything that isn't a word character or whitespace counts as special
+                specialCharacterCheck = true;
+            }
+        }
+
+        // all 3 booleans have to be true or this will == false
+        return letterCheck && numbCheck && specialCharacterCheck
+                && (deniedPasswords.isEmpty() || !deniedPasswords.contains(password.toLowerCase(Locale.ROOT)));
+    }
+
+    /**
+     * Sets the shortest password allowed
+     * @param minPasswordLength - minimum amount of characters
+     */
+    public void setMinPasswordLength(int minPasswordLength) {
+        this.minPasswordLength = minPasswordLength;
+    }
+
+    /**
+     * Sets the longest username allowed
+     * @param maxUsernameLength - maximum amount of characters
+     */
+    public void setMaxUsernameLength(int maxUsernameLength) {
+        this.maxUsernameLength = maxUsernameLength;
+    }
+
+    /**
+     * Sets which character classes a password has to contain
+     * @param letter - password needs a letter
+     * @param digit - password needs a number
+     * @param special - password needs a special-character
+     */
+    public void setRequiredClasses(boolean letter, boolean digit, boolean special) {
+        this.requireLetter = letter;
+        this.requireDigit = digit;
+        this.requireSpecial = special;
+    }
+
+    /**
+     * Stops a password from being used, for example commonly guessed passwords
+     * @param password - password to deny, case is ignored
+     */
+    public void denyPassword(String password) {
+        deniedPasswords.add(password.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Stops a username from being used, for example "admin"
+     * @param username - username to deny, case is ignored
+     */
+    public void denyUsername(String username) {
+        deniedUsernames.add(username.toLowerCase(Locale.ROOT));
+    }
+
+    // character classes match the ASCII only classes of java's regular expressions, [a-zA-Z], \d and \s
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+}
@@ -0,0 +1,173 @@
+package backend;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stores user credentials in the password vault.
+ * The vault is read once into a hash map so look ups don't read the file. Changes are appended to the vault
+ * and forced to disk, a later line for a user replaces an earlier one. Once the vault holds many replaced
+ * lines it is compacted by rewriting it with only the current credentials.
+ */
+public class CredentialStore {
+
+    private static final String SPLITTER = "@@@";
+    // compact once the vault holds this many more lines than users
+    private static final int COMPACT_THRESHOLD = 1000;
+
+    // one store per vault, so the vault is only read once per application run
+    private static final Map<Path, CredentialStore> stores = new HashMap<Path, CredentialStore>();
+
+    private final Path vault;
+    // username -> stored password
+    private final Map<String, String> credentials = new HashMap<String, String>();
+    // amount of lines in the vault, including replaced ones
+    private int lines;
+
+    /**
+     * Custom constructor, use open to get the shared store for a vault
+     * @param vault - path to the vault file
+     */
+    private CredentialStore(Path vault) {
+        this.vault = vault;
+    }
+
+    /**
+     * Returns the store for a vault, loading the vault the first time it is opened
+     * @param vault - path to the vault file
+     * @return CredentialStore for the vault
+     * @throws IOException - If the vault cannot be read
+     */
+    public static CredentialStore open(Path vault) throws IOException {
+        synchronized (stores) {
+            CredentialStore store = stores.get(vault);
+            if (store == null) {
+                store = new CredentialStore(vault);
+                store.load();
+                stores.put(vault, store);
+            }
+            return store;
+        }
+    }
+
+    /**
+     * Finds a user's stored password
+     * @param username - user to look up
+     * @return stored password or null if the user isn't registered
+     */
+    public synchronized String get(String username) {
+        return credentials.get(username);
+    }
+
+    /**
+     * Adds a user, or replaces a user's stored password.
+     * The line is on disk before the method returns, so a crash can't lose a registration.
+     * @param username - user to store
+     * @param password - password to store, already encrypted
+     * @throws IOException - If the vault cannot be written
+     */
+    public synchronized void put(String username, String password) throws IOException {
+        byte[] line = (username + SPLITTER + password + System.getProperty("line.separator")).getBytes(StandardCharsets.UTF_8);
+        try (FileChannel channel = FileChannel.open(vault, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(line);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+
+        credentials.put(username, password);
+        lines++;
+
+        if (lines - credentials.size() > COMPACT_THRESHOLD) {
+            compact();
+        }
+    }
+
+    /**
+     * Rewrites the vault with only the current credentials.
+     * The new vault is written to a temporary file and moved over the old one, so a crash leaves either
+     * the old or the new vault and never half of one.
+     * @throws IOException - If the vault cannot be written
+     */
+    public synchronized void compact() throws IOException {
+        Path temp = vault.resolveSibling(vault.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, String> credential : credentials.entrySet()) {
+                writer.write(credential.getKey() + SPLITTER + credential.getValue());
+                writer.newLine();
+            }
+        }
+        // make sure the new vault is on disk before it replaces the old one
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temp, vault, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        lines = credentials.size();
+    }
+
+    /**
+     * Reads the vault into memory. A last line without a line ending may have been cut off by a crash while it
+     * was being appended, it is removed from the vault if it can't be read. A complete last line that is only
+     * missing its line ending, e.g. in a vault edited by hand, is kept and the line ending is added, so the
+     * next line appended doesn't join onto it.
+     * @throws IOException - If the vault cannot be read / written
+     */
+    private void load() throws IOException {
+        if (!Files.exists(vault)) {
+            return;
+        }
+
+        byte[] contents = Files.readAllBytes(vault);
+        int lineStart = 0;
+        for (int i = 0; i < contents.length; i++) {
+            if (contents[i] == '\n') {
+                addLine(new String(contents, lineStart, i - lineStart, StandardCharsets.UTF_8));
+                lineStart = i + 1;
+            }
+        }
+
+        if (lineStart == contents.length) {
+            return;
+        }
+        if (addLine(new String(contents, lineStart, contents.length - lineStart, StandardCharsets.UTF_8))) {
+            byte[] lineEnd = System.getProperty("line.separator").getBytes(StandardCharsets.UTF_8);
+            Files.write(vault, lineEnd, StandardOpenOption.APPEND);
+        } else {
+            System.out.println("Removing incomplete line from password vault");
+            try (RandomAccessFile file = new RandomAccessFile(vault.toFile(), "rw")) {
+                file.setLength(lineStart);
+            }
+        }
+    }
+
+    /**
+     * Adds a line of the vault to the map
+     * @param line - line in the format username@@@password
+     * @return true if the line held a username and password, false if it was skipped
+     */
+    private boolean addLine(String line) {
+        // windows line endings leave a carriage return behind
+        if (line.endsWith("\r")) {
+            line = line.substring(0, line.length() - 1);
+        }
+
+        int split = line.indexOf(SPLITTER);
+        if (split <= 0 || split + SPLITTER.length() == line.length()) {
+            return false;
+        }
+        credentials.put(line.substring(0, split), line.substring(split + SPLITTER.length()));
+        lines++;
+        return true;
+    }
+}
@@ -0,0 +1,591 @@
+package backend;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Delta transfer for large files that only changed in places, works the same way as rsync.
+ * The previous version of a file is described by a signature, a weak and a strong checksum of every block.
+ * The new version is scanned with a rolling weak checksum so blocks are found even when data was inserted
+ * before them, and the result is a delta of blocks to copy from the previous version and literal data.
+ * source: https://rsync.samba.org/tech_report/node2.html
+ */
+public class DeltaEngine {
+
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    private static final int SIGNATURE_MAGIC = 0x53494731;
+    private static final int DELTA_MAGIC = 0x444C5431;
+    private static final byte OP_END = 0;
+    private static final byte OP_COPY = 1;
+    private static final byte OP_DATA = 2;
+    // strong checksum of a block, MD5 is what rsync uses and a match is only trusted after the weak checksum matched
+    private static final String STRONG_ALGORITHM = "MD5";
+    private static final int STRONG_LENGTH = 16;
+
+    private final int blockSize;
+
+    // default constructor, 64KB blocks
+    public DeltaEngine() {
+        this(DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Custom constructor
+     * @param blockSize - size of the blocks compared between versions, smaller blocks find more matches but make larger signatures
+     * @throws IllegalArgumentException - If the block size isn't positive
+     */
+    public DeltaEngine(int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Delta engine requires a block size of at least one byte");
+        }
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Checksums of every block of a file
+     */
+    public static class Signature {
+
+        private final int blockSize;
+        private final long size;
+        private final int[] weak;
+        private final byte[][] strong;
+
+        /**
+         * Custom constructor
+         * @param blockSize - size of the blocks
+         * @param size - size of the file
+         * @param weak - rolling checksum of each block
+         * @param strong - MD5 of each block
+         */
+        public Signature(int blockSize, long size, int[] weak, byte[][] strong) {
+            this.blockSize = blockSize;
+            this.size = size;
+            this.weak = weak;
+            this.strong = strong;
+        }
+
+        public int getBlockSize() {
+            return blockSize;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public int getBlockCount() {
+            return weak.length;
+        }
+
+        /**
+         * Saves the signature, written to a temporary file first so a crash never leaves half a signature
+         * @param file - where to save the signature
+         * @throws IOException - If the file cannot be written
+         */
+        public void save(Path file) throws IOException {
+            Files.createDirectories(file.getParent());
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(SIGNATURE_MAGIC);
+                out.writeInt(blockSize);
+                out.writeLong(size);
+                out.writeInt(weak.length);
+                for (int i = 0; i < weak.length; i++) {
+                    out.writeInt(weak[i]);
+                    out.write(strong[i]);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        /**
+         * Loads a signature previously saved with save
+         * @param file - signature file
+         * @return Signature, or null if the file doesn't exist or isn't a signature
+         * @throws IOException - If the file cannot be read
+         */
+        public static Signature load(Path file) throws IOException {
+            if (!Files.exists(file)) {
+                return null;
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                if (in.readInt() != SIGNATURE_MAGIC) {
+                    System.out.println("Ignoring broken signature " + file);
+                    return null;
+                }
+                int blockSize = in.readInt();
+                long size = in.readLong();
+                int count = in.readInt();
+                int[] weak = new int[count];
+                byte[][] strong = new byte[count][STRONG_LENGTH];
+                for (int i = 0; i < count; i++) {
+                    weak[i] = in.readInt();
+                    in.readFully(strong[i]);
+                }
+                return new Signature(blockSize, size, weak, strong);
+            }
+        }
+    }
+
+    /**
+     * Outcome of a diff
+     */
+    public static class Result {
+
+        private final Signature signature;
+        private final long literalBytes;
+        private final boolean inPlace;
+
+        /**
+         * Custom constructor
+         * @param signature - signature of the new version, used as the previous version next time
+         * @param literalBytes - amount of data that didn't match the previous version
+         * @param inPlace - true if every copied block stays at the same offset
+         */
+        public Result(Signature signature, long literalBytes, boolean inPlace) {
+            this.signature = signature;
+            this.literalBytes = literalBytes;
+            this.inPlace = inPlace;
+        }
+
+        public Signature getSignature() {
+            return signature;
+        }
+
+        public long getLiteralBytes() {
+            return literalBytes;
+        }
+
+        /**
+         * Checks if the previous version can be patched where it is, only writing the changed data.
+         * True when data was changed but not inserted or removed, as with database and VM image files.
+         * @return true if patchInPlace can be used
+         */
+        public boolean isInPlace() {
+            return inPlace;
+        }
+    }
+
+    /**
+     * Works out the signature of a file
+     * @param file - file to read
+     * @return Signature of the file
+     * @throws IOException - If the file cannot be read
+     */
+    public Signature signature(Path file) throws IOException {
+        SignatureBuilder builder = new SignatureBuilder(blockSize);
+        byte[] buffer = new byte[blockSize];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                CopyEngine.checkInterrupted();
+                builder.update(buffer, 0, read);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Works out the delta from the previous version of a file to the new version. The new version is only read once,
+     * and its signature is built on the way so it doesn't have to be read again for the next delta.
+     * @param previous - signature of the previous version
+     * @param file - new version of the file
+     * @param delta - stream the delta is written to, not closed
+     * @return Result describing the delta
+     * @throws IOException - If the file cannot be read or the delta cannot be written
+     */
+    public Result diff(Signature previous, Path file, OutputStream delta) throws IOException {
+        return diff(previous, file, delta, Long.MAX_VALUE);
+    }
+
+    /**
+     * Works out the delta from the previous version of a file to the new version, giving up as soon as more than
+     * literalLimit bytes didn't match. A mostly rewritten file then never has more than the limit written for it.
+     * @param previous - signature of the previous version
+     * @param file - new version of the file
+     * @param delta - stream the delta is written to, not closed
+     * @param literalLimit - most data that may differ from the previous version
+     * @return Result describing the delta, or null if more than literalLimit bytes differ and the delta is incomplete
+     * @throws IOException - If the file cannot be read or the delta cannot be written
+     */
+    public Result diff(Signature previous, Path file, OutputStream delta, long literalLimit) throws IOException {
+        int size = previous.getBlockSize();
+        // weak checksum -> blocks with it, only full blocks can be matched
+        Map<Integer, List<Integer>> blocks = new HashMap<Integer, List<Integer>>();
+        for (int i = 0; i < previous.getBlockCount(); i++) {
+            if ((long) (i + 1) * size <= previous.getSize()) {
+                blocks.computeIfAbsent(previous.weak[i], weak -> new ArrayList<Integer>(1)).add(i);
+            }
+        }
+
+        DeltaWriter writer = new DeltaWriter(new DataOutputStream(new BufferedOutputStream(delta)), size);
+        SignatureBuilder builder = new SignatureBuilder(size);
+        MessageDigest md5 = newStrongDigest();
+        // window of the file, holds the block being checked and any literal data not yet written
+        byte[] buffer = new byte[Math.max(size * 16, 1024 * 1024)];
+        // offset in the file of the start of the buffer
+        long bufferOffset = 0;
+        int filled = 0;
+        // start of the block being checked and of the literal data before it
+        int position = 0;
+        int literal = 0;
+        boolean eof = false;
+        boolean rolling = false;
+        int a = 0;
+        int b = 0;
+
+        try (InputStream in = Files.newInputStream(file)) {
+            while (true) {
+                // data written and data waiting to be written, checked before any more of it is written
+                if (writer.literalBytes + position - literal > literalLimit) {
+                    return null;
+                }
+                // one byte past the block is needed to roll the checksum forward
+                if (!eof && position + size + 1 > filled) {
+                    if (position + size + 1 > buffer.length) {
+                        // make room, literal data that is kept in the buffer can't be moved out
+                        builder.update(buffer, literal, position - literal);
+                        writer.data(buffer, literal, position - literal);
+                        literal = position;
+                        System.arraycopy(buffer, literal, buffer, 0, filled - literal);
+                        bufferOffset += literal;
+                        filled -= literal;
+                        position -= literal;
+                        literal = 0;
+                    }
+                    // checked once per buffer, so a cancelled backup stops part way through a large file
+                    CopyEngine.checkInterrupted();
+                    while (filled < buffer.length) {
+                        int read = in.read(buffer, filled, buffer.length - filled);
+                        if (read == -1) {
+                            eof = true;
+                            break;
+                        }
+                        filled += read;
+                    }
+                }
+                if (filled - position < size) {
+                    // less than a block left, the rest is literal data
+                    break;
+                }
+
+                if (!rolling) {
+                    a = 0;
+                    b = 0;
+                    for (int i = position; i < position + size; i++) {
+                        a += buffer[i] & 0xFF;
+                        b += a;
+                    }
+                    rolling = true;
+                }
+
+                int match = -1;
+                List<Integer> candidates = blocks.get(weak(a, b));
+                if (candidates != null) {
+                    md5.update(buffer, position, size);
+                    byte[] strong = md5.digest();
+                    for (int candidate : candidates) {
+                        if (Arrays.equals(strong, previous.strong[candidate])) {
+                            match = candidate;
+                            break;
+                        }
+                    }
+                }
+
+                if (match >= 0) {
+                    builder.update(buffer, literal, position - literal);
+                    writer.data(buffer, literal, position - literal);
+                    writer.copy(match, bufferOffset + position);
+                    builder.update(buffer, position, size);
+                    position += size;
+                    literal = position;
+                    rolling = false;
+                } else if (position + size < filled) {
+                    // roll the checksum one byte forward
+                    // source: https://rsync.samba.org/tech_report/node3.html
+                    int out = buffer[position] & 0xFF;
+                    int next = buffer[position + size] & 0xFF;
+                    a = a - out + next;
+                    b = b - size * out + a;
+                    position++;
+                } else {
+                    position++;
+                    rolling = false;
+                }
+            }
+        }
+
+        if (writer.literalBytes + filled - literal > literalLimit) {
+            return null;
+        }
+        builder.update(buffer, literal, filled - literal);
+        writer.data(buffer, literal, filled - literal);
+        writer.finish(bufferOffset + filled);
+        return new Result(builder.build(), writer.literalBytes, writer.inPlace);
+    }
+
+    /**
+     * Rebuilds the new version of a file from the previous version and a delta
+     * @param previous - previous version of the file
+     * @param delta - delta written by diff, read up to its end
+     * @param out - where the new version is written
+     * @throws IOException - If a file cannot be read / written or the delta is broken
+     */
+    public static void patch(FileChannel previous, InputStream delta, WritableByteChannel out) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(delta));
+        int size = readHeader(in);
+        byte[] buffer = new byte[64 * 1024];
+
+        byte op;
+        while ((op = in.readByte()) != OP_END) {
+            CopyEngine.checkInterrupted();
+            if (op == OP_COPY) {
+                long position = in.readLong() * size;
+                long remaining = (long) in.readInt() * size;
+                while (remaining > 0) {
+                    long copied = previous.transferTo(position, remaining, out);
+                    if (copied <= 0) {
+                        throw new IOException("Previous version is shorter than the delta expects");
+                    }
+                    position += copied;
+                    remaining -= copied;
+                }
+            } else if (op == OP_DATA) {
+                int remaining = in.readInt();
+                while (remaining > 0) {
+                    int read = in.read(buffer, 0, Math.min(buffer.length, remaining));
+                    if (read == -1) {
+                        throw new IOException("Delta ended in the middle of data");
+                    }
+                    ByteBuffer data = ByteBuffer.wrap(buffer, 0, read);
+                    while (data.hasRemaining()) {
+                        out.write(data);
+                    }
+                    remaining -= read;
+                }
+            } else {
+                throw new IOException("Broken delta, unknown operation " + op);
+            }
+        }
+        // total size of the new version
+        in.readLong();
+    }
+
+    /**
+     * Turns the previous version of a file into the new version where it is, only the changed data is written.
+     * Can only be used if the diff's result says so, and the file is left half patched if this fails.
+     * @param file - previous version of the file
+     * @param delta - delta written by diff, read up to its end
+     * @throws IOException - If the file cannot be written or the delta cannot be patched in place
+     */
+    public static void patchInPlace(Path file, InputStream delta) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(delta));
+        int size = readHeader(in);
+        byte[] buffer = new byte[64 * 1024];
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            long position = 0;
+            byte op;
+            while ((op = in.readByte()) != OP_END) {
+                CopyEngine.checkInterrupted();
+                if (op == OP_COPY) {
+                    long block = in.readLong();
+                    int count = in.readInt();
+                    if (block * size != position) {
+                        throw new IOException("Delta moves blocks, it can't be patched in place");
+                    }
+                    // the block is already where it belongs
+                    position += (long) count * size;
+                } else if (op == OP_DATA) {
+                    int remaining = in.readInt();
+                    while (remaining > 0) {
+                        int read = in.read(buffer, 0, Math.min(buffer.length, remaining));
+                        if (read == -1) {
+                            throw new IOException("Delta ended in the middle of data");
+                        }
+                        ByteBuffer data = ByteBuffer.wrap(buffer, 0, read);
+                        while (data.hasRemaining()) {
+                            position += channel.write(data, position);
+                        }
+                        remaining -= read;
+                    }
+                } else {
+                    throw new IOException("Broken delta, unknown operation " + op);
+                }
+            }
+            channel.truncate(in.readLong());
+        }
+    }
+
+    /**
+     * Reads the start of a delta
+     * @param in - delta
+     * @return block size the delta was made with
+     * @throws IOException - If the stream isn't a delta
+     */
+    private static int readHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != DELTA_MAGIC) {
+            throw new IOException("Not a delta");
+        }
+        return in.readInt();
+    }
+
+    /**
+     * Combines the two halves of the rolling checksum, both are kept modulo 2^16
+     * @param a - sum of the bytes
+     * @param b - sum of the running sums
+     * @return weak checksum
+     */
+    private static int weak(int a, int b) {
+        return (b << 16) | (a & 0xFFFF);
+    }
+
+    /**
+     * Creates a message digest for the strong checksums
+     * @return MessageDigest for MD5
+     */
+    private static MessageDigest newStrongDigest() {
+        try {
+            return MessageDigest.getInstance(STRONG_ALGORITHM);
+        } catch (NoSuchAlgorithmException ex) {
+            // every java implementation has to support MD5
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Builds a signature from data fed to it in order
+     */
+    private static class SignatureBuilder {
+
+        private final int blockSize;
+        private final List<Integer> weak = new ArrayList<Integer>();
+        private final List<byte[]> strong = new ArrayList<byte[]>();
+        private final MessageDigest md5 = newStrongDigest();
+        private long size = 0;
+        // progress through the current block
+        private int filled = 0;
+        private int a = 0;
+        private int b = 0;
+
+        SignatureBuilder(int blockSize) {
+            this.blockSize = blockSize;
+        }
+
+        void update(byte[] data, int offset, int length) {
+            while (length > 0) {
+                int count = Math.min(length, blockSize - filled);
+                md5.update(data, offset, count);
+                for (int i = offset; i < offset + count; i++) {
+                    a += data[i] & 0xFF;
+                    b += a;
+                }
+                filled += count;
+                size += count;
+                offset += count;
+                length -= count;
+                if (filled == blockSize) {
+                    finishBlock();
+                }
+            }
+        }
+
+        Signature build() {
+            if (filled > 0) {
+                finishBlock();
+            }
+            int[] weakArray = new int[weak.size()];
+            for (int i = 0; i < weakArray.length; i++) {
+                weakArray[i] = weak.get(i);
+            }
+            return new Signature(blockSize, size, weakArray, strong.toArray(new byte[strong.size()][]));
+        }
+
+        private void finishBlock() {
+            weak.add(weak(a, b));
+            strong.add(md5.digest());
+            filled = 0;
+            a = 0;
+            b = 0;
+        }
+    }
+
+    /**
+     * Writes the operations of a delta, runs of neighbouring blocks are joined into one copy
+     */
+    private static class DeltaWriter {
+
+        private final DataOutputStream out;
+        private final int blockSize;
+        private long literalBytes = 0;
+        private boolean inPlace = true;
+        // copy not yet written, so the following blocks can be added to it
+        private long copyStart = -1;
+        private int copyCount = 0;
+
+        DeltaWriter(DataOutputStream out, int blockSize) throws IOException {
+            this.out = out;
+            this.blockSize = blockSize;
+            out.writeInt(DELTA_MAGIC);
+            out.writeInt(blockSize);
+        }
+
+        void copy(long block, long offset) throws IOException {
+            inPlace &= block * blockSize == offset;
+            if (copyCount > 0 && copyStart + copyCount == block && copyCount < Integer.MAX_VALUE) {
+                copyCount++;
+                return;
+            }
+            flushCopy();
+            copyStart = block;
+            copyCount = 1;
+        }
+
+        void data(byte[] data, int offset, int length) throws IOException {
+            if (length == 0) {
+                return;
+            }
+            flushCopy();
+            out.writeByte(OP_DATA);
+            out.writeInt(length);
+            out.write(data, offset, length);
+            literalBytes += length;
+        }
+
+        void finish(long size) throws IOException {
+            flushCopy();
+            out.writeByte(OP_END);
+            out.writeLong(size);
+            out.flush();
+        }
+
+        private void flushCopy() throws IOException {
+            if (copyCount > 0) {
+                out.writeByte(OP_COPY);
+                out.writeLong(copyStart);
+                out.writeInt(copyCount);
+                copyCount = 0;
+            }
+        }
+    }
+}
@@ -7,8 +7,12 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.function.Consumer;
 import javax.swing.filechooser.FileSystemView;
 
 /**
@@ -20,11 +24,26 @@ public class DeviceManager implements BackupApp {
     private final String ID_FILE_NAME = "id-tag.txt";
     private String user;
     private BackupManager backupManager;
+    // devices being synced continuously, by device path
+    private final Map<String, SyncWatcher> watchers = new HashMap<String, SyncWatcher>();
+    // backs up several devices at the same time
+    private BackupScheduler scheduler;
 
     // Constructor
     public DeviceManager(String user) {
+        this(user, CopyEngine.IOType.SSD);
+    }
+
+    /**
+     * Custom constructor
+     * @param user - username of the user backing data up
+     * @param backupDisk - type of the disk backups are written to, limits how many files all devices write to it at once
+     */
+    public DeviceManager(String user, CopyEngine.IOType backupDisk) {
         this.user = user;
         this.backupManager = new BackupManager(user);
+        this.scheduler = new BackupScheduler(backupManager, BackupScheduler.DEFAULT_MAX_DEVICES,
+                CopyEngine.threadsFor(CopyEngine.IOType.SSD), CopyEngine.threadsFor(backupDisk));
     }
 
     /**
@@ -84,13 +103,64 @@ public class DeviceManager implements BackupApp {
     /**
      * Restore a specified backup to the selected device
      * @param pathToDevice - path to the device being registered
-     * @param date - date for backup to restore
+     * @param snapshotId - ID of the backup to restore, as listed by listSnapshots
+     * @throws IOException - If a file cannot be read / written
+     */
+    public void restore(String pathToDevice, String snapshotId) throws IOException {
+        backupManager.restore(pathToDevice, snapshotId, Collections.singletonList(""));
+    }
+
+    /**
+     * Restore some of the files of a specified backup to the selected device
+     * @param pathToDevice - path to the device being restored to
+     * @param snapshotId - ID of the backup to restore, as listed by listSnapshots
+     * @param selection - paths of files or directories, or globs, to restore
+     * @throws IOException - If a file cannot be read / written
+     */
+    public void restore(String pathToDevice, String snapshotId, List<String> selection) throws IOException {
+        backupManager.restore(pathToDevice, snapshotId, selection);
+    }
+
+    /**
+     * Restore some of the files of a specified backup to the selected device, reporting progress
+     * @param pathToDevice - path to the device being restored to
+     * @param snapshotId - ID of the backup to restore, as listed by listSnapshots
+     * @param selection - paths of files or directories, or globs, to restore
+     * @param listener - told how the restore is getting on
      * @throws IOException - If a file cannot be read / written
      */
-    public void restore(String pathToDevice, String date) throws IOException {
-        // todo... add the ability for a user to specify
-        //         a date using the UI
-        backupManager.restore(pathToDevice, null);
+    public void restore(String pathToDevice, String snapshotId, List<String> selection, ProgressListener listener) throws IOException {
+        backupManager.restore(pathToDevice, snapshotId, selection, listener);
+    }
+
+    /**
+     * Lists the backups that can be restored
+     * @return List of backup IDs, latest backup first
+     * @throws IOException - If the backups cannot be listed
+     */
+    public List<String> listSnapshots() throws IOException {
+        List<String> snapshotIds = new ArrayList<String>();
+        for (SnapshotCatalog.Record snapshot : backupManager.listSnapshots()) {
+            // unfinished and failed backups are missing files
+            if (snapshot.getStatus() == SnapshotCatalog.Status.COMPLETE) {
+                snapshotIds.add(snapshot.getId());
+            }
+        }
+        return snapshotIds;
+    }
+
+    /**
+     * Lists the files in a backup
+     * @param snapshotId - ID of the backup
+     * @return List of file paths relative to the device
+     * @throws IOException - If the backup cannot be read
+     */
+    public List<String> listSnapshot(String snapshotId) throws IOException {
+        List<String> paths = new ArrayList<String>();
+        for (SnapshotManifest.Entry entry : backupManager.listSnapshot(snapshotId)) {
+            paths.add(entry.getPath());
+        }
+        return paths;
     }
 
     /**
@@ -103,14 +173,34 @@ public class DeviceManager implements BackupApp {
         backupManager.restore(pathToDevice);
     }
 
+    /**
+     * Restore latest backup to the selected device, reporting progress
+     * @param pathToDevice - path to the device being restored to
+     * @param listener - told how the restore is getting on
+     * @throws IOException - If a file cannot be read / written
+     */
+    public void restore(String pathToDevice, ProgressListener listener) throws IOException {
+        backupManager.restore(pathToDevice, listener);
+    }
+
     /**
      * Sync-restore latest backup to the selected device
      * @param devicePath - path to the device being registered
      * @throws IOException - If a file cannot be read / written
      */
     public void syncRestore(String devicePath) throws IOException {
+        syncRestore(devicePath, null);
+    }
+
+    /**
+     * Sync-restore latest backup to the selected device, reporting progress
+     * @param devicePath - path to the device being restored to
+     * @param listener - told how the restore is getting on
+     * @throws IOException - If a file cannot be read / written
+     */
+    public void syncRestore(String devicePath, ProgressListener listener) throws IOException {
         Device device = new Device(devicePath, readId(devicePath));
-        backupManager.syncRestore(device);
+        backupManager.syncRestore(device, listener);
     }
 
     /**
@@ -123,13 +213,173 @@ public class DeviceManager implements BackupApp {
         backupManager.createBackup(device);
     }
 
+    /**
+     * Incremental backup of the selected device, only files changed since the latest snapshot are copied
+     * @param devicePath - path to the device being backed up
+     * @throws IOException - If a file cannot be read / written
+     */
+    public void incrementalBackup(String devicePath) throws IOException {
+        Device device = new Device(devicePath, readId(devicePath));
+        backupManager.createBackup(device, true);
+    }
+
+    /**
+     * Turns de-duplication of new backups on or off, de-duplicated backups store each file's contents once as chunks
+     * shared with every other backup. Backups already made are restored the same way whatever the setting.
+     * @param deduplicate - true to store new backups as chunks
+     */
+    public void setDeduplicate(boolean deduplicate) {
+        backupManager.setDeduplicate(deduplicate);
+    }
+
+    /**
+     * Sets how new backups are compressed. Files that are already compressed or look random are stored as they are,
+     * backups already made are restored the same way whatever the setting.
+     * @param codec - name of the codec, DeflateCodec.NAME, or null to turn compression off
+     * @param level - compression level of the codec, Deflater.DEFAULT_COMPRESSION for the codec's default
+     * @throws IllegalArgumentException - If the codec is unknown or the level is out of the codec's range
+     */
+    public void setCompression(String codec, int level) {
+        if (codec == null) {
+            backupManager.setCompression(null);
+        } else if (codec.equals(DeflateCodec.NAME)) {
+            backupManager.setCompression(new CompressionPolicy(new DeflateCodec(level)));
+        } else {
+            throw new IllegalArgumentException("Unknown compression codec " + codec);
+        }
+    }
+
+    /**
+     * Queues a backup of the selected device, backups of different devices run at the same time
+     * @param devicePath - path to the device being backed up
+     * @param incremental - true to only copy files changed since the latest snapshot
+     * @return BackupJob to follow or cancel the backup, the device's existing job if it already has one
+     */
+    public BackupJob submitBackup(String devicePath, boolean incremental) {
+        return scheduler.submit(new Device(devicePath, readId(devicePath)), incremental);
+    }
+
+    /**
+     * Queues a backup that carries on with the selected device's cancelled or crashed backup, files it had already
+     * backed up aren't copied again. If the device has no interrupted backup a new incremental backup is queued.
+     * @param devicePath - path to the device being backed up
+     * @return BackupJob to follow or cancel the backup, the device's existing job if it already has one
+     */
+    public BackupJob resumeBackup(String devicePath) {
+        return scheduler.submit(new Device(devicePath, readId(devicePath)), true, true);
+    }
+
+    /**
+     * Lists the backup jobs that are queued, running or have finished
+     * @return List of jobs in the order they were submitted
+     */
+    public List<BackupJob> listJobs() {
+        return scheduler.listJobs();
+    }
+
+    /**
+     * Cancels a backup job
+     * @param jobId - id of the job
+     * @return true if the job was cancelled, false if it had already finished
+     */
+    public boolean cancelJob(long jobId) {
+        return scheduler.cancel(jobId);
+    }
+
+    /**
+     * Forgets about backup jobs that have finished
+     */
+    public void clearFinishedJobs() {
+        scheduler.clearFinished();
+    }
+
+    /**
+     * Adds a listener told whenever a backup job is queued, starts, makes progress or finishes
+     * @param listener - called with the job that changed, on the job's thread
+     */
+    public void addJobListener(Consumer<BackupJob> listener) {
+        scheduler.addListener(listener);
+    }
+
+    /**
+     * Removes a listener added with addJobListener
+     * @param listener - listener to remove
+     */
+    public void removeJobListener(Consumer<BackupJob> listener) {
+        scheduler.removeListener(listener);
+    }
+
+    /**
+     * Sets what type of drive a device is, so its files are read by a suitable amount of threads.
+     * Spinning disks read faster with fewer threads, applies to backups started after it is set.
+     * @param devicePath - path to the device
+     * @param ioType - type of drive the device is
+     */
+    public void setDeviceIOType(String devicePath, CopyEngine.IOType ioType) {
+        setDeviceLimit(devicePath, CopyEngine.threadsFor(ioType));
+    }
+
+    /**
+     * Limits how many worker threads read a device's files, applies to backups started after it is set
+     * @param devicePath - path to the device
+     * @param threads - worker threads for the device
+     */
+    public void setDeviceLimit(String devicePath, int threads) {
+        scheduler.setDeviceLimit(devicePath, threads);
+    }
+
     /**
      * Syncs dirty files (files previously not synced) to sync folder.
      * @param devicePath - path to the device being synced
      * @throws IOException - If a file cannot be read / written
      */
     public void synchronise(String devicePath) throws IOException {
-        backupManager.synchronise(new Device(devicePath, readId(devicePath)));
+        synchronise(devicePath, null);
+    }
+
+    /**
+     * Syncs dirty files to sync folder, reporting progress
+     * @param devicePath - path to the device being synced
+     * @param listener - told how the sync is getting on
+     * @throws IOException - If a file cannot be read / written
+     */
+    public void synchronise(String devicePath, ProgressListener listener) throws IOException {
+        backupManager.synchronise(new Device(devicePath, readId(devicePath)), listener);
+    }
+
+    /**
+     * Starts syncing a device continuously, changes are synced a few seconds after they happen
+     * @param devicePath - path to the device being synced
+     * @throws IOException - If the device cannot be watched
+     */
+    public synchronized void startContinuousSync(String devicePath) throws IOException {
+        if (watchers.containsKey(devicePath)) {
+            return;
+        }
+        SyncWatcher watcher = new SyncWatcher(backupManager, new Device(devicePath, readId(devicePath)));
+        watcher.start();
+        watchers.put(devicePath, watcher);
+    }
+
+    /**
+     * Stops syncing a device continuously
+     * @param devicePath - path to the device being synced
+     * @throws IOException - If the watcher cannot be stopped
+     */
+    public synchronized void stopContinuousSync(String devicePath) throws IOException {
+        SyncWatcher watcher = watchers.remove(devicePath);
+        if (watcher != null) {
+            watcher.close();
+        }
+    }
+
+    /**
+     * Checks if a device is being synced continuously
+     * @param devicePath - path to the device
+     * @return true if changes on the device are synced as they happen
+     */
+    public synchronized boolean isContinuousSyncRunning(String devicePath) {
+        return watchers.containsKey(devicePath);
     }
 
     /**
@@ -0,0 +1,188 @@
+package backend;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Copies files using FileChannel.transferTo, which lets the operating system move the bytes between
+ * files without copying them through java. Large files are split into ranges that are copied in parallel.
+ * When the operating system can't transfer directly the copy falls back to a direct ByteBuffer.
+ */
+public class FileCopier {
+
+    // files at least this large are split into ranges copied in parallel
+    public static final long DEFAULT_PARALLEL_THRESHOLD = 256L * 1024 * 1024;
+    // size of each range of a large file
+    public static final long DEFAULT_RANGE_SIZE = 64L * 1024 * 1024;
+    // largest amount of bytes handed to a single transferTo call, some platforms refuse larger transfers
+    private static final long MAX_TRANSFER = 8L * 1024 * 1024;
+    // size of the direct buffer used by the fallback copy
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    // shared by every copier, range copies only wait on disk so the threads are cheap
+    private static final ExecutorService rangePool = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), runnable -> {
+                Thread thread = new Thread(runnable, "range-copy");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private final long parallelThreshold;
+    private final long rangeSize;
+
+    // default constructor
+    public FileCopier() {
+        this(DEFAULT_PARALLEL_THRESHOLD, DEFAULT_RANGE_SIZE);
+    }
+
+    /**
+     * Custom constructor
+     * @param parallelThreshold - files at least this large are copied in parallel ranges
+     * @param rangeSize - size of each range of a large file
+     */
+    public FileCopier(long parallelThreshold, long rangeSize) {
+        this.parallelThreshold = parallelThreshold;
+        this.rangeSize = rangeSize;
+    }
+
+    /**
+     * Copies a file, replacing the destination if it exists. The destination's parent directory has to exist.
+     * The file is copied to a temporary file next to the destination and moved into place once complete,
+     * so a failed copy never leaves half a file behind. The modified time is copied too.
+     * @param source - file to copy
+     * @param destination - where to copy the file to
+     * @throws IOException - If a file cannot be read / written
+     */
+    public void copy(Path source, Path destination) throws IOException {
+        Path temp = destination.resolveSibling(destination.getFileName() + ".part");
+        try {
+            try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+                long size = in.size();
+                try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+                    if (size >= parallelThreshold) {
+                        copyRanges(source, temp, size);
+                    } else {
+                        copyRange(in, out, 0, size);
+                    }
+                }
+            }
+            Files.setLastModifiedTime(temp, Files.getLastModifiedTime(source));
+            Files.move(temp, destination, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Copies a large file as ranges on the shared range pool, every range uses its own channels
+     * @param source - file to copy
+     * @param destination - file to copy to, already created
+     * @param size - size of the source file
+     * @throws IOException - If any range fails to copy
+     */
+    private void copyRanges(Path source, Path destination, long size) throws IOException {
+        List<Future<Void>> ranges = new ArrayList<Future<Void>>();
+        for (long position = 0; position < size; position += rangeSize) {
+            long start = position;
+            long count = Math.min(rangeSize, size - position);
+            ranges.add(rangePool.submit(() -> {
+                try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                     FileChannel out = FileChannel.open(destination, StandardOpenOption.WRITE)) {
+                    copyRange(in, out, start, count);
+                }
+                return null;
+            }));
+        }
+
+        try {
+            for (Future<Void> range : ranges) {
+                range.get();
+            }
+        } catch (InterruptedException ex) {
+            cancel(ranges);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Copy of " + source + " interrupted");
+        } catch (ExecutionException ex) {
+            cancel(ranges);
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException("Failed to copy " + source, ex.getCause());
+        }
+    }
+
+    /**
+     * Copies a range of bytes between two open files at the same position in both
+     * @param in - file to read from
+     * @param out - file to write to
+     * @param position - where the range starts
+     * @param count - size of the range
+     * @throws IOException - If a file cannot be read / written
+     */
+    private void copyRange(FileChannel in, FileChannel out, long position, long count) throws IOException {
+        long done = 0;
+        out.position(position);
+        while (done < count) {
+            // a cancelled copy stops after the current transfer rather than at the end of the file
+            CopyEngine.checkInterrupted();
+            long transferred = in.transferTo(position + done, Math.min(MAX_TRANSFER, count - done), out);
+            if (transferred <= 0) {
+                // the operating system couldn't transfer directly, copy the rest through a buffer
+                copyBuffered(in, out, position + done, count - done);
+                return;
+            }
+            done += transferred;
+        }
+    }
+
+    /**
+     * Copies a range of bytes through a direct buffer, used when transferTo makes no progress
+     * @param in - file to read from
+     * @param out - file to write to
+     * @param position - where the range starts
+     * @param count - size of the range
+     * @throws IOException - If a file cannot be read / written
+     */
+    private void copyBuffered(FileChannel in, FileChannel out, long position, long count) throws IOException {
+        // direct buffers are read into and written from by the operating system without an extra copy
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.min(BUFFER_SIZE, Math.max(1, count)));
+        long done = 0;
+        while (done < count) {
+            CopyEngine.checkInterrupted();
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), count - done));
+            int read = in.read(buffer, position + done);
+            if (read < 0) {
+                throw new IOException("File shrank while being copied");
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                out.write(buffer, position + done + buffer.position());
+            }
+            done += read;
+        }
+    }
+
+    /**
+     * Cancels any ranges still being copied
+     * @param ranges - range copies
+     */
+    private void cancel(List<Future<Void>> ranges) {
+        for (Future<Void> range : ranges) {
+            range.cancel(true);
+        }
+    }
+}
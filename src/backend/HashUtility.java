@@ -0,0 +1,73 @@
+package backend;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Utility for hashing file contents is stored here
+ */
+public class HashUtility {
+
+    /**
+     * Creates a SHA-256 message digest
+     * @return MessageDigest for SHA-256
+     */
+    public static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            // every java implementation has to support SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Hashes data using SHA-256
+     * @param data - buffer holding the data to be hashed
+     * @param length - amount of bytes to hash from the start of the buffer
+     * @return hex string of the hash
+     */
+    public static String sha256(byte[] data, int length) {
+        MessageDigest digest = newSha256();
+        digest.update(data, 0, length);
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Hashes a file's contents using SHA-256, the file is streamed so large files aren't loaded into memory
+     * @param file - file to be hashed
+     * @return hex string of the hash
+     * @throws IOException - If the file cannot be read
+     */
+    public static String sha256(Path file) throws IOException {
+        MessageDigest digest = newSha256();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Converts bytes to a lower case hex string
+     * @param bytes - bytes to be converted
+     * @return hex string
+     */
+    public static String toHex(byte[] bytes) {
+        // each byte is two hex characters
+        char[] digits = "0123456789abcdef".toCharArray();
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = digits[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = digits[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,684 @@
+package backend;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Per user journal of every file backed up, synced or restored. Replaces a free text log line per file with a
+ * fixed size binary record: time, run, operation, status, path ID, size and duration.
+ * Paths are written once to a dictionary and records refer to them by ID, so a path isn't repeated for every backup.
+ * Fixed size records can be read from any position, so queries such as the failures of the latest backup
+ * read back from the end of the journal, and queries by time binary search for where to start, rather than
+ * parsing the whole journal.
+ * Records are gathered in a buffer and handed in batches to a writer thread, so the copy threads recording files
+ * never wait for the disk. Queries wait for every batch to be written first.
+ * <p>
+ * The journal is a directory holding two files. "records" starts with a magic number followed by the records.
+ * "paths" is the dictionary, the length of each path followed by the path in UTF-8, a path's ID is its position.
+ */
+public class Journal {
+
+    public static final String EXTENSION = ".journal";
+    // marks a journal's record file, "JNL1"
+    private static final int MAGIC = 0x4A4E4C31;
+    private static final int HEADER_SIZE = 4;
+    // time + run + operation + status + path ID + size + duration
+    static final int RECORD_SIZE = 8 + 4 + 1 + 1 + 4 + 8 + 8;
+    // records held in memory before they are written
+    private static final int BUFFER_RECORDS = 2048;
+    // records are written at least this often while a run is going
+    private static final long FLUSH_INTERVAL_MILLIS = 1000;
+    // records read from disk at a time by queries
+    private static final int READ_RECORDS = 1024;
+    // batches waiting for the writer before recording waits for it to catch up
+    private static final int MAX_PENDING_BATCHES = 4;
+
+    // one journal per directory, so every backup manager of the user appends to the same one
+    private static final Map<Path, Journal> journals = new HashMap<Path, Journal>();
+    // writes the batches of every journal in the order they were handed over
+    private static final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "journal-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * What was done to the file
+     */
+    public enum Operation {
+        BACKUP,
+        SYNC,
+        RESTORE
+    }
+
+    /**
+     * How it went, STARTED marks the start of a run and its path is the run's label, such as the snapshot ID
+     */
+    public enum Status {
+        STARTED,
+        OK,
+        // only the changed blocks were written
+        DELTA,
+        // the synced copy of a moved file was moved with it
+        MOVED,
+        // already done by an earlier, interrupted restore
+        SKIPPED,
+        FAILED
+    }
+
+    /**
+     * A record read back from the journal
+     */
+    public static class Entry {
+
+        private final long timestamp;
+        private final int run;
+        private final Operation operation;
+        private final Status status;
+        private final String path;
+        private final long size;
+        private final long durationMicros;
+
+        /**
+         * Custom constructor
+         * @param timestamp - when the file was done, in milliseconds
+         * @param run - number of the backup, sync or restore the file was part of
+         * @param operation - what was done to the file
+         * @param status - how it went
+         * @param path - path of the file
+         * @param size - size of the file in bytes
+         * @param durationMicros - how long it took in microseconds
+         */
+        public Entry(long timestamp, int run, Operation operation, Status status, String path, long size, long durationMicros) {
+            this.timestamp = timestamp;
+            this.run = run;
+            this.operation = operation;
+            this.status = status;
+            this.path = path;
+            this.size = size;
+            this.durationMicros = durationMicros;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public int getRun() {
+            return run;
+        }
+
+        public Operation getOperation() {
+            return operation;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getDurationMicros() {
+            return durationMicros;
+        }
+
+        @Override
+        public String toString() {
+            return new Date(timestamp) + " " + operation + " " + status + " " + path + " (" + size + " bytes, "
+                    + String.format("%.3f", durationMicros / 1000.0) + " ms)";
+        }
+    }
+
+    private final Path recordsFile;
+    private final Path pathsFile;
+    private final FileChannel records;
+    private final FileChannel paths;
+    // path -> ID and ID -> path
+    private final Map<String, Integer> pathIds = new HashMap<String, Integer>();
+    private final List<String> pathsById = new ArrayList<String>();
+    // records and new dictionary entries not handed to the writer yet
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_RECORDS * RECORD_SIZE);
+    private final List<String> newPaths = new ArrayList<String>();
+    // batches handed to the writer and not written yet, and the latest of them
+    private final Semaphore pendingBatches = new Semaphore(MAX_PENDING_BATCHES);
+    private Future<Void> lastWrite;
+    private long lastFlush = System.currentTimeMillis();
+    private int nextRun;
+
+    /**
+     * Opens a journal, use open so every caller shares it
+     * @param directory - directory holding the journal's files
+     * @throws IOException - If the journal cannot be read / created
+     */
+    private Journal(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        this.recordsFile = directory.resolve("records");
+        this.pathsFile = directory.resolve("paths");
+        this.paths = FileChannel.open(pathsFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.records = FileChannel.open(recordsFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        loadPaths();
+        openRecords();
+    }
+
+    /**
+     * Opens a journal, the same instance is returned for the same directory
+     * @param directory - directory holding the journal's files, created if it doesn't exist
+     * @return Journal of the directory
+     * @throws IOException - If the journal cannot be read / created
+     */
+    public static Journal open(Path directory) throws IOException {
+        Path key = directory.toAbsolutePath().normalize();
+        synchronized (journals) {
+            Journal journal = journals.get(key);
+            if (journal == null) {
+                if (journals.isEmpty()) {
+                    // records still in a buffer are written when the application exits
+                    Runtime.getRuntime().addShutdownHook(new Thread(Journal::flushAll));
+                }
+                journal = new Journal(key);
+                journals.put(key, journal);
+            }
+            return journal;
+        }
+    }
+
+    /**
+     * Opens a user's journal, it sits next to the user's log
+     * @param username - username to be used for building directory path of the journal
+     * @return Journal of the user
+     * @throws IOException - If the journal cannot be read / created
+     */
+    public static Journal forUser(String username) throws IOException {
+        return open(Paths.get(Logger.getPath() + username + EXTENSION));
+    }
+
+    /**
+     * Records the start of a backup, sync or restore
+     * @param operation - what is being done
+     * @param label - what the run is of, such as the snapshot ID or the device's path
+     * @return number of the run, pass it to record for every file of the run
+     */
+    public synchronized int startRun(Operation operation, String label) {
+        int run = nextRun++;
+        append(run, operation, Status.STARTED, label, 0, 0);
+        return run;
+    }
+
+    /**
+     * Records a file, called by many copy threads at once. The record is written with the next batch,
+     * by the writer thread.
+     * @param run - number of the run, from startRun
+     * @param operation - what was done to the file
+     * @param path - path of the file
+     * @param size - size of the file in bytes
+     * @param nanos - how long it took in nanoseconds
+     * @param status - how it went
+     */
+    public synchronized void record(int run, Operation operation, String path, long size, long nanos, Status status) {
+        append(run, operation, status, path, size, nanos / 1000);
+        if (System.currentTimeMillis() - lastFlush >= FLUSH_INTERVAL_MILLIS) {
+            handOff();
+        }
+    }
+
+    /**
+     * Writes every record gathered so far, waiting for the writer thread to write them
+     * @throws IOException - If the journal cannot be written
+     */
+    public synchronized void flush() throws IOException {
+        handOff();
+        if (lastWrite == null) {
+            return;
+        }
+        try {
+            lastWrite.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing journal " + recordsFile, ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * Hands the buffered records and their new dictionary entries to the writer thread as a batch.
+     * Only waits when the writer is several batches behind.
+     */
+    private void handOff() {
+        lastFlush = System.currentTimeMillis();
+        if (buffer.position() == 0 && newPaths.isEmpty()) {
+            return;
+        }
+
+        int length = 0;
+        List<byte[]> encoded = new ArrayList<byte[]>();
+        for (String path : newPaths) {
+            byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+            encoded.add(bytes);
+            length += 4 + bytes.length;
+        }
+        ByteBuffer dictionary = ByteBuffer.allocate(length);
+        for (byte[] bytes : encoded) {
+            dictionary.putInt(bytes.length).put(bytes);
+        }
+        dictionary.flip();
+        newPaths.clear();
+
+        ByteBuffer batch = buffer;
+        batch.flip();
+        buffer = ByteBuffer.allocate(BUFFER_RECORDS * RECORD_SIZE);
+
+        pendingBatches.acquireUninterruptibly();
+        lastWrite = writer.submit(() -> {
+            try {
+                write(dictionary, batch);
+            } catch (IOException ex) {
+                // a journal that can't be written doesn't stop a backup, the batch is dropped
+                System.out.println("Failed to write to journal " + recordsFile);
+                ex.printStackTrace();
+                throw ex;
+            } finally {
+                pendingBatches.release();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Writes a batch, run by the writer thread only
+     * @param dictionary - new dictionary entries of the batch
+     * @param batch - records of the batch
+     * @throws IOException - If the journal cannot be written
+     */
+    private void write(ByteBuffer dictionary, ByteBuffer batch) throws IOException {
+        // dictionary entries first and on disk before the records, a record must never point at a path that wasn't written
+        if (dictionary.hasRemaining()) {
+            while (dictionary.hasRemaining()) {
+                paths.write(dictionary, paths.size());
+            }
+            paths.force(false);
+        }
+        while (batch.hasRemaining()) {
+            records.write(batch, records.size());
+        }
+    }
+
+    /**
+     * Writes and closes the journal, the next open reads it from disk again
+     * @throws IOException - If the journal cannot be written
+     */
+    public void close() throws IOException {
+        synchronized (journals) {
+            journals.remove(recordsFile.getParent());
+        }
+        synchronized (this) {
+            try {
+                flush();
+            } finally {
+                records.close();
+                paths.close();
+            }
+        }
+    }
+
+    /**
+     * Finds every file of the latest run of an operation, such as the latest backup.
+     * Reads back from the end of the journal to the start of the run, older runs aren't read.
+     * @param operation - operation of the run
+     * @return List of entries in the order they were recorded, empty if the operation never ran
+     * @throws IOException - If the journal cannot be read
+     */
+    public synchronized List<Entry> latestRun(Operation operation) throws IOException {
+        flush();
+        List<Entry> entries = new ArrayList<Entry>();
+        long start = findLatestStart(operation);
+        if (start < 0) {
+            return entries;
+        }
+
+        int run = readRecord(start).getInt(8);
+        long count = recordCount();
+        for (long index = start + 1; index < count; index += READ_RECORDS) {
+            ByteBuffer block = readRecords(index, (int) Math.min(READ_RECORDS, count - index));
+            while (block.hasRemaining()) {
+                Entry entry = decode(block);
+                if (entry.getRun() == run) {
+                    entries.add(entry);
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Finds the files that failed in the latest run of an operation, such as the files the latest backup couldn't copy
+     * @param operation - operation of the run
+     * @return List of failed entries in the order they were recorded
+     * @throws IOException - If the journal cannot be read
+     */
+    public List<Entry> failures(Operation operation) throws IOException {
+        List<Entry> failed = new ArrayList<Entry>();
+        for (Entry entry : latestRun(operation)) {
+            if (entry.getStatus() == Status.FAILED) {
+                failed.add(entry);
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Finds the files that took the longest since a time. The start is found with a binary search on the
+     * record times, so only records since then are read.
+     * @param operation - operation to look at, null for every operation
+     * @param since - earliest time in milliseconds
+     * @param count - maximum amount of files to return
+     * @return List of the slowest entries, slowest first
+     * @throws IOException - If the journal cannot be read
+     */
+    public synchronized List<Entry> slowest(Operation operation, long since, int count) throws IOException {
+        flush();
+        // smallest at the head, so the quickest of the slowest files is the one dropped
+        PriorityQueue<Entry> slowest = new PriorityQueue<Entry>(Comparator.comparingLong(Entry::getDurationMicros));
+        long total = recordCount();
+        for (long index = findFirstSince(since); index < total && count > 0; index += READ_RECORDS) {
+            ByteBuffer block = readRecords(index, (int) Math.min(READ_RECORDS, total - index));
+            while (block.hasRemaining()) {
+                Entry entry = decode(block);
+                if (entry.getStatus() == Status.STARTED || entry.getTimestamp() < since
+                        || (operation != null && entry.getOperation() != operation)) {
+                    continue;
+                }
+                slowest.add(entry);
+                if (slowest.size() > count) {
+                    slowest.poll();
+                }
+            }
+        }
+
+        List<Entry> sorted = new ArrayList<Entry>(slowest);
+        sorted.sort(Comparator.comparingLong(Entry::getDurationMicros).reversed());
+        return sorted;
+    }
+
+    /**
+     * Finds every record of a file. The path is looked up in the dictionary once, records are then matched
+     * on its ID without decoding any text.
+     * @param path - path of the file
+     * @return List of entries, oldest first, empty if the file was never recorded
+     * @throws IOException - If the journal cannot be read
+     */
+    public synchronized List<Entry> history(String path) throws IOException {
+        flush();
+        Integer id = pathIds.get(path);
+        if (id == null) {
+            return Collections.emptyList();
+        }
+
+        List<Entry> entries = new ArrayList<Entry>();
+        long total = recordCount();
+        for (long index = 0; index < total; index += READ_RECORDS) {
+            ByteBuffer block = readRecords(index, (int) Math.min(READ_RECORDS, total - index));
+            while (block.hasRemaining()) {
+                // the path ID sits after the time, run, operation and status
+                if (block.getInt(block.position() + 14) == id && block.get(block.position() + 13) != Status.STARTED.ordinal()) {
+                    entries.add(decode(block));
+                } else {
+                    block.position(block.position() + RECORD_SIZE);
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Adds a record to the buffer, writing the buffer first if it is full
+     * @param run - number of the run
+     * @param operation - what was done
+     * @param status - how it went
+     * @param path - path of the file, or the run's label
+     * @param size - size of the file
+     * @param micros - how long it took in microseconds
+     */
+    private void append(int run, Operation operation, Status status, String path, long size, long micros) {
+        if (!buffer.hasRemaining()) {
+            handOff();
+        }
+        buffer.putLong(System.currentTimeMillis()).putInt(run).put((byte) operation.ordinal()).put((byte) status.ordinal())
+                .putInt(intern(path)).putLong(size).putLong(micros);
+    }
+
+    /**
+     * Finds a path's ID, adding it to the dictionary if it's new
+     * @param path - path to look up
+     * @return ID of the path
+     */
+    private int intern(String path) {
+        Integer id = pathIds.get(path);
+        if (id == null) {
+            id = pathsById.size();
+            pathsById.add(path);
+            pathIds.put(path, id);
+            newPaths.add(path);
+        }
+        return id;
+    }
+
+    /**
+     * Writes the buffer, a journal that can't be written doesn't stop the application from exiting
+     */
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException ex) {
+            System.out.println("Failed to write to journal " + recordsFile);
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes the buffers of every open journal, run when the application exits
+     */
+    private static void flushAll() {
+        synchronized (journals) {
+            for (Journal journal : journals.values()) {
+                journal.flushQuietly();
+            }
+        }
+    }
+
+    /**
+     * Loads the path dictionary, a path cut short by a crash is dropped
+     * @throws IOException - If the dictionary cannot be read
+     */
+    private void loadPaths() throws IOException {
+        ByteBuffer data = ByteBuffer.allocate((int) paths.size());
+        while (data.hasRemaining() && paths.read(data, data.position()) > 0) {
+            // keep reading until the whole dictionary is in memory
+        }
+        data.flip();
+        while (data.remaining() >= 4) {
+            int length = data.getInt(data.position());
+            if (length < 0 || data.remaining() < 4 + length) {
+                break;
+            }
+            data.getInt();
+            byte[] bytes = new byte[length];
+            data.get(bytes);
+            String path = new String(bytes, StandardCharsets.UTF_8);
+            pathIds.put(path, pathsById.size());
+            pathsById.add(path);
+        }
+        paths.truncate(data.position());
+    }
+
+    /**
+     * Checks the record file, writing its header if it's new, and works out the next run number
+     * @throws IOException - If the journal cannot be read / written, or isn't a journal
+     */
+    private void openRecords() throws IOException {
+        if (records.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC);
+            header.flip();
+            records.write(header, 0);
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        records.read(header, 0);
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException(recordsFile + " is not a journal");
+        }
+        // a record cut short by a crash is dropped
+        records.truncate(HEADER_SIZE + recordCount() * RECORD_SIZE);
+        dropUnknownPaths();
+
+        // runs are numbered in the order they start, so the last run started has the highest number
+        long start = findLatestStart(null);
+        nextRun = start < 0 ? 1 : readRecord(start).getInt(8) + 1;
+    }
+
+    /**
+     * Drops the records at the end of the journal whose path never reached the dictionary, as a crash before
+     * the dictionary was on disk would leave them. A new path would otherwise be given their path's ID.
+     * @throws IOException - If the journal cannot be read / written
+     */
+    private void dropUnknownPaths() throws IOException {
+        long count = recordCount();
+        while (count > 0) {
+            int amount = (int) Math.min(READ_RECORDS, count);
+            ByteBuffer block = readRecords(count - amount, amount);
+            int known = amount;
+            while (known > 0 && block.getInt((known - 1) * RECORD_SIZE + 14) >= pathsById.size()) {
+                known--;
+            }
+            count -= amount - known;
+            if (known > 0) {
+                break;
+            }
+        }
+        records.truncate(HEADER_SIZE + count * RECORD_SIZE);
+    }
+
+    /**
+     * Reads back from the end of the journal to the latest start of a run
+     * @param operation - operation of the run, null for any operation
+     * @return index of the run's STARTED record, -1 if there isn't one
+     * @throws IOException - If the journal cannot be read
+     */
+    private long findLatestStart(Operation operation) throws IOException {
+        long end = recordCount();
+        while (end > 0) {
+            int amount = (int) Math.min(READ_RECORDS, end);
+            long first = end - amount;
+            ByteBuffer block = readRecords(first, amount);
+            for (int i = amount - 1; i >= 0; i--) {
+                int offset = i * RECORD_SIZE;
+                if (block.get(offset + 13) == Status.STARTED.ordinal()
+                        && (operation == null || block.get(offset + 12) == operation.ordinal())) {
+                    return first + i;
+                }
+            }
+            end = first;
+        }
+        return -1;
+    }
+
+    /**
+     * Binary searches for the first record at or after a time
+     * @param since - time in milliseconds
+     * @return index of the record, the amount of records if every record is older
+     * @throws IOException - If the journal cannot be read
+     */
+    private long findFirstSince(long since) throws IOException {
+        long low = 0;
+        long high = recordCount();
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (readRecord(middle).getLong(0) < since) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Counts the records written to the journal
+     * @return amount of whole records
+     * @throws IOException - If the journal's size cannot be read
+     */
+    private long recordCount() throws IOException {
+        return Math.max(0, (records.size() - HEADER_SIZE) / RECORD_SIZE);
+    }
+
+    /**
+     * Reads a single record
+     * @param index - index of the record
+     * @return ByteBuffer holding the record
+     * @throws IOException - If the journal cannot be read
+     */
+    private ByteBuffer readRecord(long index) throws IOException {
+        return readRecords(index, 1);
+    }
+
+    /**
+     * Reads a block of records
+     * @param index - index of the first record
+     * @param amount - amount of records
+     * @return ByteBuffer holding the records, ready to be decoded
+     * @throws IOException - If the journal cannot be read
+     */
+    private ByteBuffer readRecords(long index, int amount) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(amount * RECORD_SIZE);
+        long position = HEADER_SIZE + index * RECORD_SIZE;
+        while (block.hasRemaining()) {
+            if (records.read(block, position + block.position()) < 0) {
+                throw new IOException("Journal " + recordsFile + " ended early");
+            }
+        }
+        block.flip();
+        return block;
+    }
+
+    /**
+     * Decodes the record at the buffer's position and moves past it
+     * @param block - buffer of records
+     * @return Entry of the record
+     */
+    private Entry decode(ByteBuffer block) {
+        long timestamp = block.getLong();
+        int run = block.getInt();
+        Operation operation = Operation.values()[block.get()];
+        Status status = Status.values()[block.get()];
+        String path = pathsById.get(block.getInt());
+        long size = block.getLong();
+        long micros = block.getLong();
+        return new Entry(timestamp, run, operation, status, path, size, micros);
+    }
+}
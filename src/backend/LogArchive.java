@@ -0,0 +1,231 @@
+package backend;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Rotated segments of a user's log. When the log is rotated the current log file is renamed to a segment and
+ * a new log file is started, the segment is then compressed with gzip.
+ * A segment is named after the log and the offset its first line had in the whole log, e.g. "bob.1048576.log",
+ * so offsets into the log stay the same when old segments are deleted. The current log file starts where the
+ * newest segment ends. A compressed segment's name also holds its uncompressed length, e.g.
+ * "bob.1048576.524288.log.gz", gzip only stores the length modulo 2^32 and a log may grow past 4GB before it is rotated.
+ */
+public class LogArchive {
+
+    private static final String SEGMENT_EXTENSION = ".log";
+    private static final String COMPRESSED_EXTENSION = ".gz";
+
+    /**
+     * A rotated segment of a log
+     */
+    public static class Segment {
+
+        private final Path file;
+        private final long start;
+        private final long length;
+
+        /**
+         * Custom constructor
+         * @param file - segment file, compressed or not
+         * @param start - offset of the segment's first line in the whole log
+         * @param length - uncompressed length of the segment in bytes
+         */
+        public Segment(Path file, long start, long length) {
+            this.file = file;
+            this.start = start;
+            this.length = length;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getEnd() {
+            return start + length;
+        }
+
+        public boolean isCompressed() {
+            return file.getFileName().toString().endsWith(COMPRESSED_EXTENSION);
+        }
+
+        /**
+         * Opens the segment's lines, decompressing them if the segment is compressed
+         * @return InputStream of the segment's uncompressed contents
+         * @throws IOException - If the segment cannot be read
+         */
+        public InputStream open() throws IOException {
+            InputStream in = new BufferedInputStream(Files.newInputStream(file));
+            return isCompressed() ? new GZIPInputStream(in) : in;
+        }
+    }
+
+    /**
+     * Lists a log's rotated segments. A segment that is both compressed and not, because its compression
+     * was interrupted, is only listed once.
+     * @param logFile - the current log file
+     * @return List of segments, oldest first
+     * @throws IOException - If the log's directory cannot be read
+     */
+    public static List<Segment> list(Path logFile) throws IOException {
+        List<Segment> segments = new ArrayList<Segment>();
+        Path directory = logFile.toAbsolutePath().getParent();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+
+        Pattern pattern = Pattern.compile(Pattern.quote(logFile.getFileName().toString()) + "\\.(\\d+)(?:\\.(\\d+))?"
+                + Pattern.quote(SEGMENT_EXTENSION) + "(" + Pattern.quote(COMPRESSED_EXTENSION) + ")?");
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Matcher matcher = pattern.matcher(file.getFileName().toString());
+                if (!matcher.matches()) {
+                    continue;
+                }
+                long start = Long.parseLong(matcher.group(1));
+                boolean compressed = matcher.group(3) != null;
+                if (!compressed) {
+                    segments.add(new Segment(file, start, Files.size(file)));
+                    continue;
+                }
+                // the plain segment is only deleted once the compressed one is complete, prefer the plain one
+                if (Files.exists(segmentFile(logFile, start))) {
+                    continue;
+                }
+                // segments compressed without their length in the name were all smaller than 4GB
+                long length = matcher.group(2) != null ? Long.parseLong(matcher.group(2)) : compressedLength(file);
+                segments.add(new Segment(file, start, length));
+            }
+        }
+        segments.sort(Comparator.comparingLong(Segment::getStart));
+        return segments;
+    }
+
+    /**
+     * Works out the offset of the current log file's first line in the whole log
+     * @param logFile - the current log file
+     * @return end of the newest segment, 0 if the log was never rotated
+     * @throws IOException - If the segments cannot be read
+     */
+    public static long currentStart(Path logFile) throws IOException {
+        List<Segment> segments = list(logFile);
+        return segments.isEmpty() ? 0 : segments.get(segments.size() - 1).getEnd();
+    }
+
+    /**
+     * Renames the current log file to a new segment, the caller starts a new log file afterwards.
+     * Nothing must be writing to the log while it is rotated.
+     * @param logFile - the current log file
+     * @return the new, uncompressed segment, null if the log is empty
+     * @throws IOException - If the log cannot be renamed
+     */
+    public static Path rotate(Path logFile) throws IOException {
+        if (!Files.exists(logFile) || Files.size(logFile) == 0) {
+            return null;
+        }
+        Path segment = segmentFile(logFile, currentStart(logFile));
+        Files.move(logFile, segment, StandardCopyOption.ATOMIC_MOVE);
+        return segment;
+    }
+
+    /**
+     * Compresses every segment that isn't compressed yet, including ones left by a rotation that was interrupted.
+     * The compressed segment is written to a temporary file first, so a crash never leaves half a segment behind.
+     * @param logFile - the current log file
+     * @throws IOException - If a segment cannot be compressed
+     */
+    public static void compress(Path logFile) throws IOException {
+        for (Segment segment : list(logFile)) {
+            if (segment.isCompressed()) {
+                continue;
+            }
+            Path plain = segment.getFile();
+            Path compressed = plain.resolveSibling(logFile.getFileName() + "." + segment.getStart() + "."
+                    + segment.getLength() + SEGMENT_EXTENSION + COMPRESSED_EXTENSION);
+            Path temp = plain.resolveSibling(compressed.getFileName() + ".tmp");
+            try (InputStream in = Files.newInputStream(plain);
+                 OutputStream out = new GZIPOutputStream(Files.newOutputStream(temp), 64 * 1024)) {
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, read);
+                }
+            }
+            Files.move(temp, compressed, StandardCopyOption.REPLACE_EXISTING);
+            Files.delete(plain);
+        }
+    }
+
+    /**
+     * Deletes old segments. The newest segment is always kept, the current log file's offsets start where it ends.
+     * @param logFile - the current log file
+     * @param maxSegments - most segments kept, older ones are deleted
+     * @param maxAgeMillis - segments last written to longer ago than this are deleted, 0 or less to keep them
+     * @throws IOException - If a segment cannot be deleted
+     */
+    public static void applyRetention(Path logFile, int maxSegments, long maxAgeMillis) throws IOException {
+        List<Segment> segments = list(logFile);
+        long cutoff = System.currentTimeMillis() - maxAgeMillis;
+        for (int i = 0; i < segments.size() - 1; i++) {
+            Segment segment = segments.get(i);
+            boolean tooMany = segments.size() - i > Math.max(1, maxSegments);
+            boolean tooOld = maxAgeMillis > 0 && Files.getLastModifiedTime(segment.getFile()).toMillis() < cutoff;
+            if (tooMany || tooOld) {
+                Files.deleteIfExists(segment.getFile());
+            }
+        }
+    }
+
+    /**
+     * Reads the uncompressed length of a compressed segment from the end of the file, without decompressing it.
+     * gzip stores the length modulo 2^32, only used for segments without their length in the name.
+     * source: https://tools.ietf.org/html/rfc1952#page-5
+     * @param file - compressed segment
+     * @return uncompressed length in bytes
+     * @throws IOException - If the segment cannot be read
+     */
+    private static long compressedLength(Path file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file.toFile(), "r")) {
+            if (in.length() < 4) {
+                return 0;
+            }
+            in.seek(in.length() - 4);
+            byte[] size = new byte[4];
+            in.readFully(size);
+            // stored little endian
+            return (size[0] & 0xFFL) | (size[1] & 0xFFL) << 8 | (size[2] & 0xFFL) << 16 | (size[3] & 0xFFL) << 24;
+        }
+    }
+
+    /**
+     * Plain segment of a log starting at an offset
+     * @param logFile - the current log file
+     * @param start - offset of the segment's first line in the whole log
+     * @return Path of the uncompressed segment
+     */
+    private static Path segmentFile(Path logFile, long start) {
+        return logFile.toAbsolutePath().resolveSibling(logFile.getFileName() + "." + start + SEGMENT_EXTENSION);
+    }
+}
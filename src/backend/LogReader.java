@@ -0,0 +1,423 @@
+package backend;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Reads a user's log a piece at a time, so large logs never have to be loaded into memory.
+ * Pages are addressed by byte offsets into the log, an offset always points at the start of a line.
+ * Rotated segments are read as if they were still part of the log, offsets count from the start of the
+ * oldest segment ever written so they don't change when the log is rotated.
+ */
+public class LogReader {
+
+    // size of the blocks read when seeking backwards through the log
+    private static final int BLOCK_SIZE = 8192;
+
+    private final Path logFile;
+    // last compressed segment read, by the offset it starts at
+    private long cachedStart = -1;
+    private byte[] cachedData;
+
+    /**
+     * Part of the log that can be read at any offset
+     */
+    private interface Source extends Closeable {
+
+        /**
+         * Reads bytes at an offset
+         * @param position - offset in the segment
+         * @param block - where to put the bytes
+         * @param offset - where in the block to put them
+         * @param length - most bytes to read
+         * @return amount of bytes read, -1 at the end of the segment
+         * @throws IOException - If the segment cannot be read
+         */
+        int read(long position, byte[] block, int offset, int length) throws IOException;
+
+        /**
+         * Reads exactly the given amount of bytes at an offset
+         * @param position - offset in the segment
+         * @param block - where to put the bytes
+         * @param length - amount of bytes to read
+         * @throws IOException - If the segment cannot be read or ends early
+         */
+        default void readFully(long position, byte[] block, int length) throws IOException {
+            int done = 0;
+            while (done < length) {
+                int read = read(position + done, block, done, length - done);
+                if (read <= 0) {
+                    throw new EOFException();
+                }
+                done += read;
+            }
+        }
+    }
+
+    /**
+     * A page of log lines
+     */
+    public static class Page {
+
+        private final List<String> lines;
+        private final long startOffset;
+        private final long endOffset;
+
+        /**
+         * Custom constructor
+         * @param lines - lines on the page, oldest first
+         * @param startOffset - offset of the first line on the page
+         * @param endOffset - offset just after the last line on the page
+         */
+        public Page(List<String> lines, long startOffset, long endOffset) {
+            this.lines = lines;
+            this.startOffset = startOffset;
+            this.endOffset = endOffset;
+        }
+
+        public List<String> getLines() {
+            return lines;
+        }
+
+        public long getStartOffset() {
+            return startOffset;
+        }
+
+        public long getEndOffset() {
+            return endOffset;
+        }
+    }
+
+    /**
+     * Creates a reader for a user's log
+     * @param username - username to be used for building directory path of the log
+     */
+    public LogReader(String username) {
+        this(Paths.get(Logger.getPath() + username));
+    }
+
+    /**
+     * Creates a reader for a log file
+     * @param logFile - path to the log file
+     */
+    public LogReader(Path logFile) {
+        this.logFile = logFile;
+    }
+
+    /**
+     * Returns the last lines of the log
+     * @param lines - maximum amount of lines to return
+     * @return Page holding the last lines, use its start offset to read older lines
+     * @throws IOException - If the log cannot be read
+     */
+    public Page tail(int lines) throws IOException {
+        // make sure lines still waiting in the logger's queue are included
+        Logger.flush();
+        List<LogArchive.Segment> segments = segments();
+        if (segments.isEmpty()) {
+            return new Page(Collections.<String>emptyList(), 0, 0);
+        }
+        return readBefore(segments.get(segments.size() - 1).getEnd(), lines);
+    }
+
+    /**
+     * Returns the lines just before an offset, by reading the log backwards from the offset.
+     * Carries on into older segments until enough lines are found. Once the oldest segment kept
+     * has been reached the page starts at offset 0, as nothing older can be read.
+     * @param offset - offset to read back from, usually the start offset of a page
+     * @param lines - maximum amount of lines to return
+     * @return Page holding the lines, oldest first
+     * @throws IOException - If the log cannot be read
+     */
+    public Page readBefore(long offset, int lines) throws IOException {
+        List<LogArchive.Segment> segments = segments();
+        if (segments.isEmpty() || offset <= 0 || lines <= 0) {
+            return new Page(Collections.<String>emptyList(), 0, Math.max(0, offset));
+        }
+
+        long end = Math.min(offset, segments.get(segments.size() - 1).getEnd());
+        long start = end;
+        List<String> found = new ArrayList<String>();
+        for (int i = segments.size() - 1; i >= 0 && found.size() < lines; i--) {
+            LogArchive.Segment segment = segments.get(i);
+            if (segment.getStart() >= start) {
+                continue;
+            }
+            try (Source source = open(segment)) {
+                long localEnd = start - segment.getStart();
+                long localStart = findLineStart(source, localEnd, lines - found.size());
+                found.addAll(0, readLines(source, localStart, localEnd));
+                start = segment.getStart() + localStart;
+            }
+        }
+
+        // older lines were rotated out and deleted
+        if (start <= segments.get(0).getStart()) {
+            start = 0;
+        }
+        return new Page(found, start, end);
+    }
+
+    /**
+     * Returns the lines starting at an offset, by reading the log forwards from the offset.
+     * Carries on into newer segments until enough lines are found.
+     * @param offset - offset to read from, 0 for the start of the log
+     * @param lines - maximum amount of lines to return
+     * @return Page holding the lines, its end offset is where the next page starts
+     * @throws IOException - If the log cannot be read
+     */
+    public Page readFrom(long offset, int lines) throws IOException {
+        Logger.flush();
+        List<LogArchive.Segment> segments = segments();
+        if (segments.isEmpty() || lines <= 0) {
+            return new Page(Collections.<String>emptyList(), offset, offset);
+        }
+
+        // an offset before the oldest segment kept starts at the oldest line left
+        long position = Math.max(offset, segments.get(0).getStart());
+        List<String> found = new ArrayList<String>();
+        for (LogArchive.Segment segment : segments) {
+            if (found.size() >= lines) {
+                break;
+            }
+            if (segment.getEnd() <= position) {
+                continue;
+            }
+            try (Source source = open(segment)) {
+                long localStart = position - segment.getStart();
+                long localEnd = findLineEnd(source, localStart, lines - found.size());
+                found.addAll(readLines(source, localStart, localEnd));
+                position = segment.getStart() + localEnd;
+            }
+        }
+        return new Page(found, offset, position);
+    }
+
+    /**
+     * Streams every line that contains some text, the log is read a line at a time.
+     * The stream has to be closed, best done with a try-with-resources block.
+     * @param text - text the lines have to contain
+     * @return Stream of matching lines
+     * @throws IOException - If the log cannot be read
+     */
+    public Stream<String> matching(String text) throws IOException {
+        return lines().filter(line -> line.contains(text));
+    }
+
+    /**
+     * Streams every line of the log, oldest first, starting with the oldest segment kept.
+     * Compressed segments are decompressed as they are read.
+     * The stream has to be closed, best done with a try-with-resources block.
+     * @return Stream of lines
+     * @throws IOException - If the log cannot be read
+     */
+    public Stream<String> lines() throws IOException {
+        Logger.flush();
+        return segments().stream().flatMap(segment -> {
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(segment.open(), StandardCharsets.UTF_8));
+                return reader.lines().onClose(() -> {
+                    try {
+                        reader.close();
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        });
+    }
+
+    /**
+     * Lists the rotated segments of the log followed by the current log file
+     * @return List of segments, oldest first, empty if nothing was ever logged
+     * @throws IOException - If the log's directory cannot be read
+     */
+    private List<LogArchive.Segment> segments() throws IOException {
+        List<LogArchive.Segment> segments = LogArchive.list(logFile);
+        long start = segments.isEmpty() ? 0 : segments.get(segments.size() - 1).getEnd();
+        if (Files.exists(logFile)) {
+            segments.add(new LogArchive.Segment(logFile, start, Files.size(logFile)));
+        }
+        return segments;
+    }
+
+    /**
+     * Opens a segment for reading at any offset. Plain files are read in place, compressed segments are
+     * decompressed into memory, the last one is kept so paging through it only decompresses it once.
+     * @param segment - segment to open
+     * @return Source reading the segment's uncompressed contents
+     * @throws IOException - If the segment cannot be read
+     */
+    private synchronized Source open(LogArchive.Segment segment) throws IOException {
+        // a plain segment may have been compressed since it was listed
+        if (!segment.isCompressed() && Files.exists(segment.getFile())) {
+            RandomAccessFile file = new RandomAccessFile(segment.getFile().toFile(), "r");
+            return new Source() {
+                @Override public int read(long position, byte[] block, int offset, int length) throws IOException {
+                    file.seek(position);
+                    return file.read(block, offset, length);
+                }
+
+                @Override public void close() throws IOException {
+                    file.close();
+                }
+            };
+        }
+
+        if (cachedData == null || cachedStart != segment.getStart()) {
+            try (InputStream in = segment.open()) {
+                ByteArrayOutputStream data = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE, segment.getLength()));
+                byte[] block = new byte[BLOCK_SIZE];
+                int read;
+                while ((read = in.read(block)) > 0) {
+                    data.write(block, 0, read);
+                }
+                cachedData = data.toByteArray();
+                cachedStart = segment.getStart();
+            }
+        }
+        byte[] data = cachedData;
+        return new Source() {
+            @Override public int read(long position, byte[] block, int offset, int length) {
+                if (position >= data.length) {
+                    return -1;
+                }
+                int amount = (int) Math.min(length, data.length - position);
+                System.arraycopy(data, (int) position, block, offset, amount);
+                return amount;
+            }
+
+            @Override public void close() {
+                // nothing to close, the data stays cached
+            }
+        };
+    }
+
+    /**
+     * Seeks backwards from an offset to find where the last few lines before it start
+     * @param source - open segment
+     * @param end - offset to seek back from
+     * @param lines - amount of lines wanted
+     * @return offset of the first wanted line
+     * @throws IOException - If the log cannot be read
+     */
+    private long findLineStart(Source source, long end, int lines) throws IOException {
+        byte[] block = new byte[BLOCK_SIZE];
+        long position = end;
+        int found = 0;
+        // the log's last line ends with a new line, that one doesn't start a new line
+        boolean skipLast = true;
+
+        while (position > 0) {
+            int length = (int) Math.min(BLOCK_SIZE, position);
+            position -= length;
+            source.readFully(position, block, length);
+
+            for (int i = length - 1; i >= 0; i--) {
+                if (block[i] == '\n') {
+                    if (skipLast && position + i == end - 1) {
+                        continue;
+                    }
+                    if (++found == lines) {
+                        return position + i + 1;
+                    }
+                }
+            }
+            skipLast = false;
+        }
+        return 0;
+    }
+
+    /**
+     * Seeks forwards from an offset to find where a few lines after it end
+     * @param source - open segment
+     * @param start - offset of the first line
+     * @param lines - amount of lines wanted
+     * @return offset just after the last wanted line, or the end of the segment
+     * @throws IOException - If the log cannot be read
+     */
+    private long findLineEnd(Source source, long start, int lines) throws IOException {
+        byte[] block = new byte[BLOCK_SIZE];
+        long position = start;
+        int found = 0;
+        // read forwards until enough line ends have been seen
+        while (found < lines) {
+            int read = source.read(position, block, 0, BLOCK_SIZE);
+            if (read <= 0) {
+                break;
+            }
+            int i = 0;
+            while (i < read && found < lines) {
+                if (block[i++] == '\n') {
+                    found++;
+                }
+            }
+            position += i;
+        }
+        return position;
+    }
+
+    /**
+     * Reads the lines between two offsets
+     * @param source - open segment
+     * @param start - offset of the first line
+     * @param end - offset just after the last line
+     * @return List of lines, without line endings
+     * @throws IOException - If the log cannot be read
+     */
+    private List<String> readLines(Source source, long start, long end) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        byte[] block = new byte[BLOCK_SIZE];
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        long position = start;
+
+        while (position < end) {
+            int read = source.read(position, block, 0, (int) Math.min(BLOCK_SIZE, end - position));
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (block[i] == '\n') {
+                    lines.add(toLine(line));
+                    line.reset();
+                } else {
+                    line.write(block[i]);
+                }
+            }
+            position += read;
+        }
+
+        // last line of the log may not have a line ending yet
+        if (line.size() > 0) {
+            lines.add(toLine(line));
+        }
+        return lines;
+    }
+
+    /**
+     * Turns the bytes of a line into a string, dropping windows line endings
+     * @param line - bytes of the line
+     * @return the line
+     */
+    private String toLine(ByteArrayOutputStream line) {
+        String text = new String(line.toByteArray(), StandardCharsets.UTF_8);
+        return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+    }
+}
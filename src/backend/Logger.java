@@ -2,22 +2,246 @@ package backend;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+/**
+ * Per user log of what the backup application did.
+ * Lines are queued and written in batches by a single writer thread through a file channel
+ * that is kept open, so logging a line doesn't cost a file open / write / close.
+ * A log is rotated once it reaches a size or age, the old log becomes a segment which is compressed in the
+ * background, and old segments are deleted by the retention policy. LogReader reads across the segments.
+ */
 public class Logger {
 
     private static final String pathToLog = System.getProperty("user.home") + File.separator + "Desktop" +  File.separator + "logs" + File.separator;
+    // maximum amount of lines waiting to be written, loggers wait for space when it is full
+    private static final int QUEUE_CAPACITY = 8192;
+    // maximum amount of lines written in one go
+    private static final int BATCH_SIZE = 1024;
+    // longest a logger waits for space in a full queue before its line is dropped
+    private static final long ENQUEUE_TIMEOUT = 5000;
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    // a log is rotated once it is larger or older than this by default
+    public static final long DEFAULT_MAX_LOG_SIZE = 10 * 1024 * 1024;
+    public static final long DEFAULT_MAX_LOG_AGE = 7 * DAY_MILLIS;
+    // rotated segments kept by default, and how long for
+    public static final int DEFAULT_MAX_SEGMENTS = 20;
+    public static final long DEFAULT_RETENTION = 90 * DAY_MILLIS;
+
+    // ArrayBlockingQueue is a ring buffer, lines are written in the order they were logged
+    private static final BlockingQueue<LogLine> queue = new ArrayBlockingQueue<LogLine>(QUEUE_CAPACITY);
+    // open log channels, only ever written to by the writer thread
+    private static final Map<String, FileChannel> channels = new ConcurrentHashMap<String, FileChannel>();
+    // how long the writer waits to fill a batch before writing it
+    private static volatile long flushInterval = 200;
+    private static Thread writer;
+
+    private static volatile long maxLogSize = DEFAULT_MAX_LOG_SIZE;
+    private static volatile long maxLogAge = DEFAULT_MAX_LOG_AGE;
+    private static volatile int maxSegments = DEFAULT_MAX_SEGMENTS;
+    private static volatile long retentionMillis = DEFAULT_RETENTION;
+    // username -> time the user's current log file was started
+    private static final Map<String, Long> logStarted = new ConcurrentHashMap<String, Long>();
+    // compresses rotated segments and applies the retention policy, so the writer thread never waits for gzip
+    private static final ExecutorService archiver = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "log-archiver");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // lines logged, and time spent waiting for space in a full queue, which shows the log slowing callers down
+    private static final Metrics.Counter linesLogged = Metrics.counter("log.lines");
+    private static final Metrics.Counter logErrors = Metrics.counter("log.errors");
+    private static final Metrics.Gauge queueDepth = Metrics.gauge("log.queue");
+    private static final Metrics.Histogram enqueueTime = Metrics.histogram("log.enqueue");
+    private static final Metrics.Histogram batchWriteTime = Metrics.histogram("log.write");
+    private static final Metrics.Counter rotations = Metrics.counter("log.rotations");
+    private static final Metrics.Histogram archiveTime = Metrics.histogram("log.archive");
+
+    /**
+     * A line waiting to be written, a line without a user is a flush request
+     */
+    private static class LogLine {
+        private final String username;
+        private final String text;
+        private final CountDownLatch flushed;
+
+        private LogLine(String username, String text, CountDownLatch flushed) {
+            this.username = username;
+            this.text = text;
+            this.flushed = flushed;
+        }
+    }
 
     /**
      * Appends line to log for specific user
+     * The line is queued and written by the writer thread, use flush to wait for it to be written
      * @param username - username to be used for building directory path of the log
      * @param logLine - text to be logged
      */
     public static void addToLog(String username, String logLine) {
         try {
+            // the log file is created straight away, only the line itself is written later
+            openLog(username);
+            long start = System.nanoTime();
+            if (!enqueue(new LogLine(username, logLine, null))) {
+                logErrors.increment();
+                System.out.println("Log queue is full, line dropped");
+                return;
+            }
+            enqueueTime.recordSince(start);
+            linesLogged.increment();
+        } catch (IOException ex) {
+            logErrors.increment();
+            System.out.println("Failed to write to log");
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Waits until every line logged so far has been written to disk
+     */
+    public static void flush() {
+        if (writer == null) {
+            // nothing has been logged yet
+            return;
+        }
+
+        CountDownLatch flushed = new CountDownLatch(1);
+        try {
+            // the queue is in order, so once the writer reaches this request every earlier line is written
+            if (enqueue(new LogLine(null, null, flushed))) {
+                flushed.await();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Sets how long the writer thread waits to gather more lines before writing a batch.
+     * Longer intervals mean fewer, larger writes, lines are still written straight away when flushed.
+     * @param millis - flush interval in milliseconds, 0 writes lines as soon as they are logged
+     */
+    public static void setFlushInterval(long millis) {
+        flushInterval = Math.max(0, millis);
+    }
+
+    /**
+     * Sets when a log is rotated, whichever limit is reached first
+     * @param bytes - size a log can grow to, 0 or less for no size limit
+     * @param millis - age a log can reach, 0 or less for no age limit
+     */
+    public static void setRotation(long bytes, long millis) {
+        maxLogSize = bytes;
+        maxLogAge = millis;
+    }
+
+    /**
+     * Sets how many rotated segments are kept and for how long, the newest segment is always kept
+     * @param segments - most segments kept per user
+     * @param millis - segments older than this are deleted, 0 or less to keep them until there are too many
+     */
+    public static void setRetention(int segments, long millis) {
+        maxSegments = Math.max(1, segments);
+        retentionMillis = millis;
+    }
+
+    /**
+     * Rotates a user's log straight away, after writing every line logged so far.
+     * The old log is compressed in the background, use awaitArchive to wait for it.
+     * @param username - username to be used for building directory path of the log
+     */
+    public static void rotate(String username) {
+        flush();
+        synchronized (channels) {
+            try {
+                rotateLog(username);
+            } catch (IOException ex) {
+                logErrors.increment();
+                System.out.println("Failed to rotate log");
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Waits until rotated logs have been compressed and the retention policy applied
+     */
+    public static void awaitArchive() {
+        try {
+            // the archiver runs one task at a time, so once this one runs every earlier one has finished
+            archiver.submit(() -> { }).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Adds a line to the queue, starting the writer thread the first time anything is logged.
+     * An interrupted caller, e.g. a cancelled backup logging that it was cancelled, still has its line queued,
+     * the interrupted flag is cleared while waiting for space and set again afterwards.
+     * @param line - line to be written
+     * @return true if the line was queued, false if the queue stayed full or the caller was interrupted while waiting
+     */
+    private static boolean enqueue(LogLine line) {
+        startWriter();
+        boolean interrupted = Thread.interrupted();
+        try {
+            boolean queued = queue.offer(line, ENQUEUE_TIMEOUT, TimeUnit.MILLISECONDS);
+            queueDepth.set(queue.size());
+            return queued;
+        } catch (InterruptedException ex) {
+            interrupted = true;
+            return false;
+        } finally {
+            // keep the interrupted flag for the caller
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Opens a user's log file the first time the user logs anything, creating the file if needed
+     * @param username - username to be used for building directory path of the log
+     * @throws IOException - If the log file cannot be created
+     */
+    private static void openLog(String username) throws IOException {
+        if (channels.containsKey(username)) {
+            return;
+        }
+
+        synchronized (channels) {
+            if (channels.containsKey(username)) {
+                return;
+            }
+
             File logFile = new File(pathToLog + username);
 
             // check if directory exists
@@ -28,20 +252,198 @@ public class Logger {
             // check if log file exists
             if (!logFile.exists()) {
                 System.out.println("Log file " + logFile + " not found, creating log file...");
-                // create log file
-                logFile.createNewFile();
             }
 
-            // write to log file
-            Files.write(logFile.toPath(), (logLine + "\n").getBytes(), StandardOpenOption.APPEND);
-        } catch (IOException ex) {
-            System.out.println("Failed to write to log");
-            ex.printStackTrace();
+            if (logFile.exists()) {
+                // file systems without creation times return the last modified time instead,
+                // which only puts off the next rotation
+                logStarted.put(username, Files.readAttributes(logFile.toPath(), BasicFileAttributes.class).creationTime().toMillis());
+            } else {
+                logStarted.put(username, System.currentTimeMillis());
+            }
+
+            channels.put(username, FileChannel.open(logFile.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+            // segments left uncompressed when the application last exited
+            archive(username);
+        }
+    }
+
+    /**
+     * Checks if a user's log has to be rotated before more lines are written to it
+     * @param username - username of the log
+     * @param channel - the log's open channel
+     * @param bytes - size of the lines about to be written
+     * @return true if the log is too large or too old
+     * @throws IOException - If the size of the log cannot be read
+     */
+    private static boolean needsRotation(String username, FileChannel channel, long bytes) throws IOException {
+        long size = channel.size();
+        if (size == 0) {
+            // a single batch larger than the limit still has to go somewhere
+            return false;
+        }
+        return (maxLogSize > 0 && size + bytes > maxLogSize)
+                || (maxLogAge > 0 && System.currentTimeMillis() - logStarted.getOrDefault(username, System.currentTimeMillis()) >= maxLogAge);
+    }
+
+    /**
+     * Renames the user's log to a segment and starts a new log, the segment is compressed in the background.
+     * Called with the channels lock held, so nothing is written to the log while it is renamed.
+     * @param username - username of the log
+     * @throws IOException - If the log cannot be renamed or the new log cannot be created
+     */
+    private static void rotateLog(String username) throws IOException {
+        Path logFile = Paths.get(pathToLog + username);
+        FileChannel channel = channels.remove(username);
+        if (channel != null) {
+            channel.close();
+        }
+        try {
+            if (LogArchive.rotate(logFile) != null) {
+                rotations.increment();
+                archive(username);
+            }
+        } finally {
+            // the log is reopened even if it couldn't be renamed, so lines can still be written
+            logStarted.put(username, System.currentTimeMillis());
+            channels.put(username, FileChannel.open(logFile,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+        }
+    }
+
+    /**
+     * Compresses a user's rotated segments and deletes old ones on the archiver thread
+     * @param username - username of the log
+     */
+    private static void archive(String username) {
+        Path logFile = Paths.get(pathToLog + username);
+        archiver.execute(() -> {
+            long start = System.nanoTime();
+            try {
+                LogArchive.compress(logFile);
+                LogArchive.applyRetention(logFile, maxSegments, retentionMillis);
+            } catch (IOException ex) {
+                logErrors.increment();
+                System.out.println("Failed to archive log " + logFile);
+                ex.printStackTrace();
+            } finally {
+                archiveTime.recordSince(start);
+            }
+        });
+    }
+
+    /**
+     * Starts the writer thread, and a shutdown hook that writes any queued lines when the application exits
+     */
+    private static synchronized void startWriter() {
+        if (writer != null) {
+            return;
+        }
+
+        writer = new Thread(Logger::writeLoop, "log-writer");
+        // a daemon thread doesn't keep the application running
+        writer.setDaemon(true);
+        writer.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            flush();
+            for (FileChannel channel : channels.values()) {
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            }
+        }));
+    }
+
+    /**
+     * Run by the writer thread, takes batches of lines off the queue and writes them
+     */
+    private static void writeLoop() {
+        List<LogLine> batch = new ArrayList<LogLine>(BATCH_SIZE);
+        while (true) {
+            try {
+                batch.add(queue.take());
+                gather(batch);
+                write(batch);
+            } catch (InterruptedException ex) {
+                // the writer is never interrupted on purpose, carry on writing
+            } finally {
+                // release anyone waiting on a flush, even if the write failed
+                for (LogLine line : batch) {
+                    if (line.flushed != null) {
+                        line.flushed.countDown();
+                    }
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Adds more lines to the batch until it is full, the flush interval runs out or a flush is requested
+     * @param batch - batch holding at least one line
+     * @throws InterruptedException - If the writer thread is interrupted
+     */
+    private static void gather(List<LogLine> batch) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + flushInterval;
+        while (batch.size() < BATCH_SIZE && batch.get(batch.size() - 1).flushed == null) {
+            LogLine next = queue.poll(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
         }
     }
 
     /**
-     * Reads the log for a spefici user
+     * Writes a batch of lines, lines for the same user are joined into a single write
+     * @param batch - lines to be written
+     */
+    private static void write(List<LogLine> batch) {
+        // keeps the users in the order they first appear in the batch
+        Map<String, StringBuilder> byUser = new LinkedHashMap<String, StringBuilder>();
+        for (LogLine line : batch) {
+            if (line.username != null) {
+                byUser.computeIfAbsent(line.username, user -> new StringBuilder()).append(line.text).append("\n");
+            }
+        }
+
+        long start = System.nanoTime();
+        for (Map.Entry<String, StringBuilder> userLines : byUser.entrySet()) {
+            ByteBuffer buffer = ByteBuffer.wrap(userLines.getValue().toString().getBytes(StandardCharsets.UTF_8));
+            // rotate holds the lock while it swaps the channel, so a batch never goes to a closed channel
+            synchronized (channels) {
+                try {
+                    FileChannel channel = channels.get(userLines.getKey());
+                    if (channel == null) {
+                        // a rotation failed to reopen the log, try again
+                        openLog(userLines.getKey());
+                        channel = channels.get(userLines.getKey());
+                    }
+                    if (needsRotation(userLines.getKey(), channel, buffer.remaining())) {
+                        rotateLog(userLines.getKey());
+                        channel = channels.get(userLines.getKey());
+                    }
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                } catch (IOException ex) {
+                    logErrors.increment();
+                    System.out.println("Failed to write to log");
+                    ex.printStackTrace();
+                }
+            }
+        }
+        if (!byUser.isEmpty()) {
+            batchWriteTime.recordSince(start);
+        }
+    }
+
+    /**
+     * Reads the log for a spefici user, including the segments it was rotated to
      * @param username - username to be used for building directory path of the log
      * @return List of Strings representing the log lines.
      */
@@ -60,9 +462,11 @@ public class Logger {
                 return Arrays.asList("Failed to locate log");
             }
 
-            // write to log file
-            return Files.readAllLines(logFile.toPath());
-        } catch (IOException ex) {
+            // the reader makes sure lines still waiting in the queue are included
+            try (Stream<String> lines = new LogReader(logFile.toPath()).lines()) {
+                return lines.collect(Collectors.toList());
+            }
+        } catch (IOException | UncheckedIOException ex) {
             System.out.println("Failed to read log");
             ex.printStackTrace();
             return Arrays.asList("Failed to locate log");
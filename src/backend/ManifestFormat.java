@@ -0,0 +1,40 @@
+package backend;
+
+/**
+ * Shared helpers for the tab separated, one entry per line manifest files
+ */
+class ManifestFormat {
+
+    static final String SPLITTER = "\t";
+
+    /**
+     * Escapes characters that would break the line based format
+     * @param value - text to escape
+     * @return escaped text
+     */
+    static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    /**
+     * Reverses escape
+     * @param value - escaped text
+     * @return original text
+     */
+    static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                sb.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
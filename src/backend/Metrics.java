@@ -0,0 +1,306 @@
+package backend;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters, gauges and latency histograms of what the application is doing, such as files copied, bytes written,
+ * how long each phase of a backup took and how many files are waiting for a worker.
+ * Metrics are kept in memory for the life of the application, they can be listed in the UI or exported to a file.
+ * Updating a metric never blocks, so they are cheap enough to update for every file. Classes keep the metrics
+ * they update in static fields rather than looking them up by name each time.
+ */
+public class Metrics {
+
+    // sorted by name, so metrics of the same area are listed together
+    private static final Map<String, Counter> counters = new ConcurrentSkipListMap<String, Counter>();
+    private static final Map<String, Gauge> gauges = new ConcurrentSkipListMap<String, Gauge>();
+    private static final Map<String, Histogram> histograms = new ConcurrentSkipListMap<String, Histogram>();
+    // guards against a metric being registered as two types
+    private static final Map<String, String> types = new ConcurrentHashMap<String, String>();
+
+    /**
+     * A count that only goes up, such as files copied
+     */
+    public static class Counter {
+
+        // LongAdder spreads updates from many threads over several cells, so copy threads don't fight over one value
+        private final LongAdder count = new LongAdder();
+
+        public void increment() {
+            count.increment();
+        }
+
+        public void add(long amount) {
+            count.add(amount);
+        }
+
+        public long get() {
+            return count.sum();
+        }
+
+        private void reset() {
+            count.reset();
+        }
+    }
+
+    /**
+     * A value that goes up and down, such as files waiting for a worker. The highest value seen is kept too.
+     */
+    public static class Gauge {
+
+        private final AtomicLong value = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        public void set(long newValue) {
+            value.set(newValue);
+            max.accumulateAndGet(newValue, Math::max);
+        }
+
+        public long get() {
+            return value.get();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        private void reset() {
+            value.set(0);
+            max.set(0);
+        }
+    }
+
+    /**
+     * Spread of how long something took. Times are counted in buckets that double in size, so any time from a
+     * microsecond to days fits in a few buckets and percentiles are accurate to within a factor of two.
+     * source: http://hdrhistogram.org/
+     */
+    public static class Histogram {
+
+        // bucket i holds times below 2^i microseconds, the last bucket holds anything longer
+        private static final int BUCKETS = 40;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalMicros = new LongAdder();
+        private final AtomicLong maxMicros = new AtomicLong();
+
+        /**
+         * Records how long something took
+         * @param nanos - time taken in nanoseconds
+         */
+        public void record(long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            // the amount of bits needed for the time is the bucket it falls in
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            buckets.incrementAndGet(bucket);
+            count.increment();
+            totalMicros.add(micros);
+            maxMicros.accumulateAndGet(micros, Math::max);
+        }
+
+        /**
+         * Records the time since something started
+         * @param startNanos - System.nanoTime() when it started
+         */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        /**
+         * Returns the average time taken
+         * @return mean in milliseconds, 0 if nothing was recorded
+         */
+        public double getMeanMillis() {
+            long recorded = count.sum();
+            return recorded == 0 ? 0 : totalMicros.sum() / 1000.0 / recorded;
+        }
+
+        public double getMaxMillis() {
+            return maxMicros.get() / 1000.0;
+        }
+
+        /**
+         * Estimates a percentile, such as 0.95 for the time 95% of the recorded times were below
+         * @param fraction - percentile between 0 and 1
+         * @return upper bound of the bucket holding the percentile in milliseconds, never more than the maximum
+         */
+        public double getPercentileMillis(double fraction) {
+            long recorded = count.sum();
+            if (recorded == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(fraction * recorded);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= target) {
+                    return Math.min((1L << i) / 1000.0, getMaxMillis());
+                }
+            }
+            return getMaxMillis();
+        }
+
+        private void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+            count.reset();
+            totalMicros.reset();
+            maxMicros.set(0);
+        }
+    }
+
+    /**
+     * Finds or creates a counter
+     * @param name - name of the counter, areas separated by dots such as "backup.files"
+     * @return Counter with the name
+     */
+    public static Counter counter(String name) {
+        register(name, "counter");
+        return counters.computeIfAbsent(name, key -> new Counter());
+    }
+
+    /**
+     * Finds or creates a gauge
+     * @param name - name of the gauge, areas separated by dots such as "copy.queue"
+     * @return Gauge with the name
+     */
+    public static Gauge gauge(String name) {
+        register(name, "gauge");
+        return gauges.computeIfAbsent(name, key -> new Gauge());
+    }
+
+    /**
+     * Finds or creates a latency histogram
+     * @param name - name of the histogram, areas separated by dots such as "backup.file"
+     * @return Histogram with the name
+     */
+    public static Histogram histogram(String name) {
+        register(name, "histogram");
+        return histograms.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    /**
+     * Records the type of a metric the first time it is used
+     * @param name - name of the metric
+     * @param type - type of the metric
+     */
+    private static void register(String name, String type) {
+        String existing = types.putIfAbsent(name, type);
+        if (existing != null && !existing.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is already a " + existing);
+        }
+    }
+
+    /**
+     * Sets every metric back to zero, the metrics themselves are kept as classes hold on to them
+     */
+    public static void reset() {
+        for (Counter counter : counters.values()) {
+            counter.reset();
+        }
+        for (Gauge gauge : gauges.values()) {
+            gauge.reset();
+        }
+        for (Histogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Describes every metric, one line each, used by the UI and the text export
+     * @return List of lines sorted by type and name
+     */
+    public static List<String> report() {
+        List<String> lines = new ArrayList<String>();
+        for (Map.Entry<String, Counter> counter : counters.entrySet()) {
+            lines.add(counter.getKey() + " = " + counter.getValue().get());
+        }
+        for (Map.Entry<String, Gauge> gauge : gauges.entrySet()) {
+            lines.add(gauge.getKey() + " = " + gauge.getValue().get() + " (max " + gauge.getValue().getMax() + ")");
+        }
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            lines.add(String.format("%s: count %d, mean %.3f ms, p50 %.3f ms, p95 %.3f ms, p99 %.3f ms, max %.3f ms",
+                    entry.getKey(), histogram.getCount(), histogram.getMeanMillis(), histogram.getPercentileMillis(0.5),
+                    histogram.getPercentileMillis(0.95), histogram.getPercentileMillis(0.99), histogram.getMaxMillis()));
+        }
+        return lines;
+    }
+
+    /**
+     * Describes every metric as a JSON object with "counters", "gauges" and "histograms"
+     * @return JSON text
+     */
+    public static String toJson() {
+        StringBuilder json = new StringBuilder("{\n  \"counters\": {");
+        String separator = "\n";
+        for (Map.Entry<String, Counter> counter : counters.entrySet()) {
+            json.append(separator).append("    \"").append(counter.getKey()).append("\": ").append(counter.getValue().get());
+            separator = ",\n";
+        }
+        json.append("\n  },\n  \"gauges\": {");
+        separator = "\n";
+        for (Map.Entry<String, Gauge> gauge : gauges.entrySet()) {
+            json.append(separator).append("    \"").append(gauge.getKey()).append("\": {\"value\": ")
+                    .append(gauge.getValue().get()).append(", \"max\": ").append(gauge.getValue().getMax()).append("}");
+            separator = ",\n";
+        }
+        json.append("\n  },\n  \"histograms\": {");
+        separator = "\n";
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            // Locale.ROOT keeps the decimal point a dot, JSON doesn't allow a comma
+            json.append(separator).append("    \"").append(entry.getKey()).append("\": ")
+                    .append(String.format(Locale.ROOT,
+                            "{\"count\": %d, \"meanMillis\": %.3f, \"p50Millis\": %.3f, \"p95Millis\": %.3f, \"p99Millis\": %.3f, \"maxMillis\": %.3f}",
+                            histogram.getCount(), histogram.getMeanMillis(), histogram.getPercentileMillis(0.5),
+                            histogram.getPercentileMillis(0.95), histogram.getPercentileMillis(0.99), histogram.getMaxMillis()));
+            separator = ",\n";
+        }
+        json.append("\n  }\n}\n");
+        return json.toString();
+    }
+
+    /**
+     * Exports every metric to a file, as JSON if the file name ends with ".json" and as text otherwise.
+     * Written to a temporary file first so a reader never sees half an export.
+     * @param file - where to export the metrics
+     * @throws IOException - If the file cannot be written
+     */
+    public static void export(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = parent.resolve(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            if (file.getFileName().toString().endsWith(".json")) {
+                writer.write(toJson());
+            } else {
+                for (String line : report()) {
+                    writer.write(line);
+                    writer.newLine();
+                }
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,106 @@
+package backend;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads files out of a pack segment written by PackWriter.
+ * The segment is memory mapped, so reading a file is a slice of the mapped memory rather than a seek and read,
+ * and many restore threads can read from the same segment at once.
+ */
+public class PackReader implements Closeable {
+
+    private final Path segment;
+    private final FileChannel channel;
+    private final MappedByteBuffer mapped;
+
+    /**
+     * Custom constructor, maps the whole segment
+     * @param segment - path to the segment
+     * @throws IOException - If the segment cannot be read
+     */
+    public PackReader(Path segment) throws IOException {
+        this.segment = segment;
+        this.channel = FileChannel.open(segment, StandardOpenOption.READ);
+        this.mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    /**
+     * Returns the contents of a file in the segment
+     * @param offset - where the file starts
+     * @param length - size of the stored file
+     * @return read only buffer holding the file, safe to use from any thread
+     * @throws IOException - If the file is outside of the segment
+     */
+    public ByteBuffer read(long offset, long length) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > mapped.capacity()) {
+            throw new IOException("File at " + offset + " is outside of segment " + segment);
+        }
+        // every caller gets its own position and limit over the shared mapped memory
+        ByteBuffer buffer = mapped.duplicate();
+        buffer.position((int) offset);
+        buffer.limit((int) (offset + length));
+        return buffer.slice();
+    }
+
+    /**
+     * Returns a file's contents using a location from PackWriter.append
+     * @param location - location in the format segment:offset:length
+     * @return read only buffer holding the file
+     * @throws IOException - If the location is outside of the segment
+     */
+    public ByteBuffer read(String location) throws IOException {
+        String[] parts = location.split(":");
+        return read(Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+    }
+
+    /**
+     * Lists the files in the segment using the index at its end
+     * @return List of files in the order they were appended
+     * @throws IOException - If the segment wasn't finished, for example the backup crashed while writing it
+     */
+    public List<PackWriter.IndexEntry> list() throws IOException {
+        ByteBuffer buffer = mapped.duplicate();
+        if (buffer.capacity() < PackWriter.FOOTER_SIZE) {
+            throw new IOException("Segment " + segment + " has no footer");
+        }
+        buffer.position(buffer.capacity() - PackWriter.FOOTER_SIZE);
+        long indexOffset = buffer.getLong();
+        int count = buffer.getInt();
+        if (buffer.getInt() != PackWriter.MAGIC) {
+            throw new IOException("Segment " + segment + " was not finished");
+        }
+
+        List<PackWriter.IndexEntry> entries = new ArrayList<PackWriter.IndexEntry>(count);
+        buffer.position((int) indexOffset);
+        for (int i = 0; i < count; i++) {
+            byte[] path = new byte[buffer.getInt()];
+            buffer.get(path);
+            entries.add(new PackWriter.IndexEntry(new String(path, StandardCharsets.UTF_8), buffer.getLong(), buffer.getLong()));
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the name of the segment a location points into
+     * @param location - location in the format segment:offset:length
+     * @return segment file name
+     */
+    public static String segmentOf(String location) {
+        return location.substring(0, location.indexOf(':'));
+    }
+
+    @Override
+    public void close() throws IOException {
+        // the mapping stays valid until it is garbage collected, java 8 has no way to unmap it
+        channel.close();
+    }
+}
@@ -0,0 +1,208 @@
+package backend;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bundles many small files into a few large pack files (segments), so a backup of millions of small files
+ * doesn't create millions of files in the backup location.
+ * Files are appended one after another. When a segment is finished an index of the files it holds is added
+ * to its end, followed by a footer: the index's offset, the amount of files and a magic number.
+ * Each index entry is the path's length, the path in UTF-8, the file's offset and the file's length.
+ * The manifest stores where each file is, so the index is only needed to check or recover a segment.
+ * Segments are written through a RandomAccessFile rather than a FileChannel, an interrupted thread closes
+ * a FileChannel for every thread, which would leave a cancelled backup's segment without its index.
+ */
+public class PackWriter implements Closeable {
+
+    public static final String EXTENSION = ".pack";
+    // marks the end of a finished segment, "PAK1"
+    static final int MAGIC = 0x50414B31;
+    // size of the footer, index offset + file count + magic
+    static final int FOOTER_SIZE = 8 + 4 + 4;
+    // segments are memory mapped on restore, which is limited to 2GB a map
+    public static final long DEFAULT_SEGMENT_SIZE = 256L * 1024 * 1024;
+
+    private final Path directory;
+    private final String prefix;
+    private final long segmentSize;
+
+    // segment being written, opened with the first file so a backup without small files makes no segment
+    private RandomAccessFile segment;
+    private String segmentName;
+    private int segmentCount = 0;
+    private final List<IndexEntry> index = new ArrayList<IndexEntry>();
+    // set once a segment couldn't be finished, files appended to it can't be read back
+    // so no checkpoint or manifest may be saved from then on
+    private IOException failure;
+
+    /**
+     * Custom constructor
+     * @param directory - where the segments are written
+     * @param prefix - start of every segment's name, the snapshot ID
+     */
+    public PackWriter(Path directory, String prefix) {
+        this(directory, prefix, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Custom constructor
+     * @param directory - where the segments are written
+     * @param prefix - start of every segment's name, the snapshot ID
+     * @param segmentSize - a new segment is started once a segment reaches this size
+     */
+    public PackWriter(Path directory, String prefix, long segmentSize) {
+        if (segmentSize > Integer.MAX_VALUE / 2) {
+            throw new IllegalArgumentException("Segments can't be larger than " + Integer.MAX_VALUE / 2 + " bytes");
+        }
+        this.directory = directory;
+        this.prefix = prefix;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Appends a file's contents to the current segment.
+     * Synchronized as files are appended by many copy threads at once, the files are small so the lock is short.
+     * @param path - path of the file, saved in the segment's index
+     * @param data - contents of the file
+     * @return location of the contents, in the format segment:offset:length
+     * @throws IOException - If the segment cannot be written
+     */
+    public synchronized String append(String path, byte[] data) throws IOException {
+        if (segment == null || segment.getFilePointer() >= segmentSize) {
+            finishSegment();
+            startSegment();
+        }
+
+        long offset = segment.getFilePointer();
+        segment.write(data);
+        index.add(new IndexEntry(path, offset, data.length));
+        return segmentName + ":" + offset + ":" + data.length;
+    }
+
+    /**
+     * Finishes the current segment so every file appended so far can be read back, the next file starts a new segment.
+     * Called before a checkpoint is saved, the checkpoint must only point into finished segments.
+     * @throws IOException - If the segment cannot be written, or an earlier segment couldn't be finished
+     */
+    public synchronized void checkpoint() throws IOException {
+        finishSegment();
+        checkFailure();
+    }
+
+    /**
+     * Finishes the current segment
+     * @throws IOException - If the segment cannot be written, or an earlier segment couldn't be finished
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        finishSegment();
+        checkFailure();
+    }
+
+    /**
+     * Fails if a segment couldn't be finished, even if the failure was already thrown once
+     * @throws IOException - If a segment couldn't be finished
+     */
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Pack segment could not be finished", failure);
+        }
+    }
+
+    /**
+     * Opens the next segment
+     * @throws IOException - If the segment cannot be created
+     */
+    private void startSegment() throws IOException {
+        Files.createDirectories(directory);
+        // a resumed snapshot already has segments, carry on numbering after them
+        do {
+            segmentCount++;
+            segmentName = prefix + "-" + segmentCount + EXTENSION;
+        } while (Files.exists(directory.resolve(segmentName)));
+        segment = new RandomAccessFile(directory.resolve(segmentName).toFile(), "rw");
+    }
+
+    /**
+     * Writes the index and footer to the end of the current segment and closes it
+     * @throws IOException - If the segment cannot be written
+     */
+    private void finishSegment() throws IOException {
+        if (segment == null) {
+            return;
+        }
+
+        try {
+            long indexOffset = segment.getFilePointer();
+            // the index and footer are written in one go, DataOutputStream writes big endian like PackReader reads
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            for (IndexEntry entry : index) {
+                byte[] path = entry.getPath().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(path.length);
+                out.write(path);
+                out.writeLong(entry.getOffset());
+                out.writeLong(entry.getLength());
+            }
+            out.writeLong(indexOffset);
+            out.writeInt(index.size());
+            out.writeInt(MAGIC);
+            segment.write(bytes.toByteArray());
+            // the segment has to be on disk before the manifest pointing into it is saved
+            segment.getFD().sync();
+        } catch (IOException ex) {
+            failure = ex;
+            throw ex;
+        } finally {
+            try {
+                segment.close();
+            } finally {
+                segment = null;
+                index.clear();
+            }
+        }
+    }
+
+    /**
+     * A file in a segment's index
+     */
+    public static class IndexEntry {
+
+        private final String path;
+        private final long offset;
+        private final long length;
+
+        /**
+         * Custom constructor
+         * @param path - path of the file
+         * @param offset - where the file starts in the segment
+         * @param length - size of the stored file
+         */
+        public IndexEntry(String path, long offset, long length) {
+            this.path = path;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLength() {
+            return length;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package backend;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Hashes passwords with PBKDF2, a deliberately slow hash, so stolen vaults are expensive to crack.
+ * Every password gets its own random salt. The salt and the iteration count (the cost) are stored with
+ * the hash as pbkdf2$iterations$salt$hash, so the cost can be raised without breaking existing users.
+ * Passwords stored by older versions of the application are only Base64 encoded, they are still accepted
+ * so they can be re-hashed the next time the user logs in.
+ */
+public class PasswordHasher {
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String PREFIX = "pbkdf2";
+    private static final String SPLITTER = "$";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    // recommended for PBKDF2-HMAC-SHA256, source: https://cheatsheetseries.owasp.org/cheatsheets/Password_Storage_Cheat_Sheet.html
+    public static final int DEFAULT_ITERATIONS = 310000;
+    // calibration never goes below this, slow hardware gets slower logins rather than weaker hashes
+    public static final int MIN_ITERATIONS = 50000;
+    // calibration varies a little between runs, hashes are only redone if they are well below the current cost
+    private static final double REHASH_MARGIN = 0.2;
+
+    private static final SecureRandom random = new SecureRandom();
+    // cost used for new hashes
+    private static volatile int iterations = DEFAULT_ITERATIONS;
+
+    /**
+     * Hashes a password with a new random salt and the current cost
+     * @param password - password to be hashed
+     * @return String to store in the vault
+     */
+    public static String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        int cost = iterations;
+
+        Base64.Encoder encoder = Base64.getEncoder();
+        return PREFIX + SPLITTER + cost + SPLITTER + encoder.encodeToString(salt)
+                + SPLITTER + encoder.encodeToString(pbkdf2(password, salt, cost));
+    }
+
+    /**
+     * Checks a password against what is stored in the vault
+     * @param password - password the user entered
+     * @param stored - hash stored in the vault, or a Base64 encoded password from older versions
+     * @return true if the password matches, false if it doesn't or the stored hash is malformed
+     */
+    public static boolean verify(String password, String stored) {
+        if (!isHashed(stored)) {
+            // stored by an older version of the application
+            return stored.equals(Base64.getEncoder().encodeToString(password.getBytes()));
+        }
+
+        String[] parts = stored.split("\\" + SPLITTER);
+        if (parts.length != 4) {
+            return false;
+        }
+        try {
+            Base64.Decoder decoder = Base64.getDecoder();
+            byte[] expected = decoder.decode(parts[3]);
+            byte[] actual = pbkdf2(password, decoder.decode(parts[2]), Integer.parseInt(parts[1]));
+            // compares in constant time, so timing doesn't give away how much of the hash matched
+            return MessageDigest.isEqual(expected, actual);
+        } catch (IllegalArgumentException ex) {
+            // a hand edited or damaged vault, a cost that isn't a number or a salt / hash that isn't Base64
+            System.out.println("Stored password hash is malformed");
+            return false;
+        }
+    }
+
+    /**
+     * Checks if a stored password should be hashed again, because it isn't hashed or was hashed with a cost
+     * below the minimum or well below the current cost. Calibration picks a slightly different cost every time
+     * the application starts, a small difference doesn't rewrite the vault on every login.
+     * @param stored - hash stored in the vault
+     * @return true if the password should be re-hashed once the user has logged in
+     */
+    public static boolean needsRehash(String stored) {
+        if (!isHashed(stored)) {
+            return true;
+        }
+        String[] parts = stored.split("\\" + SPLITTER);
+        if (parts.length != 4) {
+            return true;
+        }
+        try {
+            int cost = Integer.parseInt(parts[1]);
+            return cost < MIN_ITERATIONS || cost < iterations * (1 - REHASH_MARGIN);
+        } catch (NumberFormatException ex) {
+            return true;
+        }
+    }
+
+    /**
+     * Picks the iteration count that takes about the target time to hash a password on this machine.
+     * Meant to be run once when the application starts.
+     * @param targetMillis - how long a login should spend hashing
+     * @return the iteration count now used for new hashes
+     */
+    public static int calibrate(long targetMillis) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        int sample = 20000;
+
+        // the first run warms up the JIT compiler, the second is the one measured
+        pbkdf2("calibration", salt, sample);
+        long start = System.nanoTime();
+        pbkdf2("calibration", salt, sample);
+        long elapsed = Math.max(1, System.nanoTime() - start);
+
+        // the cost of PBKDF2 grows linearly with the iteration count
+        long scaled = sample * (targetMillis * 1000000L) / elapsed;
+        iterations = (int) Math.max(MIN_ITERATIONS, Math.min(Integer.MAX_VALUE, scaled));
+        System.out.println("Password hashing calibrated to " + iterations + " iterations");
+        return iterations;
+    }
+
+    /**
+     * Sets the iteration count used for new hashes
+     * @param cost - iteration count, at least MIN_ITERATIONS
+     */
+    public static void setIterations(int cost) {
+        iterations = Math.max(MIN_ITERATIONS, cost);
+    }
+
+    public static int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Checks if a stored password is a PBKDF2 hash
+     * @param stored - password stored in the vault
+     * @return true if hashed, false for a Base64 encoded password
+     */
+    private static boolean isHashed(String stored) {
+        // the Base64 alphabet doesn't contain $, so old passwords can't be mistaken for hashes
+        return stored.startsWith(PREFIX + SPLITTER);
+    }
+
+    /**
+     * Runs PBKDF2 over a password
+     * @param password - password to be hashed
+     * @param salt - random salt
+     * @param cost - iteration count
+     * @return hash bytes
+     */
+    private static byte[] pbkdf2(String password, byte[] salt, int cost) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, cost, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException ex) {
+            // every java 8 implementation supports PBKDF2WithHmacSHA256
+            throw new IllegalStateException(ex);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
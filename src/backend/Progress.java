@@ -0,0 +1,111 @@
+package backend;
+
+/**
+ * Progress of a backup, sync or restore at one point in time
+ */
+public class Progress {
+
+    private final String operation;
+    private final long filesDone;
+    private final long filesTotal;
+    private final long bytesDone;
+    private final long bytesTotal;
+    private final double bytesPerSecond;
+    private final long elapsedMillis;
+    private final boolean finished;
+
+    /**
+     * Custom constructor
+     * @param operation - what is being done, such as "Backup"
+     * @param filesDone - files handled so far
+     * @param filesTotal - files to handle, found by planning before the work starts
+     * @param bytesDone - bytes handled so far
+     * @param bytesTotal - bytes to handle
+     * @param bytesPerSecond - recent throughput
+     * @param elapsedMillis - time since the work started
+     * @param finished - true for the last update, once the work has stopped
+     */
+    public Progress(String operation, long filesDone, long filesTotal, long bytesDone, long bytesTotal,
+                    double bytesPerSecond, long elapsedMillis, boolean finished) {
+        this.operation = operation;
+        this.filesDone = filesDone;
+        this.filesTotal = filesTotal;
+        this.bytesDone = bytesDone;
+        this.bytesTotal = bytesTotal;
+        this.bytesPerSecond = bytesPerSecond;
+        this.elapsedMillis = elapsedMillis;
+        this.finished = finished;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public long getFilesDone() {
+        return filesDone;
+    }
+
+    public long getFilesTotal() {
+        return filesTotal;
+    }
+
+    public long getBytesDone() {
+        return bytesDone;
+    }
+
+    public long getBytesTotal() {
+        return bytesTotal;
+    }
+
+    public double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Works out how much of the work is done, by bytes so one large file isn't counted the same as a tiny one
+     * @return fraction between 0 and 1
+     */
+    public double getFraction() {
+        if (finished) {
+            return 1;
+        }
+        if (bytesTotal > 0) {
+            return Math.min(1, (double) bytesDone / bytesTotal);
+        }
+        return filesTotal > 0 ? Math.min(1, (double) filesDone / filesTotal) : 0;
+    }
+
+    /**
+     * Estimates how long is left at the current throughput
+     * @return milliseconds left, -1 if it can't be estimated yet
+     */
+    public long getEtaMillis() {
+        if (finished) {
+            return 0;
+        }
+        if (bytesPerSecond <= 0 || bytesTotal <= 0) {
+            return -1;
+        }
+        return (long) (Math.max(0, bytesTotal - bytesDone) / bytesPerSecond * 1000);
+    }
+
+    @Override
+    public String toString() {
+        String text = operation + ": " + filesDone + "/" + filesTotal + " files, "
+                + bytesDone / (1024 * 1024) + "/" + bytesTotal / (1024 * 1024) + " MB, "
+                + Math.round(bytesPerSecond / (1024 * 1024) * 10) / 10.0 + " MB/s";
+        long eta = getEtaMillis();
+        if (!finished && eta >= 0) {
+            text += ", " + eta / 60000 + "m " + eta / 1000 % 60 + "s left";
+        }
+        return text;
+    }
+}
@@ -0,0 +1,14 @@
+package backend;
+
+/**
+ * Told how a backup, sync or restore is getting on. Updates are throttled by the ProgressTracker,
+ * so a listener can update a UI directly (on the UI's own thread) without being flooded.
+ */
+public interface ProgressListener {
+
+    /**
+     * Called with the latest progress, from whichever thread is doing the work
+     * @param progress - progress so far
+     */
+    void progress(Progress progress);
+}
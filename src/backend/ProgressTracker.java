@@ -0,0 +1,131 @@
+package backend;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the files and bytes handled by a backup, sync or restore and passes the progress on to a listener.
+ * Worker threads report every file, but the listener is only called every so often, so a UI isn't flooded
+ * with updates when thousands of small files are copied a second. The last update is always sent.
+ */
+public class ProgressTracker {
+
+    // least amount of time between two updates
+    public static final long DEFAULT_INTERVAL_MILLIS = 250;
+    // weight of the latest measurement in the throughput, the rest comes from earlier measurements
+    // smooths out the throughput so it doesn't jump between small and large files
+    // source: https://en.wikipedia.org/wiki/Exponential_smoothing
+    private static final double SMOOTHING = 0.3;
+
+    private final String operation;
+    private final ProgressListener listener;
+    private final long intervalMillis;
+    private final long start = System.currentTimeMillis();
+    // updated by worker threads
+    private final AtomicLong filesDone = new AtomicLong();
+    private final AtomicLong bytesDone = new AtomicLong();
+    // time the next update can be sent
+    private final AtomicLong nextUpdate = new AtomicLong();
+    private volatile long filesTotal = 0;
+    private volatile long bytesTotal = 0;
+    // only used while sending an update
+    private long lastTime = start;
+    private long lastBytes = 0;
+    private double bytesPerSecond = 0;
+    private boolean finished = false;
+
+    /**
+     * Custom constructor
+     * @param operation - what is being done, such as "Backup"
+     * @param listener - told about the progress, null if nobody is listening
+     */
+    public ProgressTracker(String operation, ProgressListener listener) {
+        this(operation, listener, DEFAULT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Custom constructor
+     * @param operation - what is being done, such as "Backup"
+     * @param listener - told about the progress, null if nobody is listening
+     * @param intervalMillis - least amount of time between two updates
+     */
+    public ProgressTracker(String operation, ProgressListener listener, long intervalMillis) {
+        this.operation = operation;
+        this.listener = listener;
+        this.intervalMillis = intervalMillis;
+        // the first files say little about the throughput, so the first update waits a whole interval
+        nextUpdate.set(start + intervalMillis);
+    }
+
+    /**
+     * Checks if anyone is listening, planning the totals can be skipped if not
+     * @return true if there is a listener
+     */
+    public boolean isEnabled() {
+        return listener != null;
+    }
+
+    /**
+     * Sets how much work there is, once it has been planned
+     * @param files - amount of files
+     * @param bytes - total size of the files
+     */
+    public void setTotals(long files, long bytes) {
+        this.filesTotal = files;
+        this.bytesTotal = bytes;
+        update(false);
+    }
+
+    /**
+     * Records a handled file, whether it was copied, skipped as unchanged or failed
+     * @param bytes - size of the file
+     */
+    public void fileDone(long bytes) {
+        filesDone.incrementAndGet();
+        bytesDone.addAndGet(bytes);
+        if (listener == null) {
+            return;
+        }
+
+        // only the thread that moves the next update time on sends the update
+        long now = System.currentTimeMillis();
+        long next = nextUpdate.get();
+        if (now >= next && nextUpdate.compareAndSet(next, now + intervalMillis)) {
+            update(false);
+        }
+    }
+
+    /**
+     * Sends the last update, once the work has stopped
+     */
+    public void finish() {
+        update(true);
+    }
+
+    /**
+     * Works out the throughput and sends an update, later updates are ignored once the last one was sent
+     * @param last - true for the last update
+     */
+    private synchronized void update(boolean last) {
+        if (listener == null || finished) {
+            return;
+        }
+        finished = last;
+
+        long now = System.currentTimeMillis();
+        long bytes = bytesDone.get();
+        if (now > lastTime) {
+            double latest = (bytes - lastBytes) * 1000.0 / (now - lastTime);
+            bytesPerSecond = bytesPerSecond == 0 ? latest : SMOOTHING * latest + (1 - SMOOTHING) * bytesPerSecond;
+            lastTime = now;
+            lastBytes = bytes;
+        }
+
+        try {
+            listener.progress(new Progress(operation, filesDone.get(), filesTotal, bytes, bytesTotal,
+                    bytesPerSecond, now - start, last));
+        } catch (RuntimeException ex) {
+            // a broken listener shouldn't stop the work
+            ex.printStackTrace();
+        }
+    }
+}
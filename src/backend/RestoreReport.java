@@ -0,0 +1,116 @@
+package backend;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of every file in a restore, written to a report file once the restore completes
+ * instead of printing a line per file while the files are being copied.
+ * Each line of the report is: status, path, size in bytes, time taken in milliseconds and the error if there was one.
+ */
+public class RestoreReport {
+
+    public static final String OK = "OK";
+    public static final String FAILED = "FAILED";
+    // already restored by an earlier, interrupted restore
+    public static final String SKIPPED = "SKIPPED";
+
+    // results are added by many worker threads at once
+    private final List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+    private long restored;
+    private long failed;
+    private long skipped;
+    private long bytes;
+
+    /**
+     * Records a file that was restored
+     * @param path - path of the file, relative to the restore directory
+     * @param size - size of the restored file
+     * @param millis - time taken to restore the file
+     */
+    public void success(String path, long size, long millis) {
+        synchronized (this) {
+            restored++;
+            bytes += size;
+        }
+        lines.add(OK + ManifestFormat.SPLITTER + ManifestFormat.escape(path) + ManifestFormat.SPLITTER + size
+                + ManifestFormat.SPLITTER + millis);
+    }
+
+    /**
+     * Records a file that was already restored, it has the size and modified time the restore would give it
+     * @param path - path of the file, relative to the restore directory
+     * @param size - size of the file
+     */
+    public void skipped(String path, long size) {
+        synchronized (this) {
+            skipped++;
+        }
+        lines.add(SKIPPED + ManifestFormat.SPLITTER + ManifestFormat.escape(path) + ManifestFormat.SPLITTER + size
+                + ManifestFormat.SPLITTER + 0);
+    }
+
+    /**
+     * Records a file that couldn't be restored
+     * @param path - path of the file, relative to the restore directory
+     * @param millis - time spent before the restore failed
+     * @param ex - why the restore failed
+     */
+    public void failure(String path, long millis, Exception ex) {
+        synchronized (this) {
+            failed++;
+        }
+        lines.add(FAILED + ManifestFormat.SPLITTER + ManifestFormat.escape(path) + ManifestFormat.SPLITTER + 0
+                + ManifestFormat.SPLITTER + millis + ManifestFormat.SPLITTER + ManifestFormat.escape(String.valueOf(ex)));
+    }
+
+    /**
+     * Writes the report, the first line is a summary of the whole restore
+     * @param file - where to write the report
+     * @throws IOException - If the report cannot be written
+     */
+    public void save(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("# " + getSummary());
+            writer.newLine();
+            synchronized (lines) {
+                for (String line : lines) {
+                    writer.write(line);
+                    writer.newLine();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a one line summary of the restore, used in the user's log
+     * @return summary of restored, skipped and failed files
+     */
+    public synchronized String getSummary() {
+        String summary = restored + " files restored (" + bytes + " bytes), " + failed + " failed";
+        return skipped == 0 ? summary : summary + ", " + skipped + " already restored";
+    }
+
+    public synchronized long getRestored() {
+        return restored;
+    }
+
+    public synchronized long getFailed() {
+        return failed;
+    }
+
+    public synchronized long getSkipped() {
+        return skipped;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+}
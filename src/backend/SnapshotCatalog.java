@@ -0,0 +1,428 @@
+package backend;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * Keeps track of every snapshot a user has taken, so snapshots are found without listing the backup directory.
+ * Each snapshot has an ID made from the time it was taken, to the second, so a device can be backed up
+ * many times a day. The catalog is kept in memory, indexed by device and time, and every change is appended
+ * to the catalog file as a line: id, device, timestamp, file count, byte count and status separated by tabs.
+ * A later line for a snapshot replaces an earlier one.
+ */
+public class SnapshotCatalog {
+
+    /**
+     * State of a snapshot, only complete snapshots are restored from or used by incremental backups
+     */
+    public enum Status {
+        IN_PROGRESS,
+        COMPLETE,
+        FAILED
+    }
+
+    // snapshot IDs are the time the snapshot was taken, later snapshots in the same second get "-2", "-3" and so on
+    private static final String ID_FORMAT = "yyyy-MM-dd_HH-mm-ss";
+    // compact once the catalog holds this many more lines than snapshots
+    private static final int COMPACT_THRESHOLD = 1000;
+    // sorts snapshots by time, snapshots taken in the same second are sorted by the number after their ID,
+    // comparing the IDs as text would put "-10" before "-2"
+    private static final Comparator<Record> BY_TIME = Comparator.comparingLong(Record::getTimestamp)
+            .thenComparingInt(record -> sequence(record.getId())).thenComparing(Record::getId);
+
+    // one catalog per file, so every BackupManager of a user sees the same snapshots
+    private static final Map<Path, SnapshotCatalog> catalogs = new HashMap<Path, SnapshotCatalog>();
+
+    private final Path file;
+    private final Map<String, Record> byId = new HashMap<String, Record>();
+    // every snapshot sorted by time, and the same per device
+    private final NavigableSet<Record> all = new TreeSet<Record>(BY_TIME);
+    private final Map<String, NavigableSet<Record>> byDevice = new HashMap<String, NavigableSet<Record>>();
+    // latest complete snapshot, overall (key null) and per device, so looking it up doesn't search
+    private final Map<String, Record> latest = new HashMap<String, Record>();
+    // amount of lines in the catalog file, including replaced ones
+    private int lines;
+
+    /**
+     * A single snapshot
+     */
+    public static class Record {
+
+        private final String id;
+        private final String device;
+        private final long timestamp;
+        private final long files;
+        private final long bytes;
+        private final Status status;
+
+        /**
+         * Custom constructor
+         * @param id - snapshot ID, also the name of the snapshot's directory
+         * @param device - ID of the device that was backed up
+         * @param timestamp - when the snapshot was taken in milliseconds, to the second
+         * @param files - amount of files in the snapshot
+         * @param bytes - total size of the files in the snapshot
+         * @param status - state of the snapshot
+         */
+        public Record(String id, String device, long timestamp, long files, long bytes, Status status) {
+            this.id = id;
+            this.device = device;
+            this.timestamp = timestamp;
+            this.files = files;
+            this.bytes = bytes;
+            this.status = status;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getDevice() {
+            return device;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public long getFiles() {
+            return files;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+    }
+
+    /**
+     * Custom constructor, use open to get the shared catalog for a file
+     * @param file - path to the catalog file
+     */
+    private SnapshotCatalog(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns the catalog stored in a file, loading the file the first time it is opened
+     * @param file - path to the catalog file
+     * @return SnapshotCatalog for the file
+     * @throws IOException - If the catalog cannot be read
+     */
+    public static SnapshotCatalog open(Path file) throws IOException {
+        synchronized (catalogs) {
+            SnapshotCatalog catalog = catalogs.get(file);
+            if (catalog == null) {
+                catalog = new SnapshotCatalog(file);
+                catalog.load();
+                catalogs.put(file, catalog);
+            }
+            return catalog;
+        }
+    }
+
+    /**
+     * Records the start of a new snapshot
+     * @param device - ID of the device being backed up
+     * @return Record of the new snapshot, its ID is unique even if another snapshot was started in the same second
+     * @throws IOException - If the catalog cannot be written
+     */
+    public synchronized Record begin(String device) throws IOException {
+        // second precision, the IDs don't hold milliseconds
+        long timestamp = System.currentTimeMillis() / 1000 * 1000;
+        String id = new SimpleDateFormat(ID_FORMAT).format(new Date(timestamp));
+        if (byId.containsKey(id)) {
+            int count = 2;
+            while (byId.containsKey(id + "-" + count)) {
+                count++;
+            }
+            id = id + "-" + count;
+        }
+
+        Record record = new Record(id, device, timestamp, 0, 0, Status.IN_PROGRESS);
+        put(record);
+        return record;
+    }
+
+    /**
+     * Records that a snapshot has completed
+     * @param id - snapshot ID
+     * @param files - amount of files in the snapshot
+     * @param bytes - total size of the files in the snapshot
+     * @throws IOException - If the catalog cannot be written
+     */
+    public synchronized void complete(String id, long files, long bytes) throws IOException {
+        Record record = byId.get(id);
+        put(new Record(id, record.getDevice(), record.getTimestamp(), files, bytes, Status.COMPLETE));
+    }
+
+    /**
+     * Records that a snapshot failed, it is kept so its files can be cleaned up but never restored from
+     * @param id - snapshot ID
+     * @throws IOException - If the catalog cannot be written
+     */
+    public synchronized void fail(String id) throws IOException {
+        Record record = byId.get(id);
+        put(new Record(id, record.getDevice(), record.getTimestamp(), record.getFiles(), record.getBytes(), Status.FAILED));
+    }
+
+    /**
+     * Records that an interrupted snapshot is being resumed, it is in progress again until it completes or fails
+     * @param id - snapshot ID
+     * @throws IOException - If the catalog cannot be written
+     */
+    public synchronized void resume(String id) throws IOException {
+        Record record = byId.get(id);
+        put(new Record(id, record.getDevice(), record.getTimestamp(), record.getFiles(), record.getBytes(), Status.IN_PROGRESS));
+    }
+
+    /**
+     * Adds a snapshot taken before the catalog existed
+     * @param record - snapshot to add
+     * @throws IOException - If the catalog cannot be written
+     */
+    public synchronized void add(Record record) throws IOException {
+        put(record);
+    }
+
+    /**
+     * Finds a snapshot by its ID
+     * @param id - snapshot ID
+     * @return Record of the snapshot, null if there is no such snapshot
+     */
+    public synchronized Record get(String id) {
+        return byId.get(id);
+    }
+
+    /**
+     * Finds the latest complete snapshot
+     * @param device - ID of the device, null for the latest snapshot of any device
+     * @return Record of the latest snapshot, null if there are no complete snapshots
+     */
+    public synchronized Record latest(String device) {
+        return latest.get(device);
+    }
+
+    /**
+     * Finds the snapshots taken between two times, both included
+     * @param device - ID of the device, null for snapshots of every device
+     * @param from - earliest time in milliseconds
+     * @param to - latest time in milliseconds
+     * @return List of snapshots, oldest first
+     */
+    public synchronized List<Record> find(String device, long from, long to) {
+        NavigableSet<Record> records = device == null ? all : byDevice.get(device);
+        if (records == null || from > to) {
+            return new ArrayList<Record>();
+        }
+        // the empty and highest possible IDs make the range include every snapshot at the two times
+        return new ArrayList<Record>(records.subSet(new Record("", null, from, 0, 0, null), true,
+                new Record("\uffff", null, to, 0, 0, null), true));
+    }
+
+    /**
+     * Lists every snapshot
+     * @return List of snapshots, latest first
+     */
+    public synchronized List<Record> list() {
+        return new ArrayList<Record>(all.descendingSet());
+    }
+
+    /**
+     * Checks if the catalog has no snapshots
+     * @return true if no snapshots have been recorded
+     */
+    public synchronized boolean isEmpty() {
+        return byId.isEmpty();
+    }
+
+    /**
+     * Rewrites the catalog file with only the current state of each snapshot.
+     * Written to a temporary file and moved over the old one, so a crash never leaves half a catalog.
+     * @throws IOException - If the catalog cannot be written
+     */
+    public synchronized void compact() throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (Record record : all) {
+                writer.write(format(record));
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        lines = byId.size();
+    }
+
+    /**
+     * Appends a snapshot's state to the catalog file and indexes it
+     * @param record - new state of the snapshot
+     * @throws IOException - If the catalog cannot be written
+     */
+    private void put(Record record) throws IOException {
+        Files.createDirectories(file.getParent());
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(format(record).getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        index(record);
+        lines++;
+
+        if (lines - byId.size() > COMPACT_THRESHOLD) {
+            compact();
+        }
+    }
+
+    /**
+     * Adds a snapshot to the in memory indexes, replacing its previous state
+     * @param record - state of the snapshot
+     */
+    private void index(Record record) {
+        Record previous = byId.put(record.getId(), record);
+        if (previous != null) {
+            all.remove(previous);
+            byDevice.get(previous.getDevice()).remove(previous);
+        }
+        all.add(record);
+        byDevice.computeIfAbsent(record.getDevice(), device -> new TreeSet<Record>(BY_TIME)).add(record);
+
+        if (record.getStatus() == Status.COMPLETE) {
+            updateLatest(null, record);
+            updateLatest(record.getDevice(), record);
+        } else if (previous != null && previous.getStatus() == Status.COMPLETE) {
+            // a complete snapshot has been marked as failed, search for the one before it
+            latest.put(null, latestComplete(all));
+            latest.put(record.getDevice(), latestComplete(byDevice.get(record.getDevice())));
+        }
+    }
+
+    /**
+     * Keeps the latest complete snapshot up to date
+     * @param key - device ID, or null for all devices
+     * @param record - snapshot that has completed
+     */
+    private void updateLatest(String key, Record record) {
+        Record current = latest.get(key);
+        if (current == null || BY_TIME.compare(record, current) >= 0) {
+            latest.put(key, record);
+        }
+    }
+
+    /**
+     * Searches for the latest complete snapshot, only needed when a complete snapshot stops being complete
+     * @param records - snapshots sorted by time
+     * @return latest complete snapshot or null
+     */
+    private static Record latestComplete(NavigableSet<Record> records) {
+        for (Record record : records.descendingSet()) {
+            if (record.getStatus() == Status.COMPLETE) {
+                return record;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Turns a snapshot into a line of the catalog file
+     * @param record - snapshot
+     * @return line including its line ending
+     */
+    private static String format(Record record) {
+        return String.join(ManifestFormat.SPLITTER, ManifestFormat.escape(record.getId()), ManifestFormat.escape(record.getDevice()),
+                String.valueOf(record.getTimestamp()), String.valueOf(record.getFiles()), String.valueOf(record.getBytes()),
+                record.getStatus().name()) + System.getProperty("line.separator");
+    }
+
+    /**
+     * Reads the catalog file into memory, compacting it if it holds many replaced lines
+     * @throws IOException - If the catalog cannot be read
+     */
+    private void load() throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        removeIncompleteLine();
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] columns = line.split(ManifestFormat.SPLITTER, -1);
+                if (columns.length < 6) {
+                    System.out.println("Skipping broken catalog line: " + line);
+                    continue;
+                }
+                try {
+                    index(new Record(ManifestFormat.unescape(columns[0]), ManifestFormat.unescape(columns[1]),
+                            Long.parseLong(columns[2]), Long.parseLong(columns[3]), Long.parseLong(columns[4]),
+                            Status.valueOf(columns[5])));
+                    lines++;
+                } catch (IllegalArgumentException ex) {
+                    System.out.println("Skipping broken catalog line: " + line);
+                }
+            }
+        }
+
+        if (lines - byId.size() > COMPACT_THRESHOLD) {
+            compact();
+        }
+    }
+
+    /**
+     * Removes a last line without a line ending, it was cut off by a crash while it was being appended.
+     * Otherwise the next line appended would be joined to it.
+     * @throws IOException - If the catalog cannot be written
+     */
+    private void removeIncompleteLine() throws IOException {
+        try (RandomAccessFile catalog = new RandomAccessFile(file.toFile(), "rw")) {
+            long end = catalog.length();
+            while (end > 0) {
+                catalog.seek(end - 1);
+                if (catalog.read() == '\n') {
+                    break;
+                }
+                end--;
+            }
+            if (end < catalog.length()) {
+                System.out.println("Removing incomplete line from snapshot catalog");
+                catalog.setLength(end);
+            }
+        }
+    }
+
+    /**
+     * Works out which snapshot of its second a snapshot was
+     * @param id - snapshot ID
+     * @return 1 for the first snapshot of a second, otherwise the number after the ID
+     */
+    private static int sequence(String id) {
+        if (id.length() <= ID_FORMAT.length() + 1 || id.charAt(ID_FORMAT.length()) != '-') {
+            return 1;
+        }
+        try {
+            return Integer.parseInt(id.substring(ID_FORMAT.length() + 1));
+        } catch (NumberFormatException ex) {
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package backend;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Lists every file in a snapshot and where its contents are stored.
+ * Stored as a text file next to the snapshot directory, one file per line:
+ * path, size, last modified time, storage type, storage location, content hash and compression codec separated by tabs.
+ */
+public class SnapshotManifest {
+
+    public static final String EXTENSION = ".manifest";
+    // file contents are a plain copy, location is relative to the user's backup location
+    public static final String STORAGE_FILE = "file";
+    // file contents are stored as chunks in the user's chunk store
+    public static final String STORAGE_CHUNKS = "chunks";
+    // file contents are part of a pack segment, location is segment:offset:length in the user's pack directory
+    public static final String STORAGE_PACK = "pack";
+    // file contents are a delta against a plain copy in an earlier snapshot, location is relative to the user's delta directory
+    public static final String STORAGE_DELTA = "delta";
+
+    // sorted by path, so the manifest lists a directory's files together
+    private final TreeMap<String, Entry> entries = new TreeMap<String, Entry>();
+
+    /**
+     * A single file in the snapshot
+     */
+    public static class Entry {
+
+        private final String path;
+        private final long size;
+        private final long modified;
+        private final String hash;
+        private final String storage;
+        private final String location;
+        private final String codec;
+
+        /**
+         * Custom constructor
+         * @param path - path of the file relative to the device, separated by "/"
+         * @param size - size of the file in bytes
+         * @param modified - last modified time of the file in milliseconds
+         * @param hash - SHA-256 hash of the file's contents, empty if the file wasn't hashed
+         * @param storage - how the file's contents are stored
+         * @param location - where the file's contents are stored, depends on the storage type
+         */
+        public Entry(String path, long size, long modified, String hash, String storage, String location) {
+            this(path, size, modified, hash, storage, location, "");
+        }
+
+        /**
+         * Custom constructor for a compressed file
+         * @param path - path of the file relative to the device, separated by "/"
+         * @param size - size of the file in bytes, before it was compressed
+         * @param modified - last modified time of the file in milliseconds
+         * @param hash - SHA-256 hash of the file's contents, empty if the file wasn't hashed
+         * @param storage - how the file's contents are stored
+         * @param location - where the file's contents are stored, depends on the storage type
+         * @param codec - name of the codec the stored contents are compressed with, empty if not compressed
+         */
+        public Entry(String path, long size, long modified, String hash, String storage, String location, String codec) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+            this.storage = storage;
+            this.location = location;
+            this.codec = codec;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getModified() {
+            return modified;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public String getStorage() {
+            return storage;
+        }
+
+        public String getLocation() {
+            return location;
+        }
+
+        public String getCodec() {
+            return codec;
+        }
+
+        /**
+         * Checks if the stored contents are compressed
+         * @return true if the contents have to be decompressed with the entry's codec
+         */
+        public boolean isCompressed() {
+            return !codec.isEmpty();
+        }
+
+        /**
+         * Chunk hashes making up the file, only for chunk based storage
+         * @return List of chunk hashes in order
+         */
+        public List<String> getChunks() {
+            List<String> chunks = new ArrayList<String>();
+            for (String chunk : location.split(",")) {
+                if (!chunk.isEmpty()) {
+                    chunks.add(chunk);
+                }
+            }
+            return chunks;
+        }
+    }
+
+    /**
+     * Adds a file to the manifest, synchronized as files are added by many copy threads at once
+     * @param entry - file to be added
+     */
+    public synchronized void add(Entry entry) {
+        entries.put(entry.getPath(), entry);
+    }
+
+    /**
+     * Finds a file in the manifest
+     * @param path - path of the file relative to the device
+     * @return Entry for the file or null if the file isn't in the snapshot
+     */
+    public synchronized Entry get(String path) {
+        return entries.get(path);
+    }
+
+    /**
+     * Returns all files in the snapshot
+     * @return Collection of entries sorted by path
+     */
+    public synchronized Collection<Entry> getEntries() {
+        return new ArrayList<Entry>(entries.values());
+    }
+
+    /**
+     * Selects files from the manifest, used to restore part of a snapshot
+     * @param pattern - path of a file, path of a directory for every file below it, or a glob such as "*.txt".
+     *                  An empty pattern selects every file.
+     * @return List of selected entries sorted by path
+     */
+    public synchronized List<Entry> select(String pattern) {
+        if (pattern.isEmpty()) {
+            return new ArrayList<Entry>(entries.values());
+        }
+
+        List<Entry> selected = new ArrayList<Entry>();
+        if (isGlob(pattern)) {
+            // source: https://docs.oracle.com/javase/tutorial/essential/io/find.html
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+            for (Entry entry : entries.values()) {
+                if (matcher.matches(Paths.get(entry.getPath()))) {
+                    selected.add(entry);
+                }
+            }
+            return selected;
+        }
+
+        String path = pattern.endsWith("/") ? pattern.substring(0, pattern.length() - 1) : pattern;
+        Entry file = entries.get(path);
+        if (file != null) {
+            selected.add(file);
+        }
+        // the entries are sorted, so a directory's files are next to each other
+        // '0' is the character after '/', so the range holds every path starting with the directory
+        selected.addAll(entries.subMap(path + "/", path + "0").values());
+        return selected;
+    }
+
+    /**
+     * Checks if a pattern uses any glob syntax
+     * @param pattern - pattern to check
+     * @return true if the pattern is a glob rather than a path
+     */
+    private static boolean isGlob(String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == '{') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Saves the manifest, written to a temporary file first so a crash never leaves half a manifest
+     * @param file - where to save the manifest
+     * @throws IOException - If a file cannot be read / written
+     */
+    public synchronized void save(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (Entry entry : entries.values()) {
+                writer.write(String.join(ManifestFormat.SPLITTER, ManifestFormat.escape(entry.getPath()),
+                        String.valueOf(entry.getSize()), String.valueOf(entry.getModified()),
+                        entry.getStorage(), ManifestFormat.escape(entry.getLocation()), entry.getHash(), entry.getCodec()));
+                writer.newLine();
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads a manifest previously saved with save
+     * @param file - manifest file to load
+     * @return SnapshotManifest containing the saved entries
+     * @throws IOException - If a file cannot be read / written
+     */
+    public static SnapshotManifest load(Path file) throws IOException {
+        SnapshotManifest manifest = new SnapshotManifest();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // the -1 keeps empty trailing columns, an empty file has an empty location
+                String[] columns = line.split(ManifestFormat.SPLITTER, -1);
+                if (columns.length < 5) {
+                    System.out.println("Skipping broken manifest line: " + line);
+                    continue;
+                }
+                // the hash and codec columns are optional, older manifests don't have them
+                String hash = columns.length > 5 ? columns[5] : "";
+                String codec = columns.length > 6 ? columns[6] : "";
+                manifest.add(new Entry(ManifestFormat.unescape(columns[0]), Long.parseLong(columns[1]), Long.parseLong(columns[2]),
+                        hash, columns[3], ManifestFormat.unescape(columns[4]), codec));
+            }
+        }
+        return manifest;
+    }
+}
@@ -0,0 +1,203 @@
+package backend;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers what was synced from a device, so a sync only has to touch files that changed.
+ * One manifest is kept per device id, one file per line:
+ * path, size, last modified time and content hash separated by tabs.
+ * Files are also indexed by hash, so a file that was moved or renamed on the device can be found
+ * under its old path and its synced copy moved rather than copied again.
+ */
+public class SyncManifest {
+
+    // hash map gives constant time look ups while walking the device
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    // hash -> paths of the files with that content, kept up to date by put and remove
+    private final Map<String, Set<String>> byHash = new HashMap<String, Set<String>>();
+
+    /**
+     * A single synced file
+     */
+    public static class Entry {
+
+        private final String path;
+        private final long size;
+        private final long modified;
+        private final String hash;
+
+        /**
+         * Custom constructor
+         * @param path - path of the file relative to the device, separated by "/"
+         * @param size - size of the file in bytes
+         * @param modified - last modified time of the file in milliseconds
+         * @param hash - SHA-256 hash of the file's contents
+         */
+        public Entry(String path, long size, long modified, String hash) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getModified() {
+            return modified;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+    }
+
+    /**
+     * Adds or replaces a file in the manifest
+     * @param entry - file to be added
+     */
+    public void put(Entry entry) {
+        unindex(entries.put(entry.getPath(), entry));
+        byHash.computeIfAbsent(entry.getHash(), hash -> new HashSet<String>()).add(entry.getPath());
+    }
+
+    /**
+     * Finds a file in the manifest
+     * @param path - path of the file relative to the device
+     * @return Entry for the file or null if the file hasn't been synced
+     */
+    public Entry get(String path) {
+        return entries.get(path);
+    }
+
+    /**
+     * Removes a file from the manifest
+     * @param path - path of the file relative to the device
+     * @return the removed entry or null if the file wasn't in the manifest
+     */
+    public Entry remove(String path) {
+        Entry removed = entries.remove(path);
+        unindex(removed);
+        return removed;
+    }
+
+    /**
+     * Finds the files with the same contents, used to spot files that were moved or renamed
+     * @param hash - SHA-256 hash of the contents
+     * @return entries with the hash, empty if there are none
+     */
+    public List<Entry> findByHash(String hash) {
+        List<Entry> found = new ArrayList<Entry>();
+        Set<String> paths = byHash.get(hash);
+        if (paths != null) {
+            for (String path : paths) {
+                found.add(entries.get(path));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns every file below a directory, used when a directory is deleted
+     * @param directory - path of the directory relative to the device
+     * @return entries below the directory
+     */
+    public List<Entry> getUnder(String directory) {
+        String prefix = directory + "/";
+        List<Entry> found = new ArrayList<Entry>();
+        for (Entry entry : entries.values()) {
+            if (entry.getPath().startsWith(prefix)) {
+                found.add(entry);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Drops a replaced or removed entry from the hash index
+     * @param entry - entry no longer in the manifest, may be null
+     */
+    private void unindex(Entry entry) {
+        if (entry == null) {
+            return;
+        }
+        Set<String> paths = byHash.get(entry.getHash());
+        if (paths != null) {
+            paths.remove(entry.getPath());
+            if (paths.isEmpty()) {
+                byHash.remove(entry.getHash());
+            }
+        }
+    }
+
+    /**
+     * Returns all synced files
+     * @return Collection of entries
+     */
+    public Collection<Entry> getEntries() {
+        return new ArrayList<Entry>(entries.values());
+    }
+
+    /**
+     * Saves the manifest, written to a temporary file first so a crash never leaves half a manifest
+     * @param file - where to save the manifest
+     * @throws IOException - If a file cannot be read / written
+     */
+    public void save(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (Entry entry : entries.values()) {
+                writer.write(String.join(ManifestFormat.SPLITTER, ManifestFormat.escape(entry.getPath()),
+                        String.valueOf(entry.getSize()), String.valueOf(entry.getModified()), entry.getHash()));
+                writer.newLine();
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads a manifest previously saved with save, a device that was never synced gets an empty manifest
+     * @param file - manifest file to load
+     * @return SyncManifest containing the saved entries
+     * @throws IOException - If a file cannot be read / written
+     */
+    public static SyncManifest load(Path file) throws IOException {
+        SyncManifest manifest = new SyncManifest();
+        if (!Files.exists(file)) {
+            return manifest;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] columns = line.split(ManifestFormat.SPLITTER, -1);
+                if (columns.length < 4) {
+                    System.out.println("Skipping broken manifest line: " + line);
+                    continue;
+                }
+                manifest.put(new Entry(ManifestFormat.unescape(columns[0]), Long.parseLong(columns[1]),
+                        Long.parseLong(columns[2]), columns[3]));
+            }
+        }
+        return manifest;
+    }
+}
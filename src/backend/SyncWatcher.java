@@ -0,0 +1,205 @@
+package backend;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Continuous sync, watches a device for changes and syncs only the changed paths.
+ * Events arriving close together, such as a folder being copied onto the device, are collected until the device
+ * has been quiet for the debounce window and then synced at once. If the operating system drops events
+ * (an overflow) the changed paths aren't known, so the whole device is rescanned instead.
+ * source: https://docs.oracle.com/javase/tutorial/essential/io/notification.html
+ */
+public class SyncWatcher implements Closeable {
+
+    // how long the device has to be quiet before the collected changes are synced
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 2000;
+    // a device that never goes quiet is still synced after this many debounce windows
+    private static final int MAX_DEBOUNCES = 10;
+
+    private final BackupManager backupManager;
+    private final Device device;
+    private final long debounceMillis;
+
+    private WatchService watchService;
+    // every watched directory, the watch service only reports the name of the changed file
+    private final Map<WatchKey, Path> directories = new HashMap<WatchKey, Path>();
+    private Thread thread;
+    private volatile boolean running = false;
+
+    /**
+     * Custom constructor
+     * @param backupManager - backup manager of the user, does the syncing
+     * @param device - device to watch
+     */
+    public SyncWatcher(BackupManager backupManager, Device device) {
+        this(backupManager, device, DEFAULT_DEBOUNCE_MILLIS);
+    }
+
+    /**
+     * Custom constructor
+     * @param backupManager - backup manager of the user, does the syncing
+     * @param device - device to watch
+     * @param debounceMillis - how long the device has to be quiet before changes are synced
+     */
+    public SyncWatcher(BackupManager backupManager, Device device, long debounceMillis) {
+        this.backupManager = backupManager;
+        this.device = device;
+        this.debounceMillis = debounceMillis;
+    }
+
+    /**
+     * Starts watching the device on a background thread. Changes made while the device wasn't watched
+     * aren't known, so the thread starts with a full sync.
+     * @throws IOException - If the device cannot be watched
+     */
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        watchService = FileSystems.getDefault().newWatchService();
+        register(Paths.get(device.getPath()));
+
+        running = true;
+        thread = new Thread(this::watch, "sync-watcher");
+        // don't keep the application open just to watch
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops watching the device, a sync already running is completed first
+     * @throws IOException - If the watch service cannot be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        running = false;
+        if (watchService != null) {
+            // wakes the thread up from waiting for events
+            watchService.close();
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Waits for changes and syncs them, runs until the watcher is closed
+     */
+    private void watch() {
+        sync(null);
+        while (running) {
+            try {
+                Set<Path> changed = new HashSet<Path>();
+                boolean overflow = handle(watchService.take(), changed);
+
+                // keep collecting until the device has been quiet for the debounce window
+                long deadline = System.currentTimeMillis() + debounceMillis * MAX_DEBOUNCES;
+                while (System.currentTimeMillis() < deadline) {
+                    WatchKey key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+                    if (key == null) {
+                        break;
+                    }
+                    overflow |= handle(key, changed);
+                }
+
+                sync(overflow ? null : changed);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                running = false;
+            } catch (ClosedWatchServiceException ex) {
+                // closed while waiting, the watcher has been stopped
+                running = false;
+            }
+        }
+    }
+
+    /**
+     * Collects the paths changed by a watch key's events
+     * @param key - key of a directory with events
+     * @param changed - set the changed paths are added to
+     * @return true if events were lost and the device has to be rescanned
+     */
+    private boolean handle(WatchKey key, Set<Path> changed) {
+        boolean overflow = false;
+        Path directory = directories.get(key);
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+                overflow = true;
+                continue;
+            }
+
+            Path path = directory.resolve((Path) event.context());
+            changed.add(path);
+            // new directories have to be watched as well, files already inside them are synced with the directory
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                try {
+                    register(path);
+                } catch (IOException ex) {
+                    System.out.println("Failed to watch " + path + ", rescanning device");
+                    overflow = true;
+                }
+            }
+        }
+
+        // a key that can't be reset belongs to a directory that was deleted
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+        return overflow;
+    }
+
+    /**
+     * Watches a directory and every directory below it
+     * @param root - directory to watch
+     * @throws IOException - If a directory cannot be watched
+     */
+    private void register(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                directories.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Syncs the changed paths, a failed sync doesn't stop the watcher
+     * @param changed - paths to sync, null to rescan the whole device
+     */
+    private void sync(Set<Path> changed) {
+        try {
+            if (changed == null) {
+                backupManager.synchronise(device);
+            } else if (!changed.isEmpty()) {
+                backupManager.synchronise(device, changed);
+            }
+        } catch (IOException | RuntimeException ex) {
+            System.out.println("Continuous sync of " + device.getPath() + " failed");
+            ex.printStackTrace();
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package ui;
 
+import backend.PasswordHasher;
 import javafx.application.Application;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
@@ -31,6 +32,8 @@ public class App extends Application {
      * @param args Arguments to main
      */
     public static void main(String[] args) {
+        // pick how much work password hashing does on this machine, aiming for a quarter of a second per login
+        PasswordHasher.calibrate(250);
         launch(args);
     }
 }
@@ -1,9 +1,14 @@
 package ui;
 
+import backend.BackupJob;
+import backend.CopyEngine;
+import backend.DeflateCodec;
 import backend.Device;
 import backend.DeviceManager;
-import backend.Logger;
+import backend.Progress;
+import backend.ProgressListener;
 
+import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -22,9 +27,20 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.util.*;
+import java.util.zip.Deflater;
 
 public class DeviceForm {
 
+    // choices of the compression combo box
+    private static final String COMPRESSION_OFF = "No Compression";
+    private static final String COMPRESSION_FAST = "Fast Compression";
+    private static final String COMPRESSION_DEFAULT = "Normal Compression";
+    private static final String COMPRESSION_BEST = "Best Compression";
+    // choices of the drive type combo box
+    private static final String DRIVE_SSD = "Solid State Drive";
+    private static final String DRIVE_HDD = "Hard Disk Drive";
+    private static final String DRIVE_NETWORK = "Network Drive";
+
     private Stage primaryStage;
     private MenuBar menu;
     private Scene scene;
@@ -36,8 +52,19 @@ public class DeviceForm {
     private Button btnRegisterDevice;
     private Button btnBackup;
     private Button btnSync;
+    private CheckBox chkContinuousSync;
+    private CheckBox chkDeduplicate;
+    private ComboBox<String> comboCompression;
+    private ComboBox<String> comboDriveType;
+    // drive type chosen for each device, by device path
+    private final Map<String, String> driveTypes = new HashMap<String, String>();
     private Button btnRestore;
+    // stops the running restore / sync, backups are cancelled from the jobs window
+    private Button btnCancel;
+    private Task<Void> runningTask;
     private ProgressBar progressBar;
+    // files, bytes, throughput and time left of the running backup / restore / sync
+    private Label labelProgress;
 
     /**
      * Non-default constructor
@@ -49,6 +76,7 @@ public class DeviceForm {
         menu = generateMenu();
         this.username = username;
         deviceManager = new DeviceManager(username);
+        deviceManager.addJobListener(this::jobChanged);
     }
 
     /**
@@ -105,18 +133,49 @@ public class DeviceForm {
         btnBackup.setOnAction(backup());
         // disabled until a registered device is selected
         btnBackup.setDisable(true);
+        // De-duplication check box, applies to every backup started afterwards
+        chkDeduplicate = new CheckBox("De-duplicate Backups");
+        chkDeduplicate.setTooltip(new Tooltip("Stores files shared between backups only once, saving space."));
+        chkDeduplicate.setOnAction(event -> deviceManager.setDeduplicate(chkDeduplicate.isSelected()));
+        // Compression combo box, applies to every backup started afterwards
+        comboCompression = ControlFactory.getComboBox("Compresses backed up files, photos, videos and archives are stored as they are.");
+        comboCompression.setItems(FXCollections.observableArrayList(COMPRESSION_OFF, COMPRESSION_FAST,
+                COMPRESSION_DEFAULT, COMPRESSION_BEST));
+        comboCompression.setValue(COMPRESSION_OFF);
+        comboCompression.setOnAction(compressionChanged());
+        // Drive type combo box, applies to backups of the selected device started afterwards
+        comboDriveType = ControlFactory.getComboBox("Type of the selected device, hard disks are read with fewer threads.");
+        comboDriveType.setItems(FXCollections.observableArrayList(DRIVE_SSD, DRIVE_HDD, DRIVE_NETWORK));
+        comboDriveType.setValue(DRIVE_SSD);
+        comboDriveType.setOnAction(driveTypeChanged());
+        comboDriveType.disableProperty().bind(btnBackup.disableProperty());
         // Sync button
         btnSync = ControlFactory.getButton("Synchronise Device", "Synchronises currently selected divice");
         // disabled until a registered device is selected
         btnSync.setOnAction(sync());
         btnSync.setDisable(true);
+        // Continuous sync check box, available whenever the sync button is
+        chkContinuousSync = new CheckBox("Keep Device Synchronised");
+        chkContinuousSync.setTooltip(new Tooltip("Synchronises changes to the selected device a few seconds after they happen."));
+        chkContinuousSync.setOnAction(continuousSync());
+        chkContinuousSync.disableProperty().bind(btnSync.disableProperty());
         // Restore button
         btnRestore = ControlFactory.getButton("Restore Device", "Creates backup of existing device");
         btnRestore.setOnAction(restore());
         btnRestore.setDisable(true);
+        // Cancel button, only shown while a restore / sync runs
+        btnCancel = ControlFactory.getButton("Cancel", "Stops the running restore or sync, files already copied are kept.");
+        btnCancel.setOnAction(cancelTask());
+        btnCancel.setVisible(false);
         // View Logs link
         Hyperlink linkViewLogs  = ControlFactory.getHyperlink("View Device Logs", "Displays device logs.");
         linkViewLogs.setOnAction(showLogs());
+        // View Jobs link
+        Hyperlink linkViewJobs = ControlFactory.getHyperlink("View Backup Jobs", "Displays running backups, which can be cancelled.");
+        linkViewJobs.setOnAction(showJobs());
+        // View Statistics link
+        Hyperlink linkViewMetrics = ControlFactory.getHyperlink("View Statistics", "Displays files copied, errors and timings, which can be exported.");
+        linkViewMetrics.setOnAction(event -> new MetricsForm(primaryStage).show());
         // Exit button
         Button btnExit = ControlFactory.getButton("Exit", "Shuts down application.");
         btnExit.setOnAction(terminateApplication());
@@ -125,6 +184,8 @@ public class DeviceForm {
         progressBar.setMaxWidth(300);
         progressBar.setProgress(0);
         progressBar.setVisible(false);
+        labelProgress = ControlFactory.getLabel("", "Progress of the running backup, restore or sync.");
+        labelProgress.setVisible(false);
 
         // vbox used for alignment in the scene. The parameter '10' is spacing between controls.
         VBox rootVbox = new VBox(10, menu);
@@ -139,13 +200,21 @@ public class DeviceForm {
         rootVbox.getChildren().add(labelDeviceInfo);
         rootVbox.getChildren().add(btnRegisterDevice);
         rootVbox.getChildren().add(btnBackup);
+        rootVbox.getChildren().add(chkDeduplicate);
+        rootVbox.getChildren().add(comboCompression);
+        rootVbox.getChildren().add(comboDriveType);
         rootVbox.getChildren().add(btnSync);
+        rootVbox.getChildren().add(chkContinuousSync);
         rootVbox.getChildren().add(btnRestore);
         rootVbox.getChildren().add(btnExit);
         rootVbox.getChildren().add(linkViewLogs);
+        rootVbox.getChildren().add(linkViewJobs);
+        rootVbox.getChildren().add(linkViewMetrics);
         rootVbox.getChildren().add(progressBar);
+        rootVbox.getChildren().add(labelProgress);
+        rootVbox.getChildren().add(btnCancel);
 
-        scene = new Scene(rootVbox, 360, 510);
+        scene = new Scene(rootVbox, 360, 640);
 
         // This is to ensure that when the application is packaged as a jar, it can still find the css file
         URL styleURL = this.getClass().getResource("/ui/assets/style.css");
@@ -189,45 +258,143 @@ public class DeviceForm {
      */
     private EventHandler<ActionEvent> backup() {
         return event -> {
-            // JavaFX has a concurrency package that contains a lot of utility to make
-            // the UI interactive and not block while stuff is happening in the background
-            // Like for example copying large files.
-            // The task class allows something to be run a separate thread preventing the UI
-            // from freezing and allowing for a progress bar to be created
-            // source: https://docs.oracle.com/javafx/2/threads/jfxpub-threads.htm#sthref8
-            // source2: https://stackoverflow.com/questions/29844344
-            Task task = new Task<Void>() {
-                @Override public Void call() throws IOException{
-                    deviceManager.backup(getComboboxValue());
-                    // just to fill up the progress bar
-                    updateProgress(100, 100);
-                    return null;
-                }
-            };
 
-            // handle what happens when the tasks stops executing
-            // source: https://stackoverflow.com/a/38476765
-            task.setOnSucceeded(evt -> taskStopped(task.getException(), "Backup", 1));
-            task.setOnCancelled(evt -> taskStopped(task.getException(), "Backup", 2));
-            task.setOnFailed(evt -> taskStopped(task.getException(), "Backup", 3));
+            // Create an alert for the type of backup, same as the restore alert
+            Alert alert = new Alert(Alert.AlertType.CONFIRMATION, "Choose backup type.");
+            alert.setTitle("Choose backup method");
+            alert.setHeaderText("Do you want to copy every file, only files changed since the last backup, " +
+                    "or carry on with a backup that was cancelled?");
 
+            ButtonType btnFull = new ButtonType("Full");
+            ButtonType btnIncremental = new ButtonType("Incremental");
+            ButtonType btnResume = new ButtonType("Resume");
 
+            alert.getButtonTypes().setAll(btnFull, btnIncremental, btnResume);
+            Optional<ButtonType> result = alert.showAndWait();
 
-            // disable all the controls before starting the tasks to prevent users
-            // from launching multiple tasks together
-            disableAllControls();
-
-            // the task has to be started in a separate thread to not freeze the device form
-            // source: https://docs.oracle.com/javafx/2/threads/jfxpub-threads.htm#sthref8
-            // source2: https://stackoverflow.com/questions/29844344
-            new Thread(task).start();
+            if (!result.isPresent()) {
+                return;
+            }
 
-            // not the most detailed progress bar, but at-least gives users a sense of the application not stalling
+            // backups run on the device manager's scheduler, several devices can be backed up at the same time
+            // so the controls stay enabled, a second backup of the same device returns the job already running
+            BackupJob job;
+            if (result.get() == btnResume) {
+                job = deviceManager.resumeBackup(getComboboxValue());
+            } else {
+                job = deviceManager.submitBackup(getComboboxValue(), result.get() == btnIncremental);
+            }
+            labelDeviceInfo.setText("device info: Backup " + job.getStatus().toString().toLowerCase());
             progressBar.setVisible(true);
-            progressBar.progressProperty().bind(task.progressProperty());
+            progressBar.setProgress(ProgressBar.INDETERMINATE_PROGRESS);
+            labelProgress.setVisible(true);
         };
     }
 
+    /**
+     * Changes how new backups are compressed
+     * @return Event handler for the compression combo box
+     */
+    private EventHandler<ActionEvent> compressionChanged() {
+        return event -> {
+            String value = comboCompression.getValue();
+            if (COMPRESSION_FAST.equals(value)) {
+                deviceManager.setCompression(DeflateCodec.NAME, Deflater.BEST_SPEED);
+            } else if (COMPRESSION_DEFAULT.equals(value)) {
+                deviceManager.setCompression(DeflateCodec.NAME, Deflater.DEFAULT_COMPRESSION);
+            } else if (COMPRESSION_BEST.equals(value)) {
+                deviceManager.setCompression(DeflateCodec.NAME, Deflater.BEST_COMPRESSION);
+            } else {
+                deviceManager.setCompression(null, 0);
+            }
+        };
+    }
+
+    /**
+     * Changes how many threads read the selected device's files
+     * @return Event handler for the drive type combo box
+     */
+    private EventHandler<ActionEvent> driveTypeChanged() {
+        return event -> {
+            String devicePath = comboDevices.getValue();
+            String value = comboDriveType.getValue();
+            if (devicePath == null || value == null) {
+                return;
+            }
+            driveTypes.put(devicePath, value);
+            if (DRIVE_HDD.equals(value)) {
+                deviceManager.setDeviceIOType(devicePath, CopyEngine.IOType.HDD);
+            } else if (DRIVE_NETWORK.equals(value)) {
+                deviceManager.setDeviceIOType(devicePath, CopyEngine.IOType.NETWORK);
+            } else {
+                deviceManager.setDeviceIOType(devicePath, CopyEngine.IOType.SSD);
+            }
+        };
+    }
+
+    /**
+     * Handles a backup job changing status, called on the job's thread
+     * @param job - job that changed
+     */
+    private void jobChanged(BackupJob job) {
+        // the status is read now, a progress notification still waiting to run may only run once the job has
+        // finished, only the scheduler's last notification for the job should show the result
+        BackupJob.Status status = job.getStatus();
+        // controls can only be changed on the JavaFX thread
+        // source: https://stackoverflow.com/questions/13784333
+        Platform.runLater(() -> {
+            // the progress bar shows every running backup together, weighted by their size
+            long bytesDone = 0;
+            long bytesTotal = 0;
+            int running = 0;
+            for (BackupJob other : deviceManager.listJobs()) {
+                Progress progress = other.getProgress();
+                if (!other.isDone() && progress != null) {
+                    bytesDone += progress.getBytesDone();
+                    bytesTotal += progress.getBytesTotal();
+                }
+                running += other.isDone() ? 0 : 1;
+            }
+            if (progressBar.progressProperty().isBound()) {
+                // a sync or restore is showing its own progress
+            } else if (running == 0) {
+                progressBar.setProgress(0);
+                progressBar.setVisible(false);
+                labelProgress.setText("");
+                labelProgress.setVisible(false);
+            } else if (bytesTotal > 0) {
+                progressBar.setProgress((double) bytesDone / bytesTotal);
+                Progress progress = job.getProgress();
+                labelProgress.setText(running == 1 && progress != null ? progress.toString()
+                        : running + " backups running, " + bytesDone / (1024 * 1024) + "/" + bytesTotal / (1024 * 1024) + " MB");
+            }
+
+            if (status == BackupJob.Status.QUEUED || status == BackupJob.Status.RUNNING) {
+                return;
+            }
+
+            String taskType = "Backup of " + job.getDevicePath();
+            switch (status) {
+                case SUCCEEDED:
+                    new Alert(Alert.AlertType.INFORMATION, taskType + " successful").show();
+                    break;
+                case CANCELLED:
+                    new Alert(Alert.AlertType.INFORMATION, taskType + " cancelled").show();
+                    break;
+                default:
+                    new Alert(Alert.AlertType.ERROR, taskType + " failed " + job.getError()).show();
+            }
+        });
+    }
+
+    /**
+     * Shows the backup jobs, where they can be cancelled
+     * @return Event handler for the view jobs link
+     */
+    private EventHandler<ActionEvent> showJobs() {
+        return event -> new JobsForm(primaryStage, deviceManager).show();
+    }
+
     /**
      * Handles what happens when a backup / restore / sync task has completed
      * @param t - Throwable object that may contain an excepting thrown during the task's execution
@@ -260,6 +427,11 @@ public class DeviceForm {
         progressBar.progressProperty().unbind();
         progressBar.setProgress(0);
         progressBar.setVisible(false);
+        labelProgress.textProperty().unbind();
+        labelProgress.setText("");
+        labelProgress.setVisible(false);
+        runningTask = null;
+        btnCancel.setVisible(false);
 
         // enable all necessary controls, assumption is that device is registered as if app is
         // backing up / restoring / syncing then a registered device had to be selected
@@ -289,11 +461,13 @@ public class DeviceForm {
 
             // wrap sync in a task to avoid app from looking like it has frozen
             // for detailed explanation view the backup function
-            Task task = new Task<Void>() {
+            Task<Void> task = new Task<Void>() {
                 @Override public Void call() throws IOException{
-                    deviceManager.synchronise(getComboboxValue());
-                    // just to fill up the progress bar
-                    updateProgress(100, 100);
+                    // updates are throttled by the backend, updateProgress is safe to call from this thread
+                    deviceManager.synchronise(getComboboxValue(), progress -> {
+                        updateProgress(progress.getFraction(), 1);
+                        updateMessage(progress.toString());
+                    });
                     return null;
                 }
             };
@@ -311,10 +485,47 @@ public class DeviceForm {
             // start the task thread
             // for detailed explanation view the backup function
             new Thread(task).start();
+            runningTask = task;
+            btnCancel.setVisible(true);
 
-            // not the most detailed progress bar, but at-least gives users a sense of the application not stalling
+            // progress is reported as files are copied
             progressBar.setVisible(true);
             progressBar.progressProperty().bind(task.progressProperty());
+            labelProgress.setVisible(true);
+            labelProgress.textProperty().bind(task.messageProperty());
+        };
+    }
+
+    /**
+     * Cancels the running restore / sync. The task's thread is interrupted and stops before its next file,
+     * or part way through a large one. Files already copied are kept, running it again skips them.
+     * @return Event handler for the cancel button
+     */
+    private EventHandler<ActionEvent> cancelTask() {
+        return event -> {
+            if (runningTask != null) {
+                runningTask.cancel();
+            }
+        };
+    }
+
+    /**
+     * Starts or stops continuous sync of the selected device
+     * @return Event handler for ticking the continuous sync check box
+     */
+    private EventHandler<ActionEvent> continuousSync() {
+        return event -> {
+            try {
+                if (chkContinuousSync.isSelected()) {
+                    deviceManager.startContinuousSync(getComboboxValue());
+                } else {
+                    deviceManager.stopContinuousSync(getComboboxValue());
+                }
+            } catch (IOException ex) {
+                chkContinuousSync.setSelected(false);
+                new Alert(Alert.AlertType.ERROR, "Failed to watch device " + ex.getMessage()).showAndWait();
+                ex.printStackTrace();
+            }
         };
     }
 
@@ -332,21 +543,31 @@ public class DeviceForm {
 
             ButtonType btnSyncBased = new ButtonType("Sync");
             ButtonType btnBackupBased = new ButtonType("Backup");
+            ButtonType btnSelectFiles = new ButtonType("Choose Files");
 
-            alert.getButtonTypes().setAll(btnSyncBased, btnBackupBased);
+            alert.getButtonTypes().setAll(btnSyncBased, btnBackupBased, btnSelectFiles);
             Optional<ButtonType> result = alert.showAndWait();
 
+            // choosing files happens in its own window, which runs its own restore
+            if (result.isPresent() && result.get() == btnSelectFiles) {
+                new RestoreForm(primaryStage, deviceManager, getComboboxValue()).show();
+                return;
+            }
+
             // wrap sync in a task to avoid app from looking like it has frozen
             // for detailed explanation view the backup function
-            Task task = new Task<Void>() {
+            Task<Void> task = new Task<Void>() {
                 @Override public Void call() throws IOException{
+                    // updates are throttled by the backend, updateProgress is safe to call from this thread
+                    ProgressListener listener = progress -> {
+                        updateProgress(progress.getFraction(), 1);
+                        updateMessage(progress.toString());
+                    };
                     if (result.get() == btnSyncBased) {
-                        deviceManager.syncRestore(getComboboxValue());
+                        deviceManager.syncRestore(getComboboxValue(), listener);
                     } else if (result.get() == btnBackupBased) {
-                        deviceManager.restore(getComboboxValue());
+                        deviceManager.restore(getComboboxValue(), listener);
                     }
-                    // just to fill up the progress bar
-                    updateProgress(100, 100);
                     return null;
                 }
             };
@@ -364,27 +585,23 @@ public class DeviceForm {
             // start the task thread
             // for detailed explanation view the backup function
             new Thread(task).start();
+            runningTask = task;
+            btnCancel.setVisible(true);
 
-            // not the most detailed progress bar, but at-least gives users a sense of the application not stalling
+            // progress is reported as files are copied
             progressBar.setVisible(true);
             progressBar.progressProperty().bind(task.progressProperty());
+            labelProgress.setVisible(true);
+            labelProgress.textProperty().bind(task.messageProperty());
         };
     }
 
     /**
-     * Displays logs in an alert
+     * Displays logs in a separate window, a page at a time
      * @return Event handler for displaying the logs when link is clicked
      */
     private EventHandler<ActionEvent> showLogs() {
-        return event -> {
-            // read log via logger class
-            List<String> logLines = Logger.readLog(username);
-            // create and display info alert
-            Alert alert = new Alert(Alert.AlertType.INFORMATION, String.join("", logLines));
-            alert.getDialogPane().setMinHeight(Region.USE_PREF_SIZE);
-            alert.setTitle("Log");
-            alert.show();
-        };
+        return event -> new LogForm(primaryStage, username).show();
     }
 
     /**
@@ -435,6 +652,11 @@ public class DeviceForm {
                 labelDeviceInfo.setTextFill(Color.BLACK);
             }
 
+            // show the drive type chosen for the newly selected device
+            comboDriveType.setValue(newValue == null ? DRIVE_SSD : driveTypes.getOrDefault(newValue, DRIVE_SSD));
+            // show if the newly selected device is being synced continuously
+            chkContinuousSync.setSelected(newValue != null && deviceManager.isContinuousSyncRunning(newValue));
+
             // ensure a refresh of device list
             comboDevices.setItems(devicesAsString());
             this.labelDeviceInfo.setText("device info: " + msg);
@@ -0,0 +1,106 @@
+package ui;
+
+import backend.BackupJob;
+import backend.DeviceManager;
+import javafx.application.Platform;
+import javafx.event.ActionEvent;
+import javafx.event.EventHandler;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Scene;
+import javafx.scene.control.*;
+import javafx.scene.layout.*;
+import javafx.scene.paint.Color;
+import javafx.stage.Stage;
+
+import java.net.URL;
+import java.util.function.Consumer;
+
+/**
+ * Window listing the backup jobs of the logged in user. Jobs update as they start and finish,
+ * a queued or running job can be cancelled.
+ */
+public class JobsForm {
+
+    private Stage stage;
+    private DeviceManager deviceManager;
+    // controls
+    private ListView<BackupJob> listJobs;
+    private Button btnCancel;
+    private Button btnClear;
+
+    /**
+     * Non-default constructor
+     * @param owner - stage the jobs window belongs to
+     * @param deviceManager - device manager of the logged in user
+     */
+    public JobsForm(Stage owner, DeviceManager deviceManager) {
+        this.stage = new Stage();
+        stage.initOwner(owner);
+        this.deviceManager = deviceManager;
+    }
+
+    /**
+     * Builds and shows the jobs window
+     */
+    public void show() {
+        listJobs = new ListView<BackupJob>();
+        VBox.setVgrow(listJobs, Priority.ALWAYS);
+        btnCancel = ControlFactory.getButton("Cancel Backup", "Cancels the selected backup, files already copied are kept.");
+        btnCancel.setOnAction(cancel());
+        btnClear = ControlFactory.getButton("Clear Finished", "Removes finished backups from the list.");
+        btnClear.setOnAction(event -> {
+            deviceManager.clearFinishedJobs();
+            refresh();
+        });
+
+        // same layout and colours as the other forms
+        VBox rootVbox = new VBox(10, listJobs, btnCancel, btnClear);
+        rootVbox.setAlignment(Pos.TOP_CENTER);
+        rootVbox.setPadding(new Insets(10));
+        rootVbox.setBackground(new Background(new BackgroundFill(Color.rgb(201,191,228), CornerRadii.EMPTY, Insets.EMPTY)));
+
+        Scene scene = new Scene(rootVbox, 640, 360);
+        URL styleURL = this.getClass().getResource("/ui/assets/style.css");
+        scene.getStylesheets().add(styleURL.toExternalForm());
+
+        // jobs change on their own threads, the list is refreshed on the JavaFX thread
+        Consumer<BackupJob> listener = job -> Platform.runLater(this::refresh);
+        deviceManager.addJobListener(listener);
+        stage.setOnHidden(event -> deviceManager.removeJobListener(listener));
+        refresh();
+
+        stage.setTitle("Backup Jobs");
+        stage.setScene(scene);
+        stage.show();
+    }
+
+    /**
+     * Lists the jobs again, keeping the selected job selected
+     */
+    private void refresh() {
+        BackupJob selected = listJobs.getSelectionModel().getSelectedItem();
+        listJobs.getItems().setAll(deviceManager.listJobs());
+        if (selected != null) {
+            listJobs.getSelectionModel().select(selected);
+        }
+    }
+
+    /**
+     * Cancels the selected job
+     * @return Event handler for the cancel button
+     */
+    private EventHandler<ActionEvent> cancel() {
+        return event -> {
+            BackupJob job = listJobs.getSelectionModel().getSelectedItem();
+            if (job == null) {
+                new Alert(Alert.AlertType.INFORMATION, "Choose a backup to cancel.").show();
+                return;
+            }
+            if (!deviceManager.cancelJob(job.getId())) {
+                new Alert(Alert.AlertType.INFORMATION, "The backup has already finished.").show();
+            }
+            refresh();
+        };
+    }
+}
@@ -0,0 +1,193 @@
+package ui;
+
+import backend.Journal;
+import backend.LogReader;
+import javafx.concurrent.Task;
+import javafx.event.ActionEvent;
+import javafx.event.EventHandler;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Scene;
+import javafx.scene.control.*;
+import javafx.scene.layout.*;
+import javafx.scene.paint.Color;
+import javafx.stage.Stage;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Window displaying a user's log. Only a page of the log is loaded at a time and the lines are
+ * shown in a ListView, which only creates controls for the rows on screen, so large logs don't freeze the UI.
+ */
+public class LogForm {
+
+    // amount of lines loaded at a time
+    private static final int PAGE_SIZE = 500;
+    // stops a search that matches most of the log from using up all the memory
+    private static final int MAX_MATCHES = 10000;
+    // slowest files listed, and how far back to look for them
+    private static final int SLOWEST_COUNT = 100;
+    private static final long SLOWEST_DAYS = 7;
+
+    private Stage stage;
+    private LogReader reader;
+    private String username;
+    // offset of the oldest line shown, used to page backwards through the log
+    private long oldestOffset;
+    // controls
+    private ListView<String> listLog;
+    private TextField txtSearch;
+    private Button btnOlder;
+    private Button btnFailed;
+    private Button btnSlowest;
+
+    /**
+     * Non-default constructor
+     * @param owner - stage the log window belongs to
+     * @param username - user whose log is displayed
+     */
+    public LogForm(Stage owner, String username) {
+        this.stage = new Stage();
+        stage.initOwner(owner);
+        this.reader = new LogReader(username);
+        this.username = username;
+    }
+
+    /**
+     * Builds and shows the log window, starting with the latest lines of the log
+     */
+    public void show() {
+        listLog = new ListView<String>();
+        VBox.setVgrow(listLog, Priority.ALWAYS);
+        txtSearch = ControlFactory.getTextField("", "Press enter to show only lines containing this text, leave empty for the whole log.");
+        txtSearch.setOnAction(search());
+        btnOlder = ControlFactory.getButton("Load Older Lines", "Loads the lines logged before the ones shown.");
+        btnOlder.setOnAction(loadOlder());
+        btnFailed = ControlFactory.getButton("Failed Files", "Lists the files the latest backup failed to copy.");
+        btnFailed.setOnAction(showJournal(journal -> journal.failures(Journal.Operation.BACKUP)));
+        btnSlowest = ControlFactory.getButton("Slowest Files", "Lists the files that took longest to back up, sync or restore this week.");
+        btnSlowest.setOnAction(showJournal(journal -> journal.slowest(null,
+                System.currentTimeMillis() - SLOWEST_DAYS * 24 * 60 * 60 * 1000, SLOWEST_COUNT)));
+        HBox journalHbox = new HBox(10, btnFailed, btnSlowest);
+        journalHbox.setAlignment(Pos.CENTER);
+
+        // same layout and colours as the other forms
+        VBox rootVbox = new VBox(10, txtSearch, listLog, btnOlder, journalHbox);
+        rootVbox.setAlignment(Pos.TOP_CENTER);
+        rootVbox.setPadding(new Insets(10));
+        rootVbox.setBackground(new Background(new BackgroundFill(Color.rgb(201,191,228), CornerRadii.EMPTY, Insets.EMPTY)));
+
+        Scene scene = new Scene(rootVbox, 640, 480);
+        URL styleURL = this.getClass().getResource("/ui/assets/style.css");
+        scene.getStylesheets().add(styleURL.toExternalForm());
+
+        showLatest();
+
+        stage.setTitle("Log");
+        stage.setScene(scene);
+        stage.show();
+    }
+
+    /**
+     * Shows the latest page of the log, scrolled to the newest line
+     */
+    private void showLatest() {
+        try {
+            LogReader.Page page = reader.tail(PAGE_SIZE);
+            listLog.getItems().setAll(page.getLines());
+            listLog.scrollTo(listLog.getItems().size() - 1);
+            oldestOffset = page.getStartOffset();
+            btnOlder.setDisable(oldestOffset == 0);
+        } catch (IOException ex) {
+            new Alert(Alert.AlertType.ERROR, "Failed to read log " + ex.getMessage()).show();
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Loads the page of lines logged before the oldest line shown
+     * @return Event handler for the load older button
+     */
+    private EventHandler<ActionEvent> loadOlder() {
+        return event -> {
+            try {
+                LogReader.Page page = reader.readBefore(oldestOffset, PAGE_SIZE);
+                listLog.getItems().addAll(0, page.getLines());
+                oldestOffset = page.getStartOffset();
+                // nothing older left to load
+                btnOlder.setDisable(oldestOffset == 0);
+            } catch (IOException ex) {
+                new Alert(Alert.AlertType.ERROR, "Failed to read log " + ex.getMessage()).show();
+                ex.printStackTrace();
+            }
+        };
+    }
+
+    /**
+     * Lists the result of a query on the user's journal, files are no longer written to the log line by line
+     * @param query - query to run on the journal
+     * @return Event handler for the journal buttons
+     */
+    private EventHandler<ActionEvent> showJournal(JournalQuery query) {
+        return event -> {
+            // queries only read part of the journal, but it can still be large so it is read in a task
+            Task<List<String>> task = new Task<List<String>>() {
+                @Override public List<String> call() throws IOException {
+                    return query.run(Journal.forUser(username)).stream()
+                            .map(Journal.Entry::toString).collect(Collectors.toList());
+                }
+            };
+            task.setOnSucceeded(evt -> {
+                listLog.getItems().setAll(task.getValue());
+                if (task.getValue().isEmpty()) {
+                    listLog.getItems().add("No files found");
+                }
+                btnOlder.setDisable(true);
+            });
+            task.setOnFailed(evt -> new Alert(Alert.AlertType.ERROR, "Failed to read journal " + task.getException().getMessage()).show());
+            new Thread(task).start();
+        };
+    }
+
+    /**
+     * A query on the journal, which can fail with an IOException unlike a Function
+     */
+    private interface JournalQuery {
+        List<Journal.Entry> run(Journal journal) throws IOException;
+    }
+
+    /**
+     * Searches the log for lines containing the search text
+     * @return Event handler for pressing enter in the search box
+     */
+    private EventHandler<ActionEvent> search() {
+        return event -> {
+            String text = txtSearch.getText();
+            if (text.trim().isEmpty()) {
+                showLatest();
+                return;
+            }
+
+            // searching reads the whole log, so it is done in a task to keep the window responsive
+            // for detailed explanation view the backup function in DeviceForm
+            Task<List<String>> task = new Task<List<String>>() {
+                @Override public List<String> call() throws IOException {
+                    try (Stream<String> lines = reader.matching(text)) {
+                        return lines.limit(MAX_MATCHES).collect(Collectors.toList());
+                    }
+                }
+            };
+            task.setOnSucceeded(evt -> {
+                listLog.getItems().setAll(task.getValue());
+                // paging only applies to the whole log
+                btnOlder.setDisable(true);
+            });
+            task.setOnFailed(evt -> new Alert(Alert.AlertType.ERROR, "Failed to search log " + task.getException().getMessage()).show());
+            new Thread(task).start();
+        };
+    }
+}
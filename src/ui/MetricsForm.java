@@ -0,0 +1,101 @@
+package ui;
+
+import backend.Metrics;
+import javafx.event.ActionEvent;
+import javafx.event.EventHandler;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Scene;
+import javafx.scene.control.*;
+import javafx.scene.layout.*;
+import javafx.scene.paint.Color;
+import javafx.stage.FileChooser;
+import javafx.stage.Stage;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * Window listing the application's metrics: files and bytes copied, errors, queue depths and how long
+ * each part of a backup, sync or restore took. The metrics can be exported to a text or JSON file.
+ */
+public class MetricsForm {
+
+    private Stage stage;
+    // controls
+    private ListView<String> listMetrics;
+    private Button btnRefresh;
+    private Button btnExport;
+
+    /**
+     * Non-default constructor
+     * @param owner - stage the metrics window belongs to
+     */
+    public MetricsForm(Stage owner) {
+        this.stage = new Stage();
+        stage.initOwner(owner);
+    }
+
+    /**
+     * Builds and shows the metrics window
+     */
+    public void show() {
+        listMetrics = new ListView<String>();
+        VBox.setVgrow(listMetrics, Priority.ALWAYS);
+        btnRefresh = ControlFactory.getButton("Refresh", "Lists the metrics again with their latest values.");
+        btnRefresh.setOnAction(event -> refresh());
+        btnExport = ControlFactory.getButton("Export", "Saves the metrics to a text or JSON file.");
+        btnExport.setOnAction(export());
+
+        // same layout and colours as the other forms
+        VBox rootVbox = new VBox(10, listMetrics, btnRefresh, btnExport);
+        rootVbox.setAlignment(Pos.TOP_CENTER);
+        rootVbox.setPadding(new Insets(10));
+        rootVbox.setBackground(new Background(new BackgroundFill(Color.rgb(201,191,228), CornerRadii.EMPTY, Insets.EMPTY)));
+
+        Scene scene = new Scene(rootVbox, 720, 480);
+        URL styleURL = this.getClass().getResource("/ui/assets/style.css");
+        scene.getStylesheets().add(styleURL.toExternalForm());
+
+        refresh();
+
+        stage.setTitle("Statistics");
+        stage.setScene(scene);
+        stage.show();
+    }
+
+    /**
+     * Lists the metrics with their current values
+     */
+    private void refresh() {
+        listMetrics.getItems().setAll(Metrics.report());
+    }
+
+    /**
+     * Asks where to save the metrics and exports them, as JSON if a .json file is chosen
+     * @return Event handler for the export button
+     */
+    private EventHandler<ActionEvent> export() {
+        return event -> {
+            FileChooser chooser = new FileChooser();
+            chooser.setTitle("Export Statistics");
+            chooser.setInitialFileName("metrics.txt");
+            chooser.getExtensionFilters().addAll(
+                    new FileChooser.ExtensionFilter("Text", "*.txt"),
+                    new FileChooser.ExtensionFilter("JSON", "*.json"));
+            File file = chooser.showSaveDialog(stage);
+            if (file == null) {
+                return;
+            }
+
+            try {
+                Metrics.export(file.toPath());
+                new Alert(Alert.AlertType.INFORMATION, "Statistics exported to " + file).show();
+            } catch (IOException ex) {
+                new Alert(Alert.AlertType.ERROR, "Failed to export statistics " + ex.getMessage()).show();
+                ex.printStackTrace();
+            }
+        };
+    }
+}
@@ -0,0 +1,155 @@
+package ui;
+
+import backend.DeviceManager;
+import javafx.collections.FXCollections;
+import javafx.concurrent.Task;
+import javafx.event.ActionEvent;
+import javafx.event.EventHandler;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Scene;
+import javafx.scene.control.*;
+import javafx.scene.layout.*;
+import javafx.scene.paint.Color;
+import javafx.stage.Stage;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Window for restoring only some files of a backup. The files of the chosen backup are listed from
+ * the backup's manifest, the user picks files from the list or types a path, folder or glob.
+ */
+public class RestoreForm {
+
+    private Stage stage;
+    private DeviceManager deviceManager;
+    // device the files are restored to
+    private String devicePath;
+    // controls
+    private ComboBox<String> comboSnapshots;
+    private ListView<String> listFiles;
+    private TextField txtPattern;
+    private Button btnRestore;
+
+    /**
+     * Non-default constructor
+     * @param owner - stage the restore window belongs to
+     * @param deviceManager - device manager of the logged in user
+     * @param devicePath - path of the device to restore to
+     */
+    public RestoreForm(Stage owner, DeviceManager deviceManager, String devicePath) {
+        this.stage = new Stage();
+        stage.initOwner(owner);
+        this.deviceManager = deviceManager;
+        this.devicePath = devicePath;
+    }
+
+    /**
+     * Builds and shows the restore window, starting with the latest backup
+     */
+    public void show() {
+        comboSnapshots = ControlFactory.getComboBox("Backup to restore files from.");
+        try {
+            comboSnapshots.setItems(FXCollections.observableArrayList(deviceManager.listSnapshots()));
+        } catch (IOException ex) {
+            new Alert(Alert.AlertType.ERROR, "Failed to list backups " + ex.getMessage()).show();
+            ex.printStackTrace();
+        }
+        comboSnapshots.setOnAction(loadFiles());
+        listFiles = new ListView<String>();
+        listFiles.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        VBox.setVgrow(listFiles, Priority.ALWAYS);
+        txtPattern = ControlFactory.getTextField("", "Path of a file or folder, or a pattern such as **.jpg. Leave empty to restore the files selected in the list.");
+        btnRestore = ControlFactory.getButton("Restore", "Restores the chosen files to the restore folder of the device.");
+        btnRestore.setOnAction(restore());
+
+        // same layout and colours as the other forms
+        VBox rootVbox = new VBox(10, comboSnapshots, listFiles, txtPattern, btnRestore);
+        rootVbox.setAlignment(Pos.TOP_CENTER);
+        rootVbox.setPadding(new Insets(10));
+        rootVbox.setBackground(new Background(new BackgroundFill(Color.rgb(201,191,228), CornerRadii.EMPTY, Insets.EMPTY)));
+
+        Scene scene = new Scene(rootVbox, 640, 480);
+        URL styleURL = this.getClass().getResource("/ui/assets/style.css");
+        scene.getStylesheets().add(styleURL.toExternalForm());
+
+        // latest backup is listed first
+        if (!comboSnapshots.getItems().isEmpty()) {
+            comboSnapshots.getSelectionModel().selectFirst();
+            loadFiles().handle(null);
+        }
+
+        stage.setTitle("Restore Files");
+        stage.setScene(scene);
+        stage.show();
+    }
+
+    /**
+     * Lists the files of the chosen backup
+     * @return Event handler for choosing a backup
+     */
+    private EventHandler<ActionEvent> loadFiles() {
+        return event -> {
+            String snapshotId = comboSnapshots.getValue();
+            if (snapshotId == null) {
+                return;
+            }
+
+            // large backups have many files, so they are listed in a task to keep the window responsive
+            // for detailed explanation view the backup function in DeviceForm
+            Task<List<String>> task = new Task<List<String>>() {
+                @Override public List<String> call() throws IOException {
+                    return deviceManager.listSnapshot(snapshotId);
+                }
+            };
+            task.setOnSucceeded(evt -> listFiles.getItems().setAll(task.getValue()));
+            task.setOnFailed(evt -> new Alert(Alert.AlertType.ERROR, "Failed to list backup " + task.getException().getMessage()).show());
+            new Thread(task).start();
+        };
+    }
+
+    /**
+     * Restores the typed pattern, or the files selected in the list
+     * @return Event handler for the restore button
+     */
+    private EventHandler<ActionEvent> restore() {
+        return event -> {
+            String snapshotId = comboSnapshots.getValue();
+            List<String> selection;
+            if (!txtPattern.getText().trim().isEmpty()) {
+                selection = Collections.singletonList(txtPattern.getText().trim());
+            } else {
+                selection = new ArrayList<String>(listFiles.getSelectionModel().getSelectedItems());
+            }
+
+            if (snapshotId == null || selection.isEmpty()) {
+                new Alert(Alert.AlertType.INFORMATION, "Choose a backup and the files to restore.").show();
+                return;
+            }
+
+            // for detailed explanation view the backup function in DeviceForm
+            Task<Void> task = new Task<Void>() {
+                @Override public Void call() throws IOException {
+                    deviceManager.restore(devicePath, snapshotId, selection);
+                    return null;
+                }
+            };
+            task.setOnSucceeded(evt -> {
+                btnRestore.setDisable(false);
+                new Alert(Alert.AlertType.INFORMATION, "Restore successful").show();
+            });
+            task.setOnFailed(evt -> {
+                btnRestore.setDisable(false);
+                new Alert(Alert.AlertType.ERROR, "Restore failed " + task.getException().getMessage()).show();
+            });
+
+            // stop the same files being restored twice at once
+            btnRestore.setDisable(true);
+            new Thread(task).start();
+        };
+    }
+}
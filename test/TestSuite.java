@@ -7,7 +7,26 @@ import org.junit.runners.Suite;
 @Suite.SuiteClasses({
         LoggerTest.class,
         AuthenticationTest.class,
-        DeviceTest.class
+        DeviceTest.class,
+        ChunkStoreTest.class,
+        LogReaderTest.class,
+        CredentialPolicyTest.class,
+        PasswordHasherTest.class,
+        FileCopierTest.class,
+        SnapshotManifestTest.class,
+        SnapshotCatalogTest.class,
+        CompressionPolicyTest.class,
+        PackFileTest.class,
+        SyncManifestTest.class,
+        DeltaEngineTest.class,
+        ProgressTrackerTest.class,
+        MetricsTest.class,
+        JournalTest.class,
+        BackupManagerTest.class,
+        CredentialStoreTest.class,
+        BackupSchedulerTest.class,
+        SyncWatcherTest.class,
+        CopyEngineTest.class
 })
 
 /**
@@ -0,0 +1,485 @@
+package backend;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Backs a small device up and restores it again, comparing the restored files with the device
+ */
+public class BackupManagerTest {
+    // UUID used to ensure no user has registered with this username
+    private static final String username = "a64c7652-68f0-11e9-a923-1681be663d3e-backup";
+    // small files are packed, the large file is copied whole
+    private static final int DIRECTORIES = 4;
+    private static final int FILES_PER_DIRECTORY = 25;
+    private static final int LARGE_SIZE = 512 * 1024;
+
+    private String home;
+    private Path root;
+    private Path device;
+    private Path target;
+
+    // every test backs up to its own home directory
+    @Before
+    public void prepare() throws IOException {
+        home = System.getProperty("user.home");
+        root = Files.createTempDirectory("backupmanager");
+        System.setProperty("user.home", root.resolve("home").toString());
+        device = root.resolve("device");
+        target = root.resolve("target");
+
+        Random random = new Random(42);
+        for (int d = 0; d < DIRECTORIES; d++) {
+            Path directory = Files.createDirectories(device.resolve("dir" + d));
+            for (int f = 0; f < FILES_PER_DIRECTORY; f++) {
+                byte[] data = new byte[random.nextInt(4096)];
+                random.nextBytes(data);
+                Files.write(directory.resolve("file" + f + ".txt"), data);
+            }
+        }
+        byte[] large = new byte[LARGE_SIZE];
+        random.nextBytes(large);
+        Files.write(Files.createDirectories(device.resolve("large")).resolve("big.bin"), large);
+    }
+
+    // ensure that the tests leave the file system in the same state
+    @After
+    public void cleanUp() throws IOException {
+        System.setProperty("user.home", home);
+        FileUtils.deleteDirectory(root.toFile());
+        Logger.flush();
+        new File(Logger.getPath() + username).delete();
+        Journal.forUser(username).close();
+        FileUtils.deleteDirectory(new File(Logger.getPath() + username + Journal.EXTENSION));
+    }
+
+    @Test
+    public void testBackupAndRestore() throws IOException {
+        BackupManager manager = new BackupManager(username);
+        manager.createBackup(new Device(device.toString(), "device"));
+
+        List<SnapshotCatalog.Record> snapshots = manager.listSnapshots();
+        assertEquals(1, snapshots.size());
+        SnapshotCatalog.Record snapshot = snapshots.get(0);
+        assertEquals(SnapshotCatalog.Status.COMPLETE, snapshot.getStatus());
+        assertEquals(DIRECTORIES * FILES_PER_DIRECTORY + 1, snapshot.getFiles());
+
+        // the small files went into pack segments, the large one was copied
+        for (SnapshotManifest.Entry entry : manager.listSnapshot(snapshot.getId())) {
+            String expected = entry.getSize() < BackupManager.DEFAULT_PACK_THRESHOLD
+                    ? SnapshotManifest.STORAGE_PACK : SnapshotManifest.STORAGE_FILE;
+            assertEquals(entry.getPath(), expected, entry.getStorage());
+        }
+
+        manager.restore(target.toString(), snapshot.getId(), Collections.singletonList(""));
+        assertSameFiles(device, target.resolve("restore").resolve(snapshot.getId()));
+
+        List<String> report = Files.readAllLines(target.resolve("restore").resolve(snapshot.getId() + ".report.txt"));
+        assertEquals("# " + snapshot.getFiles() + " files restored (" + snapshot.getBytes() + " bytes), 0 failed", report.get(0));
+        assertEquals(snapshot.getFiles() + 1, report.size());
+    }
+
+    @Test
+    public void testRestoreOverwrites() throws IOException {
+        BackupManager manager = new BackupManager(username);
+        manager.createBackup(new Device(device.toString(), "device"));
+        String id = manager.listSnapshots().get(0).getId();
+        Path restored = target.resolve("restore").resolve(id);
+        manager.restore(target.toString(), id, Collections.singletonList(""));
+
+        // changed after the restore, but with the same size and modified time
+        Path changed = restored.resolve("dir0/file0.txt");
+        long modified = changed.toFile().lastModified();
+        byte[] data = Files.readAllBytes(changed);
+        Arrays.fill(data, (byte) 0);
+        Files.write(changed, data);
+        assertTrue(changed.toFile().setLastModified(modified));
+
+        // a new restore isn't resuming anything, so every file is written again
+        manager.restore(target.toString(), id, Collections.singletonList(""));
+        assertSameFiles(device, restored);
+        List<String> report = Files.readAllLines(target.resolve("restore").resolve(id + ".report.txt"));
+        assertFalse(report.get(0), report.get(0).contains("already restored"));
+        assertFalse(Files.exists(target.resolve("restore").resolve(id + ".restoring")));
+    }
+
+    @Test
+    public void testResumeInterruptedRestore() throws IOException {
+        BackupManager manager = new BackupManager(username);
+        manager.createBackup(new Device(device.toString(), "device"));
+        String id = manager.listSnapshots().get(0).getId();
+
+        // cancels the restore once some files have been restored, the way the restore form's cancel button does
+        Thread restoreThread = Thread.currentThread();
+        AtomicInteger done = new AtomicInteger();
+        manager.setRestoreEngine(new CopyEngine(4, 16) {
+            @Override
+            public <T> void run(Collection<T> items, Consumer<T> task) throws IOException {
+                super.run(items, item -> {
+                    task.accept(item);
+                    if (done.incrementAndGet() == 30) {
+                        restoreThread.interrupt();
+                    }
+                });
+            }
+        });
+        try {
+            manager.restore(target.toString(), id, Collections.singletonList(""));
+            fail("Restore should have been cancelled");
+        } catch (IOException ex) {
+            // cancelled
+        } finally {
+            Thread.interrupted();
+        }
+        assertTrue(Files.exists(target.resolve("restore").resolve(id + ".restoring")));
+
+        // restoring again resumes, the files finished before the cancel are kept
+        manager.setRestoreEngine(new CopyEngine(4, 16));
+        manager.restore(target.toString(), id, Collections.singletonList(""));
+        assertSameFiles(device, target.resolve("restore").resolve(id));
+        List<String> report = Files.readAllLines(target.resolve("restore").resolve(id + ".report.txt"));
+        assertTrue(report.get(0), report.get(0).contains("already restored"));
+        assertFalse(Files.exists(target.resolve("restore").resolve(id + ".restoring")));
+    }
+
+    @Test
+    public void testDeduplicatedBackup() throws IOException {
+        // the same contents twice, stored once
+        Files.copy(device.resolve("large/big.bin"), device.resolve("dir0/copy.bin"));
+
+        // turned on the way the device form does
+        DeviceManager deviceManager = new DeviceManager(username);
+        deviceManager.setDeduplicate(true);
+        deviceManager.backup(device.toString() + File.separator);
+        String id = deviceManager.listSnapshots().get(0);
+
+        SnapshotManifest manifest = new SnapshotManifest();
+        for (SnapshotManifest.Entry entry : new BackupManager(username).listSnapshot(id)) {
+            assertEquals(entry.getPath(), SnapshotManifest.STORAGE_CHUNKS, entry.getStorage());
+            manifest.add(entry);
+        }
+        assertEquals(manifest.get("large/big.bin").getLocation(), manifest.get("dir0/copy.bin").getLocation());
+
+        deviceManager.restore(target.toString(), id);
+        assertSameFiles(device, target.resolve("restore").resolve(id));
+    }
+
+    @Test
+    public void testCompressedBackup() throws IOException {
+        // text compresses, the random files don't and are stored as they are
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < LARGE_SIZE; i++) {
+            text.append("line ").append(i).append(" of a log file that compresses well\n");
+        }
+        Files.write(device.resolve("large/log.txt"), text.toString().getBytes());
+        Files.write(device.resolve("dir0/small.txt"), text.substring(0, 4096).getBytes());
+
+        DeviceManager deviceManager = new DeviceManager(username);
+        deviceManager.setCompression(DeflateCodec.NAME, 9);
+        deviceManager.backup(device.toString() + File.separator);
+        String id = deviceManager.listSnapshots().get(0);
+
+        SnapshotManifest manifest = new SnapshotManifest();
+        for (SnapshotManifest.Entry entry : new BackupManager(username).listSnapshot(id)) {
+            manifest.add(entry);
+        }
+        assertEquals(DeflateCodec.NAME, manifest.get("large/log.txt").getCodec());
+        assertEquals(DeflateCodec.NAME, manifest.get("dir0/small.txt").getCodec());
+        assertEquals("", manifest.get("large/big.bin").getCodec());
+        Path backups = root.resolve("home").resolve("Desktop").resolve("backups").resolve(username);
+        assertTrue(Files.size(backups.resolve(manifest.get("large/log.txt").getLocation())) < LARGE_SIZE / 4);
+
+        deviceManager.restore(target.toString(), id);
+        assertSameFiles(device, target.resolve("restore").resolve(id));
+
+        // unknown codecs are refused rather than silently ignored
+        try {
+            deviceManager.setCompression("zstd", 3);
+            fail("Unknown codec should be refused");
+        } catch (IllegalArgumentException ex) {
+            // refused
+        }
+    }
+
+    @Test
+    public void testSelectiveRestore() throws IOException {
+        BackupManager manager = new BackupManager(username);
+        manager.createBackup(new Device(device.toString(), "device"));
+        String id = manager.listSnapshots().get(0).getId();
+
+        // a directory and a glob, the file matched by both is only restored once
+        manager.restore(target.toString(), id, Arrays.asList("dir1", "dir1/file1*.txt", "large/big.bin"));
+        Path restored = target.resolve("restore").resolve(id);
+        assertSameFiles(device.resolve("dir1"), restored.resolve("dir1"));
+        assertArrayEquals(Files.readAllBytes(device.resolve("large/big.bin")), Files.readAllBytes(restored.resolve("large/big.bin")));
+        assertFalse(Files.exists(restored.resolve("dir0")));
+        assertEquals(FILES_PER_DIRECTORY + 1, listFiles(restored).size());
+    }
+
+    @Test
+    public void testIncrementalBackup() throws IOException {
+        // with no snapshot yet an incremental backup copies everything
+        DeviceManager deviceManager = new DeviceManager(username);
+        String devicePath = device.toString() + File.separator;
+        deviceManager.incrementalBackup(devicePath);
+        String first = deviceManager.listSnapshots().get(0);
+        BackupManager manager = new BackupManager(username);
+        SnapshotManifest firstManifest = new SnapshotManifest();
+        for (SnapshotManifest.Entry entry : manager.listSnapshot(first)) {
+            assertTrue(entry.getLocation(), entry.getLocation().startsWith(first));
+            firstManifest.add(entry);
+        }
+        assertEquals(DIRECTORIES * FILES_PER_DIRECTORY + 1, firstManifest.getEntries().size());
+
+        // a changed, a new and a deleted file
+        Path changed = device.resolve("dir1/file3.txt");
+        Files.write(changed, "changed".getBytes());
+        changed.toFile().setLastModified(changed.toFile().lastModified() + 10000);
+        Files.write(device.resolve("dir2/new.txt"), "new".getBytes());
+        Files.delete(device.resolve("dir3/file0.txt"));
+
+        deviceManager.incrementalBackup(devicePath);
+        String second = deviceManager.listSnapshots().get(0);
+        assertNotEquals(first, second);
+        SnapshotManifest secondManifest = new SnapshotManifest();
+        for (SnapshotManifest.Entry entry : manager.listSnapshot(second)) {
+            secondManifest.add(entry);
+        }
+        assertEquals(DIRECTORIES * FILES_PER_DIRECTORY + 1, secondManifest.getEntries().size());
+        assertNull(secondManifest.get("dir3/file0.txt"));
+        assertTrue(secondManifest.get("dir1/file3.txt").getLocation().startsWith(second));
+        assertTrue(secondManifest.get("dir2/new.txt").getLocation().startsWith(second));
+        // everything else points at the first snapshot's copy
+        for (SnapshotManifest.Entry entry : secondManifest.getEntries()) {
+            if (!entry.getPath().equals("dir1/file3.txt") && !entry.getPath().equals("dir2/new.txt")) {
+                assertEquals(firstManifest.get(entry.getPath()).getLocation(), entry.getLocation());
+            }
+        }
+
+        // the second snapshot restores the device as it is now, the first as it was
+        manager.restore(target.toString(), second, Collections.singletonList(""));
+        assertSameFiles(device, target.resolve("restore").resolve(second));
+        manager.restore(target.toString(), first, Collections.singletonList("dir3/file0.txt"));
+        assertTrue(Files.exists(target.resolve("restore").resolve(first).resolve("dir3/file0.txt")));
+    }
+
+    @Test
+    public void testIncrementalDelta() throws IOException {
+        BackupManager manager = new BackupManager(username);
+        manager.setDeltaThreshold(LARGE_SIZE / 2);
+        Device source = new Device(device.toString(), "device");
+        manager.createBackup(source);
+        String first = manager.listSnapshots().get(0).getId();
+
+        // change a few bytes in the middle of the large file and add a new file
+        Path big = device.resolve("large/big.bin");
+        byte[] data = Files.readAllBytes(big);
+        Arrays.fill(data, LARGE_SIZE / 2, LARGE_SIZE / 2 + 100, (byte) 7);
+        Files.write(big, data);
+        big.toFile().setLastModified(big.toFile().lastModified() + 10000);
+        Files.write(device.resolve("dir0/new.txt"), "new".getBytes());
+
+        manager.createBackup(source, true);
+        String second = manager.listSnapshots().get(0).getId();
+        assertNotEquals(first, second);
+
+        SnapshotManifest firstManifest = new SnapshotManifest();
+        for (SnapshotManifest.Entry entry : manager.listSnapshot(first)) {
+            firstManifest.add(entry);
+        }
+        for (SnapshotManifest.Entry entry : manager.listSnapshot(second)) {
+            if (entry.getPath().equals("large/big.bin")) {
+                // only the changed blocks were stored, nothing was made for a whole copy
+                assertEquals(SnapshotManifest.STORAGE_DELTA, entry.getStorage());
+                Path backups = root.resolve("home").resolve("Desktop").resolve("backups").resolve(username);
+                assertFalse(Files.exists(backups.resolve(second).resolve("large")));
+            } else if (!entry.getPath().equals("dir0/new.txt")) {
+                // unchanged files point at the first snapshot's copy
+                assertEquals(firstManifest.get(entry.getPath()).getLocation(), entry.getLocation());
+            }
+        }
+
+        manager.restore(target.toString(), second, Collections.singletonList(""));
+        assertSameFiles(device, target.resolve("restore").resolve(second));
+    }
+
+    @Test
+    public void testCancelAndResume() throws IOException {
+        // enough small files that the backup is cancelled part way through its pack segment
+        Path many = Files.createDirectories(device.resolve("many"));
+        for (int i = 0; i < 2000; i++) {
+            Files.write(many.resolve("small" + i + ".txt"), ("file " + i).getBytes());
+        }
+
+        // cancels the backup once some files have been backed up, the way the scheduler interrupts a running job
+        Thread backupThread = Thread.currentThread();
+        AtomicInteger done = new AtomicInteger();
+        CopyEngine engine = new CopyEngine(4, 16) {
+            @Override
+            public void walk(Path root, Consumer<Path> task) throws IOException {
+                super.walk(root, file -> {
+                    task.accept(file);
+                    if (done.incrementAndGet() == 300) {
+                        backupThread.interrupt();
+                    }
+                });
+            }
+        };
+
+        BackupManager manager = new BackupManager(username);
+        Device source = new Device(device.toString(), "device");
+        try {
+            manager.createBackup(source, false, engine, null);
+            fail("Backup should have been cancelled");
+        } catch (IOException ex) {
+            // cancelled
+        } finally {
+            Thread.interrupted();
+        }
+
+        SnapshotCatalog.Record cancelled = manager.listSnapshots().get(0);
+        assertEquals(SnapshotCatalog.Status.FAILED, cancelled.getStatus());
+        Path backups = root.resolve("home").resolve("Desktop").resolve("backups").resolve(username);
+        SnapshotManifest checkpoint = BackupCheckpoint.load(backups.resolve(cancelled.getId() + BackupCheckpoint.EXTENSION));
+        assertNotNull(checkpoint);
+        assertFalse(checkpoint.getEntries().isEmpty());
+
+        // every file in the checkpoint must be in a finished segment, that can be read back
+        for (SnapshotManifest.Entry entry : checkpoint.getEntries()) {
+            if (!entry.getStorage().equals(SnapshotManifest.STORAGE_PACK)) {
+                continue;
+            }
+            try (PackReader reader = new PackReader(backups.resolve("packs").resolve(PackReader.segmentOf(entry.getLocation())))) {
+                List<String> packed = reader.list().stream().map(PackWriter.IndexEntry::getPath).collect(Collectors.toList());
+                assertTrue(entry.getPath(), packed.contains(entry.getPath()));
+            }
+        }
+
+        // resuming finishes the same snapshot
+        manager.resumeBackup(source);
+        SnapshotCatalog.Record resumed = manager.listSnapshots().get(0);
+        assertEquals(cancelled.getId(), resumed.getId());
+        assertEquals(SnapshotCatalog.Status.COMPLETE, resumed.getStatus());
+        assertFalse(Files.exists(backups.resolve(cancelled.getId() + BackupCheckpoint.EXTENSION)));
+
+        manager.restore(target.toString(), resumed.getId(), Collections.singletonList(""));
+        assertSameFiles(device, target.resolve("restore").resolve(resumed.getId()));
+    }
+
+    @Test
+    public void testSyncFileReplacedByDirectory() throws IOException {
+        BackupManager manager = new BackupManager(username);
+        Device source = new Device(device.toString(), "device");
+        Path syncRoot = root.resolve("home").resolve("Desktop").resolve("syncs").resolve(username).resolve("device");
+        byte[] contents = "same contents".getBytes();
+        Files.write(device.resolve("foo"), contents);
+        manager.synchronise(source);
+
+        // the file becomes a directory holding a file with the same contents, which could be moved from it
+        Files.delete(device.resolve("foo"));
+        Files.write(Files.createDirectories(device.resolve("foo")).resolve("bar.txt"), contents);
+        manager.synchronise(source);
+        assertArrayEquals(contents, Files.readAllBytes(syncRoot.resolve("foo/bar.txt")));
+        // and later syncs carry on working
+        manager.synchronise(source);
+
+        // and back to a file again
+        FileUtils.deleteDirectory(device.resolve("foo").toFile());
+        Files.write(device.resolve("foo"), contents);
+        manager.synchronise(source);
+        assertTrue(Files.isRegularFile(syncRoot.resolve("foo")));
+        assertArrayEquals(contents, Files.readAllBytes(syncRoot.resolve("foo")));
+        assertSameFiles(device, syncRoot);
+    }
+
+    @Test
+    public void testSyncChangedPaths() throws IOException {
+        BackupManager manager = new BackupManager(username);
+        Device source = new Device(device.toString(), "device");
+        Path syncRoot = root.resolve("home").resolve("Desktop").resolve("syncs").resolve(username).resolve("device");
+        manager.synchronise(source);
+
+        // a new file, a new directory with files in it and a deleted directory, as continuous sync reports them
+        Path newFile = device.resolve("dir0/new.txt");
+        Files.write(newFile, "new file".getBytes());
+        Path newDirectory = Files.createDirectories(device.resolve("added/nested"));
+        Files.write(newDirectory.resolve("one.txt"), "one".getBytes());
+        Files.write(newDirectory.getParent().resolve("two.txt"), "two".getBytes());
+        FileUtils.deleteDirectory(device.resolve("dir1").toFile());
+        // changed on the device but not reported, so it isn't synced
+        byte[] synced = Files.readAllBytes(device.resolve("dir2/file0.txt"));
+        Files.write(device.resolve("dir2/file0.txt"), "not reported".getBytes());
+
+        manager.synchronise(source, Arrays.asList(newFile, device.resolve("added"), device.resolve("dir1")));
+        assertArrayEquals("new file".getBytes(), Files.readAllBytes(syncRoot.resolve("dir0/new.txt")));
+        assertArrayEquals("one".getBytes(), Files.readAllBytes(syncRoot.resolve("added/nested/one.txt")));
+        assertArrayEquals("two".getBytes(), Files.readAllBytes(syncRoot.resolve("added/two.txt")));
+        assertTrue(listFiles(syncRoot).stream().noneMatch(file -> file.startsWith("dir1/")));
+        assertArrayEquals(synced, Files.readAllBytes(syncRoot.resolve("dir2/file0.txt")));
+
+        // the manifest was kept up to date, a full sync afterwards only picks up the unreported change
+        manager.synchronise(source);
+        assertSameFiles(device, syncRoot);
+    }
+
+    @Test
+    public void testSyncRemovesMigratedFlatFiles() throws IOException {
+        // synced under the old layout, straight into the user's sync folder
+        Path syncLocation = Files.createDirectories(root.resolve("home").resolve("Desktop").resolve("syncs").resolve(username));
+        Files.copy(device.resolve("large/big.bin"), syncLocation.resolve("big.bin"));
+        Files.write(syncLocation.resolve("other.txt"), "from another device".getBytes());
+
+        new BackupManager(username).synchronise(new Device(device.toString(), "device"));
+        // the copy now in the device's folder replaces the flat one, the other device's file stays
+        assertFalse(Files.exists(syncLocation.resolve("big.bin")));
+        assertTrue(Files.exists(syncLocation.resolve("other.txt")));
+        assertSameFiles(device, syncLocation.resolve("device"));
+    }
+
+    /**
+     * Checks that two directories hold the same files with the same contents
+     * @param expected - directory with the original files
+     * @param actual - directory with the restored files
+     * @throws IOException - If a file cannot be read
+     */
+    private static void assertSameFiles(Path expected, Path actual) throws IOException {
+        List<String> files = listFiles(expected);
+        assertEquals(files, listFiles(actual));
+        for (String file : files) {
+            assertArrayEquals(file, Files.readAllBytes(expected.resolve(file)), Files.readAllBytes(actual.resolve(file)));
+        }
+    }
+
+    /**
+     * Lists every file below a directory
+     * @param directory - directory to list
+     * @return paths relative to the directory, sorted, separated by "/"
+     * @throws IOException - If the directory cannot be read
+     */
+    private static List<String> listFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile)
+                    .map(file -> directory.relativize(file).toString().replace(File.separatorChar, '/'))
+                    .sorted().collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package backend;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BackupSchedulerTest {
+    // UUID used to ensure no user has registered with this username
+    private static final String username = "a64c7652-68f0-11e9-a923-1681be663d3e-scheduler";
+
+    private String home;
+    private Path root;
+    private BackupScheduler scheduler;
+    // devices the backup manager below was asked to back up, in order
+    private final List<String> started = new CopyOnWriteArrayList<String>();
+    private final CountDownLatch running = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    // every test backs up to its own home directory
+    @Before
+    public void prepare() throws IOException {
+        home = System.getProperty("user.home");
+        root = Files.createTempDirectory("backupscheduler");
+        System.setProperty("user.home", root.resolve("home").toString());
+    }
+
+    // ensure that the tests leave the file system in the same state
+    @After
+    public void cleanUp() throws IOException {
+        if (scheduler != null) {
+            scheduler.close();
+        }
+        System.setProperty("user.home", home);
+        FileUtils.deleteDirectory(root.toFile());
+        Logger.flush();
+        new File(Logger.getPath() + username).delete();
+        Journal.forUser(username).close();
+        FileUtils.deleteDirectory(new File(Logger.getPath() + username + Journal.EXTENSION));
+    }
+
+    @Test
+    public void testOneJobPerDevice() throws Exception {
+        scheduler = new BackupScheduler(blockingManager(), 2, 1, 1);
+        Device device = device("one");
+
+        BackupJob job = scheduler.submit(device, false);
+        assertTrue(running.await(10, TimeUnit.SECONDS));
+        // backing the device up again while it is being backed up gives the running job
+        assertSame(job, scheduler.submit(device, true));
+        assertSame(job, scheduler.submit(device, false, true));
+
+        release.countDown();
+        awaitDone(job);
+        assertEquals(BackupJob.Status.SUCCEEDED, job.getStatus());
+        // once it has finished the device can be backed up again
+        BackupJob next = scheduler.submit(device, false);
+        assertNotSame(job, next);
+        awaitDone(next);
+        assertEquals(2, scheduler.listJobs().size());
+        scheduler.clearFinished();
+        assertTrue(scheduler.listJobs().isEmpty());
+    }
+
+    @Test
+    public void testCancelQueuedAndRunning() throws Exception {
+        // one device at a time, the second waits in the queue
+        scheduler = new BackupScheduler(blockingManager(), 1, 1, 1);
+        BackupJob first = scheduler.submit(device("first"), false);
+        assertTrue(running.await(10, TimeUnit.SECONDS));
+        BackupJob second = scheduler.submit(device("second"), false);
+        assertEquals(BackupJob.Status.QUEUED, second.getStatus());
+
+        // a queued job is cancelled straight away and never starts
+        assertTrue(scheduler.cancel(second.getId()));
+        assertEquals(BackupJob.Status.CANCELLED, second.getStatus());
+
+        // a running job is interrupted, the backup stops with an InterruptedIOException
+        assertEquals(BackupJob.Status.RUNNING, first.getStatus());
+        assertTrue(scheduler.cancel(first.getId()));
+        awaitDone(first);
+        assertEquals(BackupJob.Status.CANCELLED, first.getStatus());
+        assertNull(first.getError());
+
+        assertEquals(1, started.size());
+        // finished jobs can't be cancelled again
+        assertFalse(scheduler.cancel(first.getId()));
+        assertFalse(scheduler.cancel(second.getId()));
+        assertFalse(scheduler.cancel(-1));
+    }
+
+    @Test
+    public void testFailuresAndInterruptedChannels() throws Exception {
+        scheduler = new BackupScheduler(new BackupManager(username) {
+            @Override
+            public void createBackup(Device device, boolean incremental, boolean resume, CopyEngine engine,
+                                     ProgressListener listener) throws IOException {
+                if (device.getId().equals("failing")) {
+                    throw new IOException("Backup disk full");
+                }
+                // a copy interrupted part way through a channel write fails with the channel closed
+                running.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new ClosedByInterruptException();
+                }
+            }
+        }, 2, 1, 1);
+
+        BackupJob failing = scheduler.submit(device("failing"), false);
+        awaitDone(failing);
+        assertEquals(BackupJob.Status.FAILED, failing.getStatus());
+        assertEquals("Backup disk full", failing.getError());
+
+        BackupJob interrupted = scheduler.submit(device("interrupted"), false);
+        assertTrue(running.await(10, TimeUnit.SECONDS));
+        assertTrue(scheduler.cancel(interrupted.getId()));
+        awaitDone(interrupted);
+        assertEquals(BackupJob.Status.CANCELLED, interrupted.getStatus());
+    }
+
+    @Test
+    public void testSharedDestinationLimit() throws Exception {
+        // files being written at once, across every device
+        AtomicInteger writing = new AtomicInteger();
+        AtomicInteger mostWriting = new AtomicInteger();
+        List<Integer> threads = new CopyOnWriteArrayList<Integer>();
+        scheduler = new BackupScheduler(new BackupManager(username) {
+            @Override
+            public void createBackup(Device device, boolean incremental, boolean resume, CopyEngine engine,
+                                     ProgressListener listener) throws IOException {
+                threads.add(engine.getThreads());
+                engine.walk(new File(device.getPath()).toPath(), file -> {
+                    mostWriting.accumulateAndGet(writing.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(2);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                    writing.decrementAndGet();
+                });
+            }
+        }, 2, 4, 1);
+        Device slow = device("slow");
+        Device fast = device("fast");
+        scheduler.setDeviceLimit(slow.getPath(), 2);
+
+        BackupJob slowJob = scheduler.submit(slow, false);
+        BackupJob fastJob = scheduler.submit(fast, false);
+        awaitDone(slowJob);
+        awaitDone(fastJob);
+        assertEquals(BackupJob.Status.SUCCEEDED, slowJob.getStatus());
+        assertEquals(BackupJob.Status.SUCCEEDED, fastJob.getStatus());
+        // both devices had their own threads, but only one file was written at a time
+        assertTrue(threads.contains(2));
+        assertTrue(threads.contains(4));
+        assertEquals(1, mostWriting.get());
+    }
+
+    @Test
+    public void testBackupThroughScheduler() throws Exception {
+        BackupManager manager = new BackupManager(username);
+        scheduler = new BackupScheduler(manager);
+        Device device = device("device");
+
+        BackupJob job = scheduler.submit(device, false);
+        awaitDone(job);
+        assertEquals(BackupJob.Status.SUCCEEDED, job.getStatus());
+        assertEquals(50, job.getProgress().getFilesDone());
+        List<SnapshotCatalog.Record> snapshots = manager.listSnapshots();
+        assertEquals(1, snapshots.size());
+        assertEquals(SnapshotCatalog.Status.COMPLETE, snapshots.get(0).getStatus());
+        assertEquals(50, snapshots.get(0).getFiles());
+    }
+
+    /**
+     * Backup manager whose backups wait until the test releases them, or stop when they are interrupted
+     * @return BackupManager that doesn't back anything up
+     */
+    private BackupManager blockingManager() {
+        return new BackupManager(username) {
+            @Override
+            public void createBackup(Device device, boolean incremental, boolean resume, CopyEngine engine,
+                                     ProgressListener listener) throws IOException {
+                started.add(device.getId());
+                running.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    throw new InterruptedIOException("Backup cancelled");
+                }
+            }
+        };
+    }
+
+    /**
+     * Creates a device with a few files on it
+     * @param id - id of the device, also the name of its directory
+     * @return Device
+     * @throws IOException - If a file cannot be written
+     */
+    private Device device(String id) throws IOException {
+        Path directory = Files.createDirectories(root.resolve(id));
+        for (int i = 0; i < 50; i++) {
+            Files.write(directory.resolve("file" + i + ".txt"), ("file " + i).getBytes());
+        }
+        return new Device(directory.toString(), id);
+    }
+
+    /**
+     * Waits for a job to finish
+     * @param job - job to wait for
+     * @throws InterruptedException - If the test is interrupted
+     */
+    private static void awaitDone(BackupJob job) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!job.isDone()) {
+            assertTrue("Job " + job.getId() + " didn't finish", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package backend;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ChunkStoreTest {
+    private static final String testPath = System.getProperty("user.home") + File.separator + "Desktop" + File.separator + "chunkTest" + File.separator;
+    // small chunk sizes so a test file is split into many chunks
+    private final ChunkStore store = new ChunkStore(Paths.get(testPath, "chunks"), 1024, 4096, 16384);
+
+    @BeforeClass
+    public static void prepare() {
+        assertTrue(new File(testPath).mkdirs());
+    }
+
+    @AfterClass
+    public static void cleanup() throws IOException {
+        File dFile = new File(testPath);
+        FileUtils.deleteDirectory(dFile);
+        assertFalse(dFile.exists());
+    }
+
+    @Test
+    public void testStoreAndRestore() throws IOException {
+        byte[] data = randomData(200000, 1);
+        Path file = Paths.get(testPath, "restore.bin");
+        Files.write(file, data);
+
+        List<String> chunks = store.store(file);
+        // the file should be split into more than one chunk
+        assertTrue(chunks.size() > 1);
+
+        // rebuilding the file should give back exactly the same bytes
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        store.restore(chunks, out);
+        assertArrayEquals(data, out.toByteArray());
+    }
+
+    @Test
+    public void testDeduplication() throws IOException {
+        byte[] data = randomData(200000, 2);
+        Path file = Paths.get(testPath, "dedup.bin");
+        Files.write(file, data);
+        List<String> original = store.store(file);
+
+        // insert a few bytes in the middle, only the chunks around the insert should change
+        byte[] edited = new byte[data.length + 3];
+        System.arraycopy(data, 0, edited, 0, 100000);
+        System.arraycopy(data, 100000, edited, 100003, data.length - 100000);
+        Files.write(file, edited);
+        List<String> changed = store.store(file);
+
+        List<String> shared = new ArrayList<String>(changed);
+        shared.retainAll(original);
+        assertTrue(shared.size() >= original.size() - 2);
+    }
+
+    /**
+     * Generates random bytes, seeded so the test always uses the same data
+     * @param length - amount of bytes
+     * @param seed - seed for the random generator
+     * @return random bytes
+     */
+    private byte[] randomData(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,84 @@
+package backend;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CompressionPolicyTest {
+    private static final String testPath = System.getProperty("user.home") + File.separator + "Desktop" + File.separator + "compressionTest" + File.separator;
+    private static byte[] text;
+
+    @BeforeClass
+    public static void prepare() {
+        assertTrue(new File(testPath).mkdirs());
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            sb.append("line number ").append(i).append('\n');
+        }
+        text = sb.toString().getBytes();
+    }
+
+    @AfterClass
+    public static void cleanup() throws IOException {
+        File dFile = new File(testPath);
+        FileUtils.deleteDirectory(dFile);
+        assertFalse(dFile.exists());
+    }
+
+    @Test
+    public void testDeflateRoundTrip() throws IOException {
+        CompressionCodec codec = new DeflateCodec(9);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = codec.compress(compressed)) {
+            out.write(text);
+        }
+        assertTrue(compressed.size() < text.length);
+
+        ByteArrayOutputStream restored = new ByteArrayOutputStream();
+        try (InputStream in = Codecs.get(DeflateCodec.NAME).decompress(new ByteArrayInputStream(compressed.toByteArray()))) {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                restored.write(buffer, 0, read);
+            }
+        }
+        assertArrayEquals(text, restored.toByteArray());
+    }
+
+    @Test
+    public void testChoose() throws IOException {
+        CompressionPolicy policy = new CompressionPolicy();
+        Path textFile = Paths.get(testPath, "notes.txt");
+        Files.write(textFile, text);
+        assertNotNull(policy.choose(textFile, text.length));
+
+        // already compressed formats are stored as they are, whatever they contain
+        Path photo = Paths.get(testPath, "photo.JPG");
+        Files.write(photo, text);
+        assertNull(policy.choose(photo, text.length));
+
+        // random data won't compress
+        byte[] random = new byte[100000];
+        new Random(1).nextBytes(random);
+        Path randomFile = Paths.get(testPath, "random.bin");
+        Files.write(randomFile, random);
+        assertNull(policy.choose(randomFile, random.length));
+
+        policy.setCodec("bin", new DeflateCodec(1));
+        assertNotNull(policy.choose(randomFile, random.length));
+    }
+}
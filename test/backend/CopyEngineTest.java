@@ -0,0 +1,142 @@
+package backend;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CopyEngineTest {
+
+    private Path directory;
+
+    @Before
+    public void prepare() throws IOException {
+        directory = Files.createTempDirectory("copyengine");
+    }
+
+    @After
+    public void cleanUp() throws IOException {
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Test
+    public void testEveryFileVisitedOnce() throws IOException {
+        int files = createFiles(5, 100);
+
+        // a queue of one file, so the walker keeps running tasks itself
+        Map<Path, AtomicInteger> visits = new ConcurrentHashMap<Path, AtomicInteger>();
+        new CopyEngine(4, 1).walk(directory, file -> visits.computeIfAbsent(file, key -> new AtomicInteger()).incrementAndGet());
+
+        assertEquals(files, visits.size());
+        for (Map.Entry<Path, AtomicInteger> visit : visits.entrySet()) {
+            assertTrue(visit.getKey().toString(), Files.isRegularFile(visit.getKey()));
+            assertEquals(visit.getKey().toString(), 1, visit.getValue().get());
+        }
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        createFiles(1, 10);
+        Thread walker = Thread.currentThread();
+        CountDownLatch callerRan = new CountDownLatch(1);
+        AtomicInteger ranByWalker = new AtomicInteger();
+        AtomicInteger done = new AtomicInteger();
+
+        // the only worker is stuck on its first file and the queue holds one more,
+        // so the walker has to run the next file itself before it can list any others
+        new CopyEngine(1, 1).walk(directory, file -> {
+            if (Thread.currentThread() == walker) {
+                ranByWalker.incrementAndGet();
+                callerRan.countDown();
+            } else {
+                try {
+                    assertTrue(callerRan.await(10, TimeUnit.SECONDS));
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            done.incrementAndGet();
+        });
+
+        assertEquals(10, done.get());
+        assertTrue(ranByWalker.get() > 0);
+    }
+
+    @Test
+    public void testInterruptStopsWorkers() throws Exception {
+        createFiles(1, 50);
+        Thread walker = Thread.currentThread();
+        CountDownLatch busy = new CountDownLatch(2);
+        AtomicInteger started = new AtomicInteger();
+        AtomicInteger running = new AtomicInteger();
+
+        // cancels the walk once both workers are copying, the way the scheduler cancels a running backup
+        Thread canceller = new Thread(() -> {
+            try {
+                if (busy.await(10, TimeUnit.SECONDS)) {
+                    walker.interrupt();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        canceller.start();
+
+        long start = System.currentTimeMillis();
+        try {
+            new CopyEngine(2, 1).walk(directory, file -> {
+                started.incrementAndGet();
+                running.incrementAndGet();
+                busy.countDown();
+                try {
+                    // a large file being copied, stops when interrupted
+                    Thread.sleep(10000);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    running.decrementAndGet();
+                }
+            });
+            fail("Walk should have been interrupted");
+        } catch (InterruptedIOException ex) {
+            // interrupted
+        }
+        // the caller still knows it was interrupted, cleared before waiting for the canceller
+        assertTrue(Thread.interrupted());
+        canceller.join();
+
+        // the workers were stopped and waited for, rather than left to finish their files
+        assertTrue(System.currentTimeMillis() - start < 10000);
+        assertEquals(0, running.get());
+        assertTrue(started.get() < 50);
+    }
+
+    /**
+     * Creates files spread over directories
+     * @param directories - amount of directories
+     * @param filesPerDirectory - files in each directory
+     * @return amount of files created
+     * @throws IOException - If a file cannot be written
+     */
+    private int createFiles(int directories, int filesPerDirectory) throws IOException {
+        for (int d = 0; d < directories; d++) {
+            Path subdirectory = Files.createDirectories(directory.resolve("dir" + d));
+            for (int f = 0; f < filesPerDirectory; f++) {
+                Files.write(subdirectory.resolve("file" + f + ".txt"), ("file " + f).getBytes());
+            }
+        }
+        return directories * filesPerDirectory;
+    }
+}
@@ -0,0 +1,78 @@
+package backend;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CredentialPolicyTest {
+
+    private final CredentialPolicy policy = new CredentialPolicy();
+
+    // the default policy has to give the same answers as the original regular expression checks
+    @Test
+    public void testMatchesOriginalRules() {
+        // mix of letters, numbers, symbols, whitespace and non-ASCII characters
+        String characters = "aZ09_ \t@!\u00e9\u20ac\u00df\u65e5\u00a0";
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int length = random.nextInt(12);
+            for (int j = 0; j < length; j++) {
+                sb.append(characters.charAt(random.nextInt(characters.length())));
+            }
+            String value = sb.toString();
+            assertEquals(value, originalValidateUsername(value), policy.validateUsername(value));
+            assertEquals(value, originalValidatePassword(value), policy.validatePassword(value));
+        }
+    }
+
+    @Test
+    public void testConfiguredPolicy() {
+        CredentialPolicy strict = new CredentialPolicy();
+        strict.setMinPasswordLength(12);
+        strict.setMaxUsernameLength(8);
+        strict.denyPassword("P@ssword1234");
+        strict.denyUsername("admin");
+
+        assertFalse(strict.validatePassword("@aa1234567@"));
+        assertTrue(strict.validatePassword("@aa1234567@@"));
+        // deny list ignores case
+        assertFalse(strict.validatePassword("p@ssword1234"));
+        assertFalse(strict.validateUsername("Admin"));
+        assertFalse(strict.validateUsername("username1"));
+        assertTrue(strict.validateUsername("user1"));
+
+        // without the special-character rule a letter and a number are enough
+        strict.setRequiredClasses(true, true, false);
+        assertTrue(strict.validatePassword("aa1234567890"));
+    }
+
+    // original implementation from Authentication, kept here to compare against
+    private boolean originalValidateUsername(String username) {
+        return username.matches("^[a-zA-Z0-9]+$");
+    }
+
+    // original implementation from Authentication, kept here to compare against
+    private boolean originalValidatePassword(String password) {
+        boolean numbCheck = false;
+        boolean letterCheck = false;
+        boolean specialCharacterCheck = false;
+        boolean lengthCheck = password.length() > 7;
+
+        for (char c : password.toCharArray()) {
+            String current = c + "";
+            if (!(current).matches("[\\w\\s]*")) {
+                specialCharacterCheck = true;
+            }
+            if (current.matches("\\d+")) {
+                numbCheck = true;
+            }
+            if (current.matches("^[a-zA-Z]*$")) {
+                letterCheck = true;
+            }
+        }
+        return specialCharacterCheck && numbCheck && letterCheck && lengthCheck;
+    }
+}
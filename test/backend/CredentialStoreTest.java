@@ -0,0 +1,56 @@
+package backend;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class CredentialStoreTest {
+
+    private Path directory;
+
+    @Before
+    public void prepare() throws IOException {
+        directory = Files.createTempDirectory("credentialstore");
+    }
+
+    @After
+    public void cleanUp() throws IOException {
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    // a vault edited by hand may be missing the last line ending, the last user is kept
+    @Test
+    public void testCompleteLastLine() throws IOException {
+        Path vault = directory.resolve("complete.txt");
+        Files.write(vault, "alice@@@first\nbob@@@second".getBytes(StandardCharsets.UTF_8));
+
+        CredentialStore store = CredentialStore.open(vault);
+        assertEquals("first", store.get("alice"));
+        assertEquals("second", store.get("bob"));
+
+        // the next user goes on a line of its own
+        store.put("carol", "third");
+        assertEquals(3, Files.readAllLines(vault).size());
+        assertTrue(Files.readAllLines(vault).contains("bob@@@second"));
+    }
+
+    // a line cut off by a crash can't be read and is removed
+    @Test
+    public void testIncompleteLastLine() throws IOException {
+        Path vault = directory.resolve("incomplete.txt");
+        Files.write(vault, "alice@@@first\nbob@@".getBytes(StandardCharsets.UTF_8));
+
+        CredentialStore store = CredentialStore.open(vault);
+        assertEquals("first", store.get("alice"));
+        assertNull(store.get("bob"));
+        assertArrayEquals("alice@@@first\n".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(vault));
+    }
+}
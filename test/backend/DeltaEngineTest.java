@@ -0,0 +1,142 @@
+package backend;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DeltaEngineTest {
+    private static final String testPath = System.getProperty("user.home") + File.separator + "Desktop" + File.separator + "deltaTest" + File.separator;
+    // small blocks so small test files are made of many blocks
+    private final DeltaEngine engine = new DeltaEngine(1024);
+
+    @BeforeClass
+    public static void prepare() {
+        assertTrue(new File(testPath).mkdirs());
+    }
+
+    @AfterClass
+    public static void cleanup() throws IOException {
+        File dFile = new File(testPath);
+        FileUtils.deleteDirectory(dFile);
+        assertFalse(dFile.exists());
+    }
+
+    @Test
+    public void testInsertedData() throws IOException {
+        byte[] previous = randomData(100000, 1);
+        // data inserted near the start moves every block after it
+        byte[] current = new byte[previous.length + 100];
+        System.arraycopy(previous, 0, current, 0, 5000);
+        System.arraycopy(randomData(100, 2), 0, current, 5000, 100);
+        System.arraycopy(previous, 5000, current, 5100, previous.length - 5000);
+
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        DeltaEngine.Result result = diff(previous, current, delta);
+        assertFalse(result.isInPlace());
+        // only the inserted data and the blocks it broke up are sent
+        assertTrue(result.getLiteralBytes() < 3 * 1024);
+        assertArrayEquals(current, patch(previous, delta.toByteArray()));
+    }
+
+    @Test
+    public void testChangedInPlace() throws IOException {
+        byte[] previous = randomData(100000, 3);
+        byte[] current = previous.clone();
+        current[50000] ^= 1;
+
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        DeltaEngine.Result result = diff(previous, current, delta);
+        assertTrue(result.isInPlace());
+        assertTrue(result.getLiteralBytes() <= 1024 + 100000 % 1024);
+
+        Path file = Paths.get(testPath, "inplace.bin");
+        Files.write(file, previous);
+        DeltaEngine.patchInPlace(file, new ByteArrayInputStream(delta.toByteArray()));
+        assertArrayEquals(current, Files.readAllBytes(file));
+    }
+
+    @Test
+    public void testSignatureOfNewVersion() throws IOException {
+        byte[] previous = randomData(10000, 4);
+        byte[] current = randomData(7000, 5);
+        DeltaEngine.Result result = diff(previous, current, new ByteArrayOutputStream());
+
+        // the signature built by the diff matches one read from the file
+        Path file = Paths.get(testPath, "signature.bin");
+        Path signatureFile = Paths.get(testPath, "signature.sig");
+        Files.write(file, current);
+        result.getSignature().save(signatureFile);
+        DeltaEngine.Signature loaded = DeltaEngine.Signature.load(signatureFile);
+        assertEquals(7000, loaded.getSize());
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        assertEquals(7000 % 1024, engine.diff(loaded, file, delta).getLiteralBytes());
+        assertArrayEquals(current, patch(current, delta.toByteArray()));
+    }
+
+    // a mostly rewritten file is given up on at the limit instead of being written out as a delta
+    @Test
+    public void testLiteralLimit() throws IOException {
+        byte[] previous = randomData(100000, 6);
+        byte[] current = randomData(100000, 7);
+        System.arraycopy(previous, 0, current, 0, 10 * 1024);
+
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        assertNull(diff(previous, current, delta, current.length / 2));
+        // the limit and the few bytes describing the copied blocks
+        assertTrue(delta.size() <= current.length / 2 + 1024);
+
+        // within the limit the delta is made as usual
+        delta = new ByteArrayOutputStream();
+        DeltaEngine.Result result = diff(previous, current, delta, current.length);
+        assertEquals(current.length - 10 * 1024, result.getLiteralBytes());
+        assertArrayEquals(current, patch(previous, delta.toByteArray()));
+    }
+
+    // a block size of 0 would never move through the file
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBlockSize() {
+        new DeltaEngine(0);
+    }
+
+    private DeltaEngine.Result diff(byte[] previous, byte[] current, ByteArrayOutputStream delta) throws IOException {
+        return diff(previous, current, delta, Long.MAX_VALUE);
+    }
+
+    private DeltaEngine.Result diff(byte[] previous, byte[] current, ByteArrayOutputStream delta, long literalLimit) throws IOException {
+        Path previousFile = Paths.get(testPath, "previous.bin");
+        Path currentFile = Paths.get(testPath, "current.bin");
+        Files.write(previousFile, previous);
+        Files.write(currentFile, current);
+        return engine.diff(engine.signature(previousFile), currentFile, delta, literalLimit);
+    }
+
+    private byte[] patch(byte[] previous, byte[] delta) throws IOException {
+        Path previousFile = Paths.get(testPath, "base.bin");
+        Files.write(previousFile, previous);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (FileChannel base = FileChannel.open(previousFile)) {
+            DeltaEngine.patch(base, new ByteArrayInputStream(delta), Channels.newChannel(out));
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] randomData(int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
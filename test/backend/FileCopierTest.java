@@ -0,0 +1,71 @@
+package backend;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FileCopierTest {
+    private static final String testPath = System.getProperty("user.home") + File.separator + "Desktop" + File.separator + "copyTest" + File.separator;
+
+    @BeforeClass
+    public static void prepare() {
+        assertTrue(new File(testPath).mkdirs());
+    }
+
+    @AfterClass
+    public static void cleanup() throws IOException {
+        File dFile = new File(testPath);
+        FileUtils.deleteDirectory(dFile);
+        assertFalse(dFile.exists());
+    }
+
+    @Test
+    public void testCopy() throws IOException {
+        byte[] data = randomData(100000);
+        Path source = Paths.get(testPath, "small.bin");
+        Path destination = Paths.get(testPath, "small-copy.bin");
+        Files.write(source, data);
+        Files.setLastModifiedTime(source, FileTime.fromMillis(1500000000000L));
+
+        new FileCopier().copy(source, destination);
+        assertArrayEquals(data, Files.readAllBytes(destination));
+        // modified time is copied with the contents
+        assertEquals(Files.getLastModifiedTime(source), Files.getLastModifiedTime(destination));
+    }
+
+    @Test
+    public void testParallelRanges() throws IOException {
+        // uneven size so the last range is shorter than the others
+        byte[] data = randomData(1000003);
+        Path source = Paths.get(testPath, "large.bin");
+        Path destination = Paths.get(testPath, "large-copy.bin");
+        Files.write(source, data);
+        // overwriting a larger file has to leave exactly the source's bytes
+        Files.write(destination, randomData(2000000));
+
+        new FileCopier(1000, 65536).copy(source, destination);
+        assertArrayEquals(data, Files.readAllBytes(destination));
+    }
+
+    /**
+     * Generates random bytes, seeded so the test always uses the same data
+     * @param length - amount of bytes
+     * @return random bytes
+     */
+    private byte[] randomData(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,164 @@
+package backend;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class JournalTest {
+
+    @Test
+    public void testFailuresOfLatestRun() throws IOException {
+        Path directory = Files.createTempDirectory("journal");
+        try {
+            Journal journal = Journal.open(directory);
+            int first = journal.startRun(Journal.Operation.BACKUP, "first");
+            journal.record(first, Journal.Operation.BACKUP, "a.txt", 10, 1000, Journal.Status.OK);
+            journal.record(first, Journal.Operation.BACKUP, "b.txt", 20, 1000, Journal.Status.FAILED);
+            int second = journal.startRun(Journal.Operation.BACKUP, "second");
+            // a sync running at the same time doesn't end up in the backup's results
+            int sync = journal.startRun(Journal.Operation.SYNC, "device");
+            journal.record(second, Journal.Operation.BACKUP, "a.txt", 10, 1000, Journal.Status.OK);
+            journal.record(sync, Journal.Operation.SYNC, "c.txt", 5, 1000, Journal.Status.FAILED);
+            journal.record(second, Journal.Operation.BACKUP, "c.txt", 30, 1000, Journal.Status.FAILED);
+
+            assertEquals(2, journal.latestRun(Journal.Operation.BACKUP).size());
+            List<Journal.Entry> failed = journal.failures(Journal.Operation.BACKUP);
+            assertEquals(1, failed.size());
+            assertEquals("c.txt", failed.get(0).getPath());
+            assertEquals(30, failed.get(0).getSize());
+            assertEquals(1, failed.get(0).getDurationMicros());
+            assertTrue(journal.failures(Journal.Operation.RESTORE).isEmpty());
+            journal.close();
+        } finally {
+            FileUtils.deleteDirectory(directory.toFile());
+        }
+    }
+
+    @Test
+    public void testSlowestAndHistory() throws IOException {
+        Path directory = Files.createTempDirectory("journal");
+        try {
+            Journal journal = Journal.open(directory);
+            int run = journal.startRun(Journal.Operation.BACKUP, "snapshot");
+            for (int i = 0; i < 3000; i++) {
+                journal.record(run, Journal.Operation.BACKUP, "file" + (i % 100), i, i * 1000L, Journal.Status.OK);
+            }
+
+            List<Journal.Entry> slowest = journal.slowest(Journal.Operation.BACKUP, 0, 3);
+            assertEquals(3, slowest.size());
+            assertEquals(2999, slowest.get(0).getDurationMicros());
+            assertEquals(2997, slowest.get(2).getDurationMicros());
+            // nothing recorded in the future
+            assertTrue(journal.slowest(null, System.currentTimeMillis() + 60000, 3).isEmpty());
+
+            List<Journal.Entry> history = journal.history("file7");
+            assertEquals(30, history.size());
+            assertEquals(7, history.get(0).getSize());
+            assertTrue(journal.history("missing").isEmpty());
+            journal.close();
+        } finally {
+            FileUtils.deleteDirectory(directory.toFile());
+        }
+    }
+
+    @Test
+    public void testReopenDropsPartialRecord() throws IOException {
+        Path directory = Files.createTempDirectory("journal");
+        try {
+            Journal journal = Journal.open(directory);
+            int run = journal.startRun(Journal.Operation.RESTORE, "snapshot");
+            journal.record(run, Journal.Operation.RESTORE, "a.txt", 10, 1000, Journal.Status.OK);
+            journal.close();
+
+            // half a record, as a crash part way through a write would leave
+            try (FileChannel records = FileChannel.open(directory.resolve("records"), StandardOpenOption.APPEND)) {
+                records.write(java.nio.ByteBuffer.allocate(Journal.RECORD_SIZE / 2));
+            }
+
+            journal = Journal.open(directory);
+            List<Journal.Entry> entries = journal.latestRun(Journal.Operation.RESTORE);
+            assertEquals(1, entries.size());
+            assertEquals("a.txt", entries.get(0).getPath());
+            // run numbers carry on from the journal on disk
+            assertEquals(run + 1, journal.startRun(Journal.Operation.RESTORE, "next"));
+            journal.close();
+        } finally {
+            FileUtils.deleteDirectory(directory.toFile());
+        }
+    }
+
+    @Test
+    public void testRecordsFromManyThreads() throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+        try {
+            Journal journal = Journal.open(directory);
+            int run = journal.startRun(Journal.Operation.BACKUP, "snapshot");
+            // enough records for many batches to be handed to the writer while the threads are recording
+            List<Thread> threads = new ArrayList<Thread>();
+            for (int t = 0; t < 8; t++) {
+                int thread = t;
+                threads.add(new Thread(() -> {
+                    for (int i = 0; i < 5000; i++) {
+                        journal.record(run, Journal.Operation.BACKUP, "thread" + thread + "/file" + i, i, 1000, Journal.Status.OK);
+                    }
+                }));
+            }
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            assertEquals(40000, journal.latestRun(Journal.Operation.BACKUP).size());
+            List<Journal.Entry> history = journal.history("thread3/file4999");
+            assertEquals(1, history.size());
+            assertEquals(4999, history.get(0).getSize());
+            journal.close();
+
+            Journal reopened = Journal.open(directory);
+            assertEquals(40000, reopened.latestRun(Journal.Operation.BACKUP).size());
+            reopened.close();
+        } finally {
+            FileUtils.deleteDirectory(directory.toFile());
+        }
+    }
+
+    @Test
+    public void testReopenDropsRecordsOfLostPaths() throws IOException {
+        Path directory = Files.createTempDirectory("journal");
+        try {
+            Journal journal = Journal.open(directory);
+            int run = journal.startRun(Journal.Operation.BACKUP, "snapshot");
+            journal.record(run, Journal.Operation.BACKUP, "a.txt", 10, 1000, Journal.Status.OK);
+            journal.record(run, Journal.Operation.BACKUP, "lost.txt", 20, 1000, Journal.Status.OK);
+            journal.close();
+
+            // the records reached the disk but the last path didn't, as a crash could leave it
+            long lost = 4 + "lost.txt".length();
+            try (FileChannel paths = FileChannel.open(directory.resolve("paths"), StandardOpenOption.WRITE)) {
+                paths.truncate(paths.size() - lost);
+            }
+
+            journal = Journal.open(directory);
+            List<Journal.Entry> entries = journal.latestRun(Journal.Operation.BACKUP);
+            assertEquals(1, entries.size());
+            assertEquals("a.txt", entries.get(0).getPath());
+            // a new path doesn't take over the dropped record
+            journal.record(run + 1, Journal.Operation.BACKUP, "new.txt", 30, 1000, Journal.Status.OK);
+            assertEquals(1, journal.history("new.txt").size());
+            journal.close();
+        } finally {
+            FileUtils.deleteDirectory(directory.toFile());
+        }
+    }
+}
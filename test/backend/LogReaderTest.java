@@ -0,0 +1,160 @@
+package backend;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class LogReaderTest {
+    // UUID used to ensure no user has registered with this username
+    private static final String username = "a64c7652-68f0-11e9-a923-1681be663d3e-reader";
+    private static final int LINES = 5000;
+    private final LogReader reader = new LogReader(username);
+
+    // write enough lines that the reader has to read the log in more than one block
+    @BeforeClass
+    public static void prepare() {
+        for (int i = 1; i <= LINES; i++) {
+            Logger.addToLog(username, "line " + i);
+        }
+        Logger.flush();
+    }
+
+    // ensure that the tests leave the file system in the same state
+    @AfterClass
+    public static void cleanUp() {
+        File f = new File(Logger.getPath() + username);
+        assertTrue(f.delete());
+    }
+
+    @Test
+    public void testTail() throws IOException {
+        LogReader.Page page = reader.tail(10);
+        assertEquals(10, page.getLines().size());
+        assertEquals("line " + (LINES - 9), page.getLines().get(0));
+        assertEquals("line " + LINES, page.getLines().get(9));
+    }
+
+    @Test
+    public void testPageBackwards() throws IOException {
+        LogReader.Page last = reader.tail(100);
+        LogReader.Page older = reader.readBefore(last.getStartOffset(), 100);
+        // the older page should end just before the last page starts
+        assertEquals("line " + (LINES - 199), older.getLines().get(0));
+        assertEquals("line " + (LINES - 100), older.getLines().get(99));
+
+        // reading past the start of the log returns what is left
+        LogReader.Page first = reader.readBefore(reader.readFrom(0, 3).getEndOffset(), 10);
+        assertEquals(3, first.getLines().size());
+        assertEquals(0, first.getStartOffset());
+    }
+
+    @Test
+    public void testPageForwards() throws IOException {
+        LogReader.Page first = reader.readFrom(0, 1000);
+        assertEquals(1000, first.getLines().size());
+        assertEquals("line 1", first.getLines().get(0));
+
+        LogReader.Page second = reader.readFrom(first.getEndOffset(), 1000);
+        assertEquals("line 1001", second.getLines().get(0));
+    }
+
+    @Test
+    public void testMatching() throws IOException {
+        try (Stream<String> lines = reader.matching("line 49")) {
+            List<String> matches = lines.collect(Collectors.toList());
+            // line 49 and line 490 - 499 and line 4900 - 4999
+            assertEquals(111, matches.size());
+        }
+    }
+
+    @Test
+    public void testRotatedSegments() throws IOException {
+        String rotated = username + "-rotated";
+        Path logFile = Paths.get(Logger.getPath() + rotated);
+        // small enough that every batch of lines starts a new segment
+        Logger.setRotation(4096, 0);
+        Logger.setRetention(3, 0);
+        try {
+            for (int i = 1; i <= 2000; i++) {
+                Logger.addToLog(rotated, "line " + i);
+                if (i % 500 == 0) {
+                    Logger.flush();
+                }
+            }
+            Logger.rotate(rotated);
+            Logger.awaitArchive();
+
+            List<LogArchive.Segment> segments = LogArchive.list(logFile);
+            // older segments were deleted by the retention policy, the rest are compressed
+            assertEquals(3, segments.size());
+            for (LogArchive.Segment segment : segments) {
+                assertTrue(segment.isCompressed());
+            }
+
+            // the log ends with the last segment, paging back crosses into older segments
+            LogArchive.Segment last = segments.get(segments.size() - 1);
+            LogReader rotatedReader = new LogReader(rotated);
+            LogReader.Page page = rotatedReader.tail(10);
+            assertEquals("line 2000", page.getLines().get(9));
+            assertEquals(last.getEnd(), page.getEndOffset());
+            LogReader.Page older = rotatedReader.readBefore(page.getStartOffset(), 400);
+            assertEquals("line 1990", older.getLines().get(399));
+            assertEquals(400, older.getLines().size());
+
+            // everything kept reads back in order, and paging forwards ends where the log ends
+            List<String> kept = Logger.readLog(rotated);
+            assertEquals("line 2000", kept.get(kept.size() - 1));
+            LogReader.Page start = rotatedReader.readBefore(older.getStartOffset(), kept.size());
+            assertEquals(0, start.getStartOffset());
+            LogReader.Page forwards = rotatedReader.readFrom(0, kept.size() + 10);
+            assertEquals(kept, forwards.getLines());
+            assertEquals(last.getEnd(), forwards.getEndOffset());
+            try (Stream<String> lines = rotatedReader.matching("line 1999")) {
+                assertEquals(1, lines.count());
+            }
+        } finally {
+            Logger.setRotation(Logger.DEFAULT_MAX_LOG_SIZE, Logger.DEFAULT_MAX_LOG_AGE);
+            Logger.setRetention(Logger.DEFAULT_MAX_SEGMENTS, Logger.DEFAULT_RETENTION);
+            Files.deleteIfExists(logFile);
+            for (LogArchive.Segment segment : LogArchive.list(logFile)) {
+                Files.delete(segment.getFile());
+            }
+        }
+    }
+
+    @Test
+    public void testCompressedSegmentLength() throws IOException {
+        Path directory = Files.createTempDirectory("logarchive");
+        try {
+            Path logFile = directory.resolve("user");
+            Files.write(logFile, "line 1\nline 2\n".getBytes());
+            LogArchive.rotate(logFile);
+            LogArchive.compress(logFile);
+
+            // the uncompressed length is kept in the name rather than read from the gzip trailer
+            List<LogArchive.Segment> segments = LogArchive.list(logFile);
+            assertEquals(1, segments.size());
+            assertEquals("user.0.14.log.gz", segments.get(0).getFile().getFileName().toString());
+            assertEquals(14, segments.get(0).getLength());
+
+            // a segment larger than 4GB, whose trailer only holds its length modulo 2^32
+            long large = (1L << 32) + 14;
+            Files.move(segments.get(0).getFile(), directory.resolve("user.0." + large + ".log.gz"));
+            assertEquals(large, LogArchive.currentStart(logFile));
+        } finally {
+            FileUtils.deleteDirectory(directory.toFile());
+        }
+    }
+}
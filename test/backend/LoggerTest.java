@@ -4,6 +4,9 @@ import org.junit.AfterClass;
 import org.junit.Test;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.List;
 
 // static imports are used to import a static function as if it was declared in the class
@@ -60,4 +63,49 @@ public class LoggerTest {
         // ensure the log contains the word written earlier
         assertTrue(fullLog.contains("Test"));
     }
+
+    // lines are written in batches, flush waits until every line logged so far is written
+    @Test
+    public void testBatchAndFlush() throws IOException {
+        String batchUsername = username + "-batch";
+        File f = new File(logPath + batchUsername);
+        try {
+            // the writer is idle after a flush, a long interval then keeps the next lines queued until flushed
+            Logger.flush();
+            Logger.setFlushInterval(60000);
+            for (int i = 0; i < 10; i++) {
+                Logger.addToLog(batchUsername, "Line " + i + " \u00e9");
+            }
+            assertEquals(0, f.length());
+
+            Logger.flush();
+            List<String> lines = Files.readAllLines(f.toPath(), StandardCharsets.UTF_8);
+            assertEquals(10, lines.size());
+            for (int i = 0; i < 10; i++) {
+                assertEquals("Line " + i + " \u00e9", lines.get(i));
+            }
+        } finally {
+            Logger.setFlushInterval(200);
+            Logger.flush();
+            f.delete();
+        }
+    }
+
+    // a cancelled backup still logs that it was cancelled, and stays interrupted
+    @Test
+    public void testInterruptedCaller() throws IOException {
+        String interruptedUsername = username + "-interrupted";
+        File f = new File(logPath + interruptedUsername);
+        try {
+            Thread.currentThread().interrupt();
+            Logger.addToLog(interruptedUsername, "Cancelled");
+            assertTrue(Thread.interrupted());
+
+            Logger.flush();
+            assertEquals(1, Files.readAllLines(f.toPath(), StandardCharsets.UTF_8).size());
+        } finally {
+            Thread.interrupted();
+            f.delete();
+        }
+    }
 }
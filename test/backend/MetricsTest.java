@@ -0,0 +1,74 @@
+package backend;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+
+    @Test
+    public void testCounterAndGauge() {
+        Metrics.Counter counter = Metrics.counter("test.counter");
+        counter.increment();
+        counter.add(4);
+        // the same name returns the same counter
+        assertEquals(5, Metrics.counter("test.counter").get());
+
+        Metrics.Gauge gauge = Metrics.gauge("test.gauge");
+        gauge.set(7);
+        gauge.set(2);
+        assertEquals(2, gauge.get());
+        assertEquals(7, gauge.getMax());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTypeClash() {
+        Metrics.counter("test.clash");
+        Metrics.histogram("test.clash");
+    }
+
+    @Test
+    public void testHistogram() {
+        Metrics.Histogram histogram = Metrics.histogram("test.histogram");
+        // 99 quick operations of 1ms and one slow one of a second
+        for (int i = 0; i < 99; i++) {
+            histogram.record(1000000);
+        }
+        histogram.record(1000000000L);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(1000, histogram.getMaxMillis(), 0.001);
+        assertEquals((99 + 1000) / 100.0, histogram.getMeanMillis(), 0.001);
+        // percentiles are the upper bound of their bucket, within a factor of two
+        assertTrue(histogram.getPercentileMillis(0.5) >= 1 && histogram.getPercentileMillis(0.5) <= 2.1);
+        assertTrue(histogram.getPercentileMillis(0.99) <= 2.1);
+        assertEquals(1000, histogram.getPercentileMillis(1), 0.001);
+    }
+
+    @Test
+    public void testExport() throws IOException {
+        Metrics.counter("test.exported").add(3);
+        Path directory = Files.createTempDirectory("metrics");
+        try {
+            Path text = directory.resolve("metrics.txt");
+            Metrics.export(text);
+            List<String> lines = Files.readAllLines(text);
+            assertTrue(lines.contains("test.exported = 3"));
+
+            Path json = directory.resolve("metrics.json");
+            Metrics.export(json);
+            String contents = new String(Files.readAllBytes(json));
+            assertTrue(contents.contains("\"test.exported\": 3"));
+            assertTrue(contents.trim().startsWith("{") && contents.trim().endsWith("}"));
+        } finally {
+            Files.deleteIfExists(directory.resolve("metrics.txt"));
+            Files.deleteIfExists(directory.resolve("metrics.json"));
+            Files.delete(directory);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package backend;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PackFileTest {
+    private static final String testPath = System.getProperty("user.home") + File.separator + "Desktop" + File.separator + "packTest" + File.separator;
+
+    @BeforeClass
+    public static void prepare() {
+        assertTrue(new File(testPath).mkdirs());
+    }
+
+    @AfterClass
+    public static void cleanup() throws IOException {
+        File dFile = new File(testPath);
+        FileUtils.deleteDirectory(dFile);
+        assertFalse(dFile.exists());
+    }
+
+    @Test
+    public void testAppendAndRead() throws IOException {
+        Path directory = Paths.get(testPath);
+        List<String> locations = new ArrayList<String>();
+        // small segments so the files are spread over several of them
+        try (PackWriter writer = new PackWriter(directory, "snapshot", 100)) {
+            for (int i = 0; i < 10; i++) {
+                locations.add(writer.append("file" + i, ("contents of file " + i).getBytes()));
+            }
+        }
+        assertNotEquals(PackReader.segmentOf(locations.get(0)), PackReader.segmentOf(locations.get(9)));
+
+        for (int i = 0; i < 10; i++) {
+            try (PackReader reader = new PackReader(directory.resolve(PackReader.segmentOf(locations.get(i))))) {
+                ByteBuffer data = reader.read(locations.get(i));
+                byte[] contents = new byte[data.remaining()];
+                data.get(contents);
+                assertEquals("contents of file " + i, new String(contents));
+            }
+        }
+
+        // the index at the end of a segment lists its files
+        try (PackReader reader = new PackReader(directory.resolve(PackReader.segmentOf(locations.get(0))))) {
+            List<PackWriter.IndexEntry> index = reader.list();
+            assertEquals("file0", index.get(0).getPath());
+            assertEquals(0, index.get(0).getOffset());
+        }
+    }
+
+    @Test
+    public void testCheckpointAndResume() throws IOException {
+        Path directory = Paths.get(testPath);
+        String first;
+        try (PackWriter writer = new PackWriter(directory, "resumed")) {
+            first = writer.append("first", "first file".getBytes());
+            // a checkpoint finishes the segment, it can be read while the writer carries on
+            writer.checkpoint();
+            try (PackReader reader = new PackReader(directory.resolve(PackReader.segmentOf(first)))) {
+                assertEquals(1, reader.list().size());
+            }
+            assertNotEquals(PackReader.segmentOf(first), PackReader.segmentOf(writer.append("second", "second file".getBytes())));
+        }
+
+        // resuming the snapshot carries on after its existing segments rather than replacing them
+        try (PackWriter writer = new PackWriter(directory, "resumed")) {
+            assertEquals("resumed-3" + PackWriter.EXTENSION, PackReader.segmentOf(writer.append("third", "third file".getBytes())));
+        }
+        try (PackReader reader = new PackReader(directory.resolve(PackReader.segmentOf(first)))) {
+            ByteBuffer data = reader.read(first);
+            byte[] contents = new byte[data.remaining()];
+            data.get(contents);
+            assertEquals("first file", new String(contents));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package backend;
+
+import org.junit.Test;
+
+import java.util.Base64;
+
+import static org.junit.Assert.*;
+
+public class PasswordHasherTest {
+
+    private static final String password = "@aa1234567@@";
+
+    @Test
+    public void testHashAndVerify() {
+        String stored = PasswordHasher.hash(password);
+        assertTrue(PasswordHasher.verify(password, stored));
+        assertFalse(PasswordHasher.verify(password + "_wrong_password", stored));
+        // every hash gets its own salt, so the same password never gives the same hash
+        assertNotEquals(stored, PasswordHasher.hash(password));
+        assertFalse(PasswordHasher.needsRehash(stored));
+    }
+
+    // passwords stored by older versions are Base64 encoded and have to be migrated
+    @Test
+    public void testLegacyPassword() {
+        String legacy = Base64.getEncoder().encodeToString(password.getBytes());
+        assertTrue(PasswordHasher.verify(password, legacy));
+        assertFalse(PasswordHasher.verify(password + "_wrong_password", legacy));
+        assertTrue(PasswordHasher.needsRehash(legacy));
+    }
+
+    // raising the cost marks existing hashes for re-hashing
+    @Test
+    public void testCostIncrease() {
+        int original = PasswordHasher.getIterations();
+        try {
+            PasswordHasher.setIterations(PasswordHasher.MIN_ITERATIONS);
+            String cheap = PasswordHasher.hash(password);
+            // a slightly higher cost, as calibration gives on another run, doesn't rehash
+            PasswordHasher.setIterations(PasswordHasher.MIN_ITERATIONS + PasswordHasher.MIN_ITERATIONS / 10);
+            assertFalse(PasswordHasher.needsRehash(cheap));
+            PasswordHasher.setIterations(PasswordHasher.MIN_ITERATIONS * 2);
+            assertTrue(PasswordHasher.needsRehash(cheap));
+            // the stored cost is used to verify, not the current one
+            assertTrue(PasswordHasher.verify(password, cheap));
+        } finally {
+            PasswordHasher.setIterations(original);
+        }
+    }
+
+    // a damaged or hand edited vault fails the login instead of throwing
+    @Test
+    public void testMalformedHash() {
+        assertFalse(PasswordHasher.verify(password, "pbkdf2$many$c2FsdA==$aGFzaA=="));
+        assertFalse(PasswordHasher.verify(password, "pbkdf2$50000$not base64!$aGFzaA=="));
+        assertFalse(PasswordHasher.verify(password, "pbkdf2$0$c2FsdA==$aGFzaA=="));
+        assertFalse(PasswordHasher.verify(password, "pbkdf2$50000$c2FsdA=="));
+        assertTrue(PasswordHasher.needsRehash("pbkdf2$many$c2FsdA==$aGFzaA=="));
+    }
+}
@@ -0,0 +1,43 @@
+package backend;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ProgressTrackerTest {
+
+    @Test
+    public void testThrottled() {
+        List<Progress> updates = new ArrayList<Progress>();
+        // a long interval, so only the totals and the last update get through
+        ProgressTracker tracker = new ProgressTracker("Backup", updates::add, 60000);
+        tracker.setTotals(1000, 1000 * 100);
+        for (int i = 0; i < 1000; i++) {
+            tracker.fileDone(100);
+        }
+        tracker.finish();
+        // updates after the last one are ignored
+        tracker.fileDone(100);
+        tracker.finish();
+
+        assertTrue(updates.size() <= 3);
+        Progress last = updates.get(updates.size() - 1);
+        assertTrue(last.isFinished());
+        assertEquals(1000, last.getFilesDone());
+        assertEquals(100000, last.getBytesDone());
+        assertEquals(1, last.getFraction(), 0);
+        assertEquals(0, last.getEtaMillis());
+    }
+
+    @Test
+    public void testEta() {
+        Progress progress = new Progress("Restore", 5, 10, 500, 1000, 100, 5000, false);
+        assertEquals(0.5, progress.getFraction(), 0.0001);
+        assertEquals(5000, progress.getEtaMillis());
+        // no throughput yet, so no estimate
+        assertEquals(-1, new Progress("Restore", 0, 10, 0, 1000, 0, 0, false).getEtaMillis());
+    }
+}
@@ -0,0 +1,92 @@
+package backend;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SnapshotCatalogTest {
+    private static final String testPath = System.getProperty("user.home") + File.separator + "Desktop" + File.separator + "catalogTest" + File.separator;
+
+    @BeforeClass
+    public static void prepare() {
+        assertTrue(new File(testPath).mkdirs());
+    }
+
+    @AfterClass
+    public static void cleanup() throws IOException {
+        File dFile = new File(testPath);
+        FileUtils.deleteDirectory(dFile);
+        assertFalse(dFile.exists());
+    }
+
+    @Test
+    public void testLatestAndSameSecond() throws IOException {
+        SnapshotCatalog catalog = SnapshotCatalog.open(Paths.get(testPath, "latest.txt"));
+        SnapshotCatalog.Record first = catalog.begin("deviceA");
+        SnapshotCatalog.Record second = catalog.begin("deviceA");
+        // two snapshots in the same second still get their own IDs
+        assertNotEquals(first.getId(), second.getId());
+
+        // only complete snapshots are the latest
+        assertNull(catalog.latest("deviceA"));
+        catalog.complete(first.getId(), 2, 10);
+        assertEquals(first.getId(), catalog.latest("deviceA").getId());
+        catalog.complete(second.getId(), 3, 20);
+        assertEquals(second.getId(), catalog.latest("deviceA").getId());
+        assertEquals(second.getId(), catalog.latest(null).getId());
+        assertNull(catalog.latest("deviceB"));
+
+        catalog.fail(second.getId());
+        assertEquals(first.getId(), catalog.latest("deviceA").getId());
+    }
+
+    // the tenth snapshot of a second is later than the second one, even though "-10" sorts before "-2" as text
+    @Test
+    public void testManyInSameSecond() throws IOException {
+        SnapshotCatalog catalog = SnapshotCatalog.open(Paths.get(testPath, "same.txt"));
+        String second = "2019-05-01_10-00-00";
+        catalog.add(new SnapshotCatalog.Record(second, "deviceA", 1000, 1, 1, SnapshotCatalog.Status.COMPLETE));
+        for (int i = 2; i <= 11; i++) {
+            catalog.add(new SnapshotCatalog.Record(second + "-" + i, "deviceA", 1000, 1, 1, SnapshotCatalog.Status.COMPLETE));
+        }
+
+        assertEquals(second + "-11", catalog.latest("deviceA").getId());
+        List<SnapshotCatalog.Record> all = catalog.list();
+        assertEquals(11, all.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(second + "-" + (11 - i), all.get(i).getId());
+        }
+        assertEquals(second, all.get(10).getId());
+    }
+
+    @Test
+    public void testFindAndReload() throws IOException {
+        Path file = Paths.get(testPath, "find.txt");
+        SnapshotCatalog catalog = SnapshotCatalog.open(file);
+        catalog.add(new SnapshotCatalog.Record("a", "deviceA", 1000, 1, 1, SnapshotCatalog.Status.COMPLETE));
+        catalog.add(new SnapshotCatalog.Record("b", "deviceB", 2000, 1, 1, SnapshotCatalog.Status.COMPLETE));
+        catalog.add(new SnapshotCatalog.Record("c", "deviceA", 3000, 1, 1, SnapshotCatalog.Status.COMPLETE));
+
+        List<SnapshotCatalog.Record> found = catalog.find(null, 1000, 2000);
+        assertEquals(2, found.size());
+        assertEquals("a", found.get(0).getId());
+        assertEquals(1, catalog.find("deviceA", 2000, 3000).size());
+
+        // a copy of the file is a different catalog, so it is read from disk
+        Path copy = Paths.get(testPath, "copy.txt");
+        Files.copy(file, copy);
+        SnapshotCatalog reloaded = SnapshotCatalog.open(copy);
+        assertEquals("c", reloaded.latest("deviceA").getId());
+        assertEquals(3, reloaded.list().size());
+    }
+}
@@ -0,0 +1,52 @@
+package backend;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SnapshotManifestTest {
+
+    private SnapshotManifest manifest() {
+        SnapshotManifest manifest = new SnapshotManifest();
+        String[] paths = {"a.txt", "docs/b.txt", "docs/sub/c.jpg", "docs-old/d.txt", "docs0/e.txt", "photos/f.jpg"};
+        for (String path : paths) {
+            manifest.add(new SnapshotManifest.Entry(path, 1, 0, "", SnapshotManifest.STORAGE_FILE, "2018-01-01/" + path));
+        }
+        return manifest;
+    }
+
+    private List<String> paths(List<SnapshotManifest.Entry> entries) {
+        List<String> paths = new ArrayList<String>();
+        for (SnapshotManifest.Entry entry : entries) {
+            paths.add(entry.getPath());
+        }
+        return paths;
+    }
+
+    @Test
+    public void testSelectFile() {
+        assertEquals(1, manifest().select("docs/b.txt").size());
+        assertTrue(manifest().select("missing.txt").isEmpty());
+    }
+
+    @Test
+    public void testSelectDirectory() {
+        List<String> selected = paths(manifest().select("docs"));
+        // directories with similar names aren't part of the subtree
+        assertEquals(2, selected.size());
+        assertTrue(selected.contains("docs/b.txt"));
+        assertTrue(selected.contains("docs/sub/c.jpg"));
+        assertEquals(selected, paths(manifest().select("docs/")));
+    }
+
+    @Test
+    public void testSelectGlob() {
+        List<String> selected = paths(manifest().select("**.jpg"));
+        assertEquals(2, selected.size());
+        assertTrue(selected.contains("photos/f.jpg"));
+        assertEquals(6, manifest().select("").size());
+    }
+}
@@ -0,0 +1,42 @@
+package backend;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SyncManifestTest {
+
+    @Test
+    public void testFindByHash() {
+        SyncManifest manifest = new SyncManifest();
+        manifest.put(new SyncManifest.Entry("x/a.txt", 5, 0, "hash1"));
+        manifest.put(new SyncManifest.Entry("y/a.txt", 5, 0, "hash2"));
+        manifest.put(new SyncManifest.Entry("copy.txt", 5, 0, "hash1"));
+
+        assertEquals(2, manifest.findByHash("hash1").size());
+        assertTrue(manifest.findByHash("missing").isEmpty());
+
+        // replaced and removed files are no longer found by their old hash
+        manifest.put(new SyncManifest.Entry("copy.txt", 6, 1, "hash3"));
+        manifest.remove("y/a.txt");
+        List<SyncManifest.Entry> found = manifest.findByHash("hash1");
+        assertEquals(1, found.size());
+        assertEquals("x/a.txt", found.get(0).getPath());
+        assertTrue(manifest.findByHash("hash2").isEmpty());
+        assertEquals("copy.txt", manifest.findByHash("hash3").get(0).getPath());
+    }
+
+    @Test
+    public void testGetUnder() {
+        SyncManifest manifest = new SyncManifest();
+        manifest.put(new SyncManifest.Entry("docs/a.txt", 1, 0, "a"));
+        manifest.put(new SyncManifest.Entry("docs/sub/b.txt", 1, 0, "b"));
+        manifest.put(new SyncManifest.Entry("docs-old/c.txt", 1, 0, "c"));
+
+        // folders with similar names aren't part of the folder
+        assertEquals(2, manifest.getUnder("docs").size());
+        assertTrue(manifest.getUnder("missing").isEmpty());
+    }
+}
@@ -0,0 +1,195 @@
+package backend;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SyncWatcherTest {
+    // UUID used to ensure no user has registered with this username
+    private static final String username = "a64c7652-68f0-11e9-a923-1681be663d3e-watcher";
+    // short, so the tests don't wait long for a quiet device
+    private static final long DEBOUNCE_MILLIS = 200;
+
+    private String home;
+    private Path root;
+    private Path device;
+    private SyncWatcher watcher;
+
+    // every test syncs to its own home directory
+    @Before
+    public void prepare() throws IOException {
+        home = System.getProperty("user.home");
+        root = Files.createTempDirectory("syncwatcher");
+        System.setProperty("user.home", root.resolve("home").toString());
+        device = Files.createDirectories(root.resolve("device"));
+        Files.write(device.resolve("existing.txt"), "existing".getBytes());
+    }
+
+    // ensure that the tests leave the file system in the same state
+    @After
+    public void cleanUp() throws IOException {
+        if (watcher != null) {
+            watcher.close();
+        }
+        System.setProperty("user.home", home);
+        FileUtils.deleteDirectory(root.toFile());
+        Logger.flush();
+        new File(Logger.getPath() + username).delete();
+        Journal.forUser(username).close();
+        FileUtils.deleteDirectory(new File(Logger.getPath() + username + Journal.EXTENSION));
+    }
+
+    @Test
+    public void testSyncsNewFilesAndDirectories() throws Exception {
+        watcher = new SyncWatcher(new BackupManager(username), new Device(device.toString(), "device"), DEBOUNCE_MILLIS);
+        watcher.start();
+        assertTrue(watcher.isRunning());
+        Path syncRoot = root.resolve("home").resolve("Desktop").resolve("syncs").resolve(username).resolve("device");
+        // the watcher starts with a full sync
+        awaitFile(syncRoot.resolve("existing.txt"), "existing");
+
+        Files.write(device.resolve("new.txt"), "new file".getBytes());
+        Path nested = Files.createDirectories(device.resolve("added/nested"));
+        Files.write(nested.resolve("inside.txt"), "inside".getBytes());
+        awaitFile(syncRoot.resolve("new.txt"), "new file");
+        awaitFile(syncRoot.resolve("added/nested/inside.txt"), "inside");
+
+        // the new directories are watched as well, a file added to them later is synced on its own
+        Files.write(nested.resolve("later.txt"), "later".getBytes());
+        awaitFile(syncRoot.resolve("added/nested/later.txt"), "later");
+
+        watcher.close();
+        assertFalse(watcher.isRunning());
+    }
+
+    @Test
+    public void testDebounce() throws Exception {
+        RecordingManager manager = new RecordingManager(null);
+        watcher = new SyncWatcher(manager, new Device(device.toString(), "device"), DEBOUNCE_MILLIS);
+        watcher.start();
+        assertTrue(manager.fullSyncStarted.await(10, TimeUnit.SECONDS));
+
+        // a burst of changes is synced at once after the device goes quiet
+        Set<Path> burst = new HashSet<Path>();
+        for (int i = 0; i < 20; i++) {
+            Path file = device.resolve("burst" + i + ".txt");
+            Files.write(file, ("file " + i).getBytes());
+            burst.add(file);
+        }
+        Collection<Path> synced = manager.changed.poll(10, TimeUnit.SECONDS);
+        assertNotNull(synced);
+        assertTrue(synced.containsAll(burst));
+
+        // a device that never goes quiet is still synced once the debounce windows run out
+        Thread writer = new Thread(() -> {
+            long end = System.currentTimeMillis() + DEBOUNCE_MILLIS * 20;
+            try {
+                for (int i = 0; System.currentTimeMillis() < end; i++) {
+                    Files.write(device.resolve("busy.txt"), ("change " + i).getBytes());
+                    Thread.sleep(DEBOUNCE_MILLIS / 4);
+                }
+            } catch (IOException | InterruptedException ex) {
+                ex.printStackTrace();
+            }
+        });
+        writer.start();
+        try {
+            assertNotNull(manager.changed.poll(DEBOUNCE_MILLIS * 15, TimeUnit.MILLISECONDS));
+            assertTrue("Synced only after the device went quiet", writer.isAlive());
+        } finally {
+            writer.join();
+        }
+        assertEquals(1, manager.fullSyncs.get());
+    }
+
+    @Test
+    public void testOverflowRescansDevice() throws Exception {
+        // the first full sync waits, so the watcher can't take events off the watch service meanwhile
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingManager manager = new RecordingManager(release);
+        watcher = new SyncWatcher(manager, new Device(device.toString(), "device"), DEBOUNCE_MILLIS);
+        watcher.start();
+        assertTrue(manager.fullSyncStarted.await(10, TimeUnit.SECONDS));
+
+        // more events than a watch key holds, the watch service reports that events were lost
+        for (int i = 0; i < 1000; i++) {
+            Files.write(device.resolve("lost" + i + ".txt"), ("file " + i).getBytes());
+        }
+        release.countDown();
+
+        // the changed paths aren't known, so the whole device is synced again
+        long deadline = System.currentTimeMillis() + 10000;
+        while (manager.fullSyncs.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, manager.fullSyncs.get());
+    }
+
+    /**
+     * Waits for a synced file to have the expected contents
+     * @param file - synced file
+     * @param contents - expected contents
+     * @throws Exception - If the file cannot be read or the test is interrupted
+     */
+    private static void awaitFile(Path file, String contents) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!Files.exists(file) || !contents.equals(new String(Files.readAllBytes(file)))) {
+            assertTrue(file + " wasn't synced", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Backup manager that records the syncs asked for instead of syncing
+     */
+    private static class RecordingManager extends BackupManager {
+
+        private final CountDownLatch release;
+        private final CountDownLatch fullSyncStarted = new CountDownLatch(1);
+        private final AtomicInteger fullSyncs = new AtomicInteger();
+        private final BlockingQueue<Collection<Path>> changed = new LinkedBlockingQueue<Collection<Path>>();
+
+        /**
+         * Custom constructor
+         * @param release - the first full sync waits for it, null to not wait
+         */
+        RecordingManager(CountDownLatch release) {
+            super(username);
+            this.release = release;
+        }
+
+        @Override
+        public void synchronise(Device device) throws IOException {
+            fullSyncs.incrementAndGet();
+            fullSyncStarted.countDown();
+            if (release != null) {
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void synchronise(Device device, Collection<Path> paths) throws IOException {
+            changed.add(new HashSet<Path>(paths));
+        }
+    }
+}